@@ -55,6 +55,7 @@ public class Configuration {
     private static final String PREFS_KEY_PREVIOUS_VERSION = "previous_version";
     public static final String PREFS_KEY_AUTO_LOGOUT_ENABLED = "auto_logout_enabled";
     public static final String PREFS_KEY_AUTO_LOGOUT_MINUTES = "auto_logout_minutes";
+    public static final String PREFS_KEY_DERIVED_KEY_CACHE_SECONDS = "derived_key_cache_seconds";
     private static final String PREFS_KEY_SPENDING_CONFIRMATION_ENABLED = "spending_confirmation_enabled";
     private static final String PREFS_KEY_BIOMETRIC_LIMIT = "biometric_limit";
 
@@ -176,6 +177,15 @@ public class Configuration {
         prefs.edit().putInt(PREFS_KEY_AUTO_LOGOUT_MINUTES, minutes).apply();
     }
 
+    /** How long a key derived from the spending PIN is kept for reuse; 0 derives it every time */
+    public int getDerivedKeyCacheSeconds() {
+        return prefs.getInt(PREFS_KEY_DERIVED_KEY_CACHE_SECONDS, 120);
+    }
+
+    public void setDerivedKeyCacheSeconds(final int seconds) {
+        prefs.edit().putInt(PREFS_KEY_DERIVED_KEY_CACHE_SECONDS, seconds).apply();
+    }
+
     public boolean getSpendingConfirmationEnabled() {
         return prefs.getBoolean(PREFS_KEY_SPENDING_CONFIRMATION_ENABLED, true);
     }
@@ -30,6 +30,7 @@ enum class BlockStoreLastFix {
     NONE,
     COPY_FILES,
     COPY_FROM_STORE,
+    REPAIR_FROM_RING,
     RESTORE_FROM_WALLET
 }
 
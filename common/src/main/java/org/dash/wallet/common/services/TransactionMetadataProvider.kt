@@ -54,6 +54,12 @@ interface TransactionMetadataProvider {
     fun syncTransactionBlocking(tx: Transaction)
 
     suspend fun getTransactionMetadata(txId: Sha256Hash): TransactionMetadata?
+
+    /**
+     * Batch form of [getTransactionMetadata] for callers that walk many transactions,
+     * such as the CSV export. Transactions without metadata are absent from the result.
+     */
+    suspend fun getTransactionMetadata(txIds: List<Sha256Hash>): Map<Sha256Hash, TransactionMetadata>
     fun observeTransactionMetadata(txId: Sha256Hash): Flow<TransactionMetadata?>
 
     /**
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.dash.wallet.common.transactions
+
+import org.bitcoinj.core.Transaction
+
+/**
+ * A [TransactionWrapperFactory] whose membership test does not depend on the transactions
+ * seen before, so it can be split in two steps: a read-only [classify] that may run
+ * concurrently for many transactions, and an [include] that applies the result in order.
+ *
+ * For any transaction, `tryInclude(tx)` must be equivalent to
+ * `classify(tx)?.let { true to include(tx, it) } ?: (false to null)`.
+ */
+interface ClassifyingWrapperFactory : TransactionWrapperFactory {
+    /**
+     * Returns the group key that [tx] belongs to, or null if this factory doesn't wrap it.
+     * Must be thread-safe and must not modify the factory.
+     */
+    fun classify(tx: Transaction): Any?
+
+    /** Adds [tx] to the wrapper for [key], a value previously returned by [classify]. */
+    fun include(tx: Transaction, key: Any): TransactionWrapper
+}
@@ -30,6 +30,9 @@ open class CoinsFromAddressTxFilter(
     var toAddress: Address? = null
         private set
 
+    override val involvedAddresses: Collection<Address>
+        get() = listOf(fromAddress)
+
     override fun matches(tx: Transaction): Boolean {
         val actualValue = if (includeFee && tx.fee != null) coins - tx.fee else coins
         val networkParameters = fromAddress.parameters
@@ -30,6 +30,9 @@ open class CoinsToAddressTxFilter(
     var fromAddresses = listOf<Address>()
         private set
 
+    override val involvedAddresses: Collection<Address>
+        get() = listOf(toAddress)
+
     override fun matches(tx: Transaction): Boolean {
         val actualValue = if (includeFee && tx.fee != null) coins - tx.fee else coins
         val networkParameters = toAddress.parameters
@@ -17,8 +17,16 @@
 
 package org.dash.wallet.common.transactions.filters
 
+import org.bitcoinj.core.Address
 import org.bitcoinj.core.Transaction
 
 interface TransactionFilter {
     fun matches(tx: Transaction): Boolean
+
+    /**
+     * Addresses of which every matching transaction pays to or spends from at least one, or null if a match
+     * is not tied to an address. Transaction lookups can use them to skip transactions that cannot match.
+     */
+    val involvedAddresses: Collection<Address>?
+        get() = null
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.dash.wallet.common.util
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free, fixed-bucket latency histogram. Recording is a single atomic increment, so it
+ * can be used on hot paths; percentiles are approximate (the upper bound of the bucket).
+ *
+ * @param bounds ascending upper bounds of the buckets; values above the last bound fall
+ *               into an overflow bucket reported as [Long.MAX_VALUE].
+ */
+class LatencyHistogram(private val bounds: LongArray = DEFAULT_BOUNDS_MS) {
+    companion object {
+        val DEFAULT_BOUNDS_MS = longArrayOf(1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000)
+        val DEFAULT_BOUNDS_NS = longArrayOf(
+            1_000, 5_000, 10_000, 50_000, 100_000, 500_000,
+            1_000_000, 5_000_000, 10_000_000, 50_000_000, 100_000_000
+        )
+    }
+
+    private val counts = AtomicLongArray(bounds.size + 1)
+
+    fun record(value: Long) {
+        var index = bounds.binarySearch(value)
+        if (index < 0) {
+            index = -index - 1
+        }
+        counts.incrementAndGet(index)
+    }
+
+    val count: Long
+        get() = (0 until counts.length()).sumOf { counts[it] }
+
+    /** Returns the upper bound of the bucket containing the [percentile] (0..100) value, or 0 if empty. */
+    fun percentile(percentile: Double): Long {
+        val total = count
+        if (total == 0L) {
+            return 0
+        }
+
+        val threshold = Math.ceil(total * percentile / 100.0).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (i in 0 until counts.length()) {
+            seen += counts[i]
+            if (seen >= threshold) {
+                return if (i < bounds.size) bounds[i] else Long.MAX_VALUE
+            }
+        }
+        return Long.MAX_VALUE
+    }
+
+    fun reset() {
+        for (i in 0 until counts.length()) {
+            counts.set(i, 0)
+        }
+    }
+
+    override fun toString(): String {
+        fun format(value: Long) = if (value == Long.MAX_VALUE) ">${bounds.last()}" else "≤$value"
+        return "n=$count p50=${format(percentile(50.0))} p90=${format(percentile(90.0))} " +
+            "p99=${format(percentile(99.0))}"
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.dash.wallet.common.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LatencyHistogramTest {
+    @Test
+    fun percentilesReportBucketUpperBounds() {
+        val histogram = LatencyHistogram(longArrayOf(10, 100, 1000))
+        repeat(90) { histogram.record(5) }
+        repeat(9) { histogram.record(100) }
+        histogram.record(5000)
+
+        assertEquals(100, histogram.count)
+        assertEquals(10, histogram.percentile(50.0))
+        assertEquals(10, histogram.percentile(90.0))
+        assertEquals(100, histogram.percentile(99.0))
+        assertEquals(Long.MAX_VALUE, histogram.percentile(100.0))
+    }
+
+    @Test
+    fun emptyAndResetHistogramReportZero() {
+        val histogram = LatencyHistogram()
+        assertEquals(0, histogram.percentile(50.0))
+
+        histogram.record(3)
+        histogram.reset()
+        assertEquals(0, histogram.count)
+        assertEquals(0, histogram.percentile(99.0))
+    }
+}
@@ -26,6 +26,9 @@ import org.dash.wallet.integrations.crowdnode.model.ApiCode
 import org.dash.wallet.integrations.crowdnode.utils.CrowdNodeConstants
 
 class CrowdNodeDepositTx(private val accountAddress: Address) : TransactionFilter {
+    override val involvedAddresses: Collection<Address>
+        get() = listOf(accountAddress)
+
     override fun matches(tx: Transaction): Boolean {
         val networkParams = accountAddress.parameters
         val crowdNodeAddress = CrowdNodeConstants.getCrowdNodeAddress(networkParams)
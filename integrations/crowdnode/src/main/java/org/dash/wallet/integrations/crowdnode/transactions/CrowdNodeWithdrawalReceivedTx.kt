@@ -17,6 +17,7 @@
 
 package org.dash.wallet.integrations.crowdnode.transactions
 
+import org.bitcoinj.core.Address
 import org.bitcoinj.core.Coin
 import org.bitcoinj.core.NetworkParameters
 import org.bitcoinj.core.Transaction
@@ -30,6 +31,9 @@ class CrowdNodeWithdrawalReceivedTx(
 ) : TransactionFilter {
     private val joinedFilters = mutableListOf<TransactionFilter>()
 
+    override val involvedAddresses: Collection<Address>
+        get() = listOf(CrowdNodeConstants.getCrowdNodeAddress(networkParams))
+
     override fun matches(tx: Transaction): Boolean {
         if (joinedFilters.any { !it.matches(tx) }) {
             return false
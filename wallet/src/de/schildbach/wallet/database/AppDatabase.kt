@@ -29,8 +29,10 @@ import de.schildbach.wallet.database.entity.Invitation
 import de.schildbach.wallet.database.entity.TopUp
 import de.schildbach.wallet.database.entity.TransactionMetadataCacheItem
 import de.schildbach.wallet.database.entity.TransactionMetadataDocument
-import de.schildbach.wallet.database.entity.TxDisplayCacheEntry
+import de.schildbach.wallet.database.entity.TxDisplayCacheRecord
+import de.schildbach.wallet.database.entity.TxDisplayString
 import de.schildbach.wallet.database.entity.TxGroupCacheEntry
+import de.schildbach.wallet.database.entity.TxGroupCacheStamp
 import de.schildbach.wallet.database.entity.UsernameRequest
 import de.schildbach.wallet.database.entity.UsernameVote
 import de.schildbach.wallet.ui.dashpay.UserAlert
@@ -63,11 +65,13 @@ import org.dash.wallet.integrations.maya.data.SwapOrderDao
         UsernameVote::class,
         ImportedMasternodeKey::class,
         TopUp::class,
-        TxDisplayCacheEntry::class,
+        TxDisplayCacheRecord::class,
+        TxDisplayString::class,
         TxGroupCacheEntry::class,
+        TxGroupCacheStamp::class,
         SwapOrder::class
     ],
-    version = 21, // if increasing version, we need migrations to preserve tx/addr metadata,
+    version = 25, // if increasing version, we need migrations to preserve tx/addr metadata,
     exportSchema = true
 )
 @TypeConverters(RoomConverters::class, BlockchainStateRoomConverters::class)
@@ -267,6 +267,161 @@ class AppDatabaseMigrations {
             }
         }
 
+        val migration21to22 = object : Migration(21, 22) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                // tx_display_cache gains `contentHash` — a hash of the rendered row used by the
+                // incremental rebuild to skip rows whose content has not changed. Existing rows
+                // default to 0, which never matches, so they are rewritten once on the next rebuild.
+                database.execSQL(
+                    "ALTER TABLE `tx_display_cache` ADD COLUMN `contentHash` INTEGER NOT NULL DEFAULT 0"
+                )
+            }
+        }
+
+        val migration22to23 = object : Migration(22, 23) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                // Single-row stamp that turns tx_group_cache into an authoritative index of
+                // transaction grouping. No stamp is created here: the first rebuild after the
+                // upgrade classifies everything once and stamps the index.
+                database.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS `tx_group_cache_stamp` (
+                        `id` INTEGER NOT NULL,
+                        `lastBlockHeight` INTEGER NOT NULL,
+                        `txCount` INTEGER NOT NULL,
+                        `updatedAt` INTEGER NOT NULL,
+                        PRIMARY KEY(`id`)
+                    )
+                    """
+                )
+            }
+        }
+
+        val migration23to24 = object : Migration(23, 24) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                // tx_display_cache is paged with keyset queries on (time, rowId). The bitmask in
+                // `filterFlags` can't be served by an index, so each filter bit is materialized
+                // into its own column with a (flag, time, rowId) index.
+                database.execSQL("ALTER TABLE `tx_display_cache` ADD COLUMN `isSent` INTEGER NOT NULL DEFAULT 0")
+                database.execSQL("ALTER TABLE `tx_display_cache` ADD COLUMN `isReceived` INTEGER NOT NULL DEFAULT 0")
+                database.execSQL("ALTER TABLE `tx_display_cache` ADD COLUMN `isGiftCard` INTEGER NOT NULL DEFAULT 0")
+                database.execSQL(
+                    """
+                    UPDATE `tx_display_cache` SET
+                        `isSent` = (`filterFlags` & 1) != 0,
+                        `isReceived` = (`filterFlags` & 2) != 0,
+                        `isGiftCard` = (`filterFlags` & 4) != 0
+                    """
+                )
+                database.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_tx_display_cache_time_rowId` " +
+                        "ON `tx_display_cache` (`time`, `rowId`)"
+                )
+                database.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_tx_display_cache_isSent_time_rowId` " +
+                        "ON `tx_display_cache` (`isSent`, `time`, `rowId`)"
+                )
+                database.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_tx_display_cache_isReceived_time_rowId` " +
+                        "ON `tx_display_cache` (`isReceived`, `time`, `rowId`)"
+                )
+                database.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_tx_display_cache_isGiftCard_time_rowId` " +
+                        "ON `tx_display_cache` (`isGiftCard`, `time`, `rowId`)"
+                )
+            }
+        }
+
+        val migration24to25 = object : Migration(24, 25) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                // tx_display_cache is dictionary-encoded: title and status text move into
+                // `tx_display_string` and are referenced by id.
+                database.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS `tx_display_string` (
+                        `id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,
+                        `value` TEXT NOT NULL
+                    )
+                    """
+                )
+                database.execSQL(
+                    "CREATE UNIQUE INDEX IF NOT EXISTS `index_tx_display_string_value` " +
+                        "ON `tx_display_string` (`value`)"
+                )
+                database.execSQL(
+                    """
+                    INSERT OR IGNORE INTO `tx_display_string` (`value`)
+                    SELECT `title` FROM `tx_display_cache`
+                    UNION SELECT `statusText` FROM `tx_display_cache`
+                    """
+                )
+                database.execSQL(
+                    """
+                    CREATE TABLE IF NOT EXISTS `tx_display_cache_new` (
+                        `rowId` TEXT NOT NULL,
+                        `titleId` INTEGER NOT NULL,
+                        `valueSatoshis` INTEGER NOT NULL,
+                        `iconType` INTEGER NOT NULL,
+                        `iconBgType` INTEGER NOT NULL,
+                        `statusTextId` INTEGER NOT NULL,
+                        `comment` TEXT NOT NULL,
+                        `transactionAmount` INTEGER NOT NULL,
+                        `time` INTEGER NOT NULL,
+                        `hasErrors` INTEGER NOT NULL,
+                        `service` TEXT,
+                        `swapStatus` TEXT,
+                        `exchangeRateFiatCode` TEXT,
+                        `exchangeRateFiatValue` INTEGER,
+                        `contactUsername` TEXT,
+                        `contactDisplayName` TEXT,
+                        `contactAvatarUrl` TEXT,
+                        `contactUserId` TEXT,
+                        `filterFlags` INTEGER NOT NULL,
+                        `customIconId` TEXT,
+                        `contentHash` INTEGER NOT NULL,
+                        `isSent` INTEGER NOT NULL,
+                        `isReceived` INTEGER NOT NULL,
+                        `isGiftCard` INTEGER NOT NULL,
+                        PRIMARY KEY(`rowId`)
+                    )
+                    """
+                )
+                database.execSQL(
+                    """
+                    INSERT INTO `tx_display_cache_new`
+                    SELECT c.`rowId`,
+                        (SELECT `id` FROM `tx_display_string` WHERE `value` = c.`title`),
+                        c.`valueSatoshis`, c.`iconType`, c.`iconBgType`,
+                        (SELECT `id` FROM `tx_display_string` WHERE `value` = c.`statusText`),
+                        c.`comment`, c.`transactionAmount`, c.`time`, c.`hasErrors`, c.`service`,
+                        c.`swapStatus`, c.`exchangeRateFiatCode`, c.`exchangeRateFiatValue`,
+                        c.`contactUsername`, c.`contactDisplayName`, c.`contactAvatarUrl`,
+                        c.`contactUserId`, c.`filterFlags`, c.`customIconId`, c.`contentHash`,
+                        c.`isSent`, c.`isReceived`, c.`isGiftCard`
+                    FROM `tx_display_cache` c
+                    """
+                )
+                database.execSQL("DROP TABLE `tx_display_cache`")
+                database.execSQL("ALTER TABLE `tx_display_cache_new` RENAME TO `tx_display_cache`")
+                database.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_tx_display_cache_time_rowId` " +
+                        "ON `tx_display_cache` (`time`, `rowId`)"
+                )
+                database.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_tx_display_cache_isSent_time_rowId` " +
+                        "ON `tx_display_cache` (`isSent`, `time`, `rowId`)"
+                )
+                database.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_tx_display_cache_isReceived_time_rowId` " +
+                        "ON `tx_display_cache` (`isReceived`, `time`, `rowId`)"
+                )
+                database.execSQL(
+                    "CREATE INDEX IF NOT EXISTS `index_tx_display_cache_isGiftCard_time_rowId` " +
+                        "ON `tx_display_cache` (`isGiftCard`, `time`, `rowId`)"
+                )
+            }
+        }
+
         val migration15to16 = object : Migration(15, 16) {
             override fun migrate(database: SupportSQLiteDatabase) {
                 // previous versions have no data in invitations table, so do this
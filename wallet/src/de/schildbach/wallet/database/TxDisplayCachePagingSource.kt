@@ -0,0 +1,166 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.database
+
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import androidx.room.InvalidationTracker
+import androidx.sqlite.db.SimpleSQLiteQuery
+import de.schildbach.wallet.database.dao.TxDisplayCacheDao
+import de.schildbach.wallet.database.entity.TxDisplayCacheEntry
+import java.util.concurrent.atomic.AtomicBoolean
+
+/** Position of a row in the history order: newest first by time, ties broken by rowId. */
+data class TxDisplayCachePageKey(
+    val time: Long,
+    val rowId: String
+)
+
+/**
+ * Keyset (seek) [PagingSource] over `tx_display_cache`.
+ *
+ * Room's generated PagingSource uses LIMIT/OFFSET, so SQLite steps over every preceding row
+ * and each page gets slower the further the user scrolls.  Here every page continues from the
+ * (time, rowId) of the last row loaded, which is a range scan of the (time, rowId) index, or
+ * of the (flag, time, rowId) index of the selected filter, and costs the same at any depth.
+ *
+ * Pages are not addressable by position, so placeholders are not supported.  After an
+ * invalidation the list is reloaded from the row near the anchor position and then
+ * extended in both directions.
+ *
+ * @param filterFlag 0 for all rows, or one of [TxDisplayCacheEntry.FLAG_SENT],
+ * [TxDisplayCacheEntry.FLAG_RECEIVED], [TxDisplayCacheEntry.FLAG_GIFT_CARD].
+ */
+class TxDisplayCachePagingSource(
+    private val dao: TxDisplayCacheDao,
+    private val invalidationTracker: InvalidationTracker,
+    private val filterFlag: Int
+) : PagingSource<TxDisplayCachePageKey, TxDisplayCacheEntry>() {
+    companion object {
+        /** Tables read by [TxDisplayCacheDao.SELECT_ENTRIES]; a change to any of them invalidates the source. */
+        private val OBSERVED_TABLES = arrayOf("tx_display_cache", "tx_display_string")
+
+        private fun filterColumn(filterFlag: Int): String? = when (filterFlag) {
+            0 -> null
+            TxDisplayCacheEntry.FLAG_SENT -> "isSent"
+            TxDisplayCacheEntry.FLAG_RECEIVED -> "isReceived"
+            TxDisplayCacheEntry.FLAG_GIFT_CARD -> "isGiftCard"
+            else -> throw IllegalArgumentException("unsupported filter flag: $filterFlag")
+        }
+
+        /**
+         * Builds the page query.  `time <= ? AND (time < ? OR rowId < ?)` is the portable
+         * spelling of `(time, rowId) < (?, ?)`: row values need SQLite 3.15, newer than the
+         * one shipped with API 24, and the leading `time` bound keeps it an index range scan.
+         */
+        fun buildQuery(
+            filterFlag: Int,
+            key: TxDisplayCachePageKey?,
+            older: Boolean,
+            inclusive: Boolean,
+            limit: Int
+        ): SimpleSQLiteQuery {
+            val conditions = arrayListOf<String>()
+            val args = arrayListOf<Any>()
+            filterColumn(filterFlag)?.let { conditions.add("c.`$it` = 1") }
+            if (key != null) {
+                val bound = if (older) "<" else ">"
+                val tieBreak = if (inclusive) "$bound=" else bound
+                conditions.add("c.`time` $bound= ? AND (c.`time` $bound ? OR c.`rowId` $tieBreak ?)")
+                args.add(key.time)
+                args.add(key.time)
+                args.add(key.rowId)
+            }
+            val where = if (conditions.isEmpty()) "" else " WHERE " + conditions.joinToString(" AND ")
+            val order = if (older) "DESC" else "ASC"
+            args.add(limit)
+            return SimpleSQLiteQuery(
+                "${TxDisplayCacheDao.SELECT_ENTRIES}$where ORDER BY c.`time` $order, c.`rowId` $order LIMIT ?",
+                args.toTypedArray()
+            )
+        }
+    }
+
+    private val observer = object : InvalidationTracker.Observer(OBSERVED_TABLES) {
+        override fun onInvalidated(tables: Set<String>) {
+            invalidate()
+        }
+    }
+    private val observerRegistered = AtomicBoolean(false)
+
+    init {
+        registerInvalidatedCallback {
+            if (observerRegistered.get()) {
+                invalidationTracker.removeObserver(observer)
+            }
+        }
+    }
+
+    override suspend fun load(
+        params: LoadParams<TxDisplayCachePageKey>
+    ): LoadResult<TxDisplayCachePageKey, TxDisplayCacheEntry> {
+        // Registered on first load rather than in the constructor: addObserver touches the
+        // database and the factory may be called on the main thread.
+        if (observerRegistered.compareAndSet(false, true)) {
+            invalidationTracker.addObserver(observer)
+        }
+        if (invalid) {
+            return LoadResult.Invalid()
+        }
+
+        val key = params.key
+        val limit = params.loadSize
+        return when (params) {
+            is LoadParams.Refresh -> {
+                // The refresh key row itself is included so the anchored row stays on screen.
+                val rows = dao.getPage(buildQuery(filterFlag, key, older = true, inclusive = true, limit))
+                LoadResult.Page(
+                    data = rows,
+                    prevKey = if (key == null) null else rows.firstOrNull()?.pageKey() ?: key,
+                    nextKey = if (rows.size < limit) null else rows.last().pageKey()
+                )
+            }
+            is LoadParams.Append -> {
+                val rows = dao.getPage(buildQuery(filterFlag, key, older = true, inclusive = false, limit))
+                LoadResult.Page(
+                    data = rows,
+                    prevKey = null,
+                    nextKey = if (rows.size < limit) null else rows.last().pageKey()
+                )
+            }
+            is LoadParams.Prepend -> {
+                val rows = dao.getPage(buildQuery(filterFlag, key, older = false, inclusive = false, limit))
+                    .asReversed()
+                LoadResult.Page(
+                    data = rows,
+                    prevKey = if (rows.size < limit) null else rows.first().pageKey(),
+                    nextKey = null
+                )
+            }
+        }
+    }
+
+    override fun getRefreshKey(state: PagingState<TxDisplayCachePageKey, TxDisplayCacheEntry>): TxDisplayCachePageKey? {
+        val anchor = state.anchorPosition ?: return null
+        // Start half a page above the anchor; the prepend that follows fills the rest.
+        val position = (anchor - state.config.initialLoadSize / 2).coerceAtLeast(0)
+        return state.closestItemToPosition(position)?.pageKey()
+    }
+
+    private fun TxDisplayCacheEntry.pageKey() = TxDisplayCachePageKey(time, rowId)
+}
@@ -37,6 +37,10 @@ interface AddressMetadataDao {
     @Query("SELECT * FROM address_metadata WHERE address = :address AND isInput = 1")
     suspend fun loadSender(address: String): AddressMetadata?
 
+    /** Loads the sender and recipient rows of all [addresses] at once. */
+    @Query("SELECT * FROM address_metadata WHERE address IN (:addresses)")
+    suspend fun load(addresses: List<String>): List<AddressMetadata>
+
     // INSERT OR IGNORE makes this atomic and idempotent: concurrent callers racing on the same
     // (address, isInput) primary key no longer crash with a UNIQUE constraint failure; the duplicate
     // insert is silently dropped. Returns the new rowId, or -1 if the row already existed.
@@ -38,6 +38,9 @@ interface TransactionMetadataDao {
     @Query("SELECT * FROM transaction_metadata")
     suspend fun load(): List<TransactionMetadata>
 
+    @Query("SELECT * FROM transaction_metadata WHERE txId IN (:txIds)")
+    suspend fun load(txIds: List<Sha256Hash>): List<TransactionMetadata>
+
     @Query("SELECT COUNT(1) FROM transaction_metadata WHERE txid = :txId;")
     suspend fun exists(txId: Sha256Hash): Boolean
 
@@ -17,41 +17,140 @@
 
 package de.schildbach.wallet.database.dao
 
-import androidx.paging.PagingSource
 import androidx.room.Dao
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
+import androidx.room.RawQuery
 import androidx.room.Transaction
+import androidx.room.Update
+import androidx.sqlite.db.SupportSQLiteQuery
+import de.schildbach.wallet.database.TxDisplayCachePagingSource
 import de.schildbach.wallet.database.entity.TxDisplayCacheEntry
+import de.schildbach.wallet.database.entity.TxDisplayCacheRecord
+import de.schildbach.wallet.database.entity.TxDisplayString
 
+/**
+ * Reads and writes `tx_display_cache` in terms of the decoded [TxDisplayCacheEntry].
+ * Rows are stored as [TxDisplayCacheRecord]: writes intern the title and status text into
+ * `tx_display_string`, reads join them back in.
+ */
 @Dao
 interface TxDisplayCacheDao {
     /**
-     * Room-native PagingSource filtered by [filterFlag].
-     * Pass [filterFlag] = 0 for ALL (no WHERE filtering).
-     * Pass [TxDisplayCacheEntry.FLAG_SENT], [FLAG_RECEIVED], or [FLAG_GIFT_CARD] for filtered views.
+     * Runs one page query built by [TxDisplayCachePagingSource]. The query is a keyset
+     * (seek) query on (time, rowId), optionally restricted to one materialized filter column.
      */
-    @Query("SELECT * FROM tx_display_cache WHERE (:filterFlag = 0 OR (filterFlags & :filterFlag) != 0) ORDER BY time DESC")
-    fun pagingSource(filterFlag: Int): PagingSource<Int, TxDisplayCacheEntry>
+    @RawQuery
+    suspend fun getPage(query: SupportSQLiteQuery): List<TxDisplayCacheEntry>
 
     @Query("SELECT COUNT(*) FROM tx_display_cache")
     suspend fun getCount(): Int
 
+    /** Returns true if the table has at least one row — cheaper than [getCount] on large tables. */
+    @Query("SELECT EXISTS(SELECT 1 FROM tx_display_cache)")
+    suspend fun hasRows(): Boolean
+
     /** Fetch all entries ordered newest-first — used for in-memory snapshot on startup. */
-    @Query("SELECT * FROM tx_display_cache ORDER BY time DESC")
+    @Query("$SELECT_ENTRIES ORDER BY c.time DESC")
     suspend fun getAll(): List<TxDisplayCacheEntry>
 
-    /** Insert or replace entries (used for full rebuild and targeted metadata updates). */
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    suspend fun insertAll(entries: List<TxDisplayCacheEntry>)
-
     /** Fetch specific entries by rowId — used to merge before a targeted upsert. */
-    @Query("SELECT * FROM tx_display_cache WHERE rowId IN (:rowIds)")
+    @Query("$SELECT_ENTRIES WHERE c.rowId IN (:rowIds)")
     suspend fun getEntriesByIds(rowIds: List<String>): List<TxDisplayCacheEntry>
 
+    /** Lightweight (rowId, contentHash) projection — used to diff a full rebuild against stored rows. */
+    @Query("SELECT rowId, contentHash FROM tx_display_cache")
+    suspend fun getContentHashes(): List<TxDisplayCacheHash>
+
+    @Query("SELECT * FROM tx_display_string WHERE value IN (:values)")
+    suspend fun getStrings(values: List<String>): List<TxDisplayString>
+
+    /** Returns the SQLite rowid per string, which is its [TxDisplayString.id]. */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertStrings(strings: List<TxDisplayString>): List<Long>
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertRecords(records: List<TxDisplayCacheRecord>)
+
+    /** Inserts rows that don't exist yet; returns the SQLite rowid per record, or -1 if it already existed. */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertNewRecords(records: List<TxDisplayCacheRecord>): List<Long>
+
+    @Update
+    suspend fun updateRecords(records: List<TxDisplayCacheRecord>): Int
+
+    @Query("DELETE FROM tx_display_cache WHERE rowId IN (:rowIds)")
+    suspend fun deleteByIds(rowIds: List<String>)
+
     @Query("DELETE FROM tx_display_cache")
-    suspend fun deleteAll()
+    suspend fun deleteRecords()
+
+    @Query("DELETE FROM tx_display_string")
+    suspend fun deleteStrings()
+
+    /** Clears the cache together with its string dictionary. */
+    @Transaction
+    suspend fun deleteAll() {
+        deleteRecords()
+        deleteStrings()
+    }
+
+    /**
+     * Maps every title and status text in [entries] to its [TxDisplayString] id, adding the
+     * strings that are not in the dictionary yet.
+     */
+    @Transaction
+    suspend fun encode(entries: List<TxDisplayCacheEntry>): List<TxDisplayCacheRecord> {
+        val values = HashSet<String>()
+        entries.forEach {
+            values.add(it.title)
+            values.add(it.statusText)
+        }
+        val ids = HashMap<String, Long>(values.size * 2)
+        values.toList().chunked(MAX_BIND_VARIABLES).forEach { chunk ->
+            getStrings(chunk).forEach { ids[it.value] = it.id }
+        }
+        val missing = values.filter { it !in ids }
+        if (missing.isNotEmpty()) {
+            val newIds = insertStrings(missing.map { TxDisplayString(value = it) })
+            missing.forEachIndexed { index, value -> ids[value] = newIds[index] }
+        }
+        return entries.map { TxDisplayCacheRecord.fromEntry(it, ids.getValue(it.title), ids.getValue(it.statusText)) }
+    }
+
+    /** Insert or replace entries. */
+    @Transaction
+    suspend fun insertAll(entries: List<TxDisplayCacheEntry>) {
+        if (entries.isNotEmpty()) insertRecords(encode(entries))
+    }
+
+    /**
+     * Insert-or-update that reports how many rows were inserted versus updated, so callers
+     * don't need to COUNT(*) the table before and after a write.
+     */
+    @Transaction
+    suspend fun upsert(entries: List<TxDisplayCacheEntry>): TxDisplayCacheUpsertResult {
+        if (entries.isEmpty()) return TxDisplayCacheUpsertResult(0, 0)
+        val records = encode(entries)
+        val rowIds = insertNewRecords(records)
+        val existing = records.filterIndexed { index, _ -> rowIds[index] == -1L }
+        val updated = if (existing.isNotEmpty()) updateRecords(existing) else 0
+        return TxDisplayCacheUpsertResult(records.size - existing.size, updated)
+    }
+
+    /**
+     * Atomically apply a diff computed by an incremental rebuild: upsert the changed rows
+     * and delete the stale ones in a single transaction, so the PagingSource is invalidated
+     * once.  Deletes are chunked to stay below SQLite's bound-variable limit.
+     * Dictionary strings that are no longer used stay until the next [replaceAll]; there are
+     * only a few dozen distinct titles and status texts.
+     */
+    @Transaction
+    suspend fun applyDiff(upserts: List<TxDisplayCacheEntry>, deletes: List<String>): TxDisplayCacheUpsertResult {
+        deletes.chunked(MAX_BIND_VARIABLES).forEach { deleteByIds(it) }
+        return upsert(upserts)
+    }
 
     /**
      * Atomically replace the entire cache: delete all existing rows and insert the new ones
@@ -61,6 +160,38 @@ interface TxDisplayCacheDao {
     @Transaction
     suspend fun replaceAll(entries: List<TxDisplayCacheEntry>) {
         deleteAll()
-        if (entries.isNotEmpty()) insertAll(entries)
+        insertAll(entries)
     }
-}
\ No newline at end of file
+
+    companion object {
+        /** SQLite's default SQLITE_MAX_VARIABLE_NUMBER on older Android releases is 999. */
+        const val MAX_BIND_VARIABLES = 900
+
+        /**
+         * Projection that decodes a [TxDisplayCacheRecord] (alias `c`) into a [TxDisplayCacheEntry].
+         * Shared with [TxDisplayCachePagingSource], which appends its own WHERE / ORDER BY.
+         */
+        const val SELECT_ENTRIES = """
+            SELECT c.rowId, t.value AS title, c.valueSatoshis, c.iconType, c.iconBgType,
+                s.value AS statusText, c.comment, c.transactionAmount, c.time, c.hasErrors,
+                c.service, c.swapStatus, c.exchangeRateFiatCode, c.exchangeRateFiatValue,
+                c.contactUsername, c.contactDisplayName, c.contactAvatarUrl, c.contactUserId,
+                c.filterFlags, c.customIconId, c.contentHash
+            FROM tx_display_cache c
+            JOIN tx_display_string t ON t.id = c.titleId
+            JOIN tx_display_string s ON s.id = c.statusTextId
+        """
+    }
+}
+
+/** Projection of [TxDisplayCacheRecord] returned by [TxDisplayCacheDao.getContentHashes]. */
+data class TxDisplayCacheHash(
+    val rowId: String,
+    val contentHash: Long
+)
+
+/** Result of [TxDisplayCacheDao.upsert]. */
+data class TxDisplayCacheUpsertResult(
+    val inserted: Int,
+    val updated: Int
+)
@@ -23,6 +23,7 @@ import androidx.room.OnConflictStrategy
 import androidx.room.Query
 import androidx.room.Transaction
 import de.schildbach.wallet.database.entity.TxGroupCacheEntry
+import de.schildbach.wallet.database.entity.TxGroupCacheStamp
 
 @Dao
 interface TxGroupCacheDao {
@@ -81,9 +82,49 @@ interface TxGroupCacheDao {
     @Query("DELETE FROM tx_group_cache")
     suspend fun deleteAll()
 
+    @Query("DELETE FROM tx_group_cache WHERE txId IN (:txIds)")
+    suspend fun deleteByTxIds(txIds: List<String>)
+
     @Transaction
     suspend fun replaceAll(entries: List<TxGroupCacheEntry>) {
         deleteAll()
         if (entries.isNotEmpty()) insertAll(entries)
     }
+
+    /**
+     * Applies the result of an index-based rebuild: rewrites the entries of groups whose
+     * membership changed and drops entries for transactions no longer in the wallet.
+     * Deletes are chunked to stay below SQLite's bound-variable limit.
+     */
+    @Transaction
+    suspend fun applyDiff(upserts: List<TxGroupCacheEntry>, deletedTxIds: List<String>) {
+        deletedTxIds.chunked(TxDisplayCacheDao.MAX_BIND_VARIABLES).forEach { deleteByTxIds(it) }
+        if (upserts.isNotEmpty()) insertAll(upserts)
+    }
+
+    @Query("SELECT * FROM tx_group_cache_stamp WHERE id = ${TxGroupCacheStamp.SINGLE_ROW_ID}")
+    suspend fun getStamp(): TxGroupCacheStamp?
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun setStamp(stamp: TxGroupCacheStamp)
+
+    /**
+     * Moves an existing stamp forward after an incremental update.  No-op when no stamp
+     * exists, so a partially populated index never becomes authoritative this way.
+     */
+    @Query(
+        "UPDATE tx_group_cache_stamp SET lastBlockHeight = :blockHeight, txCount = :txCount, " +
+            "updatedAt = :updatedAt WHERE id = ${TxGroupCacheStamp.SINGLE_ROW_ID}"
+    )
+    suspend fun advanceStamp(blockHeight: Int, txCount: Int, updatedAt: Long)
+
+    @Query("DELETE FROM tx_group_cache_stamp")
+    suspend fun deleteStamp()
+
+    /** Clears the index and its stamp together, so the next rebuild does a full classification. */
+    @Transaction
+    suspend fun clearIndex() {
+        deleteStamp()
+        deleteAll()
+    }
 }
\ No newline at end of file
@@ -20,8 +20,8 @@ package de.schildbach.wallet.database.entity
 import android.content.Context
 import android.graphics.Bitmap
 import android.text.format.DateUtils
-import androidx.room.Entity
-import androidx.room.PrimaryKey
+import de.schildbach.wallet.database.TxDisplayCachePagingSource
+import de.schildbach.wallet.database.dao.TxDisplayCacheDao
 import de.schildbach.wallet.ui.transactions.TransactionRowView
 import de.schildbach.wallet_test.R
 import org.bitcoinj.core.Coin
@@ -35,20 +35,25 @@ import org.dash.wallet.common.util.ResourceString
  * show transactions immediately on startup without accessing the wallet.
  *
  * No Android resource IDs are stored — icon and background are stored as stable enum
- * constants ([ICON_*], [BG_*]) that survive app upgrades; title and status are stored
- * as resolved strings.
+ * constants ([ICON_*], [BG_*]) that survive app upgrades; title and status are
+ * resolved strings.
+ *
+ * This is the decoded form of a row.  It is stored as a [TxDisplayCacheRecord], with title
+ * and status interned in `tx_display_string`; [TxDisplayCacheDao] encodes and decodes.
  *
  * The table is kept up-to-date by reactive observers:
  *  - full rebuild after [wrapAllTransactions] completes
  *  - targeted upserts when transaction metadata or contacts change
  *
- * Room's built-in [PagingSource] reads from this table directly, sorted newest-first
- * by [time].  Room auto-invalidates the pager when any row changes.
+ * [TxDisplayCachePagingSource] pages through the table newest-first by ([time], [rowId])
+ * using keyset (seek) queries, so deep pages cost the same as the first one.
+ *
+ * Each row carries a [contentHash] of its rendered columns so that a full rebuild can
+ * diff freshly rendered rows against the stored ones and only write the rows that changed.
  */
-@Entity(tableName = "tx_display_cache")
 data class TxDisplayCacheEntry(
     /** Unique row id: txId (hex) for individual transactions, groupId for CoinJoin/CrowdNode. */
-    @PrimaryKey val rowId: String,
+    val rowId: String,
     /** Resolved display title (e.g. "Received", "CoinJoin mixing"). Never a resource ID. */
     val title: String,
     /** Transaction value in satoshis (negative = sent). */
@@ -89,7 +94,10 @@ data class TxDisplayCacheEntry(
     /** Hex id of the merchant/service icon bitmap in the `icon_bitmaps` table, or null if none.
      *  The bitmap itself is not cached here — it is re-loaded at display time from the
      *  [TransactionMetadataProvider] so the row stays small. See [toTransactionRowView]. */
-    val customIconId: String? = null
+    val customIconId: String? = null,
+    /** 64-bit hash of every other column — see [computeContentHash]. 0 for rows written
+     *  before the 21→22 migration, which never match and are rewritten on the next rebuild. */
+    val contentHash: Long = 0
 ) {
     companion object {
         // ── Icon type constants (stable across app versions) ────────────────────────
@@ -165,10 +173,64 @@ data class TxDisplayCacheEntry(
                 contactUserId          = row.contact?.userId,
                 filterFlags            = filterFlags,
                 customIconId           = customIconId
-            )
+            ).withContentHash()
+        }
+
+        private const val FNV_OFFSET_BASIS = -0x340d631b7bdddcdbL // 0xcbf29ce484222325
+        private const val FNV_PRIME = 0x100000001b3L
+
+        private fun fnv(hash: Long, value: Long): Long {
+            var h = hash
+            for (shift in 0 until 64 step 8) {
+                h = (h xor ((value ushr shift) and 0xff)) * FNV_PRIME
+            }
+            return h
+        }
+
+        private fun fnv(hash: Long, value: String?): Long {
+            if (value == null) return fnv(hash, -1L)
+            var h = fnv(hash, value.length.toLong())
+            for (c in value) {
+                h = (h xor (c.code.toLong() and 0xff)) * FNV_PRIME
+                h = (h xor (c.code.toLong() ushr 8)) * FNV_PRIME
+            }
+            return h
         }
     }
 
+    /**
+     * FNV-1a hash over every column except [contentHash] itself. Stable across processes
+     * and app versions (no reliance on [Any.hashCode]), so it can be persisted and compared
+     * against a freshly rendered row to decide whether the stored row needs rewriting.
+     */
+    fun computeContentHash(): Long {
+        var h = FNV_OFFSET_BASIS
+        h = fnv(h, rowId)
+        h = fnv(h, title)
+        h = fnv(h, valueSatoshis)
+        h = fnv(h, iconType.toLong())
+        h = fnv(h, iconBgType.toLong())
+        h = fnv(h, statusText)
+        h = fnv(h, comment)
+        h = fnv(h, transactionAmount.toLong())
+        h = fnv(h, time)
+        h = fnv(h, if (hasErrors) 1L else 0L)
+        h = fnv(h, service)
+        h = fnv(h, swapStatus)
+        h = fnv(h, exchangeRateFiatCode)
+        h = fnv(h, exchangeRateFiatValue ?: Long.MIN_VALUE)
+        h = fnv(h, contactUsername)
+        h = fnv(h, contactDisplayName)
+        h = fnv(h, contactAvatarUrl)
+        h = fnv(h, contactUserId)
+        h = fnv(h, filterFlags.toLong())
+        h = fnv(h, customIconId)
+        return h
+    }
+
+    /** Returns a copy with [contentHash] recomputed — call after any [copy] that changes content. */
+    fun withContentHash(): TxDisplayCacheEntry = copy(contentHash = computeContentHash())
+
     /**
      * Convert back to [TransactionRowView] for the adapter, optionally injecting [contact]
      * and the merchant/service [iconBitmap] (re-loaded from metadata, since it isn't cached
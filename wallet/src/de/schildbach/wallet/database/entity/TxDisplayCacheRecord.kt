@@ -0,0 +1,101 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.database.entity
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import de.schildbach.wallet.database.dao.TxDisplayCacheDao
+
+/**
+ * Stored layout of a `tx_display_cache` row.  [TxDisplayCacheEntry] is the decoded form that
+ * the rest of the app works with; [TxDisplayCacheDao] converts between the two.
+ *
+ * Compared to the decoded row, the title and status text are references into
+ * [TxDisplayString], and of the DashPay contact only [contactUserId] is kept — username,
+ * display name and avatar are joined from `dashpay_profile` when the row is read.
+ *
+ * The [isSent], [isReceived] and [isGiftCard] columns materialize [filterFlags] so that each
+ * history filter is a range scan of its own (flag, time, rowId) index.
+ */
+@Entity(
+    tableName = "tx_display_cache",
+    indices = [
+        Index(value = ["time", "rowId"]),
+        Index(value = ["isSent", "time", "rowId"]),
+        Index(value = ["isReceived", "time", "rowId"]),
+        Index(value = ["isGiftCard", "time", "rowId"])
+    ]
+)
+data class TxDisplayCacheRecord(
+    @PrimaryKey val rowId: String,
+    /** [TxDisplayString.id] of the resolved title. */
+    val titleId: Long,
+    val valueSatoshis: Long,
+    val iconType: Int,
+    val iconBgType: Int,
+    /** [TxDisplayString.id] of the resolved status text. */
+    val statusTextId: Long,
+    val comment: String,
+    val transactionAmount: Int,
+    val time: Long,
+    val hasErrors: Boolean,
+    val service: String?,
+    val swapStatus: String?,
+    val exchangeRateFiatCode: String?,
+    val exchangeRateFiatValue: Long?,
+    val contactUsername: String?,
+    val contactDisplayName: String?,
+    val contactAvatarUrl: String?,
+    val contactUserId: String?,
+    val filterFlags: Int,
+    val customIconId: String?,
+    val contentHash: Long,
+    val isSent: Boolean,
+    val isReceived: Boolean,
+    val isGiftCard: Boolean
+) {
+    companion object {
+        fun fromEntry(entry: TxDisplayCacheEntry, titleId: Long, statusTextId: Long) = TxDisplayCacheRecord(
+            rowId                 = entry.rowId,
+            titleId               = titleId,
+            valueSatoshis         = entry.valueSatoshis,
+            iconType              = entry.iconType,
+            iconBgType            = entry.iconBgType,
+            statusTextId          = statusTextId,
+            comment               = entry.comment,
+            transactionAmount     = entry.transactionAmount,
+            time                  = entry.time,
+            hasErrors             = entry.hasErrors,
+            service               = entry.service,
+            swapStatus            = entry.swapStatus,
+            exchangeRateFiatCode  = entry.exchangeRateFiatCode,
+            exchangeRateFiatValue = entry.exchangeRateFiatValue,
+            contactUsername       = entry.contactUsername,
+            contactDisplayName    = entry.contactDisplayName,
+            contactAvatarUrl      = entry.contactAvatarUrl,
+            contactUserId         = entry.contactUserId,
+            filterFlags           = entry.filterFlags,
+            customIconId          = entry.customIconId,
+            contentHash           = entry.contentHash,
+            isSent                = (entry.filterFlags and TxDisplayCacheEntry.FLAG_SENT) != 0,
+            isReceived            = (entry.filterFlags and TxDisplayCacheEntry.FLAG_RECEIVED) != 0,
+            isGiftCard            = (entry.filterFlags and TxDisplayCacheEntry.FLAG_GIFT_CARD) != 0
+        )
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.database.entity
+
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+/**
+ * Dictionary of the resolved title and status strings referenced by [TxDisplayCacheRecord].
+ * A CoinJoin-heavy wallet has thousands of rows but only a handful of distinct titles
+ * ("CoinJoin mixing", "Received", …) and statuses, so each string is stored once and
+ * rows refer to it by [id].
+ */
+@Entity(
+    tableName = "tx_display_string",
+    indices = [Index(value = ["value"], unique = true)]
+)
+data class TxDisplayString(
+    @PrimaryKey(autoGenerate = true) val id: Long = 0,
+    val value: String
+)
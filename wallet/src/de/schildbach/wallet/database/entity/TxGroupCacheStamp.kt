@@ -0,0 +1,52 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.database.entity
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Single-row stamp that marks `tx_group_cache` as an authoritative index of the wallet's
+ * transaction grouping as of [lastBlockHeight] / [txCount].
+ *
+ * While a stamp is present, a rebuild reuses the stored group membership and only classifies
+ * wallet transactions that are not yet in the index.  The stamp is dropped together with the
+ * group cache (wallet reset, rescan, manual refresh), which forces a full classification.
+ */
+@Entity(tableName = "tx_group_cache_stamp")
+data class TxGroupCacheStamp(
+    @PrimaryKey val id: Int = SINGLE_ROW_ID,
+    /** [org.bitcoinj.wallet.Wallet.getLastBlockSeenHeight] when the index was last brought up to date. */
+    val lastBlockHeight: Int,
+    /** Wallet transaction count (including dead txs) when the index was last brought up to date. */
+    val txCount: Int,
+    /** Epoch-millis of the last update. */
+    val updatedAt: Long
+) {
+    companion object {
+        const val SINGLE_ROW_ID = 1
+    }
+
+    /**
+     * The index can be trusted only if the wallet has moved forward since it was stamped.
+     * A lower height or fewer transactions means a reset, rescan or reorg removed data that
+     * the index may still reference.
+     */
+    fun isValidFor(walletBlockHeight: Int, walletTxCount: Int): Boolean =
+        walletBlockHeight >= lastBlockHeight && walletTxCount >= txCount
+}
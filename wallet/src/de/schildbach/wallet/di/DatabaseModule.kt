@@ -49,7 +49,11 @@ object DatabaseModule {
                 AppDatabaseMigrations.migration17to18,
                 AppDatabaseMigrations.migration18to19,
                 AppDatabaseMigrations.migration19to20,
-                AppDatabaseMigrations.migration20to21
+                AppDatabaseMigrations.migration20to21,
+                AppDatabaseMigrations.migration21to22,
+                AppDatabaseMigrations.migration22to23,
+                AppDatabaseMigrations.migration23to24,
+                AppDatabaseMigrations.migration24to25
             )
             // destructive migrations are used from versions 1 to 11
             .fallbackToDestructiveMigration()
@@ -40,6 +40,10 @@ abstract class SecurityModule {
         @Provides
         fun providePinRetryController(): PinRetryController = PinRetryController.getInstance()
 
+        @Singleton
+        @Provides
+        fun provideDerivedKeyCache(): DerivedKeyCache = DerivedKeyCache.getInstance()
+
         @Provides
         @Singleton
         fun provideBiometricHelper(
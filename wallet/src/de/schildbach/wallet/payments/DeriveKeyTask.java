@@ -29,6 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.schildbach.wallet.Constants;
+import de.schildbach.wallet.security.DerivedKeyCache;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -58,7 +59,8 @@ public abstract class DeriveKeyTask {
             public void run() {
                 org.bitcoinj.core.Context.propagate(Constants.CONTEXT);
 
-                // Key derivation takes time.
+                // Key derivation takes time. The key chain migrations and backups using this task bypass
+                // DerivedKeyCache, as does re-encrypting the wallet.
                 KeyParameter key;
                 try {
                     key = keyCrypter.deriveKey(password);
@@ -93,6 +95,8 @@ public abstract class DeriveKeyTask {
                         } catch (final KeyCrypterException x) {
                             log.info("scrypt upgrade failed: {}", x.getMessage());
                         }
+                        // a key cached for the old parameters is of no use anymore
+                        DerivedKeyCache.getInstance().clear();
                     }
                 }
 
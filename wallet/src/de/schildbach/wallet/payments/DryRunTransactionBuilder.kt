@@ -0,0 +1,41 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.payments
+
+import org.bitcoinj.core.InsufficientMoneyException
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.wallet.SendRequest
+import org.bitcoinj.wallet.Wallet
+
+/**
+ * Completes [SendRequest]s for fee estimation: coin selection, change and fee are worked out like for sending,
+ * but the inputs are left unsigned, so the wallet encryption key is never needed.
+ *
+ * [Wallet.completeTx] sizes the fee from the unsigned transaction plus the expected size of every input
+ * script before it signs anything, so the fee of a dry run is the fee of the signed transaction.
+ */
+class DryRunTransactionBuilder(private val wallet: Wallet) {
+    /** Completes [sendRequest] without signing it and returns the unsigned transaction. */
+    @Throws(InsufficientMoneyException::class)
+    fun complete(sendRequest: SendRequest): Transaction {
+        sendRequest.signInputs = false
+        sendRequest.aesKey = null
+        wallet.completeTx(sendRequest)
+        return sendRequest.tx
+    }
+}
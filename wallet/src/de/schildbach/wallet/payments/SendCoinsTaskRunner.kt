@@ -155,16 +155,13 @@ class SendCoinsTaskRunner @Inject constructor(
     ): SendPaymentService.TransactionDetails {
         val wallet = walletData.wallet ?: throw RuntimeException(WALLET_EXCEPTION_MESSAGE)
         Context.propagate(wallet.context)
+        val dryRun = DryRunTransactionBuilder(wallet)
         var sendRequest = createSendRequest(address, amount, null, emptyWallet, false)
-        val securityGuard = SecurityGuard.getInstance()
-        val password = securityGuard.retrievePassword()
-        val encryptionKey = securityFunctions.deriveKey(wallet, password)
-        sendRequest.aesKey = encryptionKey
-        wallet.completeTx(sendRequest)
+        dryRun.complete(sendRequest)
 
         if (checkDust(sendRequest)) {
             sendRequest = createSendRequest(address, amount, null, emptyWallet)
-            wallet.completeTx(sendRequest)
+            dryRun.complete(sendRequest)
         }
 
         val txFee: Coin? = sendRequest.tx.fee
@@ -459,15 +456,15 @@ class SendCoinsTaskRunner @Inject constructor(
         signInputs: Boolean,
         forceEnsureMinRequiredFee: Boolean
     ): SendRequest {
+        val dryRun = DryRunTransactionBuilder(walletData.wallet ?: throw RuntimeException(WALLET_EXCEPTION_MESSAGE))
         val firstSendRequest = createSendRequest(
             mayEditAmount,
             paymentIntent,
-            signInputs = true,
+            signInputs = false,
             forceEnsureMinRequiredFee,
             useCoinJoinGreedy = coinJoinSend
         )
-        signSendRequest(firstSendRequest)
-        walletData.wallet!!.completeTx(firstSendRequest)
+        dryRun.complete(firstSendRequest)
 
         // check for dust
         val secondSendRequest = if (checkDust(firstSendRequest)) {
@@ -478,8 +475,7 @@ class SendCoinsTaskRunner @Inject constructor(
                 forceEnsureMinRequiredFee = true,
                 useCoinJoinGreedy = coinJoinSend
             )
-            signSendRequest(sendRequest)
-            walletData.wallet!!.completeTx(sendRequest)
+            dryRun.complete(sendRequest)
             sendRequest
         } else {
             firstSendRequest
@@ -538,16 +534,16 @@ class SendCoinsTaskRunner @Inject constructor(
         forceEnsureMinRequiredFee: Boolean,
         topUpKey: ECKey
     ): SendRequest {
+        val dryRun = DryRunTransactionBuilder(walletData.wallet ?: throw RuntimeException(WALLET_EXCEPTION_MESSAGE))
         val firstSendRequest = createAssetLockSendRequest(
             mayEditAmount,
             paymentIntent,
-            signInputs = true,
+            signInputs = false,
             forceEnsureMinRequiredFee,
             topUpKey,
             useCoinJoinGreedy = coinJoinSend
         )
-        signSendRequest(firstSendRequest)
-        walletData.wallet!!.completeTx(firstSendRequest)
+        dryRun.complete(firstSendRequest)
 
         // check for dust
         val secondSendRequest = if (checkDust(firstSendRequest)) {
@@ -559,8 +555,7 @@ class SendCoinsTaskRunner @Inject constructor(
                 topUpKey,
                 useCoinJoinGreedy = coinJoinSend
             )
-            signSendRequest(sendRequest)
-            walletData.wallet!!.completeTx(sendRequest)
+            dryRun.complete(sendRequest)
             sendRequest
         } else {
             firstSendRequest
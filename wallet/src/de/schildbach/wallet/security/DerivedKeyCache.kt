@@ -0,0 +1,186 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.security
+
+import org.bitcoinj.crypto.KeyCrypter
+import org.bitcoinj.crypto.KeyCrypterException
+import org.bouncycastle.crypto.params.KeyParameter
+import org.slf4j.LoggerFactory
+import java.security.MessageDigest
+import java.security.SecureRandom
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps the last key derived from the wallet PIN for a bounded window, so the flows that need the key several
+ * times after one authentication, like sending followed by platform updates, pay for scrypt once.
+ *
+ * The key is only handed out for the same [KeyCrypter], whose scrypt parameters include the salt, and the same
+ * password; the password itself is not kept, only a digest salted per process. The cached key bytes are zeroed
+ * when the window ends, which is not extended by hits, and on [clear], called when the app goes to the
+ * background and when it locks. Callers that run without the UI pass `cacheResult = false`, so they do not
+ * bring the key back once it was cleared.
+ */
+class DerivedKeyCache(
+    windowMs: Long,
+    private val clock: () -> Long = { System.nanoTime() / 1_000_000 },
+    private val executor: ScheduledExecutorService? = null
+) {
+    companion object {
+        private val log = LoggerFactory.getLogger(DerivedKeyCache::class.java)
+
+        // disabled until WalletApplication applies the configured window
+        private val instance by lazy {
+            DerivedKeyCache(
+                0,
+                executor = Executors.newSingleThreadScheduledExecutor { runnable ->
+                    Thread(runnable, "DerivedKeyCache").apply { isDaemon = true }
+                }
+            )
+        }
+
+        @JvmStatic
+        fun getInstance(): DerivedKeyCache = instance
+    }
+
+    private class Entry(
+        val keyCrypter: KeyCrypter,
+        val passwordDigest: ByteArray,
+        val key: ByteArray,
+        val expiresAt: Long
+    )
+
+    private val salt = ByteArray(32).also { SecureRandom().nextBytes(it) }
+    private val derivationLock = Any()
+    private var entry: Entry? = null
+    private var expiry: ScheduledFuture<*>? = null
+    // bumped by every clear, so a derivation that overlapped one does not bring the key back
+    private var generation = 0L
+
+    private var hits = 0L
+    private var misses = 0L
+    private var deriveTimeMs = 0L
+
+    /** How long a derived key is kept for reuse; 0 derives it every time. Setting it drops the cached key. */
+    var windowMs: Long = windowMs
+        @Synchronized get
+
+        @Synchronized set(value) {
+            field = value
+            clear()
+        }
+
+    val hitCount: Long
+        @Synchronized get() = hits
+
+    val missCount: Long
+        @Synchronized get() = misses
+
+    /** The scrypt time the hits did not spend, estimated from the average time of the misses. */
+    val timeSavedMs: Long
+        @Synchronized get() = if (misses == 0L) 0 else hits * deriveTimeMs / misses
+
+    /**
+     * Like [KeyCrypter.deriveKey], returning the cached key if [keyCrypter] and [password] are the ones it was
+     * derived for. Concurrent callers wait for one derivation and share it. If [cacheResult] is false, a key
+     * that is derived is not kept.
+     *
+     * The returned [KeyParameter] holds its own copy of the key.
+     */
+    @JvmOverloads
+    @Throws(KeyCrypterException::class)
+    fun deriveKey(keyCrypter: KeyCrypter, password: CharSequence, cacheResult: Boolean = true): KeyParameter {
+        val digest = digest(password)
+        lookup(keyCrypter, digest)?.let { return it }
+
+        synchronized(derivationLock) {
+            lookup(keyCrypter, digest)?.let { return it }
+
+            val startGeneration = synchronized(this) { generation }
+            val start = clock()
+            val key = keyCrypter.deriveKey(password)
+            val elapsed = clock() - start
+
+            synchronized(this) {
+                misses++
+                deriveTimeMs += elapsed
+                if (cacheResult && windowMs > 0 && generation == startGeneration) {
+                    store(Entry(keyCrypter, digest, key.key.copyOf(), clock() + windowMs))
+                }
+            }
+            return key
+        }
+    }
+
+    /** Zeroes and drops the cached key. */
+    @Synchronized
+    fun clear() {
+        generation++
+        if (entry != null) {
+            log.info("derived key cache cleared: {} hits, {} misses, ~{} ms saved", hits, misses, timeSavedMs)
+        }
+        drop()
+    }
+
+    @Synchronized
+    private fun lookup(keyCrypter: KeyCrypter, passwordDigest: ByteArray): KeyParameter? {
+        val current = entry ?: return null
+        if (clock() >= current.expiresAt) {
+            drop()
+            return null
+        }
+        if (current.keyCrypter != keyCrypter || !MessageDigest.isEqual(current.passwordDigest, passwordDigest)) {
+            return null
+        }
+        hits++
+        return KeyParameter(current.key)
+    }
+
+    private fun store(newEntry: Entry) {
+        drop()
+        entry = newEntry
+        expiry = executor?.schedule({ expire(newEntry) }, windowMs, TimeUnit.MILLISECONDS)
+    }
+
+    @Synchronized
+    private fun expire(expired: Entry) {
+        if (entry === expired) {
+            log.info("derived key expired: {} hits, {} misses, ~{} ms saved", hits, misses, timeSavedMs)
+            drop()
+        }
+    }
+
+    private fun drop() {
+        entry?.let {
+            it.key.fill(0)
+            it.passwordDigest.fill(0)
+        }
+        entry = null
+        expiry?.cancel(false)
+        expiry = null
+    }
+
+    private fun digest(password: CharSequence): ByteArray {
+        val sha256 = MessageDigest.getInstance("SHA-256")
+        sha256.update(salt)
+        sha256.update(password.toString().toByteArray(Charsets.UTF_8))
+        return sha256.digest()
+    }
+}
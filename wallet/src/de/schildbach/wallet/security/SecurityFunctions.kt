@@ -51,7 +51,8 @@ class SecurityFunctions @Inject constructor(
     private val context: Context,
     private val biometricHelper: BiometricHelper,
     private val pinRetryController: PinRetryController,
-    private val analyticsService: AnalyticsService
+    private val analyticsService: AnalyticsService,
+    private val derivedKeyCache: DerivedKeyCache
 ): AuthenticationManager {
     private val log = LoggerFactory.getLogger(SendCoinsTaskRunner::class.java)
     private val status = MutableStateFlow(SecuritySystemStatus.HEALTHY)
@@ -188,31 +189,32 @@ class SecurityFunctions @Inject constructor(
         require(wallet.isEncrypted)
         val keyCrypter = wallet.keyCrypter!!
 
-        // Key derivation takes time.
-        var key = keyCrypter.deriveKey(password)
+        val needsUpgrade = keyCrypter is KeyCrypterScrypt &&
+            keyCrypter.scryptParameters.n != scryptIterationsTarget.toLong()
+
+        // Key derivation takes time, unless the key was derived recently. Re-encrypting the wallet bypasses the
+        // cache, so neither the old key nor the new one is kept.
+        var key = if (needsUpgrade) keyCrypter.deriveKey(password) else derivedKeyCache.deriveKey(keyCrypter, password)
 
         // If the key isn't derived using the desired parameters, derive a new key.
-        if (keyCrypter is KeyCrypterScrypt) {
-            val scryptIterations = keyCrypter.scryptParameters.n
-
-            if (scryptIterations != scryptIterationsTarget.toLong()) {
-                log.info(
-                    "upgrading scrypt iterations from {} to {}; re-encrypting wallet",
-                    scryptIterations,
-                    scryptIterationsTarget
-                )
-                val newKeyCrypter = KeyCrypterScrypt(scryptIterationsTarget)
-                val newKey: KeyParameter = newKeyCrypter.deriveKey(password)
-
-                // Re-encrypt wallet with new key.
-                try {
-                    wallet.changeEncryptionKey(newKeyCrypter, key, newKey)
-                    key = newKey
-                    log.info("scrypt upgrade succeeded")
-                } catch (x: KeyCrypterException) {
-                    log.info("scrypt upgrade failed: {}", x.message)
-                }
+        if (needsUpgrade) {
+            log.info(
+                "upgrading scrypt iterations from {} to {}; re-encrypting wallet",
+                (keyCrypter as KeyCrypterScrypt).scryptParameters.n,
+                scryptIterationsTarget
+            )
+            val newKeyCrypter = KeyCrypterScrypt(scryptIterationsTarget)
+            val newKey: KeyParameter = newKeyCrypter.deriveKey(password)
+
+            // Re-encrypt wallet with new key.
+            try {
+                wallet.changeEncryptionKey(newKeyCrypter, key, newKey)
+                key = newKey
+                log.info("scrypt upgrade succeeded")
+            } catch (x: KeyCrypterException) {
+                log.info("scrypt upgrade failed: {}", x.message)
             }
+            derivedKeyCache.clear()
         }
 
         // Hand back the (possibly changed) encryption key.
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import de.schildbach.wallet.database.dao.AddressMetadataDao
+import org.bitcoinj.core.Address
+import org.bitcoinj.core.NetworkParameters
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.script.ScriptPattern
+import org.dash.wallet.common.data.entity.AddressMetadata
+
+/**
+ * Finds the `address_metadata` row that applies to a transaction: the first tagged sender
+ * address among the inputs' connected outputs (outgoing), otherwise the first tagged
+ * recipient address among the outputs (incoming).
+ *
+ * [resolveAll] gives the same answer as calling [resolve] for each transaction, but fetches
+ * the metadata of all candidate addresses with a few `IN` queries instead of one query
+ * per address.
+ */
+class AddressMetadataResolver(
+    private val addressMetadataDao: AddressMetadataDao,
+    private val params: NetworkParameters
+) {
+    companion object {
+        /** SQLite's default SQLITE_MAX_VARIABLE_NUMBER on older Android releases is 999. */
+        private const val MAX_BIND_VARIABLES = 900
+    }
+
+    private data class Candidate(val address: String, val isInput: Boolean)
+
+    /** Candidate addresses of [tx], in the order they are checked. */
+    private fun candidates(tx: Transaction): List<Candidate> {
+        val candidates = arrayListOf<Candidate>()
+        for (input in tx.inputs) {
+            val output = input.connectedOutput ?: continue
+            // there shouldn't be other output types on our tx's
+            if (ScriptPattern.isP2PKH(output.scriptPubKey)) {
+                val address = Address.fromPubKeyHash(params, ScriptPattern.extractHashFromP2PKH(output.scriptPubKey))
+                candidates.add(Candidate(address.toBase58(), true))
+            }
+        }
+        for (output in tx.outputs) {
+            // for now ignore OP_RETURN (DashPay Expense?)
+            val address = when {
+                ScriptPattern.isP2PKH(output.scriptPubKey) ->
+                    Address.fromPubKeyHash(params, ScriptPattern.extractHashFromP2PKH(output.scriptPubKey))
+                ScriptPattern.isP2SH(output.scriptPubKey) ->
+                    Address.fromScriptHash(params, ScriptPattern.extractHashFromP2SH(output.scriptPubKey))
+                else -> null
+            }
+            if (address != null) {
+                candidates.add(Candidate(address.toBase58(), false))
+            }
+        }
+        return candidates
+    }
+
+    suspend fun resolve(tx: Transaction): AddressMetadata? {
+        for (candidate in candidates(tx)) {
+            val metadata = if (candidate.isInput) {
+                addressMetadataDao.loadSender(candidate.address)
+            } else {
+                addressMetadataDao.loadRecipient(candidate.address)
+            }
+            if (metadata != null) {
+                return metadata
+            }
+        }
+        return null
+    }
+
+    /**
+     * @return the address metadata per transaction id; transactions without any tagged
+     * address are absent
+     */
+    suspend fun resolveAll(transactions: Collection<Transaction>): Map<Sha256Hash, AddressMetadata> {
+        val candidatesByTx = transactions.associate { it.txId to candidates(it) }
+        val addresses = candidatesByTx.values.flatMapTo(HashSet()) { list -> list.map { it.address } }
+        if (addresses.isEmpty()) {
+            return mapOf()
+        }
+
+        val known = HashMap<Candidate, AddressMetadata>()
+        for (chunk in addresses.toList().chunked(MAX_BIND_VARIABLES)) {
+            for (metadata in addressMetadataDao.load(chunk)) {
+                known[Candidate(metadata.address, metadata.isInput)] = metadata
+            }
+        }
+
+        val result = HashMap<Sha256Hash, AddressMetadata>()
+        if (known.isNotEmpty()) {
+            for ((txId, candidates) in candidatesByTx) {
+                candidates.firstNotNullOfOrNull { known[it] }?.let { result[txId] = it }
+            }
+        }
+        return result
+    }
+}
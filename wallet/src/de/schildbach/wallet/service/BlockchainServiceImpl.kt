@@ -55,13 +55,12 @@ import de.schildbach.wallet.WalletApplication
 import de.schildbach.wallet.WalletApplicationExt.clearDatabases
 import de.schildbach.wallet.WalletBalanceWidgetProvider
 import de.schildbach.wallet.data.AddressBookProvider
-import de.schildbach.wallet.database.dao.BlockchainStateDao
 import de.schildbach.wallet.database.dao.ExchangeRatesDao
 import de.schildbach.wallet.service.extensions.registerCrowdNodeConfirmedAddressFilter
 import de.schildbach.wallet.service.platform.IdentityRepository
 import de.schildbach.wallet.service.platform.PlatformSyncService
-import de.schildbach.wallet.transactions.WalletObserver.Companion.CONFIRMED_DEPTH
 import de.schildbach.wallet.service.platform.TopUpRepository
+import de.schildbach.wallet.transactions.WalletEventHub
 import de.schildbach.wallet.ui.OnboardingActivity.Companion.createIntent
 import de.schildbach.wallet.ui.dashpay.OnPreBlockProgressListener
 import de.schildbach.wallet.ui.dashpay.PlatformRepo
@@ -73,10 +72,10 @@ import de.schildbach.wallet.util.AllowLockTimeRiskAnalysis.OfflineAnalyzer
 import de.schildbach.wallet.util.AnrException
 import de.schildbach.wallet.util.BlockchainStateUtils
 import de.schildbach.wallet.util.CrashReporter
-import de.schildbach.wallet.util.ThrottlingWalletChangeListener
 import de.schildbach.wallet_test.R
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.FlowPreview
 import kotlinx.coroutines.Job
@@ -92,6 +91,7 @@ import kotlinx.coroutines.flow.merge
 import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.plus
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
@@ -130,10 +130,11 @@ import org.bitcoinj.store.BlockStore
 import org.bitcoinj.store.BlockStoreException
 import org.bitcoinj.store.SPVBlockStore
 import org.bitcoinj.utils.ExchangeRate
-import org.bitcoinj.utils.Threading
 import org.bitcoinj.wallet.DefaultRiskAnalysis
 import org.bitcoinj.wallet.Wallet
 import org.bitcoinj.wallet.authentication.AuthenticationGroupExtension
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener
 import org.dash.wallet.common.Configuration
 import org.dash.wallet.common.data.BlockStoreLastFix
 import org.dash.wallet.common.data.BlockchainServiceConfig
@@ -240,8 +241,6 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
 
     @Inject lateinit var  crowdNodeConfig: CrowdNodeConfig
 
-    @Inject lateinit var  blockchainStateDao: BlockchainStateDao
-
     @Inject lateinit var  exchangeRatesDao: ExchangeRatesDao
 
     @Inject lateinit var transactionMetadataProvider: TransactionMetadataProvider
@@ -329,14 +328,10 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
     }
     private val currentBlock = MutableStateFlow<StoredBlock?>(null)
 
-    private val walletEventListener: ThrottlingWalletChangeListener =
-        object : ThrottlingWalletChangeListener(
-            APPWIDGET_THROTTLE_MS
-        ) {
-            override fun onThrottledWalletChanged() {
-                updateAppWidget()
-            }
+    private var walletEventJob: Job? = null
 
+    private val walletEventListener =
+        object : WalletCoinsReceivedEventListener, WalletCoinsSentEventListener {
             override fun onCoinsReceived(
                 wallet: Wallet, tx: Transaction, prevBalance: Coin,
                 newBalance: Coin
@@ -371,13 +366,11 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                         )
                         if (exchangeRate != null) {
                             log.info("Setting exchange rate on received transaction.  Rate:  " + exchangeRate + " tx: " + tx.txId.toString())
-                            // Set the rate on the in-memory tx only. Do NOT saveWallet() here:
-                            // this callback runs inline under the wallet lock while commitTx() holds
-                            // it, and a full save of a large wallet takes seconds — doing it here
-                            // blocked the send path (purchase confirm dialog hung, tx not broadcast
-                            // until restart) and, firing for every CoinJoin mixing tx, starved the
-                            // lock. The exchange rate is non-critical and is persisted separately in
-                            // the transaction metadata table.
+                            // Set the rate on the in-memory tx only. Do NOT saveWallet() here: a full
+                            // save of a large wallet takes seconds and takes the wallet lock, so doing
+                            // it for every received tx (including each CoinJoin mixing tx) blocked the
+                            // send path and starved the lock. The exchange rate is non-critical and is
+                            // persisted separately in the transaction metadata table.
                             tx.exchangeRate = ExchangeRate(Coin.COIN, exchangeRate.fiat)
                         }
                     } catch (e: Exception) {
@@ -454,6 +447,33 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                 return passFilters
             }
         }
+    // the wallet events are handled off the wallet lock, on the service scope
+    private fun observeWalletEvents(wallet: Wallet): Job? {
+        val walletEventHub = application.walletEventHub ?: return null
+        val job = SupervisorJob(serviceJob)
+        // the handlers have side effects, so every event is delivered and one failing does not end the rest
+        (serviceScope + job).launch(start = CoroutineStart.UNDISPATCHED) {
+            walletEventHub.observeAllEvents("BlockchainService").collect { event ->
+                try {
+                    propagateContext()
+                    when (event) {
+                        is WalletEventHub.Event.CoinsReceived ->
+                            walletEventListener.onCoinsReceived(wallet, event.tx, event.prevBalance, event.newBalance)
+                        is WalletEventHub.Event.CoinsSent ->
+                            walletEventListener.onCoinsSent(wallet, event.tx, event.prevBalance, event.newBalance)
+                        is WalletEventHub.Event.Reorganize, is WalletEventHub.Event.Reset -> { }
+                    }
+                } catch (e: Exception) {
+                    log.error("error handling wallet event", e)
+                }
+            }
+        }
+        walletEventHub.observeCoinsChanged("BlockchainService", APPWIDGET_THROTTLE_MS)
+            .onEach { updateAppWidget() }
+            .launchIn(serviceScope + job)
+        return job
+    }
+
     private val sharedPrefsChangeListener =
         SharedPreferences.OnSharedPreferenceChangeListener { _: SharedPreferences?, key: String? ->
             if (key == Configuration.PREFS_KEY_CROWDNODE_PRIMARY_ADDRESS) {
@@ -520,42 +540,19 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
         nm!!.notify(Constants.NOTIFICATION_ID_COINS_RECEIVED, notification.build())
     }
 
-    private val oldTransactionsToMonitor = ConcurrentHashMap<Sha256Hash, Transaction>()
+    private val txDepthTracker = ConfidenceDepthTracker()
     private var txConfidenceJob: Job? = null
 
     private fun updateTxConfidence() {
         application.wallet?.let { wallet ->
-            val txesToRemove = arrayListOf<Sha256Hash>()
-            oldTransactionsToMonitor.forEach { (_, tx) ->
-                val transactionConfidence = tx.getConfidence(wallet.context)
-                val shouldStopListening = if (transactionConfidence.confidenceType == TransactionConfidence.ConfidenceType.BUILDING) {
-                    transactionConfidence.depthInBlocks = wallet.lastBlockSeenHeight - transactionConfidence.appearedAtChainHeight + 1
-                    log.info(
-                        "tx {}; {} == {}",
-                        transactionConfidence.transactionHash,
-                        transactionConfidence.depthInBlocks,
-                        wallet.lastBlockSeenHeight - transactionConfidence.appearedAtChainHeight + 1
-                    )
-
-                    val requiredDepth = if (tx.isCoinBase) {
-                        wallet.params.spendableCoinbaseDepth
-                    } else {
-                        CONFIRMED_DEPTH
-                    }
-
-                    val result = transactionConfidence.depthInBlocks >= requiredDepth
-                    transactionConfidence.queueListeners(TransactionConfidence.Listener.ChangeReason.DEPTH)
-                    result
-                } else {
-                    false
-                }
-
-                if (shouldStopListening) {
-                    txesToRemove.add(transactionConfidence.transactionHash)
-                }
-            }
-            txesToRemove.forEach {
-                oldTransactionsToMonitor.remove(it)
+            val updated = txDepthTracker.update(wallet)
+            if (updated > 0) {
+                log.info(
+                    "updated depth of {} transactions at height {}, monitoring {}",
+                    updated,
+                    wallet.lastBlockSeenHeight,
+                    txDepthTracker.size
+                )
             }
         }
     }
@@ -564,8 +561,8 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
         if (wallet.isNotifyTxOnNextBlock) {
             return
         }
-        log.info("stop monitoring {} old transactions", oldTransactionsToMonitor.size)
-        oldTransactionsToMonitor.clear()
+        log.info("stop monitoring {} old transactions", txDepthTracker.size)
+        txDepthTracker.clear()
     }
 
     private fun monitorOlderTransactions(wallet: Wallet) {
@@ -576,26 +573,14 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
         transactions.forEach { tx ->
             maybeAddMonitoring(tx, wallet)
         }
-        log.info("monitoring {} old transactions", oldTransactionsToMonitor.size)
+        log.info("monitoring {} old transactions", txDepthTracker.size)
     }
 
     private fun maybeAddMonitoring(tx: Transaction, wallet: Wallet) {
         if (wallet.isNotifyTxOnNextBlock) {
             return
         }
-        val confidence = tx.getConfidence(wallet.context)
-        val shouldMonitor = when (confidence.confidenceType) {
-            TransactionConfidence.ConfidenceType.PENDING -> true
-            TransactionConfidence.ConfidenceType.BUILDING -> when {
-                tx.isCoinBase -> confidence.depthInBlocks < wallet.params.spendableCoinbaseDepth
-                else -> confidence.depthInBlocks < 6
-            }
-
-            else -> false
-        }
-        if (shouldMonitor) {
-            oldTransactionsToMonitor[tx.txId] = tx
-        }
+        txDepthTracker.track(tx, wallet)
     }
 
     private inner class PeerConnectivityListener : PeerConnectedEventListener,
@@ -1418,12 +1403,17 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                     resetMNListsOnPeerGroupStart = true
                 }
                 try {
-                    blockStore = SPVBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile)
+                    blockStore = openBlockStore(blockChainFile!!)
                     blockStore?.chainHead // detect corruptions as early as possible
-                    headerStore = SPVBlockStore(Constants.NETWORK_PARAMETERS, headerChainFile)
+                    headerStore = openBlockStore(headerChainFile!!)
                     headerStore?.chainHead // detect corruptions as early as possible
                     wallet.isNotifyTxOnNextBlock = false
-                    val blockchainStoreMemoryError = serviceConfig.get(BLOCKCHAIN_STORE_MEMORY_FAILURE) ?: false
+                    var blockchainStoreMemoryError = serviceConfig.get(BLOCKCHAIN_STORE_MEMORY_FAILURE) ?: false
+                    if (blockchainStoreMemoryError && repairBlockStoresFromRing()) {
+                        serviceConfig.set(BLOCKCHAIN_STORE_LAST_FIX, BlockStoreLastFix.REPAIR_FROM_RING.name)
+                        serviceConfig.set(BLOCKCHAIN_STORE_MEMORY_FAILURE, false)
+                        blockchainStoreMemoryError = false
+                    }
                     if (blockchainStoreMemoryError) {
                         try {
                             // the stores are open, copy 100 blocks to a new store.
@@ -1486,11 +1476,11 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                                 headerStore!!.close()
 
                                 // Delete old files
-                                if (!blockChainFile!!.delete()) {
+                                if (!CheckedSPVBlockStore.delete(blockChainFile!!)) {
                                     log.error("Failed to delete old blockchain file")
                                     throw IOException("Failed to delete old blockchain file")
                                 }
-                                if (!headerChainFile!!.delete()) {
+                                if (!CheckedSPVBlockStore.delete(headerChainFile!!)) {
                                     log.error("Failed to delete old header chain file")
                                     throw IOException("Failed to delete old header chain file")
                                 }
@@ -1506,9 +1496,9 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                                 }
 
                                 log.info("completed file replacement, now reloading the block stores")
-                                blockStore = SPVBlockStore(Constants.NETWORK_PARAMETERS, blockChainFile)
+                                blockStore = openBlockStore(blockChainFile!!)
                                 blockStore?.chainHead // detect corruptions as early as possible
-                                headerStore = SPVBlockStore(Constants.NETWORK_PARAMETERS, headerChainFile)
+                                headerStore = openBlockStore(headerChainFile!!)
                                 headerStore?.chainHead // detect corruptions as early as possible
                                 log.info("block stores reloaded successfully")
 
@@ -1541,7 +1531,10 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                             }
                         }
                     }
-                    withContext(Dispatchers.Main) { verifyBlockStores() }
+                    if (!verifyBlockStoreTips()) {
+                        withContext(Dispatchers.Main) { verifyBlockStores() }
+                        seedBlockStoreRings()
+                    }
 //                    if (blockStore is TestingSPVBlockStore) {
 //                        (blockStore as TestingSPVBlockStore).setBlockGetMethod(true)
 //                    }
@@ -1583,8 +1576,8 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                         throw Error(msg, x)
                     } else {
                         log.warn("BlockStore creation failed due to corruption or other error - deleting blockchain files for clean restart: {}", x.message)
-                        blockChainFile!!.delete()
-                        headerChainFile!!.delete()
+                        CheckedSPVBlockStore.delete(blockChainFile!!)
+                        CheckedSPVBlockStore.delete(headerChainFile!!)
                         resetMNLists(false)
                         val msg = "blockstore cannot be created"
                         log.error(msg, x)
@@ -1615,12 +1608,7 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                     log.info("network callback registered with NetworkRequest: {}", networkCallback)
                 }
                 monitorOlderTransactions(wallet)
-                wallet.addCoinsReceivedEventListener(
-                    Threading.SAME_THREAD,
-                    walletEventListener
-                )
-                wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletEventListener)
-                wallet.addChangeEventListener(Threading.SAME_THREAD, walletEventListener)
+                walletEventJob = observeWalletEvents(wallet)
                 blockChain?.addNewBestBlockListener(newBestBlockListener)
                 config.registerOnSharedPreferenceChangeListener(sharedPrefsChangeListener)
                 withContext(Dispatchers.Main) {
@@ -1630,7 +1618,7 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                 }
                 peerDiscoveryList.add(dnsDiscovery)
                 updateAppWidget()
-                blockchainStateDao.observeState().observe(this@BlockchainServiceImpl) { blockchainState ->
+                blockchainStateDataProvider.observeState().observe(this@BlockchainServiceImpl) { blockchainState ->
                     handleBlockchainStateNotification(blockchainState, mixingStatus, mixingProgress)
                 }
                 apiConfirmationHandler = registerCrowdNodeConfirmedAddressFilter()
@@ -1913,12 +1901,11 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                 txConfidenceJob?.join()
                 txConfidenceJob = null
 
+                walletEventJob?.cancel()
+                walletEventJob = null
+
                 val wallet = application.wallet
                 if (wallet != null) {
-                    wallet.removeChangeEventListener(walletEventListener)
-                    wallet.removeCoinsSentEventListener(walletEventListener)
-                    wallet.removeCoinsReceivedEventListener(walletEventListener)
-
                     stopMonitoringOlderTransactions(wallet)
                 }
                 config.unregisterOnSharedPreferenceChangeListener(sharedPrefsChangeListener)
@@ -1967,6 +1954,8 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                     blockStore?.close()
                     headerStore?.close()
                     blockchainStateDataProvider.setBlockChain(null)
+                    blockchainStateDataProvider.flushState()
+                    log.info("blockchain state writes suppressed: {}", blockchainStateDataProvider.suppressedWriteCount)
                 } catch (x: BlockStoreException) {
                     throw RuntimeException(x)
                 }
@@ -1984,8 +1973,8 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
                 }
                 if (resetBlockchainOnShutdown || deleteWalletFileOnShutdown) {
                     log.info("removing blockchain")
-                    blockChainFile?.delete()
-                    headerChainFile?.delete()
+                    blockChainFile?.let { CheckedSPVBlockStore.delete(it) }
+                    headerChainFile?.let { CheckedSPVBlockStore.delete(it) }
                     resetMNLists(false)
                     if (deleteWalletFileOnShutdown) {
                         log.info("removing wallet file and app data")
@@ -2282,6 +2271,58 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
         currentBlock.value = it
     }
 
+    @Throws(BlockStoreException::class)
+    private fun openBlockStore(file: File): SPVBlockStore {
+        return if (Constants.Files.BLOCKSTORE_RING) {
+            CheckedSPVBlockStore(Constants.NETWORK_PARAMETERS, file)
+        } else {
+            SPVBlockStore(Constants.NETWORK_PARAMETERS, file)
+        }
+    }
+
+    /** Checks both stores against their rings; true if the slow verification can be skipped. */
+    private fun verifyBlockStoreTips(): Boolean {
+        val watch = Stopwatch.createStarted()
+        val verified = listOf(headerStore, blockStore).all { store ->
+            try {
+                (store as? CheckedSPVBlockStore)?.verifyTip() ?: false
+            } catch (x: BlockStoreException) {
+                log.warn("verification of blockstore tip failed:", x)
+                false
+            }
+        }
+        log.info("blockstore tips verified: {}, took {}", verified, watch)
+        return verified
+    }
+
+    private fun seedBlockStoreRings() {
+        listOf(headerStore, blockStore).forEach { store ->
+            try {
+                (store as? CheckedSPVBlockStore)?.seed()
+            } catch (x: BlockStoreException) {
+                log.warn("cannot seed blockstore ring:", x)
+            }
+        }
+    }
+
+    /**
+     * Rewrites corrupt segments of both stores from their rings. Returns true only if blocks were rewritten:
+     * after a memory stall, stores the rings find intact have not been fixed, so they still need to be copied.
+     */
+    private fun repairBlockStoresFromRing(): Boolean {
+        val watch = Stopwatch.createStarted()
+        return try {
+            val rewritten = listOf(headerStore, blockStore).map { store ->
+                (store as? CheckedSPVBlockStore)?.repair() ?: -1
+            }
+            log.info("repaired blockstores from their rings: {} blocks rewritten, took {}", rewritten, watch)
+            rewritten.none { it < 0 } && rewritten.any { it > 0 }
+        } catch (x: BlockStoreException) {
+            log.warn("repair of blockstores from their rings failed:", x)
+            false
+        }
+    }
+
     @Throws(BlockStoreException::class)
     private fun verifyBlockStore(store: BlockStore?): Boolean {
         val watch = Stopwatch.createStarted()
@@ -2381,6 +2422,7 @@ class BlockchainServiceImpl : LifecycleService(), BlockchainService {
 //                throw new BlockStoreException("can't verify and recover");
 //            }
 //        }
+        scheduledExecutorService.shutdownNow()
         log.info("blockstore files verified: {}, {}", verifiedHeaderStore, verifiedBlockStore)
     }
 }
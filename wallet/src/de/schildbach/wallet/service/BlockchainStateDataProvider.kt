@@ -19,16 +19,22 @@ package de.schildbach.wallet.service
 
 import android.content.Context
 import android.database.sqlite.SQLiteException
+import android.os.SystemClock
 import dagger.hilt.android.qualifiers.ApplicationContext
 import de.schildbach.wallet.Constants
 import de.schildbach.wallet.WalletApplication
 import de.schildbach.wallet.database.dao.BlockchainStateDao
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.bitcoinj.core.AbstractBlockChain
@@ -51,6 +57,7 @@ import java.io.InputStream
 import java.math.BigInteger
 import java.util.EnumSet
 import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.min
@@ -58,6 +65,10 @@ import kotlin.math.min
 /**
  * Blockchain state data provider
  *
+ * The latest [BlockchainState] is kept in memory and published by [state] as soon as it changes. Room is
+ * written at most once per [STATE_PERSIST_INTERVAL_MS] during sync, and right away when the sync stage or
+ * the impediments change, on resets and on [flushState].
+ *
  * @property blockchainStateDao
  * @property walletDataProvider is used to determine the network parameters and DashJ Context
  * @property configuration is used to save some information
@@ -83,77 +94,155 @@ class BlockchainStateDataProvider @Inject constructor(
         const val SECONDS_PER_DAY = 24 * 60 * 60
         val MASTERNODE_COST: Coin = Coin.valueOf(1000, 0)
         const val MASTERNODE_COUNT = 3800
+        const val STATE_PERSIST_INTERVAL_MS = 1000L
     }
 
     // this coroutineScope should execute all jobs sequentially
-    private val coroutineScope = CoroutineScope(Executors.newSingleThreadExecutor().asCoroutineDispatcher())
+    private val dispatcher = Executors.newSingleThreadExecutor().asCoroutineDispatcher()
+    private val coroutineScope = CoroutineScope(dispatcher)
+
+    // the fields below are confined to coroutineScope
+    private val stateFlow = MutableStateFlow<BlockchainState?>(null)
+    private var stateLoaded = false
+    private var persistedState: BlockchainState? = null
+    private var persistJob: Job? = null
+    private var lastPersistTime = 0L
+    private val suppressedWrites = AtomicLong()
+
+    /** The latest state, ahead of the one in Room by up to [STATE_PERSIST_INTERVAL_MS]. */
+    val state: StateFlow<BlockchainState?> = stateFlow.asStateFlow()
+
+    /** How many state updates were coalesced into a later write instead of being written to Room. */
+    val suppressedWriteCount: Long
+        get() = suppressedWrites.get()
 
     private val networkStatusFlow = MutableStateFlow(NetworkStatus.UNKNOWN)
     private val blockchainFlow = MutableStateFlow<AbstractBlockChain?>(null)
     private val syncStageFlow = MutableStateFlow<PeerGroup.SyncStage?>(null)
 
     override suspend fun getState(): BlockchainState? {
-        return blockchainStateDao.getState()
+        return withContext(dispatcher) {
+            currentState()?.let { copyOf(it) }
+        }
     }
 
     override fun observeState(): Flow<BlockchainState?> {
-        return blockchainStateDao.observeState().distinctUntilChanged()
+        return flow {
+            withContext(dispatcher) { currentState() }
+            emitAll(stateFlow)
+        }
     }
 
     fun updateImpediments(impediments: Set<Impediment>) {
         coroutineScope.launch {
-            val blockchainState = blockchainStateDao.getState()
+            val blockchainState = currentState()?.let { copyOf(it) }
             if (blockchainState != null) {
-                blockchainState.impediments.clear()
-                blockchainState.impediments.addAll(impediments)
-                blockchainStateDao.saveState(blockchainState)
+                val changed = blockchainState.impediments != impediments
+                blockchainState.impediments = enumSetOf(impediments)
+                publishState(blockchainState, changed)
             }
         }
     }
 
     fun updateBlockchainState(blockChain: BlockChain, impediments: Set<Impediment>, percentageSync: Int, syncStage: PeerGroup.SyncStage?) {
         coroutineScope.launch {
-            var blockchainState = blockchainStateDao.getState()
-            if (blockchainState == null) {
-                blockchainState = BlockchainState()
-            }
+            val previousState = currentState()
+            val blockchainState = previousState?.let { copyOf(it) } ?: BlockchainState()
             val chainHead: StoredBlock = blockChain.chainHead
             val chainLockHeight = dashSystemService.system.chainLockHandler.bestChainLockBlockHeight
             val mnListHeight: Int =
                 dashSystemService.system.masternodeListManager.listAtChainTip.height.toInt()
             blockchainState.bestChainDate = chainHead.header.time
             blockchainState.bestChainHeight = chainHead.height
-            blockchainState.impediments = EnumSet.copyOf(impediments)
+            blockchainState.impediments = enumSetOf(impediments)
             blockchainState.chainlockHeight = chainLockHeight
             blockchainState.mnlistHeight = mnListHeight
             blockchainState.percentageSync = percentageSync
-            blockchainStateDao.saveState(blockchainState)
+            val stageChanged = syncStage != syncStageFlow.value
+            publishState(blockchainState, stageChanged || previousState?.impediments != blockchainState.impediments)
             syncStageFlow.value = syncStage
         }
     }
 
     fun resetBlockchainState() {
         coroutineScope.launch {
-            blockchainStateDao.saveState(
-                BlockchainState(true)
-            )
+            stateLoaded = true
+            publishState(BlockchainState(true), true)
         }
     }
 
     fun resetBlockchainSyncProgress() {
         coroutineScope.launch {
             val blockchainState: BlockchainState? = try {
-                blockchainStateDao.getState()
+                currentState()?.let { copyOf(it) }
             } catch (ex: SQLiteException) {
                 null
             }
             if (blockchainState != null) {
                 blockchainState.percentageSync = 0
-                blockchainStateDao.saveState(blockchainState)
+                publishState(blockchainState, true)
             }
         }
     }
 
+    /** Writes the latest state to Room if it is ahead, e.g. when the blockchain service shuts down. */
+    fun flushState() {
+        coroutineScope.launch {
+            persistState()
+        }
+    }
+
+    private suspend fun currentState(): BlockchainState? {
+        if (!stateLoaded) {
+            val loaded = blockchainStateDao.getState()
+            // an update may have been published while Room was read
+            if (!stateLoaded) {
+                stateFlow.value = loaded
+                persistedState = loaded
+                stateLoaded = true
+            }
+        }
+        return stateFlow.value
+    }
+
+    private suspend fun publishState(blockchainState: BlockchainState, persistNow: Boolean) {
+        stateFlow.value = blockchainState
+        if (persistNow) {
+            persistState()
+        } else if (persistJob?.isActive == true) {
+            suppressedWrites.incrementAndGet()
+        } else {
+            val wait = lastPersistTime + STATE_PERSIST_INTERVAL_MS - SystemClock.elapsedRealtime()
+            persistJob = coroutineScope.launch {
+                delay(wait)
+                persistJob = null
+                persistState()
+            }
+        }
+    }
+
+    private suspend fun persistState() {
+        persistJob?.cancel()
+        persistJob = null
+        val blockchainState = stateFlow.value ?: return
+        if (blockchainState == persistedState) {
+            suppressedWrites.incrementAndGet()
+            return
+        }
+        blockchainStateDao.saveState(blockchainState)
+        persistedState = blockchainState
+        lastPersistTime = SystemClock.elapsedRealtime()
+    }
+
+    // published states are never modified, updates work on a copy
+    private fun copyOf(blockchainState: BlockchainState): BlockchainState {
+        return blockchainState.copy(impediments = enumSetOf(blockchainState.impediments))
+    }
+
+    private fun enumSetOf(impediments: Set<Impediment>): EnumSet<Impediment> {
+        return EnumSet.noneOf(Impediment::class.java).apply { addAll(impediments) }
+    }
+
     override suspend fun getLastMasternodeAPY(): Double {
         val apy = configuration.prefsKeyCrowdNodeStakingApy.toDouble()
         return if (apy != 0.0) {
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import org.bitcoinj.core.NetworkParameters
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.StoredBlock
+import org.bitcoinj.store.BlockStoreException
+import org.bitcoinj.store.SPVBlockStore
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.zip.CRC32
+
+/**
+ * An [SPVBlockStore] that mirrors its most recent blocks into a checksummed ring in a memory-mapped file
+ * next to it (`<file>.ring`).
+ *
+ * Every slot of the ring holds one block in compact form followed by its CRC32, indexed by height; the ring
+ * header holds the tip and its own CRC32. This allows:
+ *  - [verifyTip]: checking the store on open by comparing its chain head with the ring tip, in constant time,
+ *    instead of walking back through the store under a timeout
+ *  - [repair]: re-putting only the runs of [SEGMENT_SIZE] blocks the store no longer returns intact, instead of
+ *    copying the chain into a new store
+ *
+ * An existing store gets its ring with [seed].
+ */
+class CheckedSPVBlockStore @Throws(BlockStoreException::class) constructor(
+    params: NetworkParameters,
+    file: File
+) : SPVBlockStore(params, file) {
+    companion object {
+        private val log = LoggerFactory.getLogger(CheckedSPVBlockStore::class.java)
+
+        private const val MAGIC = 0x44524e47 // DRNG
+        private const val VERSION = 1
+        const val RING_SIZE = 512
+        const val SEGMENT_SIZE = 64
+        private const val SLOT_SIZE = StoredBlock.COMPACT_SERIALIZED_SIZE + 4
+        // magic, version, tip height, tip hash, CRC32
+        private const val HEADER_SIZE = 4 + 4 + 4 + 32 + 4
+        private const val RING_FILE_SIZE = HEADER_SIZE + RING_SIZE * SLOT_SIZE
+
+        @JvmStatic
+        fun ringFileOf(file: File): File = File(file.path + ".ring")
+
+        /** Deletes the block store [file] and its ring. */
+        @JvmStatic
+        fun delete(file: File): Boolean {
+            ringFileOf(file).delete()
+            return file.delete()
+        }
+    }
+
+    private class Tip(val height: Int, val hash: Sha256Hash)
+
+    private val networkParams = params
+
+    // SPVBlockStore puts the genesis block while it is constructed, before the ring exists
+    private var ringFile: RandomAccessFile? = null
+    private var ring: MappedByteBuffer? = null
+
+    init {
+        try {
+            val ringFile = RandomAccessFile(ringFileOf(file), "rw")
+            this.ringFile = ringFile
+            ring = ringFile.channel.map(FileChannel.MapMode.READ_WRITE, 0, RING_FILE_SIZE.toLong())
+        } catch (x: IOException) {
+            ringFile?.close()
+            super.close()
+            throw BlockStoreException(x)
+        }
+    }
+
+    @Throws(BlockStoreException::class)
+    override fun put(block: StoredBlock) {
+        super.put(block)
+        writeSlot(block)
+    }
+
+    @Throws(BlockStoreException::class)
+    override fun setChainHead(chainHead: StoredBlock) {
+        super.setChainHead(chainHead)
+        writeTip(chainHead)
+    }
+
+    @Throws(BlockStoreException::class)
+    override fun close() {
+        try {
+            super.close()
+        } finally {
+            synchronized(this) {
+                ring?.force()
+                ring = null
+                ringFile?.close()
+                ringFile = null
+            }
+        }
+    }
+
+    /** Whether the chain head of the store is the tip recorded in the ring. */
+    @Throws(BlockStoreException::class)
+    fun verifyTip(): Boolean {
+        val head = chainHead ?: return false
+        val tip = readTip() ?: return false
+        return tip.height == head.height &&
+            tip.hash == head.header.hash &&
+            readSlot(tip.height)?.header?.hash == tip.hash
+    }
+
+    /** Records the chain head and up to [RING_SIZE] blocks below it in the ring. */
+    @Throws(BlockStoreException::class)
+    fun seed() {
+        val head = chainHead
+        var cursor: StoredBlock? = head
+        var count = 0
+        while (cursor != null && count < RING_SIZE) {
+            writeSlot(cursor)
+            cursor = cursor.getPrev(this)
+            count++
+        }
+        writeTip(head)
+        log.info("seeded block store ring with {} blocks up to {}", count, head.height)
+    }
+
+    /**
+     * Puts again every run of [SEGMENT_SIZE] blocks below the ring tip that contains a block the store does
+     * not return as recorded, then restores the chain head.
+     *
+     * @return the number of blocks rewritten, or -1 if the ring has no valid tip to repair from
+     */
+    @Throws(BlockStoreException::class)
+    fun repair(): Int {
+        val tip = readTip() ?: return -1
+        val tipBlock = readSlot(tip.height)?.takeIf { it.header.hash == tip.hash } ?: return -1
+
+        var rewritten = 0
+        // newest first, up to the first slot that is missing or overwritten
+        val recorded = (0 until RING_SIZE).asSequence()
+            .map { tip.height - it }
+            .takeWhile { it >= 0 }
+            .map { readSlot(it) }
+            .takeWhile { it != null }
+            .filterNotNull()
+            .toList()
+        recorded.chunked(SEGMENT_SIZE).forEach { segment ->
+            if (!segment.all { isIntact(it) }) {
+                segment.asReversed().forEach { super.put(it) }
+                rewritten += segment.size
+                log.info("rewrote blocks {} to {} from the ring", segment.last().height, segment.first().height)
+            }
+        }
+        if (chainHead?.header?.hash != tip.hash) {
+            super.setChainHead(tipBlock)
+            log.info("restored chain head {} from the ring", tip.height)
+        }
+        return rewritten
+    }
+
+    private fun isIntact(block: StoredBlock): Boolean {
+        return try {
+            super.get(block.header.hash) == block
+        } catch (x: BlockStoreException) {
+            false
+        }
+    }
+
+    @Synchronized
+    private fun writeSlot(block: StoredBlock) {
+        val ring = ring ?: return
+        val bytes = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE)
+        try {
+            block.serializeCompact(bytes)
+        } catch (x: IllegalArgumentException) {
+            // the slot keeps its old content, which fails the height check when read
+            log.warn("cannot record block {} in the ring", block.height, x)
+            return
+        }
+        ring.position(HEADER_SIZE + Math.floorMod(block.height, RING_SIZE) * SLOT_SIZE)
+        ring.put(bytes.array())
+        ring.putInt(crc(bytes.array()))
+    }
+
+    @Synchronized
+    private fun readSlot(height: Int): StoredBlock? {
+        val ring = ring ?: return null
+        val bytes = ByteArray(StoredBlock.COMPACT_SERIALIZED_SIZE)
+        ring.position(HEADER_SIZE + Math.floorMod(height, RING_SIZE) * SLOT_SIZE)
+        ring.get(bytes)
+        if (ring.getInt() != crc(bytes)) {
+            return null
+        }
+        val block = StoredBlock.deserializeCompact(networkParams, ByteBuffer.wrap(bytes))
+        return block.takeIf { it.height == height }
+    }
+
+    @Synchronized
+    private fun writeTip(block: StoredBlock) {
+        val ring = ring ?: return
+        val header = ByteBuffer.allocate(HEADER_SIZE)
+        header.putInt(MAGIC).putInt(VERSION).putInt(block.height).put(block.header.hash.bytes)
+        header.putInt(crc(header.array(), HEADER_SIZE - 4))
+        ring.position(0)
+        ring.put(header.array())
+    }
+
+    @Synchronized
+    private fun readTip(): Tip? {
+        val ring = ring ?: return null
+        val header = ByteArray(HEADER_SIZE)
+        ring.position(0)
+        ring.get(header)
+        val buffer = ByteBuffer.wrap(header)
+        if (buffer.getInt(HEADER_SIZE - 4) != crc(header, HEADER_SIZE - 4) ||
+            buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+        ) {
+            return null
+        }
+        val height = buffer.getInt()
+        val hash = ByteArray(32).also { buffer.get(it) }
+        return Tip(height, Sha256Hash.wrap(hash))
+    }
+
+    private fun crc(bytes: ByteArray, length: Int = bytes.size): Int {
+        return CRC32().apply { update(bytes, 0, length) }.value.toInt()
+    }
+}
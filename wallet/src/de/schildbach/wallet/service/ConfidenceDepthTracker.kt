@@ -0,0 +1,128 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import de.schildbach.wallet.transactions.WalletObserver.Companion.CONFIRMED_DEPTH
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.core.TransactionConfidence
+import org.bitcoinj.wallet.Wallet
+import java.util.TreeMap
+
+/**
+ * Updates the depth of recent transactions as blocks arrive, since the wallet does not do it while
+ * [Wallet.isNotifyTxOnNextBlock] is off.
+ *
+ * Confirmed transactions wait in a map sorted by the chain height at which their next DEPTH notification is
+ * due: each block until [CONFIRMED_DEPTH] for regular transactions, as listeners like TopUpRepository act on
+ * intermediate depths, and only spendable maturity for coinbase transactions. A block only touches the
+ * transactions that are due, and their listeners are queued together. Pending transactions are kept apart
+ * until they appear in a block.
+ */
+class ConfidenceDepthTracker {
+    private val due = TreeMap<Int, MutableList<Transaction>>()
+    private val pending = HashMap<Sha256Hash, Transaction>()
+    private val tracked = HashSet<Sha256Hash>()
+
+    val size: Int
+        @Synchronized get() = tracked.size
+
+    /** Tracks [tx] if it is pending or has not reached its required depth yet. */
+    @Synchronized
+    fun track(tx: Transaction, wallet: Wallet) {
+        if (tx.txId !in tracked && schedule(tx, wallet)) {
+            tracked.add(tx.txId)
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        due.clear()
+        pending.clear()
+        tracked.clear()
+    }
+
+    /**
+     * Sets the depth of the transactions due at the last block seen by [wallet] and queues their DEPTH
+     * listeners.
+     *
+     * @return the number of transactions updated
+     */
+    fun update(wallet: Wallet): Int {
+        val updated = synchronized(this) { collectDue(wallet) }
+        updated.forEach { it.queueListeners(TransactionConfidence.Listener.ChangeReason.DEPTH) }
+        return updated.size
+    }
+
+    private fun collectDue(wallet: Wallet): List<TransactionConfidence> {
+        val height = wallet.lastBlockSeenHeight
+        val ready = arrayListOf<Transaction>()
+        val iterator = pending.values.iterator()
+        while (iterator.hasNext()) {
+            val tx = iterator.next()
+            if (tx.getConfidence(wallet.context).confidenceType != TransactionConfidence.ConfidenceType.PENDING) {
+                iterator.remove()
+                ready.add(tx)
+            }
+        }
+        val dueNow = due.headMap(height, true)
+        dueNow.values.forEach { ready.addAll(it) }
+        dueNow.clear()
+
+        val updated = arrayListOf<TransactionConfidence>()
+        ready.forEach { tx ->
+            tracked.remove(tx.txId)
+            val confidence = tx.getConfidence(wallet.context)
+            if (confidence.confidenceType == TransactionConfidence.ConfidenceType.BUILDING) {
+                confidence.depthInBlocks = height - confidence.appearedAtChainHeight + 1
+                updated.add(confidence)
+            }
+            // more blocks to go, or back to pending after a reorganize
+            if (schedule(tx, wallet)) {
+                tracked.add(tx.txId)
+            }
+        }
+        return updated
+    }
+
+    private fun schedule(tx: Transaction, wallet: Wallet): Boolean {
+        val confidence = tx.getConfidence(wallet.context)
+        return when (confidence.confidenceType) {
+            TransactionConfidence.ConfidenceType.PENDING -> {
+                pending[tx.txId] = tx
+                true
+            }
+            TransactionConfidence.ConfidenceType.BUILDING -> {
+                val height = wallet.lastBlockSeenHeight
+                val requiredDepth = if (tx.isCoinBase) wallet.params.spendableCoinbaseDepth else CONFIRMED_DEPTH
+                if (height - confidence.appearedAtChainHeight + 1 >= requiredDepth) {
+                    false
+                } else {
+                    val dueHeight = if (tx.isCoinBase) {
+                        confidence.appearedAtChainHeight + requiredDepth - 1
+                    } else {
+                        height + 1
+                    }
+                    due.getOrPut(dueHeight) { arrayListOf() }.add(tx)
+                    true
+                }
+            }
+            else -> false
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import androidx.room.withTransaction
+import de.schildbach.wallet.database.AppDatabase
+import de.schildbach.wallet.database.dao.TxDisplayCacheUpsertResult
+import de.schildbach.wallet.database.entity.TxDisplayCacheEntry
+import de.schildbach.wallet.database.entity.TxGroupCacheEntry
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import org.slf4j.LoggerFactory
+
+/**
+ * Write-behind stage for incremental `tx_display_cache` / `tx_group_cache` updates.
+ *
+ * During CoinJoin mixing, transactions arrive in many small batches and each direct write
+ * invalidates Room's tracker, which reloads the home screen PagingSource.  Updates queued
+ * here are coalesced by key (rowId for display rows, groupId + txId for group rows; the
+ * latest value wins) and written in one Room transaction covering both tables, either
+ * [flushWindowMs] after the first queued update or as soon as [maxPendingRows] are pending.
+ *
+ * Not thread-safe: must only be used from the owner's single-threaded [scope].
+ */
+class TxCacheWriteBehind(
+    private val appDatabase: AppDatabase,
+    private val scope: CoroutineScope,
+    private val metrics: TxDisplayCacheMetrics,
+    private val flushWindowMs: Long = DEFAULT_FLUSH_WINDOW_MS,
+    private val maxPendingRows: Int = DEFAULT_MAX_PENDING_ROWS
+) {
+    companion object {
+        const val DEFAULT_FLUSH_WINDOW_MS = 250L
+        const val DEFAULT_MAX_PENDING_ROWS = 500
+        private val log = LoggerFactory.getLogger(TxCacheWriteBehind::class.java)
+    }
+
+    private class StampAdvance(val blockHeight: Int, val txCount: Int, val updatedAt: Long)
+
+    private var pendingDisplay = LinkedHashMap<String, TxDisplayCacheEntry>()
+    private var pendingGroup = LinkedHashMap<Pair<String, String>, TxGroupCacheEntry>()
+    private var pendingStamp: StampAdvance? = null
+    private var coalesced = 0
+    private var flushJob: Job? = null
+    // bumped by discard, so a failed flush does not bring back rows queued before it
+    private var generation = 0L
+
+    val pendingRows: Int
+        get() = pendingDisplay.size + pendingGroup.size
+
+    /** Returns the queued, not yet written display entry for [rowId], if any. */
+    fun pendingDisplayEntry(rowId: String): TxDisplayCacheEntry? = pendingDisplay[rowId]
+
+    suspend fun enqueueDisplay(entries: Collection<TxDisplayCacheEntry>) {
+        entries.forEach { if (pendingDisplay.put(it.rowId, it) != null) coalesced++ }
+        onEnqueued()
+    }
+
+    suspend fun enqueueGroup(entries: Collection<TxGroupCacheEntry>) {
+        entries.forEach { if (pendingGroup.put(it.groupId to it.txId, it) != null) coalesced++ }
+        onEnqueued()
+    }
+
+    /** Queues moving the group index stamp forward; only the latest value is written. */
+    fun enqueueStampAdvance(blockHeight: Int, txCount: Int) {
+        pendingStamp = StampAdvance(blockHeight, txCount, System.currentTimeMillis())
+    }
+
+    /**
+     * Writes everything queued so far in a single transaction. If the write fails, the rows are
+     * queued again, unless newer values were queued for them meanwhile, and the error is thrown.
+     */
+    suspend fun flush() {
+        flushJob?.cancel()
+        flushJob = null
+        if (pendingDisplay.isEmpty() && pendingGroup.isEmpty() && pendingStamp == null) {
+            return
+        }
+
+        // Swap the buffers before suspending so updates queued during the write go to the next flush.
+        val display = pendingDisplay.values.toList()
+        val group = pendingGroup.values.toList()
+        val stamp = pendingStamp
+        val coalescedInFlush = coalesced
+        val flushGeneration = generation
+        pendingDisplay = LinkedHashMap()
+        pendingGroup = LinkedHashMap()
+        pendingStamp = null
+        coalesced = 0
+
+        val t0 = System.currentTimeMillis()
+        val result = try {
+            appDatabase.withTransaction {
+                val result = appDatabase.txDisplayCacheDao().upsert(display)
+                if (group.isNotEmpty()) {
+                    appDatabase.txGroupCacheDao().insertAll(group)
+                }
+                stamp?.let {
+                    appDatabase.txGroupCacheDao().advanceStamp(it.blockHeight, it.txCount, it.updatedAt)
+                }
+                result
+            }
+        } catch (x: Throwable) {
+            if (generation == flushGeneration) {
+                display.forEach { pendingDisplay.putIfAbsent(it.rowId, it) }
+                group.forEach { pendingGroup.putIfAbsent(it.groupId to it.txId, it) }
+                if (pendingStamp == null) {
+                    pendingStamp = stamp
+                }
+                coalesced += coalescedInFlush
+            }
+            throw x
+        }
+        val latency = System.currentTimeMillis() - t0
+        metrics.recordFlush(result, group.size, coalescedInFlush, latency)
+        log.debug(
+            "flushed {} display rows (inserted={} updated={}), {} group rows, {} coalesced in {}ms",
+            display.size, result.inserted, result.updated, group.size, coalescedInFlush, latency
+        )
+    }
+
+    /** Drops everything queued — used when the caches are wiped, so stale rows don't reappear. */
+    fun discard() {
+        flushJob?.cancel()
+        flushJob = null
+        pendingDisplay = LinkedHashMap()
+        pendingGroup = LinkedHashMap()
+        pendingStamp = null
+        coalesced = 0
+        generation++
+    }
+
+    private suspend fun onEnqueued() {
+        if (pendingRows >= maxPendingRows) {
+            flush()
+        } else if (flushJob == null && pendingRows > 0) {
+            flushJob = scope.launch {
+                delay(flushWindowMs)
+                flushJob = null
+                try {
+                    flush()
+                } catch (x: CancellationException) {
+                    throw x
+                } catch (x: Exception) {
+                    // the rows stay queued for the next flush
+                    log.warn("write-behind flush of {} rows failed", pendingRows, x)
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import de.schildbach.wallet.database.dao.TxDisplayCacheUpsertResult
+import org.dash.wallet.common.util.LatencyHistogram
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Counters for writes to `tx_display_cache` made by [TxDisplayCacheService], including the
+ * size and frequency of [TxCacheWriteBehind] flushes.
+ * All counters are cumulative for the process lifetime; [snapshot] returns a consistent-enough
+ * copy for logging or a debug screen.
+ */
+class TxDisplayCacheMetrics {
+    data class Snapshot(
+        val batches: Long,
+        val rowsInserted: Long,
+        val rowsUpdated: Long,
+        val rowsDeleted: Long,
+        val rowsSkipped: Long,
+        val batchLatency: String,
+        val flushes: Long,
+        val groupRowsFlushed: Long,
+        val rowsCoalesced: Long,
+        val flushSize: String,
+        val flushInterval: String
+    )
+
+    private val batches = AtomicLong()
+    private val rowsInserted = AtomicLong()
+    private val rowsUpdated = AtomicLong()
+    private val rowsDeleted = AtomicLong()
+    private val rowsSkipped = AtomicLong()
+    private val batchLatencyMs = LatencyHistogram()
+    private val flushes = AtomicLong()
+    private val groupRowsFlushed = AtomicLong()
+    private val rowsCoalesced = AtomicLong()
+    private val flushSizeRows = LatencyHistogram(FLUSH_SIZE_BOUNDS)
+    private val flushIntervalMs = LatencyHistogram()
+    private val lastFlushAt = AtomicLong()
+
+    companion object {
+        private val FLUSH_SIZE_BOUNDS = longArrayOf(1, 2, 5, 10, 25, 50, 100, 250, 500, 1000)
+    }
+
+    /** Records one write batch (incremental update, metadata/contact refresh or full rebuild). */
+    fun recordBatch(
+        result: TxDisplayCacheUpsertResult,
+        latencyMs: Long,
+        deleted: Int = 0,
+        skipped: Int = 0
+    ) {
+        batches.incrementAndGet()
+        rowsInserted.addAndGet(result.inserted.toLong())
+        rowsUpdated.addAndGet(result.updated.toLong())
+        rowsDeleted.addAndGet(deleted.toLong())
+        rowsSkipped.addAndGet(skipped.toLong())
+        batchLatencyMs.record(latencyMs)
+    }
+
+    /**
+     * Records one write-behind flush ([TxCacheWriteBehind]): the display rows are counted as a
+     * batch, plus the flush size, the rows coalesced away and the time since the previous flush.
+     */
+    fun recordFlush(
+        result: TxDisplayCacheUpsertResult,
+        groupRows: Int,
+        coalesced: Int,
+        latencyMs: Long
+    ) {
+        recordBatch(result, latencyMs)
+        flushes.incrementAndGet()
+        groupRowsFlushed.addAndGet(groupRows.toLong())
+        rowsCoalesced.addAndGet(coalesced.toLong())
+        flushSizeRows.record((result.inserted + result.updated + groupRows).toLong())
+        val now = System.currentTimeMillis()
+        val previous = lastFlushAt.getAndSet(now)
+        if (previous != 0L) {
+            flushIntervalMs.record(now - previous)
+        }
+    }
+
+    fun snapshot() = Snapshot(
+        batches.get(),
+        rowsInserted.get(),
+        rowsUpdated.get(),
+        rowsDeleted.get(),
+        rowsSkipped.get(),
+        batchLatencyMs.toString(),
+        flushes.get(),
+        groupRowsFlushed.get(),
+        rowsCoalesced.get(),
+        flushSizeRows.toString(),
+        flushIntervalMs.toString()
+    )
+
+    override fun toString(): String {
+        val s = snapshot()
+        return "batches=${s.batches} inserted=${s.rowsInserted} updated=${s.rowsUpdated} " +
+            "deleted=${s.rowsDeleted} skipped=${s.rowsSkipped} latencyMs[${s.batchLatency}] " +
+            "flushes=${s.flushes} groupRows=${s.groupRowsFlushed} coalesced=${s.rowsCoalesced} " +
+            "flushRows[${s.flushSize}] flushIntervalMs[${s.flushInterval}]"
+    }
+}
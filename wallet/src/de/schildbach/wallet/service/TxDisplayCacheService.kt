@@ -30,12 +30,19 @@ import androidx.paging.map
 import dagger.hilt.android.qualifiers.ApplicationContext
 import de.schildbach.wallet.Constants
 import de.schildbach.wallet.WalletApplication
+import de.schildbach.wallet.database.AppDatabase
+import de.schildbach.wallet.database.TxDisplayCachePageKey
+import de.schildbach.wallet.database.TxDisplayCachePagingSource
 import de.schildbach.wallet.database.dao.TxDisplayCacheDao
+import de.schildbach.wallet.database.dao.TxDisplayCacheUpsertResult
 import de.schildbach.wallet.database.dao.TxGroupCacheDao
 import de.schildbach.wallet.database.entity.TxDisplayCacheEntry
 import de.schildbach.wallet.database.entity.TxGroupCacheEntry
+import de.schildbach.wallet.database.entity.TxGroupCacheStamp
 import de.schildbach.wallet.database.entity.DashPayProfile
 import de.schildbach.wallet.service.platform.IdentityRepository
+import de.schildbach.wallet.transactions.TransactionWrapperHelper
+import de.schildbach.wallet.transactions.TransactionWrapperIndex
 import de.schildbach.wallet.transactions.TxDirectionFilter
 import de.schildbach.wallet.transactions.TxFilterType
 import de.schildbach.wallet.transactions.coinjoin.CoinJoinMixingTxSet
@@ -95,6 +102,7 @@ import javax.inject.Singleton
 class TxDisplayCacheService @Inject constructor(
     private val walletData: WalletDataProvider,
     private val walletApplication: WalletApplication,
+    private val appDatabase: AppDatabase,
     private val txDisplayCacheDao: TxDisplayCacheDao,
     private val txGroupCacheDao: TxGroupCacheDao,
     private val metadataProvider: TransactionMetadataProvider,
@@ -105,19 +113,24 @@ class TxDisplayCacheService @Inject constructor(
 
     companion object {
         private const val BATCHING_PERIOD = 500L
+        private const val METRICS_LOG_INTERVAL_MS = 60_000L
         private val log = LoggerFactory.getLogger(TxDisplayCacheService::class.java)
     }
 
-    // Single-threaded worker scope — all mutations to wrappedTransactionList, metadata,
+    // Single-threaded worker scope — all mutations to wrapperIndex, metadata,
     // contacts, contactsByTxId run here to avoid data races.
     @VisibleForTesting
     val serviceScope = CoroutineScope(Dispatchers.IO.limitedParallelism(1) + SupervisorJob())
 
+    /** Write counters and latency for `tx_display_cache`, summarized in the log once a minute. */
+    val metrics = TxDisplayCacheMetrics()
+    private var lastMetricsLogTime = 0L
+
     private val pagingConfig = PagingConfig(pageSize = 50, prefetchDistance = 20, enablePlaceholders = false)
 
-    // In-memory sorted wrapped list
-    @Volatile
-    private var wrappedTransactionList: List<TransactionWrapper> = emptyList()
+    // In-memory wrapped list, indexed by id and txId and kept sorted by group date
+    private val wrapperIndex = TransactionWrapperIndex()
+    private val writeBehind = TxCacheWriteBehind(appDatabase, serviceScope, metrics)
 
     private val _transactionsLoaded = MutableStateFlow(false)
     val transactionsLoaded: StateFlow<Boolean> = _transactionsLoaded.asStateFlow()
@@ -125,7 +138,7 @@ class TxDisplayCacheService @Inject constructor(
     private val _isBuildingCache = MutableStateFlow(false)
     val isBuildingCache: StateFlow<Boolean> = _isBuildingCache.asStateFlow()
 
-    private val _currentPagingSource = MutableStateFlow<PagingSource<Int, TxDisplayCacheEntry>?>(null)
+    private val _currentPagingSource = MutableStateFlow<PagingSource<TxDisplayCachePageKey, TxDisplayCacheEntry>?>(null)
 
     private sealed class TxDataSource {
         object Empty : TxDataSource()
@@ -170,8 +183,11 @@ class TxDisplayCacheService @Inject constructor(
                     Pager(
                         config = pagingConfig,
                         pagingSourceFactory = {
-                            txDisplayCacheDao.pagingSource(_liveFilterFlag.value)
-                                .also { _currentPagingSource.value = it }
+                            TxDisplayCachePagingSource(
+                                txDisplayCacheDao,
+                                appDatabase.invalidationTracker,
+                                _liveFilterFlag.value
+                            ).also { _currentPagingSource.value = it }
                         }
                     ).flow.map { pagingData ->
                         pagingData
@@ -225,7 +241,7 @@ class TxDisplayCacheService @Inject constructor(
                 }
                 // Always populate the cache adapter, regardless of which coroutine won
                 // the serviceScope race (_txDataSource may already be RoomLive if
-                // getCount() completed before getAll()).
+                // hasRows() completed before getAll()).
                 _cachedRows.value = historyRows
                 if (_txDataSource.value is TxDataSource.Empty) {
                     _txDataSource.value = TxDataSource.PrebuiltCache(historyRows)
@@ -238,8 +254,8 @@ class TxDisplayCacheService @Inject constructor(
             .flatMapLatest { (direction, wallet) ->
                 if (wallet == null) return@flatMapLatest emptyFlow()
                 val filter = TxDirectionFilter(direction, wallet)
-                if (wrappedTransactionList.isEmpty()) {
-                    if (txDisplayCacheDao.getCount() > 0) {
+                if (wrapperIndex.isEmpty()) {
+                    if (txDisplayCacheDao.hasRows()) {
                         _liveFilterFlag.value = filter.direction.toFilterFlag()
                         _txDataSource.value = TxDataSource.RoomLive
                         _transactionsLoaded.value = true
@@ -281,9 +297,7 @@ class TxDisplayCacheService @Inject constructor(
                     return@onEach
                 }
 
-                val inMemoryWrappers = wrappedTransactionList.filter { wrapper ->
-                    wrapper.transactions.keys.any { it in changedIds }
-                }
+                val inMemoryWrappers = changedIds.mapNotNull { wrapperIndex.getByTxId(it) }.distinct()
                 val inMemoryTxIds = inMemoryWrappers.flatMap { it.transactions.keys }.toSet()
                 val missingTxIds = changedIds.filter { it !in inMemoryTxIds }.map { it.toString() }
                 val lazyWrappers = if (missingTxIds.isNotEmpty()) {
@@ -318,19 +332,19 @@ class TxDisplayCacheService @Inject constructor(
                     val rowIds = newEntries.map { it.rowId }
                     val existingByRowId = txDisplayCacheDao.getEntriesByIds(rowIds).associateBy { it.rowId }
                     val entries = newEntries.map { entry ->
-                        val existing = existingByRowId[entry.rowId]
+                        val existing = writeBehind.pendingDisplayEntry(entry.rowId) ?: existingByRowId[entry.rowId]
                         if (existing != null && existing.service != null && entry.service == null) {
                             entry.copy(
                                 service      = existing.service,
                                 iconType     = existing.iconType,
                                 iconBgType   = existing.iconBgType,
                                 customIconId = entry.customIconId ?: existing.customIconId
-                            )
+                            ).withContentHash()
                         } else {
                             entry
                         }
                     }
-                    txDisplayCacheDao.insertAll(entries)
+                    writeDisplayEntries(entries)
                 }
             }
             .catch { e -> log.error("metadata flow error", e) }
@@ -355,11 +369,12 @@ class TxDisplayCacheService @Inject constructor(
 
         walletData.observeWalletReset()
             .onEach {
-                wrappedTransactionList = emptyList()
+                wrapperIndex.clear()
                 contactsByTxId = mapOf()
                 _cachedRows.value = emptyList()
+                writeBehind.discard()
                 txDisplayCacheDao.deleteAll()
-                txGroupCacheDao.deleteAll()
+                txGroupCacheDao.clearIndex()
                 walletData.wallet?.let { wallet ->
                     coinJoinWrapperFactory = CoinJoinTxWrapperFactory(walletData.networkParameters, wallet as WalletEx)
                     crowdNodeWrapperFactory = FullCrowdNodeSignUpTxSetFactory(walletData.networkParameters, wallet)
@@ -407,13 +422,13 @@ class TxDisplayCacheService @Inject constructor(
      * Use [loadGroupWrapper] for a full lookup that falls through to the group cache.
      */
     fun getTransactionWrapper(rowId: String): TransactionWrapper? =
-        wrappedTransactionList.find { it.id == rowId }
+        wrapperIndex.getById(rowId)
 
     /**
      * Returns the in-memory wrapper for [rowId], or loads it from the group cache on demand.
      */
     suspend fun loadGroupWrapper(rowId: String): TransactionWrapper? {
-        wrappedTransactionList.find { it.id == rowId }?.let { return it }
+        wrapperIndex.getById(rowId)?.let { return it }
         val firstEntry = txGroupCacheDao.getGroupEntries(rowId).firstOrNull() ?: return null
         return loadWrapperOnDemand(rowId, firstEntry.wrapperType)
     }
@@ -432,7 +447,8 @@ class TxDisplayCacheService @Inject constructor(
      *      txs merged into existing CoinJoin date-groups (REPLACE instead of INSERT in
      *      `tx_display_cache`) while the underlying tx membership changed.
      *
-     * Either condition triggers a full rebuild.
+     * Either condition triggers a rebuild.  The rebuild reuses the stamped group index, so
+     * only transactions missing from it are classified.
      */
     private fun rebuildIfCacheIncomplete() {
         serviceScope.launch {
@@ -440,6 +456,8 @@ class TxDisplayCacheService @Inject constructor(
             // is restored from disk), suspend until it becomes available.
             val wallet = walletData.wallet
                 ?: walletData.observeWallet().filterNotNull().first()
+            // Count what has been queued for writing, not only what has reached the tables.
+            writeBehind.flush()
             val walletTxCount = wallet.getTransactionCount(true)
             val cachedTxCount = txGroupCacheDao.getTotalTxCount()
             val groupCount = txGroupCacheDao.getGroupCount()
@@ -463,20 +481,25 @@ class TxDisplayCacheService @Inject constructor(
                     "cache is complete"
             )
             if (needsRebuild) {
-                forceRebuildTransactionCache()
+                // The stamped group index stays valid here — only transactions missing from
+                // it are classified. A manual refresh uses forceRebuildTransactionCache instead.
+                wrapperIndex.clear()
+                rebuildWrappedList(TxDirectionFilter(_currentFilter.value, wallet))
             }
         }
     }
 
     /**
-     * Wipes both caches and triggers a full rebuild from the current wallet state.
+     * Wipes the group index and triggers a full rebuild (classifying every transaction)
+     * from the current wallet state.
+     * The display cache is not wiped: [updateDisplayCache] diffs the rebuilt rows against
+     * the stored ones, so unchanged rows stay on screen and are not rewritten.
      */
     fun forceRebuildTransactionCache() {
         serviceScope.launch {
-            txDisplayCacheDao.deleteAll()
-            txGroupCacheDao.deleteAll()
-            wrappedTransactionList = emptyList()
-            _txDataSource.value = TxDataSource.Empty
+            writeBehind.flush()
+            txGroupCacheDao.clearIndex()
+            wrapperIndex.clear()
             val wallet = walletData.wallet ?: return@launch
             val filter = TxDirectionFilter(_currentFilter.value, wallet)
             rebuildWrappedList(filter)
@@ -495,9 +518,10 @@ class TxDisplayCacheService @Inject constructor(
 
     /** clear database tables during a wipe wallet or rescan operation */
     suspend fun clearDatabase() {
+        writeBehind.discard()
         txDisplayCacheDao.deleteAll()
-        txGroupCacheDao.deleteAll()
-        wrappedTransactionList = emptyList()
+        txGroupCacheDao.clearIndex()
+        wrapperIndex.clear()
         _cachedRows.value = emptyList()
         // Invalidate the current PagingSource so it re-queries the now-empty table.
         // Do NOT set _txDataSource = Empty: that would stop the Pager, preventing
@@ -508,30 +532,59 @@ class TxDisplayCacheService @Inject constructor(
     private suspend fun rebuildWrappedList(filter: TxDirectionFilter) {
         _isBuildingCache.value = true
         try {
+            // The rebuild diffs against the stored rows and stamp, so queued writes must land first.
+            writeBehind.flush()
             walletData.wallet?.let { wallet ->
                 val t0 = System.currentTimeMillis()
                 coinJoinWrapperFactory = CoinJoinTxWrapperFactory(walletData.networkParameters, wallet as WalletEx)
                 crowdNodeWrapperFactory = FullCrowdNodeSignUpTxSetFactory(walletData.networkParameters, wallet)
 
-                val rawCount = wallet.getTransactions(true).size
+                val walletTxs = wallet.getTransactions(true)
+                val blockHeight = wallet.lastBlockSeenHeight
                 val t1 = System.currentTimeMillis()
 
                 val cnFactory = crowdNodeWrapperFactory ?: return
                 val cjFactory = coinJoinWrapperFactory ?: return
-                val wrapped = walletData.wrapAllTransactions(cnFactory, cjFactory)
+                val stamp = txGroupCacheDao.getStamp()
+                val indexed = if (stamp != null && stamp.isValidFor(blockHeight, walletTxs.size)) {
+                    wrapFromIndex(walletTxs, cjFactory, cnFactory)
+                } else {
+                    null
+                }
+                val wrapped = indexed?.wrappers ?: walletData.wrapAllTransactions(cnFactory, cjFactory)
                 val t2 = System.currentTimeMillis()
 
-                wrappedTransactionList = wrapped.sortedByDescending { it.groupDate }
+                wrapperIndex.replaceAll(wrapped)
                 val t3 = System.currentTimeMillis()
 
+                if (indexed != null) {
+                    txGroupCacheDao.applyDiff(
+                        indexed.changedWrappers.flatMap { groupEntriesFor(it) },
+                        indexed.removedTxIds
+                    )
+                } else {
+                    persistGroupCache(wrapped)
+                }
+                txGroupCacheDao.setStamp(
+                    TxGroupCacheStamp(
+                        lastBlockHeight = blockHeight,
+                        txCount = walletTxs.size,
+                        updatedAt = System.currentTimeMillis()
+                    )
+                )
+                val t4 = System.currentTimeMillis()
+
                 log.info(
-                    "rebuildWrappedList: {} raw txs → {} wrappers → {} sorted | " +
-                    "getTransactions={}ms wrapAll={}ms sort={}ms total={}ms",
-                    rawCount, wrapped.size, wrappedTransactionList.size,
-                    t1 - t0, t2 - t1, t3 - t2, t3 - t0
+                    "rebuildWrappedList: {} raw txs → {} wrappers | {} | " +
+                    "getTransactions={}ms wrap={}ms sort={}ms persistIndex={}ms total={}ms",
+                    walletTxs.size, wrapperIndex.size,
+                    indexed?.let {
+                        "index: reused=${it.reusedTxCount} classified=${it.classifiedTxCount} " +
+                            "removed=${it.removedTxIds.size} changedGroups=${it.changedWrappers.size}"
+                    } ?: "full classification (stamp=$stamp)",
+                    t1 - t0, t2 - t1, t3 - t2, t4 - t3, t4 - t0
                 )
 
-                persistGroupCache(wrapped)
                 updateDisplayCache(wrapped.toList(), filter.direction.toFilterFlag())
 
                 _isBuildingCache.value = false
@@ -545,6 +598,112 @@ class TxDisplayCacheService @Inject constructor(
         }
     }
 
+    private class IndexedWrapResult(
+        val wrappers: Collection<TransactionWrapper>,
+        /** Wrappers whose membership differs from the stored index and must be rewritten. */
+        val changedWrappers: Set<TransactionWrapper>,
+        /** Indexed txIds whose stored rows must go: no longer in the wallet, or moved to another group. */
+        val removedTxIds: List<String>,
+        val reusedTxCount: Int,
+        val classifiedTxCount: Int
+    )
+
+    /**
+     * Rebuilds the wrapper list from the persisted group index: stored group membership is
+     * reused as-is, and only wallet transactions missing from the index are classified with
+     * the wrapper factories.  Cost is proportional to the number of new transactions rather
+     * than to the size of the wallet.  Returns null if the index is empty.
+     */
+    private suspend fun wrapFromIndex(
+        walletTxs: Set<Transaction>,
+        cjFactory: CoinJoinTxWrapperFactory,
+        cnFactory: FullCrowdNodeSignUpTxSetFactory
+    ): IndexedWrapResult? {
+        val indexEntries = txGroupCacheDao.getAll()
+        if (indexEntries.isEmpty()) return null
+
+        val txsById = HashMap<String, Transaction>(walletTxs.size * 2)
+        walletTxs.forEach { txsById[it.txId.toString()] = it }
+
+        val wrappersById = LinkedHashMap<String, TransactionWrapper>()
+        val changedWrappers = mutableSetOf<TransactionWrapper>()
+        val indexedTxIds = HashSet<String>(indexEntries.size * 2)
+        val removedTxIds = mutableListOf<String>()
+        var reused = 0
+        var classified = 0
+
+        for (rows in indexEntries.groupBy { it.groupId }.values) {
+            val txs = rows.mapNotNull { row ->
+                indexedTxIds.add(row.txId)
+                txsById[row.txId] ?: run {
+                    removedTxIds.add(row.txId)
+                    null
+                }
+            }
+            if (txs.isEmpty()) continue
+
+            val wrapper = when (rows.first().wrapperType) {
+                TxGroupCacheEntry.TYPE_COINJOIN -> cjFactory.restore(txs)
+                TxGroupCacheEntry.TYPE_CROWDNODE -> {
+                    // The sign-up set tracks which filters matched, so re-run its (few) txs.
+                    txs.forEach { cnFactory.tryInclude(it) }
+                    cnFactory.wrappers.firstOrNull() ?: run {
+                        // None of them matches the sign-up filters any more: classify them as if they
+                        // were new, and drop their rows in the old group.
+                        for (tx in txs) {
+                            val classifiedWrapper = classifyTransaction(tx, cjFactory, null)
+                            wrappersById[classifiedWrapper.id] = classifiedWrapper
+                            changedWrappers.add(classifiedWrapper)
+                            removedTxIds.add(tx.txId.toString())
+                        }
+                        classified += txs.size
+                        null
+                    }
+                }
+                else -> createSingleTxWrapper(txs.first())
+            } ?: continue
+
+            reused += txs.size
+            wrappersById[wrapper.id] = wrapper
+            if (txs.size != rows.size) {
+                changedWrappers.add(wrapper)
+            }
+        }
+
+        for (tx in walletTxs) {
+            if (tx.txId.toString() in indexedTxIds) continue
+            val wrapper = classifyTransaction(tx, cjFactory, cnFactory)
+            wrappersById[wrapper.id] = wrapper
+            changedWrappers.add(wrapper)
+            classified++
+        }
+
+        return IndexedWrapResult(wrappersById.values, changedWrappers, removedTxIds, reused, classified)
+    }
+
+    /**
+     * Assigns a transaction that is not yet part of any wrapper to a CoinJoin day group, the
+     * CrowdNode sign-up set, or a new single-tx wrapper — in the same precedence order as
+     * [TransactionWrapperHelper.wrapTransactions].
+     */
+    private fun classifyTransaction(
+        tx: Transaction,
+        cjFactory: CoinJoinTxWrapperFactory?,
+        cnFactory: FullCrowdNodeSignUpTxSetFactory?
+    ): TransactionWrapper {
+        val (cjIncluded, cjWrapper) = cjFactory?.tryInclude(tx) ?: (false to null)
+        if (cjIncluded && cjWrapper != null) {
+            return cjWrapper
+        }
+
+        val (cnIncluded, cnWrapper) = cnFactory?.tryInclude(tx) ?: (false to null)
+        if (cnIncluded && cnWrapper != null) {
+            return cnWrapper
+        }
+
+        return createSingleTxWrapper(tx)
+    }
+
     private suspend fun updateDisplayCache(wrappers: List<TransactionWrapper>, filterFlag: Int) {
         val t0 = System.currentTimeMillis()
 
@@ -567,35 +726,63 @@ class TxDisplayCacheService @Inject constructor(
         }
 
         val allEntries = wrappers.map { renderEntry(it) }
+        val t1 = System.currentTimeMillis()
+
+        // Diff against what is already stored: only rows whose rendered content changed are
+        // rewritten, and only rows that no longer correspond to a wrapper are deleted.
+        val storedHashes = txDisplayCacheDao.getContentHashes()
+            .associateTo(HashMap(wrappers.size * 2)) { it.rowId to it.contentHash }
+        val upserts = ArrayList<TxDisplayCacheEntry>()
+        for (entry in allEntries) {
+            val storedHash = storedHashes.remove(entry.rowId)
+            if (storedHash == null || storedHash != entry.contentHash) {
+                upserts.add(entry)
+            }
+        }
+        val deletes = storedHashes.keys.toList()
+        val t2 = System.currentTimeMillis()
+
         // Set the filter flag BEFORE writing to Room so that when Room's invalidation
         // tracker fires the pagingSourceFactory callback (which reads _liveFilterFlag),
         // it already sees the correct flag rather than the stale previous value.
         _liveFilterFlag.value = filterFlag
-        txDisplayCacheDao.replaceAll(allEntries)
-        log.info("updateDisplayCache: {} rows in {}ms", allEntries.size, System.currentTimeMillis() - t0)
+        val result = if (upserts.isNotEmpty() || deletes.isNotEmpty()) {
+            txDisplayCacheDao.applyDiff(upserts, deletes)
+        } else {
+            TxDisplayCacheUpsertResult(0, 0)
+        }
+        val t3 = System.currentTimeMillis()
+        metrics.recordBatch(result, t3 - t2, deletes.size, allEntries.size - upserts.size)
+        log.info(
+            "updateDisplayCache: {} rows | upserted={} deleted={} skipped={} | " +
+                "render={}ms diff={}ms write={}ms total={}ms",
+            allEntries.size, upserts.size, deletes.size, allEntries.size - upserts.size,
+            t1 - t0, t2 - t1, t3 - t2, t3 - t0
+        )
         _txDataSource.value = TxDataSource.RoomLive
     }
 
     private suspend fun persistGroupCache(wrappers: Collection<TransactionWrapper>) {
-        val entries = wrappers.flatMap { wrapper ->
-            val type = when (wrapper) {
-                is CoinJoinMixingTxSet     -> TxGroupCacheEntry.TYPE_COINJOIN
-                is FullCrowdNodeSignUpTxSet -> TxGroupCacheEntry.TYPE_CROWDNODE
-                else                       -> TxGroupCacheEntry.TYPE_SINGLE
-            }
-            wrapper.transactions.values
-                .sortedBy { it.updateTime }
-                .mapIndexed { index, tx ->
-                    TxGroupCacheEntry(
-                        groupId     = wrapper.id,
-                        txId        = tx.txId.toString(),
-                        wrapperType = type,
-                        groupDate   = wrapper.groupDate.toString(),
-                        sortOrder   = index
-                    )
-                }
+        txGroupCacheDao.replaceAll(wrappers.flatMap { groupEntriesFor(it) })
+    }
+
+    private fun groupEntriesFor(wrapper: TransactionWrapper): List<TxGroupCacheEntry> {
+        val type = when (wrapper) {
+            is CoinJoinMixingTxSet     -> TxGroupCacheEntry.TYPE_COINJOIN
+            is FullCrowdNodeSignUpTxSet -> TxGroupCacheEntry.TYPE_CROWDNODE
+            else                       -> TxGroupCacheEntry.TYPE_SINGLE
         }
-        txGroupCacheDao.replaceAll(entries)
+        return wrapper.transactions.values
+            .sortedBy { it.updateTime }
+            .mapIndexed { index, tx ->
+                TxGroupCacheEntry(
+                    groupId     = wrapper.id,
+                    txId        = tx.txId.toString(),
+                    wrapperType = type,
+                    groupDate   = wrapper.groupDate.toString(),
+                    sortOrder   = index
+                )
+            }
     }
 
     private suspend fun initializeFactoriesFromCache() {
@@ -637,7 +824,7 @@ class TxDisplayCacheService @Inject constructor(
             wrapper?.let { activeWrappers.add(it) }
         }
 
-        wrappedTransactionList = activeWrappers.sortedByDescending { it.groupDate }
+        wrapperIndex.replaceAll(activeWrappers)
         log.info("initializeFactoriesFromCache: {} active groups loaded in {}ms",
             byGroup.size, System.currentTimeMillis() - t0)
     }
@@ -676,27 +863,18 @@ class TxDisplayCacheService @Inject constructor(
             else -> txs.firstOrNull()?.let { createSingleTxWrapper(it) }
         } ?: return null
 
-        if (wrappedTransactionList.none { it.id == wrapper.id }) {
-            wrappedTransactionList = (wrappedTransactionList + wrapper)
-                .sortedByDescending { it.groupDate }
+        if (!wrapperIndex.add(wrapper)) {
+            txs.forEach { wrapperIndex.indexTransaction(wrapper, it.txId) }
         }
         return wrapper
     }
 
     private suspend fun updateWrappedListForTransactions(txs: List<Transaction>) {
-        val txIdToWrapper = HashMap<String, TransactionWrapper>(wrappedTransactionList.size * 4)
-        wrappedTransactionList.forEach { wrapper ->
-            wrapper.transactions.keys.forEach { txId ->
-                txIdToWrapper[txId.toString()] = wrapper
-            }
-        }
-
-        val mutableList = wrappedTransactionList.toMutableList()
         val affectedWrappers = mutableSetOf<TransactionWrapper>()
         val unknownTxs = mutableListOf<Transaction>()
 
         for (tx in txs) {
-            val existing = txIdToWrapper[tx.txId.toString()]
+            val existing = wrapperIndex.getByTxId(tx.txId)
             if (existing != null) {
                 existing.transactions[tx.txId] = tx
                 affectedWrappers.add(existing)
@@ -708,61 +886,31 @@ class TxDisplayCacheService @Inject constructor(
         if (unknownTxs.isNotEmpty()) {
             val unknownKeys = unknownTxs.map { it.txId.toString() }
             val cachedByTxId = txGroupCacheDao.getGroupsForTxIds(unknownKeys).associateBy { it.txId }
-            val loadedById = mutableList.associateByTo(HashMap()) { it.id }
 
             for (tx in unknownTxs) {
                 val txKey = tx.txId.toString()
                 val cacheEntry = cachedByTxId[txKey]
 
                 if (cacheEntry != null) {
-                    val wrapper = loadedById[cacheEntry.groupId]
+                    // loadWrapperOnDemand adds the reconstructed wrapper to the index
+                    val wrapper = wrapperIndex.getById(cacheEntry.groupId)
                         ?: loadWrapperOnDemand(cacheEntry.groupId, cacheEntry.wrapperType)
-                            ?.also { loadedById[it.id] = it }
                     if (wrapper != null) {
                         wrapper.transactions[tx.txId] = tx
+                        wrapperIndex.indexTransaction(wrapper, tx.txId)
                         affectedWrappers.add(wrapper)
-                        if (mutableList.none { it.id == wrapper.id }) {
-                            mutableList.add(wrapper)
-                        }
                         continue
                     }
                 }
 
-                var added = false
-
-                val (cjIncluded, cjWrapper) = coinJoinWrapperFactory?.tryInclude(tx) ?: (false to null)
-                if (cjIncluded && cjWrapper != null) {
-                    if (mutableList.none { it.id == cjWrapper.id }) {
-                        mutableList.add(cjWrapper)
-                    }
-                    affectedWrappers.add(cjWrapper)
-                    added = true
-                }
-
-                if (!added) {
-                    val (cnIncluded, cnWrapper) = crowdNodeWrapperFactory?.tryInclude(tx) ?: (false to null)
-                    if (cnIncluded && cnWrapper != null) {
-                        if (mutableList.none { it.id == cnWrapper.id }) {
-                            mutableList.add(cnWrapper)
-                        }
-                        affectedWrappers.add(cnWrapper)
-                        added = true
-                    }
-                }
-
-                if (!added) {
-                    val wrapper = createSingleTxWrapper(tx)
-                    affectedWrappers.add(wrapper)
-                    mutableList.add(wrapper)
+                val wrapper = classifyTransaction(tx, coinJoinWrapperFactory, crowdNodeWrapperFactory)
+                if (!wrapperIndex.add(wrapper)) {
+                    wrapperIndex.indexTransaction(wrapper, tx.txId)
                 }
+                affectedWrappers.add(wrapper)
             }
         }
 
-        if (mutableList.size != wrappedTransactionList.size) {
-            mutableList.sortByDescending { it.groupDate }
-        }
-        wrappedTransactionList = mutableList
-
         if (affectedWrappers.isEmpty()) return
 
         val displayEntries = affectedWrappers.map { wrapper ->
@@ -780,37 +928,15 @@ class TxDisplayCacheService @Inject constructor(
                 metadata[txId]?.customIconId?.toString()
             )
         }
-        if (displayEntries.isNotEmpty()) {
-            val beforeCount = txDisplayCacheDao.getCount()
-            txDisplayCacheDao.insertAll(displayEntries)
-            val afterCount = txDisplayCacheDao.getCount()
-            if (afterCount != beforeCount) {
-                log.info(
-                    "updateWrappedList: {} batch txs → {} affected wrappers | display {} → {} rows",
-                    txs.size, affectedWrappers.size, beforeCount, afterCount
-                )
-            }
-        }
-
-        val groupEntries = affectedWrappers.flatMap { wrapper ->
-            val type = when (wrapper) {
-                is CoinJoinMixingTxSet     -> TxGroupCacheEntry.TYPE_COINJOIN
-                is FullCrowdNodeSignUpTxSet -> TxGroupCacheEntry.TYPE_CROWDNODE
-                else                       -> TxGroupCacheEntry.TYPE_SINGLE
-            }
-            wrapper.transactions.values
-                .sortedBy { it.updateTime }
-                .mapIndexed { index, tx ->
-                    TxGroupCacheEntry(
-                        groupId     = wrapper.id,
-                        txId        = tx.txId.toString(),
-                        wrapperType = type,
-                        groupDate   = wrapper.groupDate.toString(),
-                        sortOrder   = index
-                    )
-                }
+        log.debug(
+            "updateWrappedList: {} batch txs → {} affected wrappers | {} rows pending",
+            txs.size, affectedWrappers.size, writeBehind.pendingRows
+        )
+        walletData.wallet?.let { wallet ->
+            writeBehind.enqueueStampAdvance(wallet.lastBlockSeenHeight, wallet.getTransactionCount(true))
         }
-        txGroupCacheDao.insertAll(groupEntries)
+        writeBehind.enqueueGroup(affectedWrappers.flatMap { groupEntriesFor(it) })
+        writeDisplayEntries(displayEntries)
 
         if (unknownTxs.isNotEmpty()) {
             resolveContactsForTransactions(unknownTxs, affectedWrappers)
@@ -821,7 +947,7 @@ class TxDisplayCacheService @Inject constructor(
         if (contacts.isEmpty()) return
         if (!identityRepo.hasBlockchainIdentity) return
 
-        val txsToResolve = wrappedTransactionList
+        val txsToResolve = wrapperIndex.wrappers
             .map { it.transactions.values.first() }
             .filter { tx ->
                 !tx.isEntirelySelf(walletData.transactionBag) &&
@@ -858,7 +984,7 @@ class TxDisplayCacheService @Inject constructor(
             _currentPagingSource.value?.invalidate()
             log.info("resolveAllContacts: resolved {} contacts for {} candidates", resolved.size, txsToResolve.size)
 
-            val updatedEntries = wrappedTransactionList
+            val updatedEntries = wrapperIndex.wrappers
                 .filter { wrapper -> resolved.containsKey(wrapper.transactions.keys.first().toString()) }
                 .map { wrapper ->
                     val txId = wrapper.transactions.keys.first()
@@ -878,7 +1004,7 @@ class TxDisplayCacheService @Inject constructor(
                     )
                 }
             if (updatedEntries.isNotEmpty()) {
-                txDisplayCacheDao.insertAll(updatedEntries)
+                writeDisplayEntries(updatedEntries)
             }
         }
     }
@@ -954,7 +1080,21 @@ class TxDisplayCacheService @Inject constructor(
                 )
             }
         if (updatedEntries.isNotEmpty()) {
-            txDisplayCacheDao.insertAll(updatedEntries)
+            writeDisplayEntries(updatedEntries)
+        }
+    }
+
+    /**
+     * Queues [entries] on the write-behind stage; they are upserted with the next flush,
+     * which also records the write in [metrics].
+     */
+    private suspend fun writeDisplayEntries(entries: List<TxDisplayCacheEntry>) {
+        if (entries.isEmpty()) return
+        writeBehind.enqueueDisplay(entries)
+        val now = System.currentTimeMillis()
+        if (now - lastMetricsLogTime >= METRICS_LOG_INTERVAL_MS) {
+            lastMetricsLogTime = now
+            log.info("tx_display_cache metrics: {}", metrics)
         }
     }
 
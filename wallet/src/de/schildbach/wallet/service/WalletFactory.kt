@@ -153,7 +153,8 @@ class DashWalletFactory @Inject constructor(
         var walletStream: FileInputStream? = null
         try {
             walletStream = FileInputStream(walletFile)
-            val wallet = WalletProtobufSerializer().readWallet(walletStream, false, getExtensions(params))
+            val wallet = WalletProtobufLoader.forDevice(walletApplication)
+                .readWallet(walletStream, false, getExtensions(params))
 
             if (wallet.params != params) {
                 throw UnreadableWalletException(
@@ -176,7 +177,8 @@ class DashWalletFactory @Inject constructor(
         try {
             inputStream = walletApplication.openFileInput(backupFile)
 
-            val wallet = WalletProtobufSerializer().readWallet(inputStream, true, getExtensions(params))
+            val wallet = WalletProtobufLoader.forDevice(walletApplication)
+                .readWallet(inputStream, true, getExtensions(params))
 
             if (!wallet.isConsistent) throw Error("inconsistent backup")
 
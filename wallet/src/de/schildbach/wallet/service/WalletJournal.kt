@@ -0,0 +1,789 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import androidx.annotation.VisibleForTesting
+import com.google.common.base.Stopwatch
+import com.google.common.primitives.Longs
+import com.google.protobuf.ByteString
+import de.schildbach.wallet.Constants
+import org.bitcoinj.core.NetworkParameters
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.core.TransactionConfidence.ConfidenceType
+import org.bitcoinj.core.listeners.TransactionConfidenceEventListener
+import org.bitcoinj.utils.ContextPropagatingThreadFactory
+import org.bitcoinj.utils.Threading
+import org.bitcoinj.wallet.Protos
+import org.bitcoinj.wallet.UnreadableWalletException
+import org.bitcoinj.wallet.Wallet
+import org.bitcoinj.wallet.WalletExtension
+import org.bitcoinj.wallet.WalletProtobufSerializer
+import org.bitcoinj.wallet.WalletTransaction
+import org.bitcoinj.wallet.listeners.KeyChainEventListener
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener
+import org.bitcoinj.wallet.listeners.WalletResetEventListener
+import org.slf4j.LoggerFactory
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileNotFoundException
+import java.io.FileOutputStream
+import java.io.IOException
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import java.util.Objects
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import java.util.zip.CRC32
+import kotlin.concurrent.withLock
+
+/**
+ * Journaled wallet persistence.
+ *
+ * Rather than re-serializing the whole wallet on every autosave, transactions that changed since the last
+ * flush are appended to a journal next to the wallet file, one `Protos.Transaction` record each, followed by
+ * wallet extensions (CoinJoin, identity keys, …) and tags whose encoding changed, and the last seen block.
+ * The journal is folded into a full protobuf snapshot ([compact]) after [compactAfterRecords] records or
+ * [compactAfterMs], after reorganizations, resets and key chain changes, including newly issued keys (which
+ * are not journaled), and whenever the wallet is saved explicitly, e.g. on shutdown.
+ *
+ * [readWallet] replays the journal on top of the snapshot, so a crash loses at most one flush window.
+ * Snapshot and journal are paired by a generation number stored as a wallet tag; a journal whose generation
+ * does not match the snapshot has already been folded into it and is ignored. The journal of the current
+ * generation stays open until the next snapshot has been written, so a failed compaction loses nothing and
+ * is retried with a growing delay.
+ *
+ * Like dashj, which saves right away from `commitTx` and when keys are issued, transactions this wallet
+ * commits are persisted before `commitTx` returns, and [saveNow] is there for the callers issuing keys.
+ *
+ * The wallet lock is always taken before [fileLock], never while holding it.
+ */
+class WalletJournal @JvmOverloads constructor(
+    private val walletFile: File,
+    val journalFile: File = File(walletFile.parentFile, walletFile.name + JOURNAL_SUFFIX),
+    private val flushDelayMs: Long = Constants.Files.WALLET_AUTOSAVE_DELAY_MS,
+    private val compactAfterRecords: Int = Constants.Files.WALLET_JOURNAL_COMPACT_RECORDS,
+    private val compactAfterMs: Long = Constants.Files.WALLET_JOURNAL_COMPACT_INTERVAL_MS
+) {
+    companion object {
+        private val log = LoggerFactory.getLogger(WalletJournal::class.java)
+
+        const val JOURNAL_SUFFIX = ".journal"
+        private const val TAG_GENERATION = "org.dash.wallet.journal.generation"
+        private const val MAGIC = 0x444a524e // "DJRN"
+        private const val VERSION = 2
+        private const val RECORD_TRANSACTION: Byte = 1
+        private const val RECORD_BEST_BLOCK: Byte = 2
+        private const val RECORD_EXTENSION: Byte = 3
+        private const val RECORD_TAG: Byte = 4
+        private const val MAX_RECORD_SIZE = 4 * 1024 * 1024
+        private const val COMPACTION_RETRY_DELAY_MS = 1000L
+        private const val MAX_COMPACTION_RETRY_DELAY_MS = 5 * 60 * 1000L
+
+        private val POOLS = arrayOf(
+            WalletTransaction.Pool.UNSPENT,
+            WalletTransaction.Pool.SPENT,
+            WalletTransaction.Pool.PENDING,
+            WalletTransaction.Pool.DEAD
+        )
+
+        // dashj only serializes transactions as part of a whole wallet; journal records reuse its
+        // per-transaction encoder so that replayed records are read back exactly like snapshot entries.
+        // proguard.cfg keeps the method.
+        private val makeTxProto: Method? = try {
+            WalletProtobufSerializer::class.java
+                .getDeclaredMethod("makeTxProto", WalletTransaction::class.java)
+                .apply { isAccessible = true }
+        } catch (x: Exception) {
+            log.warn("wallet journal unavailable, falling back to full saves", x)
+            null
+        }
+
+        /** Whether journaling is available with this dashj version. */
+        @JvmStatic
+        val isSupported: Boolean
+            get() = makeTxProto != null && WalletSnapshotWriter.isSupported
+
+        private fun generationOf(proto: Protos.Wallet): Long {
+            return proto.tagsList.firstOrNull { it.tag == TAG_GENERATION }
+                ?.data?.takeIf { it.size() == Longs.BYTES }
+                ?.let { Longs.fromByteArray(it.toByteArray()) } ?: 0
+        }
+    }
+
+    private class BestBlock(val hash: ByteString, val height: Int, val timeSecs: Long)
+
+    private class Journal(val version: Int) {
+        val transactions = LinkedHashMap<ByteString, Protos.Transaction>()
+        val extensions = LinkedHashMap<String, Protos.Extension>()
+        val tags = LinkedHashMap<String, Protos.Tag>()
+        var bestBlock: BestBlock? = null
+        var records = 0
+        var torn = false
+    }
+
+    private val serializer = WalletProtobufSerializer()
+    private val executor = Executors.newSingleThreadScheduledExecutor(ContextPropagatingThreadFactory("wallet journal"))
+    private val fileLock = ReentrantLock()
+
+    // guarded by this
+    private val dirty = LinkedHashSet<Sha256Hash>()
+    private val fingerprints = HashMap<Sha256Hash, Int>()
+    private var flushScheduled = false
+    private var compactionScheduled = false
+    private var compactionFailures = 0
+
+    // guarded by fileLock
+    private var generation = 0L
+    private var fileOutput: FileOutputStream? = null
+    private var output: DataOutputStream? = null
+    private var records = 0
+    private var lastBlockHash: Sha256Hash? = null
+    // what was last written of the state that is not made of transactions; extensions and tags are
+    // journaled once after every compaction, as the snapshot's encoding of them is not known here
+    private val extensionChecksums = HashMap<String, Long>()
+    private val tagValues = HashMap<String, ByteString>()
+    private var keyChainFingerprint = 0
+    private var lastCompactionAt = System.currentTimeMillis()
+
+    @Volatile
+    private var wallet: Wallet? = null
+    private var loadedWallet: Wallet? = null
+    private var appendable = false
+
+    @Volatile var flushCount = 0L
+        private set
+    @Volatile var recordsAppended = 0L
+        private set
+    @Volatile var bytesAppended = 0L
+        private set
+    @Volatile var compactionCount = 0L
+        private set
+
+    /**
+     * Reads the snapshot and replays the journal on top of it. If the journal cannot be applied, the snapshot
+     * is returned alone; blocks after its last seen block are then simply downloaded again.
+     *
+     * Transactions are read by [loader].
+     */
+    @JvmOverloads
+    @Throws(FileNotFoundException::class, UnreadableWalletException::class)
+    fun readWallet(
+        extensions: Array<WalletExtension>?,
+        loader: WalletProtobufLoader = WalletProtobufLoader.SERIAL
+    ): Wallet {
+        val watch = Stopwatch.createStarted()
+        val snapshot = try {
+            FileInputStream(walletFile).use { WalletProtobufSerializer.parseToProto(it) }
+        } catch (x: FileNotFoundException) {
+            throw x
+        } catch (x: IOException) {
+            throw UnreadableWalletException("Could not parse input stream to protobuf", x)
+        }
+        val params = NetworkParameters.fromID(snapshot.networkIdentifier)
+            ?: throw UnreadableWalletException("Unknown network parameters ID " + snapshot.networkIdentifier)
+
+        fileLock.withLock { generation = generationOf(snapshot) }
+        val journal = try {
+            readJournal(generation)
+        } catch (x: IOException) {
+            log.warn("wallet journal: cannot read {}", journalFile, x)
+            null
+        }
+        fun open(proto: Protos.Wallet): Wallet = loader.readWallet(params, extensions, proto)
+
+        val wallet = if (journal == null || journal.records == 0) {
+            open(snapshot)
+        } else {
+            try {
+                open(applyJournal(snapshot, journal)).also {
+                    log.info(
+                        "wallet journal: replayed {} records ({} transactions) onto generation {}, took {}",
+                        journal.records, journal.transactions.size, generation, watch
+                    )
+                }
+            } catch (x: UnreadableWalletException) {
+                log.error("wallet journal: cannot replay, falling back to the snapshot", x)
+                open(snapshot)
+            }
+        }
+        appendable = journal != null && journal.records == 0 && !journal.torn && journal.version == VERSION
+        loadedWallet = wallet
+        return wallet
+    }
+
+    /**
+     * Starts journaling changes of [wallet]. Unless it is the wallet just read with a clean, empty journal,
+     * a compaction is done first so that the journal starts from a snapshot of exactly this wallet.
+     */
+    fun attach(wallet: Wallet) {
+        check(this.wallet == null) { "already attached" }
+        synchronized(this) {
+            fingerprints.clear()
+            for (tx in wallet.getTransactions(true)) {
+                fingerprints[tx.txId] = fingerprint(tx)
+            }
+        }
+        fileLock.withLock { keyChainFingerprint = keyChainFingerprint(wallet) }
+        this.wallet = wallet
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, coinsReceivedListener)
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, coinsSentListener)
+        wallet.addTransactionConfidenceEventListener(Threading.SAME_THREAD, confidenceListener)
+        wallet.addChangeEventListener(Threading.SAME_THREAD, changeListener)
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, reorganizeListener)
+        wallet.addResetEventListener(Threading.SAME_THREAD, resetListener)
+        wallet.addKeyChainEventListener(Threading.SAME_THREAD, keyChainListener)
+
+        if (appendable && wallet === loadedWallet) {
+            executor.execute {
+                try {
+                    fileLock.withLock { openJournal(append = true) }
+                } catch (x: IOException) {
+                    log.error("wallet journal: cannot open {}", journalFile, x)
+                    requestCompaction()
+                }
+            }
+        } else {
+            requestCompaction()
+        }
+        loadedWallet = null
+    }
+
+    /** Stops journaling. Pending changes are not flushed; call [compact] first to persist them. */
+    fun shutdown() {
+        wallet?.let { wallet ->
+            wallet.removeCoinsReceivedEventListener(coinsReceivedListener)
+            wallet.removeCoinsSentEventListener(coinsSentListener)
+            wallet.removeTransactionConfidenceEventListener(confidenceListener)
+            wallet.removeChangeEventListener(changeListener)
+            wallet.removeReorganizeEventListener(reorganizeListener)
+            wallet.removeResetEventListener(resetListener)
+            wallet.removeKeyChainEventListener(keyChainListener)
+        }
+        wallet = null
+        executor.shutdownNow()
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS)
+        } catch (x: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        fileLock.withLock { closeJournal() }
+    }
+
+    /** Records that [tx] changed; it is written with the next flush. */
+    fun markDirty(tx: Transaction) {
+        synchronized(this) {
+            dirty.add(tx.txId)
+            fingerprints[tx.txId] = fingerprint(tx)
+        }
+        scheduleFlush()
+    }
+
+    /**
+     * Appends every transaction changed since the last flush, changed extensions and tags, and the last seen
+     * block to the journal.
+     */
+    @Throws(IOException::class)
+    fun flush() {
+        flush(wallet ?: return)
+    }
+
+    /**
+     * Persists the changes on the calling thread: appends them to the journal, or writes a snapshot if keys
+     * were issued since the last one.
+     */
+    @Throws(IOException::class)
+    fun saveNow() {
+        val wallet = wallet ?: return
+        if (append(wallet)) {
+            compact(wallet)
+        }
+    }
+
+    @VisibleForTesting
+    @Throws(IOException::class)
+    internal fun flush(wallet: Wallet) {
+        if (append(wallet)) {
+            requestCompaction()
+        }
+    }
+
+    /** @return whether a compaction is needed */
+    private fun append(wallet: Wallet): Boolean {
+        synchronized(this) { flushScheduled = false }
+        var needsCompaction = false
+        val watch = Stopwatch.createStarted()
+        val pending = arrayListOf<Pair<Byte, ByteArray>>()
+        // the wallet lock keeps the transactions, extensions and last seen block consistent with each other
+        // while they are encoded; the journal is written after it has been released, unless the caller holds
+        // it, like commitTx does
+        val walletLock = WalletSnapshotWriter.lockOf(wallet)!!
+        walletLock.lock()
+        fileLock.lock()
+        try {
+            val out: DataOutputStream
+            try {
+                // without an open journal only a compaction persists the changes; they stay dirty until then
+                out = output ?: return true
+                val changed = synchronized(this) { dirty.toList().also { dirty.clear() } }
+                for (txId in changed) {
+                    val tx = wallet.getTransaction(txId)
+                    val pool = POOLS.firstOrNull { wallet.getTransactionPool(it).containsKey(txId) }
+                    if (tx == null || pool == null) {
+                        // removals cannot be journaled
+                        needsCompaction = true
+                        continue
+                    }
+                    pending.add(RECORD_TRANSACTION to toProto(WalletTransaction(pool, tx)).toByteArray())
+                }
+                appendExtensions(wallet, pending)
+                appendTags(wallet, pending)
+                val keyChain = keyChainFingerprint(wallet)
+                if (keyChain != keyChainFingerprint) {
+                    // issuing a key that was already looked ahead does not fire a key chain event
+                    keyChainFingerprint = keyChain
+                    needsCompaction = true
+                }
+                val blockHash = wallet.lastBlockSeenHash
+                if (blockHash != null && blockHash != lastBlockHash) {
+                    val payload = blockHash.bytes + Longs.toByteArray(
+                        wallet.lastBlockSeenHeight.toLong() shl 32 or (wallet.lastBlockSeenTimeSecs and 0xffffffffL)
+                    )
+                    pending.add(RECORD_BEST_BLOCK to payload)
+                    lastBlockHash = blockHash
+                }
+            } finally {
+                walletLock.unlock()
+            }
+            var bytes = 0
+            for ((type, payload) in pending) {
+                bytes += append(out, type, payload)
+            }
+            if (pending.isNotEmpty()) {
+                out.flush()
+                fileOutput?.fd?.sync()
+
+                records += pending.size
+                flushCount++
+                recordsAppended += pending.size
+                bytesAppended += bytes
+                log.debug("wallet journal: appended {} records ({} bytes), took {}", pending.size, bytes, watch)
+            }
+            return needsCompaction || records >= compactAfterRecords ||
+                System.currentTimeMillis() - lastCompactionAt >= compactAfterMs
+        } finally {
+            fileLock.unlock()
+        }
+    }
+
+    /**
+     * Writes a full snapshot of [wallet] and starts a new, empty journal generation. This is what an
+     * explicit wallet save does in journaled mode. If the snapshot cannot be written, the journal of the
+     * current generation is kept and the compaction is retried later.
+     *
+     * @return how long the wallet lock was held
+     */
+    @Throws(IOException::class)
+    fun compact(wallet: Wallet): Stopwatch {
+        val watch = Stopwatch.createStarted()
+        val lockWatch = Stopwatch.createUnstarted()
+        val walletLock = WalletSnapshotWriter.lockOf(wallet)!!
+        walletLock.lock()
+        fileLock.lock()
+        try {
+            val changed: List<Sha256Hash>
+            val next = generation + 1
+            val snapshot: WalletSnapshotWriter.Snapshot
+            val keyChain: Int
+            val blockHash: Sha256Hash?
+            try {
+                lockWatch.start()
+                changed = synchronized(this) {
+                    compactionScheduled = false
+                    dirty.toList().also { dirty.clear() }
+                }
+                wallet.setTag(TAG_GENERATION, generationTag(next))
+                snapshot = WalletSnapshotWriter.snapshot(wallet)
+                keyChain = keyChainFingerprint(wallet)
+                blockHash = wallet.lastBlockSeenHash
+            } finally {
+                walletLock.unlock()
+                lockWatch.stop()
+            }
+            try {
+                WalletSnapshotWriter.write(snapshot, walletFile)
+            } catch (x: IOException) {
+                // the snapshot on disk and the open journal are still those of the current generation
+                wallet.setTag(TAG_GENERATION, generationTag(generation))
+                synchronized(this) { dirty.addAll(changed) }
+                retryCompaction()
+                throw x
+            }
+            val folded = records
+            generation = next
+            records = 0
+            lastBlockHash = blockHash
+            extensionChecksums.clear()
+            tagValues.clear()
+            keyChainFingerprint = keyChain
+            lastCompactionAt = System.currentTimeMillis()
+            compactionCount++
+            try {
+                openJournal(append = false)
+            } catch (x: IOException) {
+                // the snapshot holds everything so far; the changes after it wait for the retry
+                retryCompaction()
+                throw x
+            }
+            synchronized(this) { compactionFailures = 0 }
+            log.info(
+                "wallet journal: folded {} records into generation {}, took {}, wallet lock held {}",
+                folded, next, watch, lockWatch
+            )
+            return lockWatch
+        } finally {
+            fileLock.unlock()
+        }
+    }
+
+    override fun toString(): String {
+        return "WalletJournal[generation=$generation, flushes=$flushCount, records=$recordsAppended, " +
+            "bytes=$bytesAppended, compactions=$compactionCount]"
+    }
+
+    private fun scheduleFlush() {
+        synchronized(this) {
+            if (flushScheduled) {
+                return
+            }
+            flushScheduled = true
+        }
+        executor.schedule({
+            try {
+                flush()
+            } catch (x: IOException) {
+                log.error("wallet journal: flush failed", x)
+                requestCompaction()
+            }
+        }, flushDelayMs, TimeUnit.MILLISECONDS)
+    }
+
+    private fun requestCompaction(delayMs: Long = 0) {
+        synchronized(this) {
+            if (compactionScheduled || executor.isShutdown) {
+                return
+            }
+            compactionScheduled = true
+        }
+        executor.schedule({
+            val wallet = wallet ?: return@schedule
+            try {
+                compact(wallet)
+            } catch (x: IOException) {
+                log.error("wallet journal: compaction failed", x)
+            }
+        }, delayMs, TimeUnit.MILLISECONDS)
+    }
+
+    private fun retryCompaction() {
+        val delayMs = synchronized(this) {
+            compactionFailures++
+            (COMPACTION_RETRY_DELAY_MS shl minOf(compactionFailures - 1, 20)).coerceAtMost(MAX_COMPACTION_RETRY_DELAY_MS)
+        }
+        log.info("wallet journal: retrying the compaction in {} ms", delayMs)
+        requestCompaction(delayMs)
+    }
+
+    private fun generationTag(generation: Long): ByteString = ByteString.copyFrom(Longs.toByteArray(generation))
+
+    // depth changes on every block for every transaction and is derived from the best block on replay,
+    // so confidence events that only change the depth are not journaled
+    private fun fingerprint(tx: Transaction): Int {
+        val confidence = tx.confidence
+        val type = confidence.confidenceType
+        return Objects.hash(
+            type,
+            if (type == ConfidenceType.BUILDING) confidence.appearedAtChainHeight else -1,
+            confidence.source,
+            confidence.ixType,
+            confidence.isChainLocked,
+            confidence.numBroadcastPeers()
+        )
+    }
+
+    private fun keyChainFingerprint(wallet: Wallet): Int {
+        val chain = wallet.activeKeyChain
+        return Objects.hash(wallet.keyChainGroupSize, chain.issuedExternalKeys, chain.issuedInternalKeys)
+    }
+
+    // encoded like WalletProtobufSerializer does; only extensions whose encoding changed are appended
+    private fun appendExtensions(wallet: Wallet, pending: MutableList<Pair<Byte, ByteArray>>) {
+        for (extension in wallet.extensions.values) {
+            val data = extension.serializeWalletExtension()
+            val crc = CRC32().apply { update(data) }.value
+            val id = extension.walletExtensionID
+            if (extensionChecksums.put(id, crc) != crc) {
+                val proto = Protos.Extension.newBuilder()
+                    .setId(id)
+                    .setData(ByteString.copyFrom(data))
+                    .setMandatory(extension.isWalletExtensionMandatory)
+                    .build()
+                pending.add(RECORD_EXTENSION to proto.toByteArray())
+            }
+        }
+    }
+
+    // dashj tags can be set but not removed, so replaying the changed ones is enough
+    private fun appendTags(wallet: Wallet, pending: MutableList<Pair<Byte, ByteArray>>) {
+        for ((tag, data) in wallet.tags) {
+            if (tag != TAG_GENERATION && tagValues.put(tag, data) != data) {
+                pending.add(RECORD_TAG to Protos.Tag.newBuilder().setTag(tag).setData(data).build().toByteArray())
+            }
+        }
+    }
+
+    private fun markSpentOutputsDirty(wallet: Wallet, tx: Transaction) {
+        for (input in tx.inputs) {
+            wallet.getTransaction(input.outpoint.hash)?.let { markDirty(it) }
+        }
+    }
+
+    private fun toProto(wtx: WalletTransaction): Protos.Transaction {
+        val method = makeTxProto!!
+        return method.invoke(if (Modifier.isStatic(method.modifiers)) null else serializer, wtx) as Protos.Transaction
+    }
+
+    private fun append(output: DataOutputStream, type: Byte, payload: ByteArray): Int {
+        val crc = CRC32()
+        crc.update(type.toInt())
+        crc.update(payload)
+        output.writeByte(type.toInt())
+        output.writeInt(payload.size)
+        output.write(payload)
+        output.writeInt(crc.value.toInt())
+        return 1 + 4 + payload.size + 4
+    }
+
+    private fun openJournal(append: Boolean) {
+        closeJournal()
+        if (!append) {
+            val tmp = File(journalFile.parentFile, journalFile.name + ".tmp")
+            FileOutputStream(tmp).use { stream ->
+                DataOutputStream(stream).apply {
+                    writeInt(MAGIC)
+                    writeInt(VERSION)
+                    writeLong(generation)
+                    flush()
+                }
+                stream.fd.sync()
+            }
+            if (!tmp.renameTo(journalFile)) {
+                throw IOException("cannot rename $tmp to $journalFile")
+            }
+        }
+        val stream = FileOutputStream(journalFile, true)
+        fileOutput = stream
+        output = DataOutputStream(BufferedOutputStream(stream))
+    }
+
+    private fun closeJournal() {
+        try {
+            output?.close()
+        } catch (x: IOException) {
+            log.warn("wallet journal: cannot close {}", journalFile, x)
+        }
+        output = null
+        fileOutput = null
+    }
+
+    private fun readJournal(expectedGeneration: Long): Journal? {
+        if (!journalFile.exists()) {
+            return null
+        }
+        DataInputStream(BufferedInputStream(FileInputStream(journalFile))).use { input ->
+            val journal = try {
+                val version = if (input.readInt() == MAGIC) input.readInt() else 0
+                if (version !in 1..VERSION) {
+                    log.warn("wallet journal: unknown format, ignoring {}", journalFile)
+                    return null
+                }
+                val generation = input.readLong()
+                if (generation != expectedGeneration) {
+                    log.info("wallet journal: generation {} already folded into snapshot {}", generation, expectedGeneration)
+                    return null
+                }
+                Journal(version)
+            } catch (x: EOFException) {
+                return null
+            }
+
+            val crc = CRC32()
+            while (!journal.torn) {
+                val type = try {
+                    input.readByte()
+                } catch (x: EOFException) {
+                    break
+                }
+                try {
+                    val length = input.readInt()
+                    if (length < 0 || length > MAX_RECORD_SIZE) {
+                        journal.torn = true
+                        continue
+                    }
+                    val payload = ByteArray(length)
+                    input.readFully(payload)
+                    val checksum = input.readInt()
+                    crc.reset()
+                    crc.update(type.toInt())
+                    crc.update(payload)
+                    if (checksum != crc.value.toInt()) {
+                        journal.torn = true
+                        continue
+                    }
+                    when (type) {
+                        RECORD_TRANSACTION -> {
+                            val tx = Protos.Transaction.parseFrom(payload)
+                            journal.transactions[tx.hash] = tx
+                        }
+                        RECORD_EXTENSION -> {
+                            val extension = Protos.Extension.parseFrom(payload)
+                            journal.extensions[extension.id] = extension
+                        }
+                        RECORD_TAG -> {
+                            val tag = Protos.Tag.parseFrom(payload)
+                            journal.tags[tag.tag] = tag
+                        }
+                        RECORD_BEST_BLOCK -> {
+                            val packed = Longs.fromByteArray(payload.copyOfRange(32, 40))
+                            journal.bestBlock = BestBlock(
+                                ByteString.copyFrom(payload, 0, 32),
+                                (packed ushr 32).toInt(),
+                                packed and 0xffffffffL
+                            )
+                        }
+                        else -> {
+                            journal.torn = true
+                            continue
+                        }
+                    }
+                    journal.records++
+                } catch (x: EOFException) {
+                    // a record cut short by a crash; everything before it is intact
+                    journal.torn = true
+                }
+            }
+            if (journal.torn) {
+                log.warn("wallet journal: {} ends with an incomplete record after {} records", journalFile, journal.records)
+            }
+            return journal
+        }
+    }
+
+    private fun applyJournal(snapshot: Protos.Wallet, journal: Journal): Protos.Wallet {
+        val builder = snapshot.toBuilder()
+        val transactions = LinkedHashMap<ByteString, Protos.Transaction>()
+        snapshot.transactionList.associateByTo(transactions) { it.hash }
+        transactions.putAll(journal.transactions)
+
+        journal.bestBlock?.let {
+            builder.setLastSeenBlockHash(it.hash)
+                .setLastSeenBlockHeight(it.height)
+                .setLastSeenBlockTimeSecs(it.timeSecs)
+        }
+        val bestHeight = if (builder.hasLastSeenBlockHeight()) builder.lastSeenBlockHeight else -1
+
+        builder.clearTransaction()
+        for (tx in transactions.values) {
+            builder.addTransaction(withDepth(tx, bestHeight))
+        }
+
+        if (journal.extensions.isNotEmpty()) {
+            val extensions = LinkedHashMap<String, Protos.Extension>()
+            snapshot.extensionList.associateByTo(extensions) { it.id }
+            extensions.putAll(journal.extensions)
+            builder.clearExtension().addAllExtension(extensions.values)
+        }
+        if (journal.tags.isNotEmpty()) {
+            val tags = LinkedHashMap<String, Protos.Tag>()
+            snapshot.tagsList.associateByTo(tags) { it.tag }
+            tags.putAll(journal.tags)
+            builder.clearTags().addAllTags(tags.values)
+        }
+        return builder.build()
+    }
+
+    private fun withDepth(tx: Protos.Transaction, bestHeight: Int): Protos.Transaction {
+        if (bestHeight < 0 || !tx.hasConfidence()) {
+            return tx
+        }
+        val confidence = tx.confidence
+        if (confidence.type != Protos.TransactionConfidence.Type.BUILDING || !confidence.hasAppearedAtHeight()) {
+            return tx
+        }
+        val depth = bestHeight - confidence.appearedAtHeight + 1
+        if (depth <= 0 || confidence.depth == depth) {
+            return tx
+        }
+        return tx.toBuilder().setConfidence(confidence.toBuilder().setDepth(depth)).build()
+    }
+
+    private val coinsReceivedListener = WalletCoinsReceivedEventListener { wallet, tx, _, _ ->
+        markDirty(tx)
+        markSpentOutputsDirty(wallet, tx)
+    }
+
+    private val coinsSentListener = WalletCoinsSentEventListener { wallet, tx, _, _ ->
+        markDirty(tx)
+        markSpentOutputsDirty(wallet, tx)
+        if (WalletSnapshotWriter.isCommitted(tx)) {
+            try {
+                saveNow()
+            } catch (x: IOException) {
+                log.error("wallet journal: saving the committed transaction failed", x)
+            }
+        }
+    }
+
+    private val confidenceListener = TransactionConfidenceEventListener { _, tx ->
+        val changed = synchronized(this) {
+            val fingerprint = fingerprint(tx)
+            (fingerprints.put(tx.txId, fingerprint) != fingerprint).also { if (it) dirty.add(tx.txId) }
+        }
+        if (changed) {
+            scheduleFlush()
+        }
+    }
+
+    // new blocks surface as wallet changes; the flush records the last seen block
+    private val changeListener = WalletChangeEventListener { scheduleFlush() }
+
+    private val reorganizeListener = WalletReorganizeEventListener { requestCompaction() }
+
+    private val resetListener = WalletResetEventListener { requestCompaction() }
+
+    private val keyChainListener = KeyChainEventListener { requestCompaction() }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import android.app.ActivityManager
+import android.content.Context
+import com.google.common.base.Stopwatch
+import org.bitcoinj.core.NetworkParameters
+import org.bitcoinj.wallet.Protos
+import org.bitcoinj.wallet.UnreadableWalletException
+import org.bitcoinj.wallet.Wallet
+import org.bitcoinj.wallet.WalletExtension
+import org.bitcoinj.wallet.WalletProtobufSerializer
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+
+/**
+ * Reads wallet protobufs with dashj's parallel transaction loading when the device has cores to spare,
+ * falling back to a serial read if the parallel one fails.
+ *
+ * dashj only offers an on/off switch; the thread budget is applied by running the read inside a
+ * [ForkJoinPool] of that size, which bounds the fork/join parallelism it uses.
+ */
+class WalletProtobufLoader(val threads: Int) {
+    companion object {
+        private val log = LoggerFactory.getLogger(WalletProtobufLoader::class.java)
+        private const val MAX_THREADS = 4
+
+        @JvmField
+        val SERIAL = WalletProtobufLoader(1)
+
+        /**
+         * One core is left to the UI thread, which is busy during startup. Low RAM devices (1GB or less)
+         * use at most two threads, as every thread holds its own partially built transactions.
+         */
+        @JvmStatic
+        fun forDevice(context: Context): WalletProtobufLoader {
+            val processors = Runtime.getRuntime().availableProcessors()
+            val isLowRamDevice = (context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager).isLowRamDevice
+            val threads = if (isLowRamDevice) {
+                if (processors >= 4) 2 else 1
+            } else {
+                (processors - 1).coerceIn(1, MAX_THREADS)
+            }
+            return WalletProtobufLoader(threads)
+        }
+    }
+
+    val isParallel: Boolean
+        get() = threads > 1
+
+    /** Like [WalletProtobufSerializer.readWallet] for a stream. */
+    @Throws(UnreadableWalletException::class)
+    fun readWallet(input: InputStream, forceReset: Boolean, extensions: Array<WalletExtension>?): Wallet {
+        // the stream can be read only once, so it is parsed before a possible serial retry
+        val proto = try {
+            WalletProtobufSerializer.parseToProto(input)
+        } catch (x: IOException) {
+            throw UnreadableWalletException("Could not parse input stream to protobuf", x)
+        }
+        val params = NetworkParameters.fromID(proto.networkIdentifier)
+            ?: throw UnreadableWalletException("Unknown network parameters ID " + proto.networkIdentifier)
+        return readWallet(params, extensions, proto, forceReset)
+    }
+
+    /** Like [WalletProtobufSerializer.readWallet] for a parsed protobuf. */
+    @JvmOverloads
+    @Throws(UnreadableWalletException::class)
+    fun readWallet(
+        params: NetworkParameters,
+        extensions: Array<WalletExtension>?,
+        proto: Protos.Wallet,
+        forceReset: Boolean = false
+    ): Wallet {
+        if (isParallel) {
+            val watch = Stopwatch.createStarted()
+            val context = org.bitcoinj.core.Context.get()
+            val pool = ForkJoinPool(threads)
+            try {
+                val wallet = pool.submit(
+                    Callable {
+                        org.bitcoinj.core.Context.propagate(context)
+                        serializer(true).readWallet(params, extensions, proto, forceReset)
+                    }
+                ).get()
+                log.info("wallet read in parallel mode on {} threads, took {}", threads, watch)
+                return wallet
+            } catch (x: ExecutionException) {
+                log.warn("parallel wallet read failed after {}, retrying in serial mode", watch, x.cause)
+            } catch (x: InterruptedException) {
+                Thread.currentThread().interrupt()
+                log.warn("parallel wallet read interrupted after {}, retrying in serial mode", watch)
+            } finally {
+                pool.shutdown()
+            }
+        }
+
+        val watch = Stopwatch.createStarted()
+        return serializer(false).readWallet(params, extensions, proto, forceReset).also {
+            log.info("wallet read in serial mode, took {}", watch)
+        }
+    }
+
+    private fun serializer(parallel: Boolean): WalletProtobufSerializer {
+        return WalletProtobufSerializer().apply { isParallelLoad = parallel }
+    }
+}
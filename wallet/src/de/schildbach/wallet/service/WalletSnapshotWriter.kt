@@ -0,0 +1,248 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import com.google.common.base.Stopwatch
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.core.TransactionConfidence
+import org.bitcoinj.utils.ContextPropagatingThreadFactory
+import org.bitcoinj.utils.Threading
+import org.bitcoinj.wallet.Protos
+import org.bitcoinj.wallet.Wallet
+import org.bitcoinj.wallet.WalletProtobufSerializer
+import org.bitcoinj.wallet.listeners.KeyChainEventListener
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener
+import org.bitcoinj.wallet.listeners.WalletResetEventListener
+import org.slf4j.LoggerFactory
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.lang.reflect.Field
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Saves wallet snapshots without holding the wallet lock during I/O.
+ *
+ * [Wallet.saveToFile] holds the wallet lock for the whole save: building the protobuf, encoding it, writing
+ * and fsyncing the file. Here only building the immutable `Protos.Wallet` message happens under the lock;
+ * encoding, writing and fsync follow after it has been released, so `commitTx`, mixing and sending are
+ * blocked only for the copy.
+ */
+object WalletSnapshotWriter {
+    private val log = LoggerFactory.getLogger(WalletSnapshotWriter::class.java)
+
+    // the wallet lock is not exposed by dashj; without it a consistent copy cannot be taken, and saves fall
+    // back to Wallet.saveToFile. proguard.cfg keeps the field.
+    private val walletLock: Field? = try {
+        Wallet::class.java.getDeclaredField("lock").apply { isAccessible = true }
+    } catch (x: Exception) {
+        log.warn("wallet lock unavailable, saving under the lock", x)
+        null
+    }
+
+    private val serializer = WalletProtobufSerializer()
+    private val fileLock = ReentrantLock()
+    private val snapshotSequence = AtomicLong()
+    private var writtenSequence = 0L // guarded by fileLock
+
+    /** Whether snapshots can be taken with this dashj version. */
+    @JvmStatic
+    val isSupported: Boolean
+        get() = walletLock != null
+
+    /**
+     * Saves [wallet] to [file] atomically.
+     *
+     * @return how long the wallet lock was held
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun save(wallet: Wallet, file: File): Stopwatch {
+        val lock = lockOf(wallet)
+        if (lock == null) {
+            val watch = Stopwatch.createStarted()
+            wallet.saveToFile(file)
+            return watch.stop()
+        }
+
+        val lockWatch = Stopwatch.createUnstarted()
+        val snapshot: Snapshot
+        lock.lock()
+        try {
+            lockWatch.start()
+            snapshot = snapshot(wallet)
+        } finally {
+            lock.unlock()
+            lockWatch.stop()
+        }
+        write(snapshot, file)
+        return lockWatch
+    }
+
+    /** A copy of a wallet, numbered in the order the copies were taken. */
+    class Snapshot internal constructor(internal val proto: Protos.Wallet, internal val sequence: Long)
+
+    /** Copies [wallet]; the caller holds its lock. */
+    @JvmStatic
+    fun snapshot(wallet: Wallet): Snapshot {
+        return Snapshot(serializer.walletToProto(wallet), snapshotSequence.incrementAndGet())
+    }
+
+    /** Writes [snapshot] to [file] atomically, unless a newer snapshot has been written already. */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun write(snapshot: Snapshot, file: File) {
+        fileLock.withLock {
+            // a newer snapshot may have overtaken this one between the two locks
+            if (snapshot.sequence < writtenSequence) {
+                log.info("skipping outdated wallet snapshot {}", snapshot.sequence)
+                return
+            }
+            writeFile(snapshot.proto, file)
+            writtenSequence = snapshot.sequence
+        }
+    }
+
+    /** The lock dashj guards [wallet] with, or null if it cannot be accessed. */
+    @JvmStatic
+    fun lockOf(wallet: Wallet): ReentrantLock? {
+        return walletLock?.get(wallet) as ReentrantLock?
+    }
+
+    /**
+     * Whether [tx] was just committed by this wallet: dashj saves right away after `commitTx`, while
+     * transactions of its own that arrive with blocks or from peers wait for the next autosave.
+     */
+    @JvmStatic
+    fun isCommitted(tx: Transaction): Boolean {
+        val confidence = tx.confidence
+        return confidence.source == TransactionConfidence.Source.SELF &&
+            confidence.confidenceType == TransactionConfidence.ConfidenceType.PENDING
+    }
+
+    private fun writeFile(snapshot: Protos.Wallet, file: File) {
+        val temp = File.createTempFile("wallet", null, file.parentFile)
+        try {
+            FileOutputStream(temp).use { stream ->
+                val output = BufferedOutputStream(stream)
+                snapshot.writeTo(output)
+                output.flush()
+                stream.fd.sync()
+            }
+            if (!temp.renameTo(file)) {
+                throw IOException("failed to rename $temp to $file")
+            }
+        } finally {
+            if (temp.exists()) {
+                temp.delete()
+            }
+        }
+    }
+}
+
+/**
+ * Replaces [Wallet.autosaveToFile]: saves [wallet] to [file] [delayMs] after it changes, using
+ * [WalletSnapshotWriter] on a dedicated I/O thread.
+ *
+ * Like dashj, which saves right away from `commitTx` and when keys are issued, transactions this wallet
+ * commits are saved before `commitTx` returns, and [saveNow] is there for the callers issuing keys.
+ */
+class WalletSnapshotAutosave(
+    private val wallet: Wallet,
+    private val file: File,
+    private val delayMs: Long
+) {
+    companion object {
+        private val log = LoggerFactory.getLogger(WalletSnapshotAutosave::class.java)
+    }
+
+    private val executor = Executors.newSingleThreadScheduledExecutor(ContextPropagatingThreadFactory("wallet autosave"))
+    private val scheduled = AtomicBoolean(false)
+
+    private val changeListener = WalletChangeEventListener { saveLater() }
+    private val reorganizeListener = WalletReorganizeEventListener { saveLater() }
+    private val resetListener = WalletResetEventListener { saveLater() }
+    private val keyChainListener = KeyChainEventListener { saveLater() }
+
+    private val coinsSentListener = WalletCoinsSentEventListener { _, tx, _, _ ->
+        if (WalletSnapshotWriter.isCommitted(tx)) {
+            try {
+                saveNow()
+            } catch (x: IOException) {
+                log.error("wallet save after commit failed", x)
+                saveLater()
+            }
+        }
+    }
+
+    init {
+        wallet.addChangeEventListener(Threading.SAME_THREAD, changeListener)
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, reorganizeListener)
+        wallet.addResetEventListener(Threading.SAME_THREAD, resetListener)
+        wallet.addKeyChainEventListener(Threading.SAME_THREAD, keyChainListener)
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, coinsSentListener)
+    }
+
+    /** Saves [wallet] on the calling thread. */
+    @Throws(IOException::class)
+    fun saveNow() {
+        val watch = Stopwatch.createStarted()
+        val lockWatch = WalletSnapshotWriter.save(wallet, file)
+        log.info("wallet saved to: '{}', took {}, wallet lock held {}", file, watch, lockWatch)
+    }
+
+    fun saveLater() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return
+        }
+        executor.schedule({
+            scheduled.set(false)
+            try {
+                val watch = Stopwatch.createStarted()
+                val lockWatch = WalletSnapshotWriter.save(wallet, file)
+                log.info("wallet autosaved to: '{}', took {}, wallet lock held {}", file, watch, lockWatch)
+            } catch (x: IOException) {
+                log.error("wallet autosave failed", x)
+            }
+        }, delayMs, TimeUnit.MILLISECONDS)
+    }
+
+    /** Stops autosaving and waits for a pending save. */
+    fun shutdownAndWait() {
+        wallet.removeChangeEventListener(changeListener)
+        wallet.removeReorganizeEventListener(reorganizeListener)
+        wallet.removeResetEventListener(resetListener)
+        wallet.removeKeyChainEventListener(keyChainListener)
+        wallet.removeCoinsSentEventListener(coinsSentListener)
+        // like Wallet.shutdownAutosaveAndWait, a pending save still runs
+        executor.shutdown()
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS)
+        } catch (x: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+}
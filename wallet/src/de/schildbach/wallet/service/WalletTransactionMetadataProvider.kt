@@ -31,8 +31,6 @@ import kotlinx.coroutines.flow.*
 import okhttp3.*
 import org.bitcoinj.coinjoin.utils.CoinJoinTransactionType
 import org.bitcoinj.core.*
-import org.bitcoinj.core.Address
-import org.bitcoinj.script.ScriptPattern
 import org.bitcoinj.utils.Fiat
 import org.bitcoinj.utils.MonetaryFormat
 import org.dash.wallet.common.WalletDataProvider
@@ -71,6 +69,10 @@ class WalletTransactionMetadataProvider @Inject constructor(
         private val log = LoggerFactory.getLogger(WalletTransactionMetadataProvider::class.java)
     }
 
+    private val addressMetadataResolver by lazy {
+        AddressMetadataResolver(addressMetadataDao, walletData.networkParameters)
+    }
+
     private val syncScope = CoroutineScope(
         Executors.newFixedThreadPool(5).asCoroutineDispatcher()
     )
@@ -476,71 +478,45 @@ class WalletTransactionMetadataProvider @Inject constructor(
     }
 
     private suspend fun getAddressMetadata(txId: Sha256Hash): AddressMetadata? {
-        val tx = walletData.wallet!!.getTransaction(txId)
-        tx?.run {
-            // outgoing transaction, check inputs
-            for (input in inputs) {
-                if (input.connectedOutput != null) {
-                    val output = input.connectedOutput!!
-                    val address = when {
-                        ScriptPattern.isP2PKH(output.scriptPubKey) ->
-                            Address.fromPubKeyHash(
-                                walletData.networkParameters,
-                                ScriptPattern.extractHashFromP2PKH(output.scriptPubKey)
-                            )
-                        else -> null // there shouldn't be other output types on our tx's
-                    }
-                    if (address != null) {
-                        val metadata =
-                            addressMetadataDao.loadSender(address.toBase58())
-                        if (metadata != null) {
-                            return metadata
-                        }
-                    }
-                }
-            }
-            // incoming transaction, checkout outputs
-            for (output in outputs) {
-                log.info("metadata: $output")
-                val address = when {
-                    ScriptPattern.isP2PKH(output.scriptPubKey) ->
-                        Address.fromPubKeyHash(
-                            walletData.networkParameters,
-                            ScriptPattern.extractHashFromP2PKH(output.scriptPubKey)
-                        )
-                    ScriptPattern.isP2SH(output.scriptPubKey) ->
-                        Address.fromScriptHash(
-                            walletData.networkParameters,
-                            ScriptPattern.extractHashFromP2SH(output.scriptPubKey)
-                        )
-                    else -> null // for now ignore OP_RETURN (DashPay Expense?)
-                }
-                if (address != null) {
-                    val metadata =
-                        addressMetadataDao.loadRecipient(address.toBase58())
-                    if (metadata != null) {
-                        return metadata
-                    }
-                }
+        val tx = walletData.wallet!!.getTransaction(txId) ?: return null
+        return addressMetadataResolver.resolve(tx)
+    }
+
+    /**
+     * Fills in the default tax category of every entry in [metadataList] that has none,
+     * resolving the address metadata of all of them in bulk.
+     */
+    private suspend fun applyDefaultTaxCategories(metadataList: Collection<TransactionMetadata>) {
+        val pending = metadataList.filter { it.taxCategory == null }
+        if (pending.isEmpty() || addressMetadataDao.count() == 0) {
+            return
+        }
+        val wallet = walletData.wallet ?: return
+        val resolved = addressMetadataResolver.resolveAll(pending.mapNotNull { wallet.getTransaction(it.txId) })
+        for (metadata in pending) {
+            resolved[metadata.txId]?.let { metadata.taxCategory = it.taxCategory }
+        }
+    }
+
+    override suspend fun getTransactionMetadata(txIds: List<Sha256Hash>): Map<Sha256Hash, TransactionMetadata> {
+        if (txIds.isEmpty()) {
+            return mapOf()
+        }
+        val result = HashMap<Sha256Hash, TransactionMetadata>(txIds.size * 2)
+        // stay below SQLite's bound-variable limit
+        for (chunk in txIds.chunked(900)) {
+            for (metadata in transactionMetadataDao.load(chunk)) {
+                result[metadata.txId] = metadata
             }
         }
-        return null
+        applyDefaultTaxCategories(result.values)
+        return result
     }
 
     override suspend fun getAllTransactionMetadata(): List<TransactionMetadata> {
         val metadataList = transactionMetadataDao.load()
-        val hasAddressMetadata = addressMetadataDao.count() != 0
-        // look up the transaction metadata and merge with address metadata
-        for (metadata in metadataList) {
-            if (metadata.taxCategory == null && hasAddressMetadata) {
-                // if there is no user specified tax category, then look at address_metadata
-                val taxCategory = getDefaultTaxCategory(metadata.txId)
-
-                if (taxCategory != null) {
-                    metadata.taxCategory = taxCategory
-                }
-            }
-        }
+        // if there is no user specified tax category, then look at address_metadata
+        applyDefaultTaxCategories(metadataList)
         return metadataList
     }
     
@@ -20,6 +20,7 @@ package de.schildbach.wallet.service.platform
 import com.google.common.base.Preconditions
 import de.schildbach.wallet.database.entity.DashPayContactRequest
 import de.schildbach.wallet.database.entity.DashPayProfile
+import de.schildbach.wallet.security.DerivedKeyCache
 import de.schildbach.wallet.security.SecurityGuard
 import de.schildbach.wallet.service.DashSystemService
 import de.schildbach.wallet.ui.dashpay.PlatformRepo
@@ -78,7 +79,8 @@ class PlatformDocumentBroadcastService @Inject constructor(
             val securityGuard = SecurityGuard.getInstance()
             val password = securityGuard.retrievePassword()
             // Don't bother with DeriveKeyTask here, just call deriveKey
-            val encryptionKey = walletDataProvider.wallet!!.keyCrypter!!.deriveKey(password)
+            val encryptionKey = DerivedKeyCache.getInstance()
+                .deriveKey(walletDataProvider.wallet!!.keyCrypter!!, password, cacheResult = false)
             return sendContactRequest(toUserId, encryptionKey)
         }
         throw IllegalStateException("sendContactRequest doesn't support non-encrypted wallets")
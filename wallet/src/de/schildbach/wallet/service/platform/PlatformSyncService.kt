@@ -43,11 +43,10 @@ import de.schildbach.wallet.database.entity.TransactionMetadataDocument
 import de.schildbach.wallet.database.entity.UsernameRequest
 import de.schildbach.wallet.livedata.SeriousError
 import de.schildbach.wallet.livedata.Status
-import de.schildbach.wallet.security.SecurityGuard
-import de.schildbach.wallet.security.SecurityGuardException
 import de.schildbach.wallet.service.BlockchainService
 import de.schildbach.wallet.service.BlockchainServiceImpl
 import de.schildbach.wallet.service.platform.work.RestoreIdentityOperation
+import de.schildbach.wallet.transactions.WalletTransactionIndex
 import de.schildbach.wallet.ui.dashpay.OnContactsUpdated
 import de.schildbach.wallet.ui.dashpay.OnPreBlockProgressListener
 import de.schildbach.wallet.ui.dashpay.PlatformRepo
@@ -303,6 +302,7 @@ class PlatformSynchronizationService @Inject constructor(
         }
         log.info("updateContactRequests($initialSync) starting now")
 
+        val credentials = SyncCredentials("contacts sync") { platformRepo.getWalletEncryptionKey() }
         try {
             val blockchainIdentityData = blockchainIdentityDataDao.load() ?: return
             if (blockchainIdentityData.creationState < IdentityCreationState.DONE) {
@@ -404,7 +404,7 @@ class PlatformSynchronizationService @Inject constructor(
                     dashPayContactRequestDao.insert(dashPayContactRequest)
 
                     // add our receiving from this contact keychain if it doesn't exist
-                    addedContact = checkAndAddSentRequest(userId, contactRequest) || addedContact
+                    addedContact = checkAndAddSentRequest(userId, contactRequest, credentials) || addedContact
                     log.info("contactRequest: added sent request from ${contactRequest.toUserId}")
                 }
             }
@@ -432,7 +432,7 @@ class PlatformSynchronizationService @Inject constructor(
                     dashPayContactRequestDao.insert(dashPayContactRequest)
 
                     // add the sending to contact keychain if it doesn't exist
-                    addedContact = checkAndAddReceivedRequest(userId, contactRequest) || addedContact
+                    addedContact = checkAndAddReceivedRequest(userId, contactRequest, credentials) || addedContact
                     log.info("contactRequest: added received request from ${contactRequest.ownerId}")
                 }
             }
@@ -453,18 +453,16 @@ class PlatformSynchronizationService @Inject constructor(
 
                 coroutineScope {
                     try {
-                        val myEncryptionKey = platformRepo.getWalletEncryptionKey()
-
                         awaitAll(
                             async {
-                                identityRepository.upgradeIdentity(platformRepo.getWalletEncryptionKey())
+                                identityRepository.upgradeIdentity(credentials.getEncryptionKey())
                             },
                             // fetch updated invitations
                             async {
                                 if (Constants.SUPPORTS_INVITES) {
                                     topUpRepository.updateInvitations()
                                     // check for unused invites
-                                    topUpRepository.checkInvites(myEncryptionKey)
+                                    topUpRepository.checkInvites(credentials.getEncryptionKey())
                                     updateSyncStatus(PreBlockStage.GetInvites)
                                 }
                             },
@@ -472,7 +470,7 @@ class PlatformSynchronizationService @Inject constructor(
                             async {
                                 val shouldUpdate = System.currentTimeMillis() - lastMetadataUpdateTime >= NON_CONTACTS_UPDATE_PERIOD
                                 if (shouldUpdate) {
-                                    updateTransactionMetadata(myEncryptionKey)
+                                    updateTransactionMetadata(credentials.getEncryptionKey())
                                     updateSyncStatus(PreBlockStage.TransactionMetadata)
                                     lastMetadataUpdateTime = System.currentTimeMillis()
                                 }
@@ -486,7 +484,7 @@ class PlatformSynchronizationService @Inject constructor(
                             async {
                                 val shouldUpdate = System.currentTimeMillis() - lastTopupUpdateTime >= NON_CONTACTS_UPDATE_PERIOD
                                 if (shouldUpdate) {
-                                    checkTopUps(myEncryptionKey)
+                                    checkTopUps(credentials.getEncryptionKey())
                                     updateSyncStatus(PreBlockStage.Topups)
                                     lastTopupUpdateTime = System.currentTimeMillis()
                                 }
@@ -516,6 +514,7 @@ class PlatformSynchronizationService @Inject constructor(
         } catch (e: Exception) {
             log.error(platformRepo.formatExceptionMessage("error updating contacts", e))
         } finally {
+            credentials.close()
             updatingContacts.set(false)
 
             counterForReport++
@@ -548,7 +547,7 @@ class PlatformSynchronizationService @Inject constructor(
     private fun checkAndAddSentRequest(
         userId: String,
         contactRequest: ContactRequest,
-        encryptionKey: KeyParameter? = null
+        credentials: SyncCredentials
     ): Boolean {
         val contact = EvolutionContact(userId, contactRequest.toUserId.toString())
         try {
@@ -560,26 +559,17 @@ class PlatformSynchronizationService @Inject constructor(
                 // identities.get would otherwise throw "No converter for ..."
                 // and drop this reconciled contact.
                 val contactIdentity = platform.getContactIdentity(contactRequest.toUserId)
-                var myEncryptionKey = encryptionKey
-                if (encryptionKey == null && platformRepo.walletApplication.wallet!!.isEncrypted) {
-                    val password = try {
-                        // always create a SecurityGuard when it is required
-                        val securityGuard = SecurityGuard.getInstance()
-                        securityGuard.retrievePassword()
-                    } catch (e: SecurityGuardException) {
-                        log.error("There was an error retrieving the wallet password", e)
-                        analytics.logError(e, "There was an error retrieving the wallet password")
+                val myEncryptionKey = credentials.getEncryptionKey()
+                if (myEncryptionKey == null) {
+                    if (platformRepo.walletApplication.wallet!!.isEncrypted) {
                         platformRepo.fireSeriousErrorListeners(SeriousError.MissingEncryptionIV)
-                        null
-                    } ?: return false
-                    // Don't bother with DeriveKeyTask here, just call deriveKey
-                    myEncryptionKey =
-                        platformRepo.walletApplication.wallet!!.keyCrypter!!.deriveKey(password)
+                    }
+                    return false
                 }
                 identityRepository.blockchainIdentity!!.addPaymentKeyChainFromContact(
                     contactIdentity!!,
                     contactRequest,
-                    myEncryptionKey!!
+                    myEncryptionKey
                 )
                 return true
             }
@@ -595,7 +585,7 @@ class PlatformSynchronizationService @Inject constructor(
     private fun checkAndAddReceivedRequest(
         userId: String,
         contactRequest: ContactRequest,
-        encryptionKey: KeyParameter? = null
+        credentials: SyncCredentials
     ): Boolean {
         // add the sending to contact keychain if it doesn't exist
         val contact = EvolutionContact(
@@ -613,26 +603,17 @@ class PlatformSynchronizationService @Inject constructor(
                 // identities.get would otherwise throw "No converter for ..." and
                 // this received request would never be added to the wallet.
                 val contactIdentity = platform.getContactIdentity(contactRequest.ownerId)
-                var myEncryptionKey = encryptionKey
-                if (encryptionKey == null && platformRepo.walletApplication.wallet!!.isEncrypted) {
-                    val password = try {
-                        // always create a SecurityGuard when it is required
-                        val securityGuard = SecurityGuard.getInstance()
-                        securityGuard.retrievePassword()
-                    } catch (e: SecurityGuardException) {
-                        log.error("There was an error retrieving the wallet password", e)
-                        analytics.logError(e, "There was an error retrieving the wallet password")
+                val myEncryptionKey = credentials.getEncryptionKey()
+                if (myEncryptionKey == null) {
+                    if (platformRepo.walletApplication.wallet!!.isEncrypted) {
                         platformRepo.fireSeriousErrorListeners(SeriousError.MissingEncryptionIV)
-                        null
-                    } ?: return false
-                    // Don't bother with DeriveKeyTask here, just call deriveKey
-                    myEncryptionKey =
-                        platformRepo.walletApplication.wallet!!.keyCrypter!!.deriveKey(password)
+                    }
+                    return false
                 }
                 identityRepository.blockchainIdentity!!.addPaymentKeyChainToContact(
                     contactIdentity!!,
                     contactRequest,
-                    myEncryptionKey!!
+                    myEncryptionKey
                 )
                 return true
             }
@@ -1243,7 +1224,10 @@ class PlatformSynchronizationService @Inject constructor(
         }
         val listOfUnsaved = arrayListOf<Transaction>()
         var firstUnsavedTxDate = 0L
-        walletDataProvider.getTransactions(notCoinJoinFilter).forEach { tx ->
+        val notCoinJoinTransactions = walletApplication.transactionIndex
+            ?.getTransactionsExcept(WalletTransactionIndex.Kind.COINJOIN)
+            ?: walletDataProvider.getTransactions(notCoinJoinFilter)
+        notCoinJoinTransactions.forEach { tx ->
             if (tx.updateTime.time in start .. end) {
                 if (!transactionMetadataProvider.exists(tx.txId)) {
                     listOfUnsaved.add(tx)
@@ -1397,11 +1381,12 @@ class PlatformSynchronizationService @Inject constructor(
         progressListener?.invoke(10)
         var itemsSaved = 0
         val itemsToSave = changedItems.size
+        val credentials = SyncCredentials("tx metadata publish") { platformRepo.getWalletEncryptionKey() }
         try {
             log.info("publishing ${itemsToPublish.values.size} tx metadata items to platform")
 
             // publish non-empty items
-            val myEncryptionKey = platformRepo.getWalletEncryptionKey()
+            val myEncryptionKey = credentials.getEncryptionKey()
             publishTransactionMetadata(itemsToPublish.values.filter { it.isNotEmpty() }, myEncryptionKey) {
                 progressListener?.invoke(10 + it * 90 / 100)
             }
@@ -1418,6 +1403,8 @@ class PlatformSynchronizationService @Inject constructor(
             log.info("publishing updates canceled")
         } catch (e: Exception) {
             log.error("publishing exception caught", e)
+        } finally {
+            credentials.close()
         }
 
         log.info("publishing updates to tx metadata items complete")
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service.platform
+
+import com.google.common.base.Stopwatch
+import org.bitcoinj.crypto.KeyCrypterException
+import org.bouncycastle.crypto.params.KeyParameter
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+
+/**
+ * The wallet encryption key for one pass of the platform sync. It is derived when a stage first needs it,
+ * shared by the other stages of the pass, which may run concurrently, and wiped when the pass ends with
+ * [close].
+ *
+ * A failed derivation is tried again by the next stage that asks for the key.
+ */
+class SyncCredentials(
+    private val pass: String,
+    private val deriveKey: () -> KeyParameter?
+) : Closeable {
+    companion object {
+        private val log = LoggerFactory.getLogger(SyncCredentials::class.java)
+    }
+
+    private val deriveWatch = Stopwatch.createUnstarted()
+    private var key: KeyParameter? = null
+    private var isDerived = false
+    private var isClosed = false
+    private var requests = 0
+    private var derivations = 0
+
+    val derivationCount: Int
+        @Synchronized get() = derivations
+
+    /** The wallet encryption key, or null if the wallet is not encrypted or the password is not available. */
+    @Synchronized
+    @Throws(KeyCrypterException::class)
+    fun getEncryptionKey(): KeyParameter? {
+        check(!isClosed) { "$pass credentials used after the pass ended" }
+        requests++
+        if (!isDerived) {
+            derivations++
+            deriveWatch.start()
+            try {
+                key = deriveKey()
+                isDerived = true
+            } finally {
+                deriveWatch.stop()
+            }
+        }
+        return key
+    }
+
+    @Synchronized
+    override fun close() {
+        if (isClosed) {
+            return
+        }
+        isClosed = true
+        key?.key?.fill(0)
+        key = null
+        if (requests > 0) {
+            log.info("{}: {} key requests, {} derivations in {}", pass, requests, derivations, deriveWatch)
+        }
+    }
+}
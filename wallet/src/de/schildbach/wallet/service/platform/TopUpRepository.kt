@@ -568,7 +568,7 @@ class TopUpRepositoryImpl @Inject constructor(
                         topUpsDao.insert(TopUp(assetLockTx.txId, identity))
                     }
                     try {
-                        topUpIdentity(assetLockTx, platformRepo.getWalletEncryptionKey()!!)
+                        topUpIdentity(assetLockTx, aesKeyParameter ?: platformRepo.getWalletEncryptionKey()!!)
                     } catch (e: Exception) {
                         log.info("problem executing topup for ${assetLockTx.txId}", e)
                     }
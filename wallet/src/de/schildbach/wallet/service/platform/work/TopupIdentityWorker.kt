@@ -25,6 +25,7 @@ import dagger.assisted.AssistedInject
 import de.schildbach.wallet.data.CoinJoinConfig
 import de.schildbach.wallet.database.dao.TopUpsDao
 import de.schildbach.wallet.database.entity.TopUp
+import de.schildbach.wallet.security.DerivedKeyCache
 import de.schildbach.wallet.service.platform.IdentityRepository
 import de.schildbach.wallet.service.platform.PlatformBroadcastService
 import de.schildbach.wallet.service.platform.TopUpRepository
@@ -73,7 +74,8 @@ class TopupIdentityWorker @AssistedInject constructor(
 
         val encryptionKey: KeyParameter
         try {
-            encryptionKey = walletDataProvider.wallet!!.keyCrypter!!.deriveKey(password)
+            encryptionKey = DerivedKeyCache.getInstance()
+                .deriveKey(walletDataProvider.wallet!!.keyCrypter!!, password, cacheResult = false)
         } catch (ex: KeyCrypterException) {
             analytics.logError(ex, "Topup Identity: failed to derive encryption key")
             val msg = formatExceptionMessage("derive encryption key", ex)
@@ -16,12 +16,15 @@
 
 package de.schildbach.wallet.transactions
 
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 import org.bitcoinj.coinjoin.utils.CoinJoinTransactionType
 import org.bitcoinj.core.Transaction
 import org.bitcoinj.wallet.Wallet
 import org.dash.wallet.common.data.entity.TransactionMetadata
 import org.dash.wallet.common.services.TransactionMetadataProvider
 import org.dash.wallet.common.transactions.TransactionUtils.isEntirelySelf
+import java.io.OutputStream
 
 abstract class CSVExporter(
     transactionMetadataProvider: TransactionMetadataProvider,
@@ -32,6 +35,8 @@ abstract class CSVExporter(
 
     companion object {
         const val NEW_LINE = "\n"
+        /** Transactions per metadata query and per progress report. */
+        const val CHUNK_SIZE = 500
     }
 
     inner class CSVColumn(
@@ -46,24 +51,38 @@ abstract class CSVExporter(
         return columnList.joinToString(",")
     }
 
-    override suspend fun exportString(): String {
-        val history = StringBuilder()
+    private fun shouldExclude(tx: Transaction): Boolean {
+        val isCoinJoin = when (tx.coinJoinTransactionType) {
+            CoinJoinTransactionType.Mixing -> true
+            else -> false
+        }
+        return excludeInternal && (tx.isEntirelySelf(wallet) || isCoinJoin)
+    }
 
-        history.append(getHeader()).append(NEW_LINE)
-        for (tx in sortedTransactions) {
-            val columnData = arrayListOf<String>()
-            val isCoinJoin = when (tx.coinJoinTransactionType) {
-                CoinJoinTransactionType.Mixing -> true
-                else -> false
-            }
-            val shouldExclude = excludeInternal && (tx.isEntirelySelf(wallet) || isCoinJoin)
-            if (!shouldExclude) {
-                for (spec in dataSpec) {
-                    columnData.add(spec.dataFunction(tx, metadataMap[tx.txId]))
+    override suspend fun export(output: OutputStream, onProgress: (processed: Int, total: Int) -> Unit) =
+        withContext(Dispatchers.IO) {
+            val transactions = sortedTransactions()
+            val writer = output.bufferedWriter(Charsets.UTF_8)
+            val row = StringBuilder()
+
+            writer.append(getHeader()).append(NEW_LINE)
+            for (start in transactions.indices step CHUNK_SIZE) {
+                val end = minOf(start + CHUNK_SIZE, transactions.size)
+                // exclusion doesn't depend on metadata, so excluded (e.g. mixing) txs are never looked up
+                val chunk = transactions.subList(start, end).filterNot { shouldExclude(it) }
+                val metadata = transactionMetadataProvider.getTransactionMetadata(chunk.map { it.txId })
+                for (tx in chunk) {
+                    row.setLength(0)
+                    dataSpec.forEachIndexed { index, spec ->
+                        if (index > 0) {
+                            row.append(',')
+                        }
+                        row.append(spec.dataFunction(tx, metadata[tx.txId]))
+                    }
+                    writer.append(row).append(NEW_LINE)
                 }
-                history.append(columnData.joinToString(",")).append(NEW_LINE)
+                onProgress(end, transactions.size)
             }
+            writer.flush()
         }
-        return history.toString()
-    }
-}
\ No newline at end of file
+}
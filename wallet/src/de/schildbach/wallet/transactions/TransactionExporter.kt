@@ -18,10 +18,7 @@ package de.schildbach.wallet.transactions
 
 import android.annotation.SuppressLint
 import de.schildbach.wallet.util.WalletUtils
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.withContext
 import org.bitcoinj.core.Coin
-import org.bitcoinj.core.Sha256Hash
 import org.bitcoinj.core.Transaction
 import org.bitcoinj.utils.MonetaryFormat
 import org.bitcoinj.wallet.Wallet
@@ -30,6 +27,8 @@ import org.dash.wallet.common.data.entity.TransactionMetadata
 import org.dash.wallet.common.services.TransactionMetadataProvider
 import org.dash.wallet.common.transactions.TransactionUtils
 import org.dash.wallet.common.transactions.TransactionUtils.isEntirelySelf
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
 import java.text.DateFormat
 import java.text.SimpleDateFormat
 import java.util.*
@@ -66,26 +65,22 @@ abstract class TransactionExporter(
                 ?: WalletUtils.getTransactionDate(tx))
         }
     }
-    protected lateinit var metadataMap: Map<Sha256Hash, TransactionMetadata>
-    suspend fun initMetadataMap() = withContext(Dispatchers.IO) {
-        val list = transactionMetadataProvider.getAllTransactionMetadata()
-
-        metadataMap = if (list.isNotEmpty()) {
-            list.associateBy({ it.txId }, { it })
-        } else {
-            mapOf()
-        }
-    }
-
-    protected val sortedTransactions by lazy {
-        wallet.getTransactions(false).sortedBy {
-            val confidence = it.getConfidence(wallet.context)
-            if (confidence != null && confidence.sentAt != null && confidence.sentAt < it.updateTime) {
-                confidence.sentAt
+    /**
+     * The wallet's transactions, oldest first by the time they were sent (or last updated).
+     * Sort keys are computed once per transaction instead of once per comparison.
+     */
+    protected fun sortedTransactions(): List<Transaction> {
+        val transactions = wallet.getTransactions(false).toTypedArray()
+        val times = LongArray(transactions.size) { i ->
+            val tx = transactions[i]
+            val confidence = tx.getConfidence(wallet.context)
+            if (confidence != null && confidence.sentAt != null && confidence.sentAt < tx.updateTime) {
+                confidence.sentAt.time
             } else {
-                it.updateTime
+                tx.updateTime.time
             }
         }
+        return transactions.indices.sortedBy { times[it] }.map { transactions[it] }
     }
 
     protected fun getTransactionValue(tx: Transaction): Coin {
@@ -167,5 +162,21 @@ abstract class TransactionExporter(
         "DASH Wallet"
     }
 
-    abstract suspend fun exportString(): String
+    /**
+     * Writes the export to [output] as it goes, without holding the whole document in memory.
+     * Metadata is fetched one chunk of transactions at a time. [output] is flushed but not closed.
+     *
+     * @param onProgress called after each chunk with the number of transactions processed so far
+     * and the total
+     */
+    abstract suspend fun export(output: OutputStream, onProgress: (processed: Int, total: Int) -> Unit = { _, _ -> })
+
+    /**
+     * @return the whole export as a string; only suitable for small wallets and tests
+     */
+    suspend fun exportString(): String {
+        val output = ByteArrayOutputStream()
+        export(output)
+        return output.toString(Charsets.UTF_8.name())
+    }
 }
\ No newline at end of file
@@ -17,11 +17,16 @@
 
 package de.schildbach.wallet.transactions
 
+import org.bitcoinj.core.Context
 import org.bitcoinj.core.Transaction
 import org.bitcoinj.core.TransactionBag
+import org.dash.wallet.common.transactions.ClassifyingWrapperFactory
 import org.dash.wallet.common.transactions.TransactionWrapper
 import org.dash.wallet.common.transactions.TransactionWrapperFactory
 import java.time.ZoneId
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
 
 object TransactionWrapperHelper {
     fun wrapTransactions(
@@ -30,6 +35,7 @@ object TransactionWrapperHelper {
     ): Collection<TransactionWrapper> {
         wrapperFactories.sortByDescending { it.averageTransactions }
         val wrappedTransactions = ArrayList<TransactionWrapper>()
+        val seenWrappers = HashSet<TransactionWrapper>()
 
         for (transaction in transactions) {
             if (transaction == null) {
@@ -41,7 +47,7 @@ object TransactionWrapperHelper {
             for (wrapperFactory in wrapperFactories) {
                 val (included, wrapper) = wrapperFactory.tryInclude(transaction)
                 if (included && wrapper != null) {
-                    if (!wrappedTransactions.contains(wrapper)) {
+                    if (seenWrappers.add(wrapper)) {
                         wrappedTransactions.add(wrapper)
                     }
                     added = true
@@ -50,17 +56,117 @@ object TransactionWrapperHelper {
             }
 
             if (!added) {
-                val anonWrapper: TransactionWrapper = object : TransactionWrapper {
-                    override val id: String = transaction.txId.toStringBase58()
-                    override val transactions = hashMapOf(transaction.txId to transaction)
-                    override val groupDate = transaction.updateTime.toInstant().atZone(ZoneId.systemDefault()).toLocalDate()
-                    override fun tryInclude(tx: Transaction) = true
-                    override fun getValue(bag: TransactionBag) = transaction.getValue(bag)
+                wrappedTransactions.add(anonWrapper(transaction))
+            }
+        }
+
+        return wrappedTransactions
+    }
+
+    /**
+     * Produces exactly the same wrappers, in the same order, as [wrapTransactions], but runs
+     * the read-only [ClassifyingWrapperFactory.classify] step (e.g. CoinJoin type detection)
+     * for [parallelism] partitions of the transaction set on the fork-join pool.
+     *
+     * The merge step then walks the transactions in their original order, applying the
+     * precomputed classification and calling [TransactionWrapperFactory.tryInclude] for the
+     * order-dependent factories (e.g. the CrowdNode sign-up set), so the result is
+     * deterministic regardless of how the partitions were scheduled.
+     */
+    fun wrapTransactionsParallel(
+        transactions: Set<Transaction?>,
+        parallelism: Int,
+        vararg wrapperFactories: TransactionWrapperFactory
+    ): Collection<TransactionWrapper> {
+        wrapperFactories.sortByDescending { it.averageTransactions }
+        val classifyingFactories = wrapperFactories.filterIsInstance<ClassifyingWrapperFactory>()
+
+        if (parallelism <= 1 || classifyingFactories.isEmpty()) {
+            return wrapTransactions(transactions, *wrapperFactories)
+        }
+
+        val txList = transactions.filterNotNull()
+        val classifications = classifyInPartitions(txList, classifyingFactories, parallelism)
+        val wrappedTransactions = ArrayList<TransactionWrapper>()
+        val seenWrappers = HashSet<TransactionWrapper>()
+
+        for ((index, transaction) in txList.withIndex()) {
+            var added = false
+
+            for (wrapperFactory in wrapperFactories) {
+                val wrapper = if (wrapperFactory is ClassifyingWrapperFactory) {
+                    val key = classifications[classifyingFactories.indexOf(wrapperFactory)][index]
+                    key?.let { wrapperFactory.include(transaction, it) }
+                } else {
+                    val (included, wrapper) = wrapperFactory.tryInclude(transaction)
+                    if (included) wrapper else null
+                }
+
+                if (wrapper != null) {
+                    if (seenWrappers.add(wrapper)) {
+                        wrappedTransactions.add(wrapper)
+                    }
+                    added = true
+                    break
                 }
-                wrappedTransactions.add(anonWrapper)
+            }
+
+            if (!added) {
+                wrappedTransactions.add(anonWrapper(transaction))
             }
         }
 
         return wrappedTransactions
     }
+
+    private fun anonWrapper(transaction: Transaction): TransactionWrapper = object : TransactionWrapper {
+        override val id: String = transaction.txId.toStringBase58()
+        override val transactions = hashMapOf(transaction.txId to transaction)
+        override val groupDate = transaction.updateTime.toInstant().atZone(ZoneId.systemDefault()).toLocalDate()
+        override fun tryInclude(tx: Transaction) = true
+        override fun getValue(bag: TransactionBag) = transaction.getValue(bag)
+    }
+
+    /**
+     * Returns, for each factory in [factories], an array with the classification key of every
+     * transaction in [txList] (null if not included).  Each partition fills its own slice of
+     * the arrays, so no synchronization is needed between partitions.
+     */
+    private fun classifyInPartitions(
+        txList: List<Transaction>,
+        factories: List<ClassifyingWrapperFactory>,
+        parallelism: Int
+    ): List<Array<Any?>> {
+        val classifications = factories.map { arrayOfNulls<Any>(txList.size) }
+        val partitionSize = (txList.size + parallelism - 1) / parallelism
+        // bitcoinj keeps its Context in a thread-local; hand the caller's one to the workers
+        val context = Context.get()
+        val pool = ForkJoinPool.commonPool()
+
+        val tasks = (0 until parallelism)
+            .map { it * partitionSize }
+            .filter { it < txList.size }
+            .map { from ->
+                val to = minOf(from + partitionSize, txList.size)
+                pool.submit(
+                    Callable {
+                        Context.propagate(context)
+                        for (i in from until to) {
+                            val tx = txList[i]
+                            factories.forEachIndexed { f, factory ->
+                                classifications[f][i] = factory.classify(tx)
+                            }
+                        }
+                    }
+                )
+            }
+
+        try {
+            tasks.forEach { it.get() }
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+
+        return classifications
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.transactions
+
+import org.bitcoinj.core.Sha256Hash
+import org.dash.wallet.common.transactions.TransactionWrapper
+import java.time.LocalDate
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentSkipListMap
+
+/**
+ * Incrementally maintained in-memory index over the wrapped transaction list:
+ *  - `txId → wrapper` and `id → wrapper` hash lookups
+ *  - a skip list ordered by [TransactionWrapper.groupDate], newest first
+ *
+ * Adding a wrapper costs O(log n + its transactions) and adding a transaction to an indexed
+ * wrapper O(1), so a batch of incoming transactions no longer requires rebuilding lookup maps
+ * or re-sorting the whole list.
+ *
+ * Mutations must be confined to a single thread (the owner's worker scope); lookups and
+ * iteration are safe from any thread. [replaceAll] and [clear] swap in a new set of maps, so
+ * readers see either the old or the new content, never a partly filled index.
+ */
+class TransactionWrapperIndex {
+    // Wrappers with the same group date keep their insertion order, like a stable sort would.
+    private data class OrderKey(val groupDate: LocalDate, val seq: Long)
+
+    private class Maps {
+        val ordered = ConcurrentSkipListMap<OrderKey, TransactionWrapper>(
+            compareByDescending<OrderKey> { it.groupDate }.thenBy { it.seq }
+        )
+        val byId = ConcurrentHashMap<String, TransactionWrapper>()
+        val byTxId = ConcurrentHashMap<Sha256Hash, TransactionWrapper>()
+        var nextSeq = 0L
+
+        fun add(wrapper: TransactionWrapper): Boolean {
+            if (byId.putIfAbsent(wrapper.id, wrapper) != null) {
+                return false
+            }
+
+            ordered[OrderKey(wrapper.groupDate, nextSeq++)] = wrapper
+            wrapper.transactions.keys.forEach { byTxId[it] = wrapper }
+            return true
+        }
+    }
+
+    @Volatile
+    private var maps = Maps()
+
+    val size: Int
+        get() = maps.byId.size
+
+    /** Live, weakly consistent view of all wrappers, newest group first. */
+    val wrappers: Collection<TransactionWrapper>
+        get() = maps.ordered.values
+
+    fun isEmpty(): Boolean = maps.byId.isEmpty()
+
+    fun getById(id: String): TransactionWrapper? = maps.byId[id]
+
+    fun getByTxId(txId: Sha256Hash): TransactionWrapper? = maps.byTxId[txId]
+
+    /**
+     * Adds [wrapper] and indexes all of its transactions. Returns false, leaving the index
+     * unchanged, if a wrapper with the same id is already present; transactions added to that
+     * wrapper since are indexed with [indexTransaction].
+     */
+    fun add(wrapper: TransactionWrapper): Boolean = maps.add(wrapper)
+
+    /** Records that [txId] was just added to [wrapper], which must already be indexed. */
+    fun indexTransaction(wrapper: TransactionWrapper, txId: Sha256Hash) {
+        maps.byTxId[txId] = wrapper
+    }
+
+    /** Replaces the whole index; ties in group date keep the order of [wrappers]. */
+    fun replaceAll(wrappers: Collection<TransactionWrapper>) {
+        val replacement = Maps()
+        wrappers.forEach { replacement.add(it) }
+        maps = replacement
+    }
+
+    fun clear() {
+        maps = Maps()
+    }
+}
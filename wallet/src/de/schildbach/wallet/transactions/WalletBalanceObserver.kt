@@ -21,8 +21,8 @@ import com.google.common.base.Stopwatch
 import de.schildbach.wallet.Constants
 import de.schildbach.wallet.service.CoinJoinMode
 import de.schildbach.wallet.service.CoinJoinService
-import de.schildbach.wallet.util.ThrottlingWalletChangeListener
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.channels.awaitClose
@@ -30,25 +30,29 @@ import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.onStart
 import kotlinx.coroutines.launch
 import org.bitcoinj.core.Coin
-import org.bitcoinj.utils.Threading
 import org.bitcoinj.wallet.CoinSelector
 import org.bitcoinj.wallet.Wallet
 import org.bitcoinj.wallet.Wallet.BalanceType
-import org.bitcoinj.wallet.listeners.WalletResetEventListener
 import org.dash.wallet.common.data.WalletUIConfig
 import org.slf4j.LoggerFactory
 import java.util.concurrent.TimeUnit
 
 class WalletBalanceObserver(
     private val wallet: Wallet,
+    private val walletEventHub: WalletEventHub,
     private val walletUIConfig: WalletUIConfig
 ) {
     companion object {
         private val log = LoggerFactory.getLogger(WalletBalanceObserver::class.java)
+        private const val THROTTLE_MS = 500L
     }
     private val emitterJob = SupervisorJob()
     private val emitterScope = CoroutineScope(Dispatchers.IO + emitterJob)
@@ -61,32 +65,33 @@ class WalletBalanceObserver(
     val mixedBalance: StateFlow<Coin>
         get() = _mixedBalance
 
-    private val walletChangeListener = object : ThrottlingWalletChangeListener() {
-        override fun onThrottledWalletChanged() {
-            emitBalances()
-        }
-    }
-
-    private val walletResetListener = object : WalletResetEventListener {
-        override fun onWalletReset(wallet: Wallet?) {
-            emitBalances()
-        }
-    }
+    private val balanceTracker = WalletBalanceTracker(wallet)
+    @Volatile
+    private var emittedVersion = -1L
 
     init {
-        wallet.addChangeEventListener(Threading.SAME_THREAD, walletChangeListener)
-        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletChangeListener)
-        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletChangeListener)
-        wallet.addResetEventListener(Threading.SAME_THREAD, walletResetListener)
+        // the tracker applies every transaction once, so it cannot miss any
+        emitterScope.launch(start = CoroutineStart.UNDISPATCHED) {
+            walletEventHub.observeAllEvents("balances").collect { event ->
+                org.bitcoinj.core.Context.propagate(Constants.CONTEXT)
+                when (event) {
+                    is WalletEventHub.Event.CoinsReceived -> balanceTracker.update(event.tx)
+                    is WalletEventHub.Event.CoinsSent -> balanceTracker.update(event.tx)
+                    is WalletEventHub.Event.Reorganize, is WalletEventHub.Event.Reset -> {
+                        balanceTracker.invalidate()
+                        emitBalances()
+                    }
+                }
+            }
+        }
+        // every change, as transactions that neither add nor remove value come without a coins event
+        walletEventHub.observeChanged("balances", THROTTLE_MS)
+            .onEach { emitBalances() }
+            .launchIn(emitterScope)
         emitLastBalances()
     }
 
     fun close() {
-        wallet.removeChangeEventListener(walletChangeListener)
-        wallet.removeCoinsSentEventListener(walletChangeListener)
-        wallet.removeCoinsReceivedEventListener(walletChangeListener)
-        wallet.removeResetEventListener(walletResetListener)
-        walletChangeListener.removeCallbacks()
         emitterJob.cancel()
     }
 
@@ -101,10 +106,16 @@ class WalletBalanceObserver(
         emitterScope.launch {
             org.bitcoinj.core.Context.propagate(Constants.CONTEXT)
 
-            val mixedBalance = wallet.getBalance(BalanceType.COINJOIN_SPENDABLE)
+            balanceTracker.refresh()
+            val version = balanceTracker.version
+            if (version == emittedVersion) {
+                return@launch
+            }
+            emittedVersion = version
+            val mixedBalance = balanceTracker.getBalance(BalanceType.COINJOIN_SPENDABLE)
             walletUIConfig.set(WalletUIConfig.LAST_MIXED_BALANCE, mixedBalance.value)
             _mixedBalance.emit(mixedBalance)
-            val totalBalance = wallet.getBalance(BalanceType.ESTIMATED)
+            val totalBalance = balanceTracker.getBalance(BalanceType.ESTIMATED)
             walletUIConfig.set(WalletUIConfig.LAST_TOTAL_BALANCE, totalBalance.value)
             _totalBalance.emit(totalBalance)
         }
@@ -114,49 +125,30 @@ class WalletBalanceObserver(
     fun observe(
         balanceType: BalanceType = BalanceType.ESTIMATED,
         coinSelector: CoinSelector? = null
-    ): Flow<Coin> = callbackFlow {
-        val emitterJob = SupervisorJob()
-        val emitterScope = CoroutineScope(Dispatchers.IO + emitterJob)
-        fun emitBalance() {
-            emitterScope.launch {
-                val watch = Stopwatch.createStarted()
-                org.bitcoinj.core.Context.propagate(Constants.CONTEXT)
-
-                trySend(
-                    if (coinSelector != null) {
-                        wallet.getBalance(coinSelector)
-                    } else {
-                        wallet.getBalance(balanceType)
-                    }
-                )
-                log.info(
-                    "process emit balance time: {} ms, selector {}",
-                    watch.elapsed(TimeUnit.MILLISECONDS),
-                    coinSelector?.javaClass?.simpleName
-                )
-            }
+    ): Flow<Coin> = walletEventHub.observeChanged("balance observer", THROTTLE_MS)
+        .onStart { emit(Unit) }
+        .map {
+            org.bitcoinj.core.Context.propagate(Constants.CONTEXT)
+            balanceTracker.refresh()
+            balanceTracker.version
         }
-
-        val walletChangeListener = object : ThrottlingWalletChangeListener() {
-            override fun onThrottledWalletChanged() {
-                emitBalance()
+        .distinctUntilChanged()
+        .map {
+            val watch = Stopwatch.createStarted()
+
+            val balance = if (coinSelector != null) {
+                balanceTracker.getBalance(coinSelector)
+            } else {
+                balanceTracker.getBalance(balanceType)
             }
+            log.info(
+                "process emit balance time: {} ms, selector {}",
+                watch.elapsed(TimeUnit.MILLISECONDS),
+                coinSelector?.javaClass?.simpleName
+            )
+            balance
         }
-
-        wallet.addChangeEventListener(Threading.SAME_THREAD, walletChangeListener)
-        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletChangeListener)
-        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletChangeListener)
-
-        emitBalance()
-
-        awaitClose {
-            wallet.removeChangeEventListener(walletChangeListener)
-            wallet.removeCoinsSentEventListener(walletChangeListener)
-            wallet.removeCoinsReceivedEventListener(walletChangeListener)
-            walletChangeListener.removeCallbacks()
-            emitterJob.cancel()
-        }
-    }
+        .flowOn(Dispatchers.IO)
 
     /** the emitted balance depends on the current [CoinJoinMode] and if mixing is ongoing */
     fun observeSpendable(coinJoinService: CoinJoinService): Flow<Coin> = callbackFlow {
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.transactions
+
+import com.google.common.base.Stopwatch
+import org.bitcoinj.coinjoin.CoinJoinCoinSelector
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.NetworkParameters
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.core.TransactionConfidence
+import org.bitcoinj.core.TransactionOutput
+import org.bitcoinj.wallet.CoinSelector
+import org.bitcoinj.wallet.Wallet
+import org.bitcoinj.wallet.Wallet.BalanceType
+import org.slf4j.LoggerFactory
+
+/**
+ * Keeps the wallet balances as running totals of what every transaction contributes through its unspent
+ * outputs, so a wallet change only costs the transactions it touched instead of a walk over all spend
+ * candidates for every balance type.
+ *
+ * A transaction is evaluated again when coins are sent or received with it, when one of its outputs gets
+ * spent and, while it is pending or an immature coinbase, on every [refresh]. Transactions that reach the
+ * wallet without a coins event, like CoinJoin mixing transactions that neither add nor remove value, are
+ * picked up by [refresh] when the transaction count changes. Reorganizes and resets call for a full
+ * recompute through [invalidate].
+ *
+ * Like [Wallet.getBalance], the selectors only see the outputs of mature transactions; they are applied per
+ * transaction, which gives the same totals for the filtering selectors used for the tracked balance types.
+ */
+class WalletBalanceTracker(
+    private val wallet: Wallet,
+    coinJoinCoinSelector: CoinSelector? = null
+) {
+    companion object {
+        private val log = LoggerFactory.getLogger(WalletBalanceTracker::class.java)
+
+        private val TRACKED_TYPES = listOf(
+            BalanceType.ESTIMATED,
+            BalanceType.ESTIMATED_SPENDABLE,
+            BalanceType.AVAILABLE,
+            BalanceType.COINJOIN_SPENDABLE
+        )
+    }
+
+    private class Contribution(
+        val candidates: List<TransactionOutput>,
+        val isMature: Boolean,
+        val balances: LongArray
+    ) {
+        fun isSameAs(other: Contribution?): Boolean {
+            return other != null && other.isMature == isMature && other.balances.contentEquals(balances) &&
+                other.candidates.map { it.outPointFor } == candidates.map { it.outPointFor }
+        }
+    }
+
+    private val contributions = HashMap<Sha256Hash, Contribution>()
+    private val known = HashSet<Sha256Hash>()
+    private val unsettled = HashSet<Sha256Hash>()
+    private val totals = LongArray(TRACKED_TYPES.size)
+    private var isValid = false
+    private val coinJoinCoinSelector by lazy { coinJoinCoinSelector ?: CoinJoinCoinSelector(wallet) }
+
+    /** Changes whenever a balance or the set of spend candidates changes. */
+    @Volatile
+    var version = 0L
+        private set
+
+    @Volatile
+    var fullRecomputeCount = 0
+        private set
+
+    fun isTracked(balanceType: BalanceType): Boolean = balanceType in TRACKED_TYPES
+
+    @Synchronized
+    fun getBalance(balanceType: BalanceType): Coin {
+        val index = TRACKED_TYPES.indexOf(balanceType)
+        if (index < 0) {
+            return wallet.getBalance(balanceType)
+        }
+        ensureValid()
+        return Coin.valueOf(totals[index])
+    }
+
+    /** Like [Wallet.getBalance] for a selector, without collecting the spend candidates from the wallet. */
+    @Synchronized
+    fun getBalance(coinSelector: CoinSelector): Coin {
+        ensureValid()
+        val candidates = contributions.values.filter { it.isMature }.flatMap { it.candidates }
+        return coinSelector.select(NetworkParameters.MAX_MONEY, candidates.toMutableList()).valueGathered
+    }
+
+    /** Evaluates [tx] and the transactions whose outputs it spends. */
+    @Synchronized
+    fun update(tx: Transaction) {
+        if (!isValid) {
+            return
+        }
+        known.add(tx.txId)
+        evaluateWithInputs(tx)
+    }
+
+    @Synchronized
+    fun invalidate() {
+        isValid = false
+    }
+
+    /**
+     * Picks up transactions that arrived without a coins event and evaluates the unsettled ones again.
+     *
+     * @return whether the balances or spend candidates changed
+     */
+    @Synchronized
+    fun refresh(): Boolean {
+        val previousVersion = version
+        if (!isValid) {
+            recompute()
+            return true
+        }
+        val count = wallet.getTransactionCount(true)
+        if (count < known.size) {
+            // transactions were removed from the wallet
+            recompute()
+            return true
+        }
+        if (count > known.size) {
+            wallet.getTransactions(true).forEach { tx ->
+                if (known.add(tx.txId)) {
+                    evaluateWithInputs(tx)
+                }
+            }
+        }
+        unsettled.toList().forEach { txId ->
+            wallet.getTransaction(txId)?.let { evaluateWithInputs(it) } ?: remove(txId)
+        }
+        return version != previousVersion
+    }
+
+    private fun ensureValid() {
+        if (!isValid) {
+            recompute()
+        }
+    }
+
+    private fun recompute() {
+        val watch = Stopwatch.createStarted()
+        contributions.clear()
+        known.clear()
+        unsettled.clear()
+        totals.fill(0)
+        wallet.getTransactions(true).forEach { tx ->
+            known.add(tx.txId)
+            evaluate(tx)
+        }
+        isValid = true
+        fullRecomputeCount++
+        version++
+        log.info("recomputed balances of {} transactions in {}", known.size, watch)
+    }
+
+    private fun evaluateWithInputs(tx: Transaction) {
+        evaluate(tx)
+        if (!tx.isCoinBase) {
+            tx.inputs.map { it.outpoint.hash }.distinct().forEach { txId ->
+                if (txId in known) {
+                    wallet.getTransaction(txId)?.let { evaluate(it) }
+                }
+            }
+        }
+    }
+
+    private fun evaluate(tx: Transaction) {
+        val contribution = contributionOf(tx)
+        val isUnsettled = when (tx.getConfidence(wallet.context).confidenceType) {
+            TransactionConfidence.ConfidenceType.PENDING, TransactionConfidence.ConfidenceType.IN_CONFLICT -> true
+            TransactionConfidence.ConfidenceType.BUILDING -> contribution?.isMature == false
+            else -> false
+        }
+        if (isUnsettled) {
+            unsettled.add(tx.txId)
+        } else {
+            unsettled.remove(tx.txId)
+        }
+
+        val previous = contributions[tx.txId]
+        if (contribution?.isSameAs(previous) ?: (previous == null)) {
+            return
+        }
+        previous?.balances?.forEachIndexed { i, value -> totals[i] -= value }
+        if (contribution != null) {
+            contribution.balances.forEachIndexed { i, value -> totals[i] += value }
+            contributions[tx.txId] = contribution
+        } else {
+            contributions.remove(tx.txId)
+        }
+        version++
+    }
+
+    private fun remove(txId: Sha256Hash) {
+        unsettled.remove(txId)
+        known.remove(txId)
+        contributions.remove(txId)?.let { previous ->
+            previous.balances.forEachIndexed { i, value -> totals[i] -= value }
+            version++
+        }
+    }
+
+    private fun contributionOf(tx: Transaction): Contribution? {
+        if (tx.getConfidence(wallet.context).confidenceType == TransactionConfidence.ConfidenceType.DEAD) {
+            return null
+        }
+        val candidates = tx.outputs.filter {
+            it.isAvailableForSpending && (it.isMine(wallet) || it.isWatched(wallet))
+        }
+        if (candidates.isEmpty()) {
+            return null
+        }
+        val spendable = candidates.filter { wallet.canSignFor(it.scriptPubKey) }
+        val isMature = wallet.isTransactionMature(tx)
+        val balances = LongArray(TRACKED_TYPES.size)
+        TRACKED_TYPES.forEachIndexed { i, balanceType ->
+            balances[i] = when (balanceType) {
+                BalanceType.ESTIMATED -> candidates.sumOf { it.value.value }
+                BalanceType.ESTIMATED_SPENDABLE -> spendable.sumOf { it.value.value }
+                BalanceType.AVAILABLE -> if (isMature) select(wallet.coinSelector, candidates) else 0
+                BalanceType.COINJOIN_SPENDABLE -> if (isMature) select(coinJoinCoinSelector, spendable) else 0
+                else -> 0
+            }
+        }
+        return Contribution(candidates, isMature, balances)
+    }
+
+    private fun select(coinSelector: CoinSelector, candidates: List<TransactionOutput>): Long {
+        if (candidates.isEmpty()) {
+            return 0
+        }
+        return coinSelector.select(NetworkParameters.MAX_MONEY, candidates.toMutableList()).valueGathered.value
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.transactions
+
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.drop
+import kotlinx.coroutines.flow.filterIsInstance
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.map
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.utils.Threading
+import org.bitcoinj.wallet.Wallet
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener
+import org.bitcoinj.wallet.listeners.WalletReorganizeEventListener
+import org.bitcoinj.wallet.listeners.WalletResetEventListener
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The single set of wallet listeners, shared by every observer of the wallet.
+ *
+ * The listeners run under the wallet lock and only hand the event over: coins sent and received, reorganizes
+ * and resets go to a [MutableSharedFlow] with a bounded buffer that drops the oldest events for subscribers
+ * that fall behind, and wallet changes bump a version in a [MutableStateFlow], so a slow subscriber sees the
+ * latest change once instead of every one of them. Subscriber code runs in the collecting coroutine.
+ *
+ * The bounded buffer suits the UI, which only needs the latest state. Subscribers with side effects or state
+ * derived from every event use [observeAllEvents] instead, which buffers without limit.
+ *
+ * Like [de.schildbach.wallet.util.ThrottlingWalletChangeListener], [observeCoinsChanged] only reports the
+ * changes that follow coins being sent or received.
+ */
+class WalletEventHub(private val wallet: Wallet) {
+    companion object {
+        const val EVENT_BUFFER_SIZE = 64
+    }
+
+    sealed class Event {
+        abstract val sequence: Long
+
+        class CoinsReceived(
+            override val sequence: Long,
+            val tx: Transaction,
+            val prevBalance: Coin,
+            val newBalance: Coin
+        ) : Event()
+
+        class CoinsSent(
+            override val sequence: Long,
+            val tx: Transaction,
+            val prevBalance: Coin,
+            val newBalance: Coin
+        ) : Event()
+
+        class Reorganize(override val sequence: Long) : Event()
+
+        class Reset(override val sequence: Long) : Event()
+    }
+
+    private class Subscriber(val name: String, private val latest: () -> Long) {
+        @Volatile var seen = latest()
+
+        val lag: Long
+            get() = latest() - seen
+    }
+
+    private val eventSequence = AtomicLong()
+    private val events = MutableSharedFlow<Event>(
+        extraBufferCapacity = EVENT_BUFFER_SIZE,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+    private val changeVersion = AtomicLong()
+    private val changes = MutableStateFlow(0L)
+    private val coinsChangeVersion = AtomicLong()
+    private val coinsChanges = MutableStateFlow(0L)
+    private val coinsRelevant = AtomicBoolean()
+
+    private val subscribers = ConcurrentHashMap.newKeySet<Subscriber>()
+    private val losslessSinks = ConcurrentHashMap.newKeySet<SendChannel<Event>>()
+    private val droppedEvents = AtomicLong()
+    private val coalescedChanges = AtomicLong()
+
+    val subscriberCount: Int
+        get() = subscribers.size
+
+    /** Events that subscribers missed because their buffer was full. */
+    val droppedEventCount: Long
+        get() = droppedEvents.get()
+
+    /** Wallet changes that subscribers only saw as part of a later change. */
+    val coalescedChangeCount: Long
+        get() = coalescedChanges.get()
+
+    /** How many events or changes each subscriber has not processed yet. */
+    val subscriberLag: Map<String, Long>
+        get() = subscribers.groupBy { it.name }.mapValues { (_, list) -> list.maxOf { it.lag } }
+
+    private val coinsReceivedListener = WalletCoinsReceivedEventListener { _, tx, prevBalance, newBalance ->
+        coinsRelevant.set(true)
+        publish(Event.CoinsReceived(eventSequence.incrementAndGet(), tx, prevBalance, newBalance))
+    }
+
+    private val coinsSentListener = WalletCoinsSentEventListener { _, tx, prevBalance, newBalance ->
+        coinsRelevant.set(true)
+        publish(Event.CoinsSent(eventSequence.incrementAndGet(), tx, prevBalance, newBalance))
+    }
+
+    private val changeListener = WalletChangeEventListener {
+        changes.value = changeVersion.incrementAndGet()
+        if (coinsRelevant.getAndSet(false)) {
+            coinsChanges.value = coinsChangeVersion.incrementAndGet()
+        }
+    }
+
+    private val reorganizeListener = WalletReorganizeEventListener {
+        publish(Event.Reorganize(eventSequence.incrementAndGet()))
+        changes.value = changeVersion.incrementAndGet()
+    }
+
+    private val resetListener = WalletResetEventListener {
+        publish(Event.Reset(eventSequence.incrementAndGet()))
+        changes.value = changeVersion.incrementAndGet()
+    }
+
+    init {
+        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, coinsReceivedListener)
+        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, coinsSentListener)
+        wallet.addChangeEventListener(Threading.SAME_THREAD, changeListener)
+        wallet.addReorganizeEventListener(Threading.SAME_THREAD, reorganizeListener)
+        wallet.addResetEventListener(Threading.SAME_THREAD, resetListener)
+    }
+
+    fun close() {
+        wallet.removeCoinsReceivedEventListener(coinsReceivedListener)
+        wallet.removeCoinsSentEventListener(coinsSentListener)
+        wallet.removeChangeEventListener(changeListener)
+        wallet.removeReorganizeEventListener(reorganizeListener)
+        wallet.removeResetEventListener(resetListener)
+    }
+
+    /**
+     * Coins sent and received, reorganizes and resets, in order. A subscriber that falls more than
+     * [EVENT_BUFFER_SIZE] events behind misses the oldest ones.
+     */
+    fun observeEvents(subscriber: String): Flow<Event> {
+        return track(subscriber, eventSequence::get, droppedEvents, events) { it.sequence }
+    }
+
+    /**
+     * Like [observeEvents], but every event is delivered: each subscriber has its own unbounded buffer. The
+     * subscription starts when collection starts; collect with `CoroutineStart.UNDISPATCHED` to not miss the
+     * events in between.
+     */
+    fun observeAllEvents(subscriber: String): Flow<Event> {
+        val source = flow {
+            val channel = Channel<Event>(Channel.UNLIMITED)
+            losslessSinks.add(channel)
+            try {
+                for (event in channel) {
+                    emit(event)
+                }
+            } finally {
+                losslessSinks.remove(channel)
+            }
+        }
+        return track(subscriber, eventSequence::get, droppedEvents, source) { it.sequence }
+    }
+
+    /**
+     * Transactions that sent or received coins, none missed, like [observeAllEvents]. A transaction that does
+     * both is emitted once.
+     */
+    fun observeTransactions(subscriber: String): Flow<Transaction> = flow {
+        var last: Event? = null
+        observeAllEvents(subscriber).collect { event ->
+            val tx = when (event) {
+                is Event.CoinsReceived -> event.tx
+                is Event.CoinsSent -> event.tx
+                else -> null
+            }
+            if (tx != null && !isSameTransaction(last, event, tx.txId)) {
+                emit(tx)
+            }
+            last = event
+        }
+    }
+
+    fun observeReset(subscriber: String): Flow<Unit> {
+        return observeEvents(subscriber).filterIsInstance<Event.Reset>().map { }
+    }
+
+    /**
+     * Every wallet change, at most once per [throttleMs]. Changes while the subscriber is busy or waiting
+     * are coalesced into one.
+     */
+    fun observeChanged(subscriber: String, throttleMs: Long = 0): Flow<Unit> {
+        return throttle(track(subscriber, changeVersion::get, coalescedChanges, changes.drop(1)) { it }, throttleMs)
+    }
+
+    /** Like [observeChanged], for the changes that follow coins being sent or received. */
+    fun observeCoinsChanged(subscriber: String, throttleMs: Long = 0): Flow<Unit> {
+        return throttle(track(subscriber, coinsChangeVersion::get, coalescedChanges, coinsChanges.drop(1)) { it }, throttleMs)
+    }
+
+    private fun publish(event: Event) {
+        events.tryEmit(event)
+        losslessSinks.forEach { it.trySend(event) }
+    }
+
+    private fun isSameTransaction(last: Event?, event: Event, txId: Sha256Hash): Boolean {
+        if (last == null || last.sequence != event.sequence - 1) {
+            return false
+        }
+        return when (last) {
+            is Event.CoinsReceived -> last.tx.txId == txId
+            is Event.CoinsSent -> last.tx.txId == txId
+            else -> false
+        }
+    }
+
+    private fun <T> track(
+        name: String,
+        latest: () -> Long,
+        skipped: AtomicLong,
+        source: Flow<T>,
+        sequenceOf: (T) -> Long
+    ): Flow<T> = flow {
+        val subscriber = Subscriber(name, latest)
+        subscribers.add(subscriber)
+        try {
+            source.collect { value ->
+                val sequence = sequenceOf(value)
+                if (sequence - subscriber.seen > 1) {
+                    skipped.addAndGet(sequence - subscriber.seen - 1)
+                }
+                subscriber.seen = sequence
+                emit(value)
+            }
+        } finally {
+            subscribers.remove(subscriber)
+        }
+    }
+
+    // the state flow upstream conflates while the collector waits
+    private fun throttle(source: Flow<Long>, throttleMs: Long): Flow<Unit> = flow {
+        source.collect {
+            emit(Unit)
+            if (throttleMs > 0) {
+                delay(throttleMs)
+            }
+        }
+    }
+}
@@ -18,81 +18,125 @@
 package de.schildbach.wallet.transactions
 
 import de.schildbach.wallet.Constants
-import de.schildbach.wallet.util.ThrottlingWalletChangeListener
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.callbackFlow
-import kotlinx.coroutines.launch
-import org.bitcoinj.core.Coin
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.onStart
 import org.bitcoinj.core.Transaction
-import org.bitcoinj.utils.Threading
 import org.bitcoinj.wallet.Wallet
 
-class WalletMostRecentTransactionsObserver(private val wallet: Wallet) {
+class WalletMostRecentTransactionsObserver(
+    private val wallet: Wallet,
+    private val walletEventHub: WalletEventHub
+) {
+    companion object {
+        private const val THROTTLE_MS = 500L
+    }
+
     private val workerJob = SupervisorJob()
     private val workerScope = CoroutineScope(Dispatchers.IO + workerJob)
     fun observe(): Flow<Transaction> = callbackFlow {
+        val recentTransactions = MostRecentTransactions(wallet)
+
         fun emitMostRecentTransaction() {
-            workerScope.launch {
-                org.bitcoinj.core.Context.propagate(Constants.CONTEXT)
-                val allTxs = wallet.walletTransactions
-                if (allTxs.any()) {
-                    var mostRecentTx = allTxs.first()
-                    allTxs.forEach {
-                        if (it.transaction.updateTime > mostRecentTx.transaction.updateTime) {
-                            mostRecentTx = it
-                        }
-                    }
-                    trySend(mostRecentTx.transaction)
-                }
-            }
+            org.bitcoinj.core.Context.propagate(Constants.CONTEXT)
+            recentTransactions.mostRecent()?.let { trySend(it) }
         }
 
         fun emitTransaction(transaction: Transaction) {
             org.bitcoinj.core.Context.propagate(Constants.CONTEXT)
+            recentTransactions.add(transaction)
             trySend(transaction)
         }
 
-        val walletChangeListener = object : ThrottlingWalletChangeListener() {
-            override fun onThrottledWalletChanged() {
-                emitMostRecentTransaction()
+        walletEventHub.observeTransactions("WalletMostRecentTransactionsObserver")
+            .onEach { emitTransaction(it) }
+            .launchIn(workerScope)
+        walletEventHub.observeEvents("WalletMostRecentTransactionsObserver")
+            .onEach { event ->
+                if (event is WalletEventHub.Event.Reorganize || event is WalletEventHub.Event.Reset) {
+                    recentTransactions.invalidate()
+                }
             }
+            .launchIn(workerScope)
+        walletEventHub.observeCoinsChanged("WalletMostRecentTransactionsObserver", THROTTLE_MS)
+            .onStart { emit(Unit) }
+            .onEach { emitMostRecentTransaction() }
+            .launchIn(workerScope)
 
-            override fun onCoinsReceived(
-                wallet: Wallet?,
-                tx: Transaction?,
-                prevBalance: Coin?,
-                newBalance: Coin?
-            ) {
-                super.onCoinsReceived(wallet, tx, prevBalance, newBalance)
-                emitTransaction(tx!!)
-            }
+        awaitClose {
+            workerJob.cancel()
+        }
+    }
+}
 
-            override fun onCoinsSent(
-                wallet: Wallet?,
-                tx: Transaction?,
-                prevBalance: Coin?,
-                newBalance: Coin?
-            ) {
-                super.onCoinsSent(wallet, tx, prevBalance, newBalance)
-                emitTransaction(tx!!)
-            }
+/**
+ * The [capacity] most recently updated transactions of a wallet, so the most recent one is known without a
+ * scan of all wallet transactions. The wallet is scanned once on first use, after [invalidate] and when
+ * every kept transaction has left the wallet.
+ */
+internal class MostRecentTransactions(
+    private val wallet: Wallet,
+    private val capacity: Int = DEFAULT_CAPACITY
+) {
+    companion object {
+        const val DEFAULT_CAPACITY = 8
+    }
+
+    private val recent = ArrayList<Transaction>(capacity + 1)
+    private var isLoaded = false
+
+    @Synchronized
+    fun add(tx: Transaction) {
+        if (!isLoaded) {
+            return
         }
+        recent.removeAll { it.txId == tx.txId }
+        recent.add(tx)
+        sortAndTrim()
+    }
 
-        wallet.addCoinsReceivedEventListener(Threading.SAME_THREAD, walletChangeListener)
-        wallet.addCoinsSentEventListener(Threading.SAME_THREAD, walletChangeListener)
-        wallet.addChangeEventListener(Threading.SAME_THREAD, walletChangeListener)
-        emitMostRecentTransaction()
+    /** Drops what is kept, for when transactions were reorganized or the wallet was reset. */
+    @Synchronized
+    fun invalidate() {
+        isLoaded = false
+        recent.clear()
+    }
 
-        awaitClose {
-            wallet.removeChangeEventListener(walletChangeListener)
-            wallet.removeCoinsSentEventListener(walletChangeListener)
-            wallet.removeCoinsReceivedEventListener(walletChangeListener)
-            walletChangeListener.removeCallbacks()
-            workerJob.cancel()
+    @Synchronized
+    fun mostRecent(): Transaction? {
+        if (!isLoaded) {
+            load()
+        } else if (recent.removeAll { wallet.getTransaction(it.txId) == null } && recent.isEmpty()) {
+            load()
+        } else {
+            // confirmation in a block can move the update time back
+            sortAndTrim()
+        }
+        return recent.firstOrNull()
+    }
+
+    private fun load() {
+        recent.clear()
+        wallet.walletTransactions.forEach {
+            val tx = it.transaction
+            if (recent.size < capacity || tx.updateTime > recent.last().updateTime) {
+                recent.add(tx)
+                sortAndTrim()
+            }
+        }
+        isLoaded = true
+    }
+
+    private fun sortAndTrim() {
+        recent.sortByDescending { it.updateTime }
+        while (recent.size > capacity) {
+            recent.removeAt(recent.size - 1)
         }
     }
-}
\ No newline at end of file
+}
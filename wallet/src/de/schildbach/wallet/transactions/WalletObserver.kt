@@ -18,56 +18,36 @@
 package de.schildbach.wallet.transactions
 
 import android.os.Looper
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.channels.awaitClose
 import kotlinx.coroutines.channels.onFailure
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.launch
 import org.bitcoinj.core.Context
 import org.bitcoinj.core.Sha256Hash
 import org.bitcoinj.core.Transaction
 import org.bitcoinj.core.TransactionConfidence
 import org.bitcoinj.utils.Threading.USER_THREAD
 import org.bitcoinj.wallet.Wallet
-import org.bitcoinj.wallet.listeners.WalletChangeEventListener
-import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener
-import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener
-import org.bitcoinj.wallet.listeners.WalletResetEventListener
 import org.dash.wallet.common.transactions.filters.TransactionFilter
 import org.slf4j.LoggerFactory
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
 class WalletObserver(
-    private val wallet: Wallet
+    private val wallet: Wallet,
+    private val walletEventHub: WalletEventHub
 ) {
     companion object {
         private val log = LoggerFactory.getLogger(WalletObserver::class.java)
         const val CONFIRMED_DEPTH = 6
     }
 
-    fun observeWalletChanged(): Flow<Unit> = callbackFlow {
-        val walletChangeListener = WalletChangeEventListener {
-            trySend(Unit)
-        }
+    fun observeWalletChanged(): Flow<Unit> = walletEventHub.observeChanged("WalletObserver")
 
-        wallet.addChangeEventListener(USER_THREAD, walletChangeListener)
-
-        awaitClose {
-            wallet.removeChangeEventListener(walletChangeListener)
-        }
-    }
-
-    fun observeWalletReset(): Flow<Unit> = callbackFlow {
-        val walletChangeListener = WalletResetEventListener {
-            trySend(Unit)
-        }
-
-        wallet.addResetEventListener(USER_THREAD, walletChangeListener)
-
-        awaitClose {
-            wallet.removeResetEventListener(walletChangeListener)
-        }
-    }
+    fun observeWalletReset(): Flow<Unit> = walletEventHub.observeReset("WalletObserver")
 
     /** observe new transactions (sent and received) and optionally transaction confidence changes for the past hour. */
     fun observeTransactions(
@@ -92,46 +72,6 @@ class WalletObserver(
             val transactions = ConcurrentHashMap<Sha256Hash, Transaction>()
             var transactionConfidenceListener: TransactionConfidence.Listener? = null
 
-            val coinsSentListener = WalletCoinsSentEventListener { _, tx: Transaction?, _, _ ->
-                try {
-                    val oneHourAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)
-                    if (tx != null && (filters.isEmpty() || filters.any { it.matches(tx) })) {
-                        log.info("observing transaction sent: {} [=====] {}", tx.txId, this@WalletObserver)
-                        if ((tx.updateTime.time > oneHourAgo && observeTxConfidence) || tx.isCoinBase) {
-                            transactions[tx.txId] = tx
-                            tx.getConfidence(wallet.context).addEventListener(USER_THREAD, transactionConfidenceListener)
-                            log.info("observing transaction: start listening to {}", tx.txId)
-                        }
-                        trySend(tx).onFailure {
-                            log.error("Failed to send transaction sent event", it)
-                        }
-                    }
-                } catch (e: Exception) {
-                    log.error("Error in coinsSentListener", e)
-                    close(e)
-                }
-            }
-
-            val coinsReceivedListener = WalletCoinsReceivedEventListener { _, tx: Transaction?, _, _ ->
-                try {
-                    if (tx != null && (filters.isEmpty() || filters.any { it.matches(tx) })) {
-                        log.info("observing transaction received: {} [=====] {}", tx.txId, this@WalletObserver)
-                        val oneHourAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)
-                        if ((tx.updateTime.time > oneHourAgo && observeTxConfidence) || tx.isCoinBase) {
-                            transactions[tx.txId] = tx
-                            tx.getConfidence(wallet.context).addEventListener(USER_THREAD, transactionConfidenceListener)
-                            log.info("observing transaction: start listening to {}", tx.txId)
-                        }
-                        trySend(tx).onFailure {
-                            log.error("Failed to send transaction received event", it)
-                        }
-                    }
-                } catch (e: Exception) {
-                    log.error("Error in coinsReceivedListener", e)
-                    close(e)
-                }
-            }
-
             if (observeTxConfidence) {
                 transactionConfidenceListener = TransactionConfidence.Listener { transactionConfidence, changeReason ->
                     try {
@@ -163,8 +103,29 @@ class WalletObserver(
                 }
             }
 
-            wallet.addCoinsSentEventListener(USER_THREAD, coinsSentListener)
-            wallet.addCoinsReceivedEventListener(USER_THREAD, coinsReceivedListener)
+            // subscribe before the listeners on old transactions are set up, so no transaction falls in between
+            launch(start = CoroutineStart.UNDISPATCHED) {
+                walletEventHub.observeTransactions("WalletObserver").collect { tx ->
+                    try {
+                        if (filters.isEmpty() || filters.any { it.matches(tx) }) {
+                            log.info("observing transaction: {} [=====] {}", tx.txId, this@WalletObserver)
+                            val oneHourAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)
+                            if ((tx.updateTime.time > oneHourAgo && observeTxConfidence) || tx.isCoinBase) {
+                                transactions[tx.txId] = tx
+                                tx.getConfidence(wallet.context).addEventListener(USER_THREAD, transactionConfidenceListener)
+                                log.info("observing transaction: start listening to {}", tx.txId)
+                            }
+                            // suspends rather than drops when the collector falls behind
+                            send(tx)
+                        }
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        log.error("Error in transaction observer", e)
+                        close(e)
+                    }
+                }
+            }
 
             // set up listeners on old transactions
             wallet.getTransactions(true).forEach { tx ->
@@ -189,8 +150,6 @@ class WalletObserver(
 
             awaitClose {
                 log.info("observing transactions stop: {}", this@WalletObserver)
-                wallet.removeCoinsSentEventListener(coinsSentListener)
-                wallet.removeCoinsReceivedEventListener(coinsReceivedListener)
                 if (observeTxConfidence) {
                     transactions.forEach { (_, tx) ->
                         tx.getConfidence(wallet.context).removeEventListener(transactionConfidenceListener)
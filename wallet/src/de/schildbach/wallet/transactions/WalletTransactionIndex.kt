@@ -0,0 +1,197 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.transactions
+
+import com.google.common.base.Stopwatch
+import de.schildbach.wallet.Constants
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import org.bitcoinj.coinjoin.CoinJoinTransactionType
+import org.bitcoinj.core.Address
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.core.TransactionOutput
+import org.bitcoinj.evolution.AssetLockTransaction
+import org.bitcoinj.script.ScriptException
+import org.bitcoinj.script.ScriptPattern
+import org.bitcoinj.wallet.Wallet
+import org.dash.wallet.common.transactions.filters.TransactionFilter
+import org.slf4j.LoggerFactory
+
+/**
+ * An in-memory index of the wallet transactions by the addresses they pay to or spend from, and by kind, so
+ * lookups with [TransactionFilter]s that name their [TransactionFilter.involvedAddresses] only test the
+ * transactions involving those addresses.
+ *
+ * The index is built on first use and then kept up to date from the coins events of the [WalletEventHub].
+ * Transactions that arrive without a coins event, like CoinJoin mixing transactions, are added when a
+ * lookup sees the transaction count change. Reorganizes and resets drop the index, to be built again on
+ * the next lookup.
+ */
+class WalletTransactionIndex(
+    private val wallet: Wallet,
+    walletEventHub: WalletEventHub
+) {
+    companion object {
+        private val log = LoggerFactory.getLogger(WalletTransactionIndex::class.java)
+    }
+
+    enum class Kind {
+        /** CoinJoin mixing, denomination, collateral and fee transactions, but not CoinJoin sends */
+        COINJOIN,
+        /** credit funding for identities: creation, top ups and invitations */
+        ASSET_LOCK
+    }
+
+    private val transactions = HashMap<Sha256Hash, Transaction>()
+    private val byAddress = HashMap<Address, MutableSet<Transaction>>()
+    private val byKind = HashMap<Kind, MutableSet<Transaction>>()
+    private var isBuilt = false
+
+    private val indexJob = SupervisorJob()
+    private val indexScope = CoroutineScope(Dispatchers.IO + indexJob)
+
+    init {
+        indexScope.launch(start = CoroutineStart.UNDISPATCHED) {
+            walletEventHub.observeAllEvents("WalletTransactionIndex").collect { event ->
+                org.bitcoinj.core.Context.propagate(Constants.CONTEXT)
+                when (event) {
+                    is WalletEventHub.Event.CoinsReceived -> add(event.tx)
+                    is WalletEventHub.Event.CoinsSent -> add(event.tx)
+                    is WalletEventHub.Event.Reorganize, is WalletEventHub.Event.Reset -> invalidate()
+                }
+            }
+        }
+    }
+
+    fun close() {
+        indexJob.cancel()
+    }
+
+    /**
+     * The transactions that may match any of [filters], or null if one of them does not name the addresses
+     * involved and every transaction has to be tested.
+     */
+    @Synchronized
+    fun getCandidates(vararg filters: TransactionFilter): Collection<Transaction>? {
+        val addresses = filters.map { it.involvedAddresses ?: return null }.flatten()
+        update()
+        val candidates = LinkedHashSet<Transaction>()
+        addresses.forEach { address ->
+            byAddress[address]?.let { candidates.addAll(it) }
+        }
+        return candidates
+    }
+
+    @Synchronized
+    fun getTransactions(kind: Kind): Collection<Transaction> {
+        update()
+        return byKind[kind]?.toList() ?: emptyList()
+    }
+
+    /** All transactions except those of [kind]. */
+    @Synchronized
+    fun getTransactionsExcept(kind: Kind): Collection<Transaction> {
+        update()
+        val excluded = byKind[kind] ?: emptySet()
+        return transactions.values.filter { it !in excluded }
+    }
+
+    @Synchronized
+    fun add(tx: Transaction) {
+        if (isBuilt) {
+            index(tx)
+        }
+    }
+
+    @Synchronized
+    fun invalidate() {
+        isBuilt = false
+        transactions.clear()
+        byAddress.clear()
+        byKind.clear()
+    }
+
+    private fun update() {
+        val count = wallet.getTransactionCount(true)
+        if (!isBuilt || count < transactions.size) {
+            build()
+        } else if (count > transactions.size) {
+            wallet.getTransactions(true).forEach { tx ->
+                if (!transactions.containsKey(tx.txId)) {
+                    index(tx)
+                }
+            }
+        }
+    }
+
+    private fun build() {
+        val watch = Stopwatch.createStarted()
+        invalidate()
+        wallet.getTransactions(true).forEach { index(it) }
+        isBuilt = true
+        log.info(
+            "indexed {} transactions by {} addresses in {}",
+            transactions.size, byAddress.size, watch
+        )
+    }
+
+    private fun index(tx: Transaction) {
+        transactions[tx.txId] = tx
+        tx.outputs.forEach { output ->
+            addressOf(output)?.let { byAddress.getOrPut(it) { HashSet() }.add(tx) }
+        }
+        if (!tx.isCoinBase) {
+            tx.inputs.forEach { input ->
+                // the parent can be in the wallet without the input being connected yet
+                val output = input.outpoint.connectedOutput
+                    ?: wallet.getTransaction(input.outpoint.hash)?.outputs?.getOrNull(input.outpoint.index.toInt())
+                output?.let { addressOf(it) }?.let { byAddress.getOrPut(it) { HashSet() }.add(tx) }
+            }
+        }
+        kindOf(tx)?.let { byKind.getOrPut(it) { HashSet() }.add(tx) }
+    }
+
+    private fun addressOf(output: TransactionOutput): Address? {
+        return try {
+            val script = output.scriptPubKey
+            if (ScriptPattern.isP2PKH(script) || ScriptPattern.isP2SH(script)) {
+                script.getToAddress(wallet.params)
+            } else {
+                null
+            }
+        } catch (x: ScriptException) {
+            null
+        }
+    }
+
+    private fun kindOf(tx: Transaction): Kind? {
+        if (AssetLockTransaction.isAssetLockTransaction(tx)) {
+            return Kind.ASSET_LOCK
+        }
+        val type = CoinJoinTransactionType.fromTx(tx, wallet)
+        return if (type == CoinJoinTransactionType.None || type == CoinJoinTransactionType.Send) {
+            null
+        } else {
+            Kind.COINJOIN
+        }
+    }
+}
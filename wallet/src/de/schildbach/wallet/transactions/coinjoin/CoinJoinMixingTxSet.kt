@@ -41,6 +41,18 @@ open class CoinJoinMixingTxSet(
         return true
     }
 
+    /**
+     * Adds [tx] without classifying it again. Only for transactions already known to belong
+     * to this day's mixing group, e.g. when restoring membership from the persisted group index.
+     */
+    fun includeClassified(tx: Transaction) {
+        if (transactions.isEmpty()) {
+            groupDate = tx.updateTime.toInstant().atZone(ZoneId.systemDefault()).toLocalDate()
+        }
+
+        transactions[tx.txId] = tx
+    }
+
     override fun getValue(bag: TransactionBag): Coin {
         var result = Coin.ZERO
 
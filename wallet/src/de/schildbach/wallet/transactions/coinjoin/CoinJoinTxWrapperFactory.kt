@@ -17,15 +17,16 @@
 
 package de.schildbach.wallet.transactions.coinjoin
 
+import org.bitcoinj.coinjoin.utils.CoinJoinTransactionType
 import org.bitcoinj.core.NetworkParameters
 import org.bitcoinj.core.Transaction
 import org.bitcoinj.wallet.WalletEx
+import org.dash.wallet.common.transactions.ClassifyingWrapperFactory
 import org.dash.wallet.common.transactions.TransactionWrapper
-import org.dash.wallet.common.transactions.TransactionWrapperFactory
 import java.time.LocalDate
 import java.time.ZoneId
 
-class CoinJoinTxWrapperFactory(val params: NetworkParameters, val wallet: WalletEx) : TransactionWrapperFactory {
+class CoinJoinTxWrapperFactory(val params: NetworkParameters, val wallet: WalletEx) : ClassifyingWrapperFactory {
     private val wrapperMap = hashMapOf<LocalDate, CoinJoinMixingTxSet>()
     override val wrappers: List<TransactionWrapper>
         get() = wrapperMap.values.toList()
@@ -49,4 +50,34 @@ class CoinJoinTxWrapperFactory(val params: NetworkParameters, val wallet: Wallet
             }
         }
     }
+
+    /** Returns the day of the mixing group [tx] belongs to, or null if it's not a mixing tx. */
+    override fun classify(tx: Transaction): Any? {
+        val type = CoinJoinTransactionType.fromTx(tx, wallet)
+
+        if (type == CoinJoinTransactionType.None || type == CoinJoinTransactionType.Send) {
+            return null
+        }
+
+        return tx.updateTime.toInstant().atZone(ZoneId.systemDefault()).toLocalDate()
+    }
+
+    override fun include(tx: Transaction, key: Any): TransactionWrapper {
+        val wrapper = wrapperMap.getOrPut(key as LocalDate) { CoinJoinMixingTxSet(wallet) }
+        wrapper.includeClassified(tx)
+        return wrapper
+    }
+
+    /**
+     * Restores a day group from previously classified [txs] without calling
+     * [CoinJoinTransactionType.fromTx] for each of them. Later [tryInclude] calls for the
+     * same day join the restored group.
+     */
+    fun restore(txs: List<Transaction>): TransactionWrapper? {
+        val first = txs.firstOrNull() ?: return null
+        val localDate = first.updateTime.toInstant().atZone(ZoneId.systemDefault()).toLocalDate()
+        val wrapper = wrapperMap.getOrPut(localDate) { CoinJoinMixingTxSet(wallet) }
+        txs.forEach { wrapper.includeClassified(it) }
+        return wrapper
+    }
 }
@@ -172,7 +172,7 @@ class WalletUriHandlerActivity : AppCompatActivity() {
     }
 
     private val positiveBtnClickCreateAddress = {
-        val address = wallet!!.freshReceiveAddress()
+        val address = (application as WalletApplication).freshReceiveAddress()
         val requestData = intent.data
         val result = WalletUri.createAddressResult(requestData, address.toString(), appName)
         setResult(RESULT_OK, result)
@@ -25,6 +25,7 @@ import androidx.compose.foundation.layout.fillMaxWidth
 import androidx.compose.foundation.layout.height
 import androidx.compose.foundation.layout.padding
 import androidx.compose.foundation.layout.size
+import androidx.compose.material3.LinearProgressIndicator
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.DisposableEffect
 import androidx.compose.runtime.LaunchedEffect
@@ -74,6 +75,7 @@ fun createExportCSVDialog(
         val activity = remember(context) { context.findFragmentActivity() }
         val exportResult by viewModel.exportCsvResult.collectAsState()
         val isLoading = exportResult is ToolsViewModel.ExportCsvResult.Loading
+        val progress = (exportResult as? ToolsViewModel.ExportCsvResult.Loading)?.progress ?: 0f
 
         DisposableEffect(Unit) {
             onDispose { onDismiss() }
@@ -112,6 +114,7 @@ fun createExportCSVDialog(
 
         ExportCSVContent(
             isLoading = isLoading,
+            progress = progress,
             onExportClick = {
                 if (isLoading) return@ExportCSVContent
                 viewModel.exportCsv(activity.cacheDir)
@@ -144,6 +147,7 @@ private fun startSendIntent(activity: FragmentActivity, csvFile: File) {
 @Composable
 internal fun ExportCSVContent(
     isLoading: Boolean = false,
+    progress: Float = 0f,
     onExportClick: () -> Unit
 ) {
     val colors = LocalDashColors.current
@@ -180,6 +184,17 @@ internal fun ExportCSVContent(
             ),
             horizontalPadding = 60.dp
         )
+
+        if (isLoading) {
+            LinearProgressIndicator(
+                progress = { progress },
+                modifier = Modifier
+                    .fillMaxWidth()
+                    .padding(horizontal = 60.dp, vertical = 12.dp),
+                color = colors.dashBlue,
+                trackColor = colors.dashBlue.copy(alpha = 0.2f)
+            )
+        }
     }
 }
 
@@ -197,6 +212,7 @@ private fun ExportCSVContentPreview() {
 private fun ExportCSVContentLoadingPreview() {
     ExportCSVContent(
         isLoading = true,
+        progress = 0.4f,
         onExportClick = {},
     )
 }
\ No newline at end of file
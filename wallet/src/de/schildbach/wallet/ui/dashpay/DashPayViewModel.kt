@@ -27,7 +27,6 @@ import de.schildbach.wallet.data.CreditBalanceInfo
 import de.schildbach.wallet.data.UsernameSearch
 import de.schildbach.wallet.data.UsernameSearchResult
 import de.schildbach.wallet.data.UsernameSortOrderBy
-import de.schildbach.wallet.database.dao.BlockchainStateDao
 import de.schildbach.wallet.database.dao.DashPayContactRequestDao
 import de.schildbach.wallet.database.dao.DashPayProfileDao
 import de.schildbach.wallet.database.dao.InvitationsDao
@@ -52,6 +51,7 @@ import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.bouncycastle.crypto.params.KeyParameter
+import org.dash.wallet.common.services.BlockchainStateProvider
 import org.dash.wallet.common.services.analytics.AnalyticsConstants
 import org.dash.wallet.common.services.analytics.AnalyticsService
 import org.dash.wallet.common.services.analytics.AnalyticsTimer
@@ -65,7 +65,7 @@ open class DashPayViewModel @Inject constructor(
     private val analytics: AnalyticsService,
     private val platformRepo: PlatformRepo,
     private val identityRepository: IdentityRepository,
-    blockchainState: BlockchainStateDao,
+    blockchainStateProvider: BlockchainStateProvider,
     dashPayProfileDao: DashPayProfileDao,
     blockchainIdentityDataDao: BlockchainIdentityConfig,
     private val invitations: InvitationsDao,
@@ -87,7 +87,7 @@ open class DashPayViewModel @Inject constructor(
     val contactsUpdatedLiveData = ContactsUpdatedLiveData(platformSyncService)
     val _frequentContacts = MutableStateFlow<List<UsernameSearchResult>>(listOf())
     val frequentContacts = _frequentContacts.asStateFlow()
-    val blockchainStateData = blockchainState.observeState()
+    val blockchainStateData = blockchainStateProvider.observeState()
 
     private val contactRequestLiveData = MutableLiveData<Pair<String, KeyParameter?>>()
 
@@ -38,6 +38,7 @@ import de.schildbach.wallet.livedata.Resource
 import de.schildbach.wallet.livedata.SeriousError
 import de.schildbach.wallet.livedata.SeriousErrorListener
 import de.schildbach.wallet.livedata.Status
+import de.schildbach.wallet.security.DerivedKeyCache
 import de.schildbach.wallet.security.SecurityGuard
 import de.schildbach.wallet.security.SecurityGuardException
 import de.schildbach.wallet.service.platform.PlatformService
@@ -142,8 +143,12 @@ class PlatformRepo @Inject constructor(
                 analytics.logError(e, "There was an error retrieving the wallet password")
                 null
             }
-            // Don't bother with DeriveKeyTask here, just call deriveKey
-            password?.let { walletApplication.wallet!!.keyCrypter!!.deriveKey(it) }
+            // Don't bother with DeriveKeyTask here, just call deriveKey; the services and workers calling this
+            // run without the UI, so the key is not cached for them
+            password?.let {
+                DerivedKeyCache.getInstance()
+                    .deriveKey(walletApplication.wallet!!.keyCrypter!!, it, cacheResult = false)
+            }
         } else {
             null
         }
@@ -162,7 +167,8 @@ class PlatformRepo @Inject constructor(
                 null
             }
             // Don't bother with DeriveKeyTask here, just call deriveKey
-            val encryptionKey = wallet.keyCrypter!!.deriveKey(password)
+            val encryptionKey = DerivedKeyCache.getInstance()
+                .deriveKey(wallet.keyCrypter!!, password ?: return null, cacheResult = false)
             wallet.keyChainSeed.decrypt(wallet.keyCrypter, "", encryptionKey)
         } else {
             null
@@ -28,7 +28,6 @@ import de.schildbach.wallet.data.NotificationItemContact
 import de.schildbach.wallet.data.NotificationItemPayment
 import de.schildbach.wallet.data.UsernameSearchResult
 import de.schildbach.wallet.data.UsernameSortOrderBy
-import de.schildbach.wallet.database.dao.BlockchainStateDao
 import de.schildbach.wallet.database.entity.DashPayProfile
 import de.schildbach.wallet.livedata.Resource
 import de.schildbach.wallet.service.DashSystemService
@@ -52,6 +51,7 @@ import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import org.dash.wallet.common.WalletDataProvider
 import org.dash.wallet.common.data.entity.BlockchainState
+import org.dash.wallet.common.services.BlockchainStateProvider
 import org.dash.wallet.common.services.analytics.AnalyticsConstants
 import org.dash.wallet.common.services.analytics.AnalyticsService
 import org.dashj.platform.dpp.identifier.Identifier
@@ -82,7 +82,7 @@ class DashPayUserBottomSheetViewModel @Inject constructor(
     val identityRepository: IdentityRepository,
     private val dashSystemService: DashSystemService,
     private val walletData: WalletDataProvider,
-    private val blockchainStateDao: BlockchainStateDao
+    private val blockchainStateProvider: BlockchainStateProvider
 ) : ViewModel() {
 
     companion object {
@@ -115,7 +115,7 @@ class DashPayUserBottomSheetViewModel @Inject constructor(
     private val rawNotifications = MutableStateFlow<List<NotificationItem>>(emptyList())
 
     init {
-        blockchainStateDao.observeState()
+        blockchainStateProvider.observeState()
             .onEach { state ->
                 val networkError = state?.impediments?.contains(BlockchainState.Impediment.NETWORK) == true
                 _uiState.update { it.copy(networkError = networkError) }
@@ -22,6 +22,7 @@ import androidx.work.WorkerParameters
 import androidx.work.workDataOf
 import dagger.assisted.Assisted
 import dagger.assisted.AssistedInject
+import de.schildbach.wallet.security.DerivedKeyCache
 import de.schildbach.wallet.service.platform.PlatformBroadcastService
 import de.schildbach.wallet.service.work.BaseWorker
 import org.bitcoinj.crypto.KeyCrypterException
@@ -54,7 +55,8 @@ class BroadcastIdentityVerifyWorker @AssistedInject constructor(
 
         val encryptionKey: KeyParameter
         try {
-            encryptionKey = walletDataProvider.wallet!!.keyCrypter!!.deriveKey(password)
+            encryptionKey = DerivedKeyCache.getInstance()
+                .deriveKey(walletDataProvider.wallet!!.keyCrypter!!, password, cacheResult = false)
         } catch (ex: KeyCrypterException) {
             analytics.logError(ex, "Identity Verify: failed to derive encryption key")
             val msg = formatExceptionMessage("derive encryption key", ex)
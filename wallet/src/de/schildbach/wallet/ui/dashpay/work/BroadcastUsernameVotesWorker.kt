@@ -27,6 +27,7 @@ import de.schildbach.wallet.database.dao.UsernameRequestDao
 import de.schildbach.wallet.database.dao.UsernameVoteDao
 import de.schildbach.wallet.database.entity.UsernameRequest
 import de.schildbach.wallet.database.entity.UsernameVote
+import de.schildbach.wallet.security.DerivedKeyCache
 import de.schildbach.wallet.service.platform.PlatformBroadcastService
 import de.schildbach.wallet.service.platform.PlatformSyncService
 import de.schildbach.wallet.service.work.BaseWorker
@@ -82,7 +83,8 @@ class BroadcastUsernameVotesWorker @AssistedInject constructor(
         // TODO: add decryption later?
         val encryptionKey: KeyParameter
         try {
-            encryptionKey = walletDataProvider.wallet!!.keyCrypter!!.deriveKey(password)
+            encryptionKey = DerivedKeyCache.getInstance()
+                .deriveKey(walletDataProvider.wallet!!.keyCrypter!!, password, cacheResult = false)
         } catch (ex: KeyCrypterException) {
             analytics.logError(ex, "Broadcast Username Vote: failed to derive encryption key")
             val msg = formatExceptionMessage("derive encryption key", ex)
@@ -24,6 +24,7 @@ import androidx.work.workDataOf
 import dagger.assisted.Assisted
 import dagger.assisted.AssistedInject
 import de.schildbach.wallet.WalletApplication
+import de.schildbach.wallet.security.DerivedKeyCache
 import de.schildbach.wallet.service.platform.PlatformBroadcastService
 import de.schildbach.wallet.service.work.BaseWorker
 import org.bitcoinj.crypto.KeyCrypterException
@@ -60,7 +61,8 @@ class SendContactRequestWorker @AssistedInject constructor(
 
         val encryptionKey: KeyParameter
         try {
-            encryptionKey = WalletApplication.getInstance().wallet!!.keyCrypter!!.deriveKey(password)
+            encryptionKey = DerivedKeyCache.getInstance()
+                .deriveKey(WalletApplication.getInstance().wallet!!.keyCrypter!!, password, cacheResult = false)
         } catch (ex: KeyCrypterException) {
             analytics.logError(ex, "Contact Request: failed to derive encryption key")
             val msg = formatExceptionMessage("derive encryption key", ex)
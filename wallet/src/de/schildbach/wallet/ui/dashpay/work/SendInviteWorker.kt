@@ -23,6 +23,7 @@ import androidx.work.workDataOf
 import dagger.assisted.Assisted
 import dagger.assisted.AssistedInject
 import de.schildbach.wallet.database.dao.InvitationsDao
+import de.schildbach.wallet.security.DerivedKeyCache
 import de.schildbach.wallet.service.platform.IdentityRepository
 import de.schildbach.wallet.service.platform.TopUpRepository
 import de.schildbach.wallet.service.work.BaseWorker
@@ -83,7 +84,7 @@ class SendInviteWorker @AssistedInject constructor(
 
         val encryptionKey: KeyParameter
         try {
-            encryptionKey = wallet.keyCrypter!!.deriveKey(password)
+            encryptionKey = DerivedKeyCache.getInstance().deriveKey(wallet.keyCrypter!!, password, cacheResult = false)
         } catch (ex: KeyCrypterException) {
             analytics.logError(ex, "Send Invite: failed to derive encryption key")
             val msg = formatExceptionMessage("derive encryption key", ex)
@@ -27,6 +27,7 @@ import dagger.assisted.Assisted
 import dagger.assisted.AssistedInject
 import de.schildbach.wallet.WalletApplication
 import de.schildbach.wallet.database.entity.DashPayProfile
+import de.schildbach.wallet.security.DerivedKeyCache
 import de.schildbach.wallet.ui.dashpay.EditProfileViewModel
 import de.schildbach.wallet.ui.dashpay.PlatformRepo
 import de.schildbach.wallet.ui.dashpay.utils.DashPayConfig
@@ -87,7 +88,8 @@ class UpdateProfileWorker @AssistedInject constructor(
         val encryptionKey: KeyParameter
         try {
             val password = SecurityGuard.getInstance().retrievePassword()
-            encryptionKey = WalletApplication.getInstance().wallet!!.keyCrypter!!.deriveKey(password)
+            encryptionKey = DerivedKeyCache.getInstance()
+                .deriveKey(WalletApplication.getInstance().wallet!!.keyCrypter!!, password, cacheResult = false)
         } catch (ex: KeyCrypterException) {
             return Result.failure(workDataOf(KEY_ERROR_MESSAGE to UpdateProfileError.DECRYPTION.name))
         } catch (ex: Exception) {
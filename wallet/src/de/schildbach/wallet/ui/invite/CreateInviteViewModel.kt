@@ -21,7 +21,6 @@ import androidx.lifecycle.asFlow
 import androidx.lifecycle.viewModelScope
 import dagger.hilt.android.lifecycle.HiltViewModel
 import de.schildbach.wallet.Constants
-import de.schildbach.wallet.database.dao.BlockchainStateDao
 import de.schildbach.wallet.database.dao.DashPayProfileDao
 import de.schildbach.wallet.database.dao.InvitationsDao
 import de.schildbach.wallet.database.entity.BlockchainIdentityConfig
@@ -36,6 +35,7 @@ import kotlinx.coroutines.flow.stateIn
 import org.bitcoinj.core.Coin
 import org.dash.wallet.common.WalletDataProvider
 import org.dash.wallet.common.data.entity.BlockchainState
+import org.dash.wallet.common.services.BlockchainStateProvider
 import org.dash.wallet.common.services.analytics.AnalyticsService
 import javax.inject.Inject
 
@@ -43,7 +43,7 @@ import javax.inject.Inject
 class CreateInviteViewModel @Inject constructor(
     private val walletData: WalletDataProvider,
     private val analytics: AnalyticsService,
-    blockchainStateDao: BlockchainStateDao,
+    blockchainStateProvider: BlockchainStateProvider,
     invitationsDao: InvitationsDao,
     blockchainIdentityDataDao: BlockchainIdentityConfig,
     dashPayProfileDao: DashPayProfileDao
@@ -58,7 +58,7 @@ class CreateInviteViewModel @Inject constructor(
             .onEach { invitations.value = it }
             .launchIn(viewModelScope)
 
-        blockchainStateDao.observeState()
+        blockchainStateProvider.observeState()
             .onEach { blockchainStateData.value = it }
             .launchIn(viewModelScope)
 
@@ -24,7 +24,6 @@ import androidx.lifecycle.viewModelScope
 import com.google.common.base.Charsets
 import dagger.hilt.android.lifecycle.HiltViewModel
 import de.schildbach.wallet.Constants
-import de.schildbach.wallet.database.dao.BlockchainStateDao
 import de.schildbach.wallet.database.entity.BlockchainIdentityConfig
 import de.schildbach.wallet.database.entity.IdentityCreationState
 import de.schildbach.wallet.transactions.TaxBitExporter
@@ -43,12 +42,12 @@ import androidx.lifecycle.viewModelScope
 import kotlinx.coroutines.flow.launchIn
 import org.bitcoinj.crypto.DeterministicKey
 import org.dash.wallet.common.WalletDataProvider
+import org.dash.wallet.common.services.BlockchainStateProvider
 import org.dash.wallet.common.services.TransactionMetadataProvider
 import org.dash.wallet.common.services.analytics.AnalyticsService
 import org.slf4j.LoggerFactory
 import java.io.File
 import java.io.FileOutputStream
-import java.io.OutputStreamWriter
 import java.util.*
 import javax.inject.Inject
 
@@ -63,7 +62,7 @@ class ToolsViewModel @Inject constructor(
     private val walletData: WalletDataProvider,
     private val clipboardManager: ClipboardManager,
     private val transactionMetadataProvider: TransactionMetadataProvider,
-    blockchainStateDao: BlockchainStateDao,
+    blockchainStateProvider: BlockchainStateProvider,
     private val dashPayConfig: DashPayConfig,
     private val identityConfig: BlockchainIdentityConfig,
     private val analyticsService: AnalyticsService
@@ -71,7 +70,8 @@ class ToolsViewModel @Inject constructor(
 
     sealed class ExportCsvResult {
         object Idle : ExportCsvResult()
-        object Loading : ExportCsvResult()
+        /** [progress] is the fraction of transactions exported so far, from 0 to 1. */
+        data class Loading(val progress: Float = 0f) : ExportCsvResult()
         data class Success(val file: File) : ExportCsvResult()
         object Error : ExportCsvResult()
     }
@@ -99,7 +99,7 @@ class ToolsViewModel @Inject constructor(
             extendedKey.creationTimeSeconds,
         )
 
-        blockchainStateDao.observeState().onEach {
+        blockchainStateProvider.observeState().onEach {
             _uiState.value = uiState.value.copy(isSyncing = it?.isSynced() != true)
         }.launchIn(viewModelScope)
 
@@ -119,16 +119,18 @@ class ToolsViewModel @Inject constructor(
 
     fun exportCsv(cacheDir: File) {
         if (_exportCsvResult.value is ExportCsvResult.Loading) return
-        _exportCsvResult.value = ExportCsvResult.Loading
+        _exportCsvResult.value = ExportCsvResult.Loading()
         viewModelScope.launch {
             try {
                 val file = withContext(Dispatchers.IO) {
                     val exporter = TaxBitExporter(transactionMetadataProvider, walletData.wallet!!)
-                    exporter.initMetadataMap()
-                    val csvContent = exporter.exportString()
                     val reportDir = File(cacheDir, "report").also { it.mkdirs() }
                     val f = File.createTempFile("transaction-history.", ".csv", reportDir)
-                    OutputStreamWriter(FileOutputStream(f), Charsets.UTF_8).use { it.write(csvContent) }
+                    FileOutputStream(f).use { output ->
+                        exporter.export(output) { processed, total ->
+                            _exportCsvResult.value = ExportCsvResult.Loading(processed.toFloat() / total)
+                        }
+                    }
                     f
                 }
                 _exportCsvResult.value = ExportCsvResult.Success(file)
@@ -604,7 +604,7 @@ public class SweepWalletFragment extends Fragment {
     private void handleSweep() {
         setState(State.PREPARATION);
 
-        final Address receivingAddress = application.getWallet().freshReceiveAddress();
+        final Address receivingAddress = application.freshReceiveAddress();
         final SendRequest sendRequest = SendRequest.emptyWallet(receivingAddress);
 
         sendRequest.feePerKb = fees.get(FeeCategory.ECONOMIC);
@@ -25,9 +25,9 @@ import de.schildbach.wallet.WalletApplication
 import org.dash.wallet.common.data.PaymentIntent
 import de.schildbach.wallet.data.CoinJoinConfig
 import de.schildbach.wallet.data.UsernameSearchResult
-import de.schildbach.wallet.database.dao.BlockchainStateDao
 import de.schildbach.wallet.database.dao.DashPayContactRequestDao
 import de.schildbach.wallet.database.entity.DashPayContactRequest
+import de.schildbach.wallet.payments.DryRunTransactionBuilder
 import de.schildbach.wallet.payments.MaxOutputAmountCoinJoinCoinSelector
 import de.schildbach.wallet.payments.MaxOutputAmountCoinSelector
 import de.schildbach.wallet.payments.SendCoinsTaskRunner
@@ -65,6 +65,7 @@ import org.bitcoinj.wallet.Wallet
 import org.bitcoinj.wallet.authentication.AuthenticationGroupExtension
 import org.dash.wallet.common.Configuration
 import org.dash.wallet.common.WalletDataProvider
+import org.dash.wallet.common.services.BlockchainStateProvider
 import org.dash.wallet.common.services.NotificationService
 import org.dash.wallet.common.services.analytics.AnalyticsConstants
 import org.dash.wallet.common.services.analytics.AnalyticsService
@@ -79,7 +80,7 @@ class InsufficientCoinJoinMoneyException(ex: InsufficientMoneyException) : Insuf
 class SendCoinsViewModel @Inject constructor(
     walletDataProvider: WalletDataProvider,
     walletApplication: WalletApplication,
-    blockchainStateDao: BlockchainStateDao,
+    blockchainStateProvider: BlockchainStateProvider,
     val biometricHelper: BiometricHelper,
     private val analytics: AnalyticsService,
     private val configuration: Configuration,
@@ -150,7 +151,7 @@ class SendCoinsViewModel @Inject constructor(
     var isAssetLock = false
 
     init {
-        blockchainStateDao.observeState()
+        blockchainStateProvider.observeState()
             .filterNotNull()
             .onEach { state ->
                 _isBlockchainReplaying.postValue(state.replaying)
@@ -467,7 +468,7 @@ class SendCoinsViewModel @Inject constructor(
             )
             dryRunGreedy = true
             log.info("  start completeTx")
-            wallet.completeTx(sendRequest)
+            DryRunTransactionBuilder(wallet).complete(sendRequest)
 
             dryRunGreedy = sendRequest.coinSelector is CoinJoinCoinSelector && !sendRequest.returnChange
             dryrunSendRequest = sendRequest
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util
+
+import ch.qos.logback.classic.AsyncAppender
+import ch.qos.logback.classic.spi.ILoggingEvent
+import org.dash.wallet.common.util.LatencyHistogram
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * An [AsyncAppender] that takes the file and logcat appenders off the threads that log: events go into a
+ * bounded queue that one background thread drains into the attached appenders.
+ *
+ * When fewer than [discardingThreshold] slots are left, DEBUG and INFO events are dropped and counted, while
+ * WARN and ERROR events wait for a slot, so they are never lost. [flushAndStop] writes out what is queued,
+ * which [CrashReporter] does before the process dies.
+ *
+ * The time callers spend handing events over is recorded in a [LatencyHistogram], for
+ * [latencyPercentileMicros].
+ */
+class AsyncLogAppender : AsyncAppender() {
+    companion object {
+        const val DEFAULT_QUEUE_SIZE = 1024
+
+        @Volatile
+        private var current: AsyncLogAppender? = null
+
+        /** The started appender, if there is one. */
+        @JvmStatic
+        fun getCurrent(): AsyncLogAppender? = current
+
+        /**
+         * Writes out the queued events of the started appender, waiting up to its [maxFlushTime], and stops it.
+         * Events logged afterwards are not written.
+         */
+        @JvmStatic
+        fun flushAndStop() {
+            current?.stop()
+        }
+    }
+
+    private val appended = AtomicLong()
+    private val dropped = AtomicLong()
+    private val latency = LatencyHistogram(LatencyHistogram.DEFAULT_BOUNDS_NS)
+
+    init {
+        queueSize = DEFAULT_QUEUE_SIZE
+    }
+
+    /** Events handed to the queue. */
+    val appendedCount: Long
+        get() = appended.get()
+
+    /** DEBUG and INFO events dropped because the queue was nearly full. */
+    val droppedCount: Long
+        get() = dropped.get()
+
+    override fun start() {
+        super.start()
+        if (isStarted) {
+            current = this
+        }
+    }
+
+    override fun stop() {
+        if (current === this) {
+            current = null
+        }
+        super.stop()
+    }
+
+    override fun append(eventObject: ILoggingEvent) {
+        val start = System.nanoTime()
+        super.append(eventObject)
+        latency.record(System.nanoTime() - start)
+    }
+
+    // asked only when the queue is nearly full; a discardable event is then dropped by the super class
+    override fun isDiscardable(event: ILoggingEvent): Boolean {
+        return super.isDiscardable(event).also { discardable ->
+            if (discardable) {
+                dropped.incrementAndGet()
+            }
+        }
+    }
+
+    // called for every event that goes into the queue
+    override fun preprocess(eventObject: ILoggingEvent) {
+        super.preprocess(eventObject)
+        appended.incrementAndGet()
+    }
+
+    /**
+     * The time within which [percentile] (0 to 100) of the callers handed their event over, rounded up to a
+     * bucket of [LatencyHistogram.DEFAULT_BOUNDS_NS]; infinite above the last one.
+     */
+    fun latencyPercentileMicros(percentile: Double): Double {
+        val nanos = latency.percentile(percentile)
+        return if (nanos == Long.MAX_VALUE) Double.POSITIVE_INFINITY else nanos / 1000.0
+    }
+
+    fun statusReport(): String {
+        return String.format(
+            Locale.US,
+            "%d events, %d dropped, %d queued; caller latency p50 %.1f µs, p99 %.1f µs, p99.9 %.1f µs",
+            appendedCount,
+            droppedCount,
+            numberOfElementsInQueue,
+            latencyPercentileMicros(50.0),
+            latencyPercentileMicros(99.0),
+            latencyPercentileMicros(99.9)
+        )
+    }
+}
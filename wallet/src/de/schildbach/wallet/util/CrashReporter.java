@@ -202,6 +202,9 @@ public class CrashReporter {
                 powerManager.isIgnoringBatteryOptimizations(packageInfoProvider.getPackageInfo().packageName);
         report.append("Battery optimization: ").append(isIgnoringBatteryOptimization ? "no" : "yes").append("\n");
         report.append("Timezone: " + TimeZone.getDefault().getID() + "\n");
+        final AsyncLogAppender logAppender = AsyncLogAppender.getCurrent();
+        if (logAppender != null)
+            report.append("Logging: ").append(logAppender.statusReport()).append("\n");
         calendar.setTimeInMillis(System.currentTimeMillis());
         report.append("Current Time: " + String.format(Locale.US, "%tF %tT %tZ", calendar, calendar, calendar) + "\n");
         calendar.setTimeInMillis(WalletApplication.TIME_CREATE_APPLICATION);
@@ -333,6 +336,9 @@ public class CrashReporter {
                 log.info("problem writing crash trace", x);
             }
 
+            // the process is about to die, write out the queued log events
+            AsyncLogAppender.flushAndStop();
+
             previousHandler.uncaughtException(t, exception);
         }
 
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.payments
+
+import org.bitcoinj.core.Address
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.Context
+import org.bitcoinj.core.ECKey
+import org.bitcoinj.core.NetworkParameters
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.core.TransactionInput
+import org.bitcoinj.core.TransactionOutPoint
+import org.bitcoinj.core.VarInt
+import org.bitcoinj.params.TestNet3Params
+import org.bitcoinj.script.Script
+import org.bitcoinj.script.ScriptPattern
+import org.bitcoinj.wallet.DeterministicSeed
+import org.bitcoinj.wallet.SendRequest
+import org.bitcoinj.wallet.Wallet
+import org.bitcoinj.wallet.WalletEx
+import org.bitcoinj.wallet.WalletTransaction
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.security.SecureRandom
+
+class DryRunTransactionBuilderTest {
+    companion object {
+        /** A DER encoded signature of at most 72 bytes and the sighash byte */
+        private const val MAX_SIGNATURE_SIZE = 73
+        private const val COMPRESSED_PUBKEY_SIZE = 33
+    }
+
+    private val params: NetworkParameters = TestNet3Params.get()
+    private val feePerKb = Coin.valueOf(1000)
+    private lateinit var wallet: Wallet
+    private lateinit var destination: Address
+
+    @Before
+    fun setUp() {
+        Context.propagate(Context.getOrCreate(params))
+        wallet = Wallet.createDeterministic(params, Script.ScriptType.P2PKH)
+        destination = Address.fromKey(params, ECKey())
+        listOf("0.1", "0.25", "0.4", "1.3").forEachIndexed { i, value ->
+            fund(wallet, Coin.parseCoin(value), i, wallet.freshReceiveAddress())
+        }
+    }
+
+    @Test
+    fun feeMatchesSignedTransaction() {
+        listOf("0.05", "0.3", "0.7", "2.0").forEach { value ->
+            assertDryRunMatchesSignedTransaction(wallet, Coin.parseCoin(value))
+        }
+    }
+
+    @Test
+    fun coinJoinMixedInputsMatchSignedTransaction() {
+        val mixedWallet = WalletEx.fromSeed(
+            params,
+            DeterministicSeed(SecureRandom(), 128, ""),
+            Script.ScriptType.P2PKH
+        )
+        mixedWallet.initializeCoinJoin(0)
+        // denominations paid to the keys of the CoinJoin chain, like the outputs of mixing
+        listOf("1.00001", "0.100001", "0.100001", "0.100001", "0.0100001").forEachIndexed { i, value ->
+            val key = mixedWallet.coinJoin.freshReceiveKey()
+            fund(mixedWallet, Coin.parseCoin(value), i, Address.fromKey(params, key))
+        }
+
+        listOf("0.05", "0.15", "1.2").forEach { value ->
+            assertDryRunMatchesSignedTransaction(mixedWallet, Coin.parseCoin(value))
+        }
+        // mixed sends do not return change, the remainder goes to the fee
+        assertDryRunMatchesSignedTransaction(mixedWallet, Coin.parseCoin("0.2")) { returnChange = false }
+    }
+
+    @Test
+    fun emptyingWalletMatchesSignedTransaction() {
+        val dryRun = DryRunTransactionBuilder(wallet)
+        val unsigned = dryRun.complete(sendRequest(wallet.balance).apply { emptyWallet = true })
+        val signedRequest = sendRequest(wallet.balance).apply { emptyWallet = true }
+        wallet.completeTx(signedRequest)
+
+        assertEquals(signedRequest.tx.fee, unsigned.fee)
+        assertEquals(signedRequest.tx.outputs[0].value, unsigned.outputs[0].value)
+    }
+
+    @Test
+    fun encryptedWalletNeedsNoKey() {
+        val amount = Coin.parseCoin("0.7")
+        val plainFee = DryRunTransactionBuilder(wallet).complete(sendRequest(amount)).fee
+        wallet.encrypt("1234")
+
+        val unsigned = DryRunTransactionBuilder(wallet).complete(sendRequest(amount))
+
+        assertEquals(plainFee, unsigned.fee)
+        assertTrue(unsigned.inputs.all { it.scriptBytes.isEmpty() })
+    }
+
+    private fun assertDryRunMatchesSignedTransaction(
+        wallet: Wallet,
+        amount: Coin,
+        configure: SendRequest.() -> Unit = { }
+    ) {
+        val unsigned = DryRunTransactionBuilder(wallet).complete(sendRequest(amount).apply(configure))
+        val signedRequest = sendRequest(amount).apply(configure)
+        wallet.completeTx(signedRequest)
+        val signed = signedRequest.tx
+
+        assertEquals(signed.inputs.size, unsigned.inputs.size)
+        assertEquals(signed.fee, unsigned.fee)
+        // the fee is sized for signatures of the maximum length, so it covers the signed size
+        val estimated = estimateSignedSize(wallet, unsigned)
+        val actual = signed.unsafeBitcoinSerialize().size
+        assertTrue("estimated $estimated, signed $actual", estimated >= actual)
+        assertTrue("estimated $estimated, signed $actual", estimated - actual <= 3 * signed.inputs.size)
+    }
+
+    /** The size of [tx] once its unsigned inputs carry signatures of the maximum length. */
+    private fun estimateSignedSize(wallet: Wallet, tx: Transaction): Int {
+        var size = tx.unsafeBitcoinSerialize().size
+        tx.inputs.forEach { input ->
+            if (input.scriptBytes.isEmpty()) {
+                val scriptPubKey = input.connectedOutput!!.scriptPubKey
+                assertTrue(ScriptPattern.isP2PKH(scriptPubKey))
+                val key = wallet.findKeyFromPubKeyHash(
+                    ScriptPattern.extractHashFromP2PKH(scriptPubKey),
+                    Script.ScriptType.P2PKH
+                )
+                val scriptSize = 1 + MAX_SIGNATURE_SIZE + 1 + (key?.pubKey?.size ?: COMPRESSED_PUBKEY_SIZE)
+                size += scriptSize + VarInt.sizeOf(scriptSize.toLong()) - VarInt.sizeOf(0)
+            }
+        }
+        return size
+    }
+
+    private fun sendRequest(amount: Coin): SendRequest {
+        return SendRequest.to(destination, amount).apply {
+            feePerKb = this@DryRunTransactionBuilderTest.feePerKb
+            ensureMinRequiredFee = true
+        }
+    }
+
+    private fun fund(wallet: Wallet, value: Coin, index: Int, address: Address) {
+        val tx = Transaction(params)
+        tx.addInput(
+            TransactionInput(
+                params,
+                tx,
+                byteArrayOf(),
+                TransactionOutPoint(params, 0, Sha256Hash.of(byteArrayOf(index.toByte())))
+            )
+        )
+        tx.addOutput(value, address)
+        tx.getConfidence(wallet.context).appearedAtChainHeight = 1
+        wallet.addWalletTransaction(WalletTransaction(WalletTransaction.Pool.UNSPENT, tx))
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.security
+
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.bitcoinj.crypto.KeyCrypter
+import org.bouncycastle.crypto.params.KeyParameter
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+class DerivedKeyCacheTest {
+    private val keyBytes = ByteArray(32) { it.toByte() }
+    private var now = 0L
+    private lateinit var keyCrypter: KeyCrypter
+    private lateinit var cache: DerivedKeyCache
+
+    @Before
+    fun setUp() {
+        keyCrypter = mockk {
+            every { deriveKey(any()) } answers {
+                now += 500
+                KeyParameter(keyBytes)
+            }
+        }
+        cache = DerivedKeyCache(60_000, { now })
+    }
+
+    @Test
+    fun repeatedDerivationIsServedFromCache() {
+        val first = cache.deriveKey(keyCrypter, "1234")
+        val second = cache.deriveKey(keyCrypter, "1234")
+
+        assertArrayEquals(keyBytes, first.key)
+        assertArrayEquals(keyBytes, second.key)
+        verify(exactly = 1) { keyCrypter.deriveKey(any()) }
+        assertEquals(1, cache.hitCount)
+        assertEquals(1, cache.missCount)
+        assertEquals(500, cache.timeSavedMs)
+    }
+
+    @Test
+    fun otherPasswordOrKeyCrypterIsDerived() {
+        val otherKeyCrypter = mockk<KeyCrypter> {
+            every { deriveKey(any()) } returns KeyParameter(ByteArray(32))
+        }
+
+        cache.deriveKey(keyCrypter, "1234")
+        cache.deriveKey(keyCrypter, "4321")
+        cache.deriveKey(otherKeyCrypter, "4321")
+
+        verify(exactly = 2) { keyCrypter.deriveKey(any()) }
+        verify(exactly = 1) { otherKeyCrypter.deriveKey(any()) }
+        assertEquals(0, cache.hitCount)
+    }
+
+    @Test
+    fun keyIsDerivedAgainAfterWindow() {
+        cache.deriveKey(keyCrypter, "1234")
+        now += 59_000
+        cache.deriveKey(keyCrypter, "1234")
+        now += 1_000
+
+        cache.deriveKey(keyCrypter, "1234")
+
+        verify(exactly = 2) { keyCrypter.deriveKey(any()) }
+        assertEquals(1, cache.hitCount)
+    }
+
+    @Test
+    fun clearDropsCachedKey() {
+        val first = cache.deriveKey(keyCrypter, "1234")
+        val cached = cache.deriveKey(keyCrypter, "1234")
+
+        cache.clear()
+        cache.deriveKey(keyCrypter, "1234")
+
+        verify(exactly = 2) { keyCrypter.deriveKey(any()) }
+        // handed out keys are copies and stay usable
+        assertArrayEquals(keyBytes, first.key)
+        assertArrayEquals(keyBytes, cached.key)
+    }
+
+    @Test
+    fun uncachedDerivationUsesButDoesNotKeepTheKey() {
+        cache.deriveKey(keyCrypter, "1234", cacheResult = false)
+        cache.deriveKey(keyCrypter, "1234", cacheResult = false)
+        verify(exactly = 2) { keyCrypter.deriveKey(any()) }
+
+        cache.deriveKey(keyCrypter, "1234")
+        cache.deriveKey(keyCrypter, "1234", cacheResult = false)
+
+        verify(exactly = 3) { keyCrypter.deriveKey(any()) }
+        assertEquals(1, cache.hitCount)
+    }
+
+    @Test
+    fun changingTheWindowDropsCachedKey() {
+        cache.deriveKey(keyCrypter, "1234")
+        cache.windowMs = 1_000
+
+        cache.deriveKey(keyCrypter, "1234")
+        now += 999
+        cache.deriveKey(keyCrypter, "1234")
+        now += 1
+        cache.deriveKey(keyCrypter, "1234")
+
+        verify(exactly = 3) { keyCrypter.deriveKey(any()) }
+        assertEquals(1, cache.hitCount)
+    }
+
+    @Test
+    fun zeroWindowDisablesCache() {
+        cache = DerivedKeyCache(0, { now })
+
+        cache.deriveKey(keyCrypter, "1234")
+        cache.deriveKey(keyCrypter, "1234")
+
+        verify(exactly = 2) { keyCrypter.deriveKey(any()) }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import de.schildbach.wallet.database.dao.AddressMetadataDao
+import io.mockk.coEvery
+import io.mockk.coVerify
+import io.mockk.mockk
+import kotlinx.coroutines.test.runTest
+import org.bitcoinj.core.Address
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.Context
+import org.bitcoinj.core.ECKey
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.params.TestNet3Params
+import org.dash.wallet.common.data.TaxCategory
+import org.dash.wallet.common.data.entity.AddressMetadata
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+
+class AddressMetadataResolverTest {
+    private val params = TestNet3Params.get()
+    private val table = arrayListOf<AddressMetadata>()
+    private lateinit var dao: AddressMetadataDao
+    private lateinit var resolver: AddressMetadataResolver
+
+    @Before
+    fun setUp() {
+        Context.propagate(Context(params))
+        dao = mockk()
+        coEvery { dao.loadSender(any()) } answers { table.firstOrNull { it.address == firstArg() && it.isInput } }
+        coEvery { dao.loadRecipient(any()) } answers { table.firstOrNull { it.address == firstArg() && !it.isInput } }
+        coEvery { dao.load(any()) } answers {
+            val addresses = firstArg<List<String>>().toSet()
+            table.filter { it.address in addresses }
+        }
+        resolver = AddressMetadataResolver(dao, params)
+    }
+
+    private fun newAddress(): Address = Address.fromKey(params, ECKey())
+
+    /** A transaction spending an output paid to [from] and paying [to]. */
+    private fun payment(from: Address, to: Address): Transaction {
+        val funding = Transaction(params)
+        funding.addOutput(Coin.COIN, from)
+        val tx = Transaction(params)
+        tx.addInput(funding.getOutput(0))
+        tx.addOutput(Coin.CENT, to)
+        return tx
+    }
+
+    @Test
+    fun resolveAll_matchesPerTransactionResolve() = runTest {
+        val sender = newAddress()
+        val recipient = newAddress()
+        val both = newAddress()
+        table.add(AddressMetadata(sender.toBase58(), true, TaxCategory.TransferOut, "Uphold"))
+        table.add(AddressMetadata(recipient.toBase58(), false, TaxCategory.TransferIn, "CrowdNode"))
+        table.add(AddressMetadata(both.toBase58(), false, TaxCategory.Income, "CrowdNode"))
+        table.add(AddressMetadata(both.toBase58(), true, TaxCategory.Expense, "CrowdNode"))
+
+        val transactions = listOf(
+            payment(sender, newAddress()),     // tagged sender
+            payment(newAddress(), recipient),  // tagged recipient
+            payment(sender, recipient),        // inputs are checked first
+            payment(newAddress(), sender),     // sender row doesn't apply to an output
+            payment(both, both),               // both rows exist, the input wins
+            payment(newAddress(), newAddress())
+        )
+
+        val resolved = resolver.resolveAll(transactions)
+
+        for (tx in transactions) {
+            assertEquals(resolver.resolve(tx), resolved[tx.txId])
+        }
+        assertEquals(TaxCategory.TransferOut, resolved[transactions[2].txId]?.taxCategory)
+        assertEquals(TaxCategory.Expense, resolved[transactions[4].txId]?.taxCategory)
+        assertNull(resolved[transactions[3].txId])
+        assertEquals(4, resolved.size)
+        coVerify(exactly = 1) { dao.load(any()) }
+    }
+
+    @Test
+    fun resolveAll_withoutCandidates_doesNotQuery() = runTest {
+        assertEquals(emptyMap<Any, Any>(), resolver.resolveAll(listOf(Transaction(params))))
+        coVerify(exactly = 0) { dao.load(any()) }
+    }
+}
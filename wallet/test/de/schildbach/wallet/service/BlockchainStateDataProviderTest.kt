@@ -0,0 +1,109 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import de.schildbach.wallet.database.dao.BlockchainStateDao
+import io.mockk.coEvery
+import io.mockk.every
+import io.mockk.mockk
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.bitcoinj.core.BlockChain
+import org.bitcoinj.core.PeerGroup
+import org.bitcoinj.core.StoredBlock
+import org.dash.wallet.common.data.entity.BlockchainState
+import org.dash.wallet.common.data.entity.BlockchainState.Impediment
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.Date
+
+class BlockchainStateDataProviderTest {
+    private val saved = Collections.synchronizedList(arrayListOf<BlockchainState>())
+    private val dao = mockk<BlockchainStateDao> {
+        coEvery { getState() } returns BlockchainState()
+        coEvery { saveState(any()) } answers { saved.add(firstArg<BlockchainState>().copy()) }
+    }
+    private val provider = BlockchainStateDataProvider(
+        mockk(),
+        mockk(relaxed = true),
+        dao,
+        mockk(relaxed = true),
+        mockk(relaxed = true)
+    )
+
+    private fun blockChainAt(height: Int): BlockChain {
+        val head = mockk<StoredBlock> {
+            every { this@mockk.height } returns height
+            every { header.time } returns Date(height * 1000L)
+        }
+        return mockk { every { chainHead } returns head }
+    }
+
+    private fun sync(height: Int, impediments: Set<Impediment> = emptySet()) {
+        provider.updateBlockchainState(blockChainAt(height), impediments, height, PeerGroup.SyncStage.BLOCKS)
+    }
+
+    private fun awaitWrites(count: Int) = runBlocking {
+        withTimeout(5000) {
+            while (saved.size < count) {
+                delay(50)
+            }
+        }
+    }
+
+    @Test
+    fun updatesDuringSyncAreCoalescedIntoOneWrite() = runBlocking {
+        // the first update enters the BLOCKS stage and is written right away
+        (1..10).forEach { sync(it) }
+
+        // published before it is written
+        assertEquals(10, provider.observeState().first()!!.bestChainHeight)
+        assertEquals(1, saved.size)
+
+        awaitWrites(2)
+        assertEquals(listOf(1, 10), saved.map { it.bestChainHeight })
+        // the second update scheduled the write, the 8 after it were folded into it
+        assertEquals(8, provider.suppressedWriteCount)
+    }
+
+    @Test
+    fun impedimentChangesAreWrittenRightAway() = runBlocking {
+        sync(1)
+        sync(2, setOf(Impediment.NETWORK))
+        provider.getState()
+
+        assertEquals(2, saved.size)
+        assertEquals(setOf(Impediment.NETWORK), saved.last().impediments)
+        assertEquals(0, provider.suppressedWriteCount)
+    }
+
+    @Test
+    fun unchangedStateIsNotWrittenAgain() = runBlocking {
+        provider.updateImpediments(emptySet())
+        provider.getState()
+        delay(BlockchainStateDataProvider.STATE_PERSIST_INTERVAL_MS + 500)
+        provider.getState()
+
+        assertTrue(saved.isEmpty())
+        assertEquals(1, provider.suppressedWriteCount)
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import org.bitcoinj.core.Block
+import org.bitcoinj.core.Context
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.StoredBlock
+import org.bitcoinj.params.TestNet3Params
+import org.bitcoinj.store.BlockStore
+import org.bitcoinj.store.SPVBlockStore
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+import java.math.BigInteger
+
+class CheckedSPVBlockStoreTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val params = TestNet3Params.get()
+    private lateinit var file: File
+
+    @Before
+    fun setUp() {
+        Context.propagate(Context(params))
+        file = File(folder.root, "headers")
+    }
+
+    /** Extends the chain of [store] by [count] headers; proof of work is not checked by the store. */
+    private fun extend(store: BlockStore, count: Int): StoredBlock {
+        var block = store.chainHead
+        repeat(count) {
+            val header = Block(
+                params, 1, block.header.hash, Sha256Hash.ZERO_HASH, block.header.timeSeconds + 150,
+                block.header.difficultyTarget, it.toLong(), emptyList()
+            ).cloneAsHeader()
+            block = StoredBlock(header, block.chainWork.add(BigInteger.ONE), block.height + 1)
+            store.put(block)
+            store.chainHead = block
+        }
+        return block
+    }
+
+    @Test
+    fun verifyTip_afterReopen() {
+        val store = CheckedSPVBlockStore(params, file)
+        val head = extend(store, 20)
+        store.close()
+
+        val reopened = CheckedSPVBlockStore(params, file)
+        assertTrue(reopened.verifyTip())
+        assertEquals(head, reopened.chainHead)
+        reopened.close()
+    }
+
+    @Test
+    fun verifyTip_falseWithoutRingUntilSeeded() {
+        val plain = SPVBlockStore(params, file)
+        extend(plain, 20)
+        plain.close()
+
+        val store = CheckedSPVBlockStore(params, file)
+        assertFalse(store.verifyTip())
+        store.seed()
+        assertTrue(store.verifyTip())
+        store.close()
+    }
+
+    @Test
+    fun verifyTip_falseWhenRingIsCorrupt() {
+        val store = CheckedSPVBlockStore(params, file)
+        extend(store, 20)
+        store.close()
+
+        RandomAccessFile(CheckedSPVBlockStore.ringFileOf(file), "rw").use {
+            it.seek(8) // tip height
+            it.writeInt(1)
+        }
+        val reopened = CheckedSPVBlockStore(params, file)
+        assertFalse(reopened.verifyTip())
+        reopened.close()
+    }
+
+    @Test
+    fun repair_restoresChainHeadWithoutRewritingIntactBlocks() {
+        val store = CheckedSPVBlockStore(params, file)
+        val head = extend(store, 100)
+        val older = store.get(head.header.prevBlockHash)
+        store.close()
+
+        // a store that lost its latest chain head, behind the back of the ring
+        val plain = SPVBlockStore(params, file)
+        plain.chainHead = older
+        plain.close()
+
+        val reopened = CheckedSPVBlockStore(params, file)
+        assertFalse(reopened.verifyTip())
+        assertEquals(0, reopened.repair())
+        assertEquals(head, reopened.chainHead)
+        assertTrue(reopened.verifyTip())
+        reopened.close()
+    }
+
+    @Test
+    fun delete_removesRing() {
+        val store = CheckedSPVBlockStore(params, file)
+        extend(store, 5)
+        store.close()
+
+        assertTrue(CheckedSPVBlockStore.delete(file))
+        assertFalse(file.exists())
+        assertFalse(CheckedSPVBlockStore.ringFileOf(file).exists())
+    }
+}
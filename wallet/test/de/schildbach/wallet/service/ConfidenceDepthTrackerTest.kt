@@ -0,0 +1,140 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import de.schildbach.wallet.transactions.WalletObserver.Companion.CONFIRMED_DEPTH
+import io.mockk.every
+import io.mockk.mockk
+import org.bitcoinj.core.Address
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.Context
+import org.bitcoinj.core.ECKey
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.core.TransactionConfidence
+import org.bitcoinj.core.TransactionInput
+import org.bitcoinj.params.TestNet3Params
+import org.bitcoinj.utils.Threading
+import org.bitcoinj.wallet.Wallet
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+class ConfidenceDepthTrackerTest {
+    private val params = TestNet3Params.get()
+    private val context = Context(params)
+    private var height = 100
+    private lateinit var wallet: Wallet
+    private val tracker = ConfidenceDepthTracker()
+
+    @Before
+    fun setUp() {
+        Context.propagate(context)
+        wallet = mockk {
+            every { this@mockk.context } returns this@ConfidenceDepthTrackerTest.context
+            every { params } returns this@ConfidenceDepthTrackerTest.params
+            every { lastBlockSeenHeight } answers { height }
+        }
+    }
+
+    private fun transaction(coinBase: Boolean = false): Transaction {
+        val tx = Transaction(params)
+        if (coinBase) {
+            tx.addInput(TransactionInput(params, tx, byteArrayOf(1, 2)))
+        }
+        tx.addOutput(Coin.COIN, Address.fromKey(params, ECKey()))
+        return tx
+    }
+
+    /** Counts the DEPTH notifications of [tx]. */
+    private fun depthNotifications(tx: Transaction): IntArray {
+        val count = intArrayOf(0)
+        tx.getConfidence(context).addEventListener(Threading.SAME_THREAD) { _, reason ->
+            if (reason == TransactionConfidence.Listener.ChangeReason.DEPTH) {
+                count[0]++
+            }
+        }
+        return count
+    }
+
+    @Test
+    fun regularTransaction_updatedEachBlockUntilConfirmed() {
+        val tx = transaction()
+        tx.getConfidence(context).appearedAtChainHeight = height
+        val notifications = depthNotifications(tx)
+        tracker.track(tx, wallet)
+
+        for (depth in 2..CONFIRMED_DEPTH) {
+            height++
+            assertEquals(1, tracker.update(wallet))
+            assertEquals(depth, tx.getConfidence(context).depthInBlocks)
+        }
+        assertEquals(0, tracker.size)
+        height++
+        assertEquals(0, tracker.update(wallet))
+        assertEquals(CONFIRMED_DEPTH - 1, notifications[0])
+    }
+
+    @Test
+    fun coinbaseTransaction_onlyUpdatedAtMaturity() {
+        val tx = transaction(coinBase = true)
+        tx.getConfidence(context).appearedAtChainHeight = height
+        val notifications = depthNotifications(tx)
+        tracker.track(tx, wallet)
+
+        val maturity = params.spendableCoinbaseDepth
+        height += maturity - 2
+        assertEquals(0, tracker.update(wallet))
+        height++
+        assertEquals(1, tracker.update(wallet))
+        assertEquals(maturity, tx.getConfidence(context).depthInBlocks)
+        assertEquals(1, notifications[0])
+        assertEquals(0, tracker.size)
+    }
+
+    @Test
+    fun pendingTransaction_scheduledOnceInBlock() {
+        val tx = transaction()
+        tx.getConfidence(context).confidenceType = TransactionConfidence.ConfidenceType.PENDING
+        tracker.track(tx, wallet)
+        assertEquals(0, tracker.update(wallet))
+
+        height++
+        tx.getConfidence(context).appearedAtChainHeight = height
+        assertEquals(1, tracker.update(wallet))
+        assertEquals(1, tx.getConfidence(context).depthInBlocks)
+        assertEquals(1, tracker.size)
+    }
+
+    @Test
+    fun deadTransaction_dropped() {
+        val tx = transaction()
+        tx.getConfidence(context).confidenceType = TransactionConfidence.ConfidenceType.PENDING
+        tracker.track(tx, wallet)
+        tx.getConfidence(context).confidenceType = TransactionConfidence.ConfidenceType.DEAD
+        assertEquals(0, tracker.update(wallet))
+        assertEquals(0, tracker.size)
+    }
+
+    @Test
+    fun confirmedTransaction_notTracked() {
+        val tx = transaction()
+        tx.getConfidence(context).appearedAtChainHeight = height - CONFIRMED_DEPTH
+        tracker.track(tx, wallet)
+        assertEquals(0, tracker.size)
+    }
+}
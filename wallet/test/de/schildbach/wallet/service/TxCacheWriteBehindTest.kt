@@ -0,0 +1,204 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service
+
+import androidx.room.withTransaction
+import de.schildbach.wallet.database.AppDatabase
+import de.schildbach.wallet.database.dao.TxDisplayCacheDao
+import de.schildbach.wallet.database.dao.TxDisplayCacheUpsertResult
+import de.schildbach.wallet.database.dao.TxGroupCacheDao
+import de.schildbach.wallet.database.entity.TxDisplayCacheEntry
+import de.schildbach.wallet.database.entity.TxGroupCacheEntry
+import io.mockk.coEvery
+import io.mockk.coVerify
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.mockkStatic
+import io.mockk.slot
+import io.mockk.unmockkStatic
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.advanceTimeBy
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+
+class TxCacheWriteBehindTest {
+    private val written = arrayListOf<List<TxDisplayCacheEntry>>()
+    private var failures = 0
+    private val displayDao = mockk<TxDisplayCacheDao> {
+        coEvery { upsert(any()) } answers {
+            if (failures > 0) {
+                failures--
+                throw IOException("disk I/O error")
+            }
+            val entries = firstArg<List<TxDisplayCacheEntry>>()
+            written.add(entries)
+            TxDisplayCacheUpsertResult(entries.size, 0)
+        }
+    }
+    private val groupDao = mockk<TxGroupCacheDao>(relaxed = true)
+    private val appDatabase = mockk<AppDatabase> {
+        every { txDisplayCacheDao() } returns displayDao
+        every { txGroupCacheDao() } returns groupDao
+    }
+    private val metrics = TxDisplayCacheMetrics()
+
+    @Before
+    fun setUp() {
+        mockkStatic("androidx.room.RoomDatabaseKt")
+        val block = slot<suspend () -> TxDisplayCacheUpsertResult>()
+        coEvery { appDatabase.withTransaction(capture(block)) } coAnswers { block.captured.invoke() }
+    }
+
+    @After
+    fun tearDown() {
+        unmockkStatic("androidx.room.RoomDatabaseKt")
+    }
+
+    private fun TestScope.writeBehind(maxPendingRows: Int = 500) =
+        TxCacheWriteBehind(appDatabase, this, metrics, flushWindowMs = 250, maxPendingRows = maxPendingRows)
+
+    @Test
+    fun updatesAreCoalescedByKey() = runTest {
+        val writeBehind = writeBehind()
+
+        writeBehind.enqueueDisplay(listOf(entry("a", "first"), entry("b", "first")))
+        writeBehind.enqueueDisplay(listOf(entry("a", "second")))
+        writeBehind.enqueueGroup(listOf(group("g", "a"), group("g", "a")))
+        writeBehind.flush()
+
+        assertEquals(1, written.size)
+        assertEquals(listOf("a" to "second", "b" to "first"), written[0].map { it.rowId to it.title })
+        coVerify(exactly = 1) { groupDao.insertAll(match { it.size == 1 }) }
+        assertEquals(2, metrics.snapshot().rowsCoalesced)
+        assertEquals(0, writeBehind.pendingRows)
+    }
+
+    @Test
+    fun timerFlushesAfterTheWindow() = runTest {
+        val writeBehind = writeBehind()
+
+        writeBehind.enqueueDisplay(listOf(entry("a", "first")))
+        advanceTimeBy(200)
+        runCurrent()
+        assertEquals(0, written.size)
+
+        advanceTimeBy(100)
+        runCurrent()
+        assertEquals(1, written.size)
+        assertEquals(0, writeBehind.pendingRows)
+    }
+
+    @Test
+    fun reachingMaxPendingRowsFlushesImmediately() = runTest {
+        val writeBehind = writeBehind(maxPendingRows = 3)
+
+        writeBehind.enqueueDisplay(listOf(entry("a", "x"), entry("b", "x")))
+        assertEquals(0, written.size)
+        writeBehind.enqueueDisplay(listOf(entry("c", "x")))
+
+        assertEquals(1, written.size)
+        assertEquals(3, written[0].size)
+    }
+
+    @Test
+    fun failedFlushRequeuesRowsWithoutOverwritingNewerOnes() = runTest {
+        val writeBehind = writeBehind()
+        writeBehind.enqueueDisplay(listOf(entry("a", "old"), entry("b", "old")))
+        writeBehind.enqueueStampAdvance(100, 10)
+        failures = 1
+
+        try {
+            writeBehind.flush()
+            fail("flush did not fail")
+        } catch (x: IOException) {
+            // expected
+        }
+        assertEquals(2, writeBehind.pendingRows)
+
+        writeBehind.enqueueDisplay(listOf(entry("a", "new")))
+        writeBehind.flush()
+
+        assertEquals(
+            listOf("a" to "new", "b" to "old"),
+            written.single().map { it.rowId to it.title }.sortedBy { it.first }
+        )
+        coVerify(exactly = 1) { groupDao.advanceStamp(100, 10, any()) }
+    }
+
+    @Test
+    fun failedTimerFlushIsLoggedAndKeepsTheRows() = runTest {
+        val writeBehind = writeBehind()
+        failures = 1
+
+        // an exception escaping the timer would fail runTest
+        writeBehind.enqueueDisplay(listOf(entry("a", "first")))
+        advanceTimeBy(300)
+        runCurrent()
+
+        assertEquals(0, written.size)
+        assertEquals(1, writeBehind.pendingRows)
+
+        writeBehind.enqueueDisplay(listOf(entry("b", "first")))
+        advanceTimeBy(300)
+        runCurrent()
+
+        assertEquals(listOf("a", "b"), written.single().map { it.rowId })
+    }
+
+    @Test
+    fun discardDropsQueuedRows() = runTest {
+        val writeBehind = writeBehind()
+        writeBehind.enqueueDisplay(listOf(entry("a", "first")))
+        writeBehind.discard()
+
+        assertEquals(0, writeBehind.pendingRows)
+        assertNull(writeBehind.pendingDisplayEntry("a"))
+        writeBehind.flush()
+        assertEquals(0, written.size)
+    }
+
+    private fun entry(rowId: String, title: String) = TxDisplayCacheEntry(
+        rowId = rowId,
+        title = title,
+        valueSatoshis = 1000,
+        iconType = 0,
+        iconBgType = 0,
+        statusText = "",
+        comment = "",
+        transactionAmount = 1,
+        time = 0,
+        hasErrors = false,
+        service = null,
+        exchangeRateFiatCode = null,
+        exchangeRateFiatValue = null,
+        contactUsername = null,
+        contactDisplayName = null,
+        contactAvatarUrl = null,
+        contactUserId = null
+    )
+
+    private fun group(groupId: String, txId: String) =
+        TxGroupCacheEntry(groupId, txId, TxGroupCacheEntry.TYPE_COINJOIN, "2024-01-01", 0)
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.service.platform
+
+import org.bitcoinj.crypto.KeyCrypterException
+import org.bouncycastle.crypto.params.KeyParameter
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.fail
+import org.junit.Test
+
+class SyncCredentialsTest {
+    private var derivations = 0
+
+    @Test
+    fun keyIsDerivedOncePerPass() {
+        val key = KeyParameter(ByteArray(32) { 1 })
+        val credentials = SyncCredentials("test") {
+            derivations++
+            key
+        }
+
+        assertSame(key, credentials.getEncryptionKey())
+        assertSame(key, credentials.getEncryptionKey())
+        assertSame(key, credentials.getEncryptionKey())
+        assertEquals(1, derivations)
+        assertEquals(1, credentials.derivationCount)
+    }
+
+    @Test
+    fun closeWipesKey() {
+        val key = KeyParameter(ByteArray(32) { 1 })
+        val credentials = SyncCredentials("test") { key }
+        credentials.getEncryptionKey()
+
+        credentials.close()
+
+        assertArrayEquals(ByteArray(32), key.key)
+        try {
+            credentials.getEncryptionKey()
+            fail("credentials used after close")
+        } catch (x: IllegalStateException) {
+            // expected
+        }
+    }
+
+    @Test
+    fun missingKeyIsNotDerivedAgain() {
+        val credentials = SyncCredentials("test") {
+            derivations++
+            null
+        }
+
+        assertNull(credentials.getEncryptionKey())
+        assertNull(credentials.getEncryptionKey())
+        assertEquals(1, derivations)
+    }
+
+    @Test
+    fun failedDerivationIsRetried() {
+        val key = KeyParameter(ByteArray(32) { 1 })
+        val credentials = SyncCredentials("test") {
+            derivations++
+            if (derivations == 1) throw KeyCrypterException("failed") else key
+        }
+
+        try {
+            credentials.getEncryptionKey()
+            fail("derivation did not fail")
+        } catch (x: KeyCrypterException) {
+            // expected
+        }
+
+        assertSame(key, credentials.getEncryptionKey())
+        assertEquals(2, credentials.derivationCount)
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.transactions
+
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.wallet.Wallet
+import org.bitcoinj.wallet.WalletTransaction
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import java.util.Date
+
+class MostRecentTransactionsTest {
+    private val transactions = arrayListOf<Transaction>()
+    private lateinit var wallet: Wallet
+    private lateinit var recent: MostRecentTransactions
+
+    @Before
+    fun setUp() {
+        wallet = mockk {
+            every { walletTransactions } answers {
+                transactions.map { WalletTransaction(WalletTransaction.Pool.UNSPENT, it) }
+            }
+            every { getTransaction(any()) } answers { transactions.find { it.txId == firstArg<Sha256Hash>() } }
+        }
+        recent = MostRecentTransactions(wallet, capacity = 2)
+    }
+
+    private fun transaction(id: Int, time: Long): Transaction {
+        val txId = Sha256Hash.of(byteArrayOf(id.toByte()))
+        return mockk {
+            every { this@mockk.txId } returns txId
+            every { updateTime } returns Date(time)
+        }
+    }
+
+    @Test
+    fun addedTransactionsDoNotRescanTheWallet() {
+        transactions.addAll(listOf(transaction(1, 1000), transaction(2, 3000), transaction(3, 2000)))
+        assertEquals(transactions[1].txId, recent.mostRecent()?.txId)
+
+        val newest = transaction(4, 4000)
+        transactions.add(newest)
+        recent.add(newest)
+        assertEquals(newest.txId, recent.mostRecent()?.txId)
+        verify(exactly = 1) { wallet.walletTransactions }
+    }
+
+    @Test
+    fun removedTransactionsFallBackToTheNextOne() {
+        val first = transaction(1, 1000)
+        val second = transaction(2, 2000)
+        val third = transaction(3, 3000)
+        transactions.addAll(listOf(first, second, third))
+        assertEquals(third.txId, recent.mostRecent()?.txId)
+
+        transactions.remove(third)
+        assertEquals(second.txId, recent.mostRecent()?.txId)
+
+        // nothing kept is left, so the wallet is scanned again
+        transactions.remove(second)
+        assertEquals(first.txId, recent.mostRecent()?.txId)
+        verify(exactly = 2) { wallet.walletTransactions }
+
+        transactions.clear()
+        recent.invalidate()
+        assertNull(recent.mostRecent())
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.transactions
+
+import io.mockk.mockk
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.core.TransactionBag
+import org.dash.wallet.common.transactions.TransactionWrapper
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.time.LocalDate
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+
+class TransactionWrapperIndexTest {
+    private class TestWrapper(override val id: String, override val groupDate: LocalDate) : TransactionWrapper {
+        override val transactions = hashMapOf<Sha256Hash, Transaction>()
+        override fun tryInclude(tx: Transaction) = false
+        override fun getValue(bag: TransactionBag) = Coin.ZERO
+
+        fun add(vararg ids: Int) = apply {
+            ids.forEach { transactions[txId(it)] = mockk() }
+        }
+    }
+
+    private val index = TransactionWrapperIndex()
+
+    @Test
+    fun wrappersAreOrderedNewestFirstAndStableWithinADay() {
+        val day1 = LocalDate.of(2024, 1, 1)
+        val day2 = LocalDate.of(2024, 1, 2)
+        val a = TestWrapper("a", day1)
+        val b = TestWrapper("b", day2)
+        val c = TestWrapper("c", day1)
+
+        listOf(a, b, c).forEach { assertTrue(index.add(it)) }
+
+        assertEquals(listOf("b", "a", "c"), index.wrappers.map { it.id })
+        assertEquals(3, index.size)
+    }
+
+    @Test
+    fun transactionsAreIndexed() {
+        val wrapper = TestWrapper("group", LocalDate.of(2024, 1, 1)).add(1, 2)
+        index.add(wrapper)
+
+        assertSame(wrapper, index.getById("group"))
+        assertSame(wrapper, index.getByTxId(txId(1)))
+        assertSame(wrapper, index.getByTxId(txId(2)))
+        assertNull(index.getByTxId(txId(3)))
+    }
+
+    @Test
+    fun addingAnExistingWrapperLeavesTheIndexAlone() {
+        val wrapper = TestWrapper("group", LocalDate.of(2024, 1, 1)).add(1)
+        index.add(wrapper)
+        wrapper.add(2)
+
+        assertFalse(index.add(wrapper))
+        // only transactions passed to indexTransaction are added
+        assertNull(index.getByTxId(txId(2)))
+        index.indexTransaction(wrapper, txId(2))
+        assertSame(wrapper, index.getByTxId(txId(2)))
+        assertEquals(1, index.size)
+    }
+
+    @Test
+    fun replaceAllSwapsTheContent() {
+        index.add(TestWrapper("old", LocalDate.of(2024, 1, 1)).add(1))
+        val replacement = TestWrapper("new", LocalDate.of(2024, 1, 2)).add(2)
+
+        index.replaceAll(listOf(replacement))
+
+        assertEquals(listOf("new"), index.wrappers.map { it.id })
+        assertNull(index.getById("old"))
+        assertNull(index.getByTxId(txId(1)))
+        assertSame(replacement, index.getByTxId(txId(2)))
+    }
+
+    @Test
+    fun readersNeverSeeAnEmptyIndexDuringReplaceAll() {
+        val wrappers = (0 until 2000).map { TestWrapper("w$it", LocalDate.of(2024, 1, 1)).add(it) }
+        index.replaceAll(wrappers)
+
+        val done = AtomicBoolean()
+        val started = CountDownLatch(1)
+        var sawEmpty = false
+        val reader = thread {
+            started.countDown()
+            while (!done.get()) {
+                if (index.isEmpty() || index.getByTxId(txId(0)) == null) {
+                    sawEmpty = true
+                }
+            }
+        }
+
+        started.await(5, TimeUnit.SECONDS)
+        repeat(50) { index.replaceAll(wrappers) }
+        done.set(true)
+        reader.join()
+
+        assertFalse(sawEmpty)
+    }
+
+    @Test
+    fun clearEmptiesTheIndex() {
+        index.add(TestWrapper("group", LocalDate.of(2024, 1, 1)).add(1))
+
+        index.clear()
+
+        assertTrue(index.isEmpty())
+        assertNull(index.getByTxId(txId(1)))
+        assertTrue(index.wrappers.isEmpty())
+    }
+
+    companion object {
+        private fun txId(id: Int): Sha256Hash = Sha256Hash.of(byteArrayOf((id shr 8).toByte(), id.toByte()))
+    }
+}
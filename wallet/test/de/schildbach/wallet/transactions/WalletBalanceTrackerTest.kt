@@ -0,0 +1,150 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.transactions
+
+import io.mockk.every
+import io.mockk.mockk
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.Context
+import org.bitcoinj.core.Sha256Hash
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.core.TransactionConfidence
+import org.bitcoinj.core.TransactionInput
+import org.bitcoinj.core.TransactionOutPoint
+import org.bitcoinj.core.TransactionOutput
+import org.bitcoinj.params.TestNet3Params
+import org.bitcoinj.wallet.CoinSelection
+import org.bitcoinj.wallet.CoinSelector
+import org.bitcoinj.wallet.Wallet
+import org.bitcoinj.wallet.Wallet.BalanceType
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class WalletBalanceTrackerTest {
+    private val params = TestNet3Params.get()
+    private val context = Context(params)
+    private val transactions = arrayListOf<Transaction>()
+    private val spent = hashSetOf<TransactionOutPoint>()
+    private var nextId = 1
+
+    // gathers every candidate, like the wallet selectors do for MAX_MONEY
+    private val selectAll = CoinSelector { _, candidates ->
+        CoinSelection(Coin.valueOf(candidates.sumOf { it.value.value }), candidates)
+    }
+    private val selectNone = CoinSelector { _, _ -> CoinSelection(Coin.ZERO, emptyList()) }
+
+    private lateinit var wallet: Wallet
+    private lateinit var tracker: WalletBalanceTracker
+
+    @Before
+    fun setUp() {
+        Context.propagate(context)
+        wallet = mockk {
+            every { this@mockk.context } returns this@WalletBalanceTrackerTest.context
+            every { coinSelector } returns selectAll
+            every { isTransactionMature(any()) } returns true
+            every { canSignFor(any()) } returns true
+            every { getTransactions(true) } answers { transactions.toSet() }
+            every { getTransactionCount(true) } answers { transactions.size }
+            every { getTransaction(any()) } answers { transactions.find { it.txId == firstArg<Sha256Hash>() } }
+        }
+        tracker = WalletBalanceTracker(wallet, selectNone)
+    }
+
+    private fun transaction(vararg values: Coin, spends: List<TransactionOutPoint> = emptyList()): Transaction {
+        val txId = Sha256Hash.of(byteArrayOf(nextId++.toByte()))
+        val confidence = mockk<TransactionConfidence> {
+            every { confidenceType } returns TransactionConfidence.ConfidenceType.BUILDING
+        }
+        val outputs = values.mapIndexed { index, value ->
+            val outPoint = mockk<TransactionOutPoint> {
+                every { hash } returns txId
+                every { this@mockk.index } returns index.toLong()
+            }
+            mockk<TransactionOutput> {
+                every { this@mockk.value } returns value
+                every { outPointFor } returns outPoint
+                every { isAvailableForSpending } answers { outPoint !in spent }
+                every { isMine(wallet) } returns true
+                every { isWatched(wallet) } returns false
+                every { scriptPubKey } returns mockk()
+            }
+        }
+        val inputs = spends.map { outPoint ->
+            mockk<TransactionInput> { every { outpoint } returns outPoint }
+        }
+        return mockk {
+            every { this@mockk.txId } returns txId
+            every { this@mockk.outputs } returns outputs
+            every { this@mockk.inputs } returns inputs
+            every { isCoinBase } returns false
+            every { getConfidence(any<Context>()) } returns confidence
+        }
+    }
+
+    private fun spend(tx: Transaction, index: Int, vararg change: Coin): Transaction {
+        val outPoint = tx.outputs[index].outPointFor
+        spent.add(outPoint)
+        return transaction(*change, spends = listOf(outPoint))
+    }
+
+    @Test
+    fun balancesFollowReceivedAndSentTransactions() {
+        val received = transaction(Coin.COIN, Coin.CENT)
+        transactions.add(received)
+        assertTrue(tracker.refresh())
+        assertEquals(Coin.COIN.add(Coin.CENT), tracker.getBalance(BalanceType.ESTIMATED))
+        assertEquals(Coin.COIN.add(Coin.CENT), tracker.getBalance(BalanceType.AVAILABLE))
+        assertEquals(Coin.ZERO, tracker.getBalance(BalanceType.COINJOIN_SPENDABLE))
+
+        val sent = spend(received, 0, Coin.MILLICOIN)
+        transactions.add(sent)
+        tracker.update(sent)
+        assertEquals(Coin.CENT.add(Coin.MILLICOIN), tracker.getBalance(BalanceType.ESTIMATED))
+        assertEquals(Coin.CENT.add(Coin.MILLICOIN), tracker.getBalance(selectAll))
+        assertFalse(tracker.refresh())
+        assertEquals(1, tracker.fullRecomputeCount)
+    }
+
+    @Test
+    fun transactionsWithoutCoinsEventArePickedUpOnRefresh() {
+        val received = transaction(Coin.COIN)
+        transactions.add(received)
+        tracker.refresh()
+
+        // a mixing transaction that spends and creates the same value
+        transactions.add(spend(received, 0, Coin.COIN.divide(2), Coin.COIN.divide(2)))
+        assertTrue(tracker.refresh())
+        assertEquals(Coin.COIN, tracker.getBalance(BalanceType.ESTIMATED))
+        assertEquals(1, tracker.fullRecomputeCount)
+    }
+
+    @Test
+    fun invalidateRecomputesEverything() {
+        transactions.add(transaction(Coin.COIN))
+        tracker.refresh()
+
+        tracker.invalidate()
+        transactions.clear()
+        assertEquals(Coin.ZERO, tracker.getBalance(BalanceType.ESTIMATED))
+        assertEquals(2, tracker.fullRecomputeCount)
+    }
+}
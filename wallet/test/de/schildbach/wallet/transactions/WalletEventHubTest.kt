@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.transactions
+
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.slot
+import io.mockk.verify
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.test.UnconfinedTestDispatcher
+import kotlinx.coroutines.test.runCurrent
+import kotlinx.coroutines.test.runTest
+import org.bitcoinj.core.Address
+import org.bitcoinj.core.Coin
+import org.bitcoinj.core.Context
+import org.bitcoinj.core.ECKey
+import org.bitcoinj.core.Transaction
+import org.bitcoinj.params.TestNet3Params
+import org.bitcoinj.wallet.Wallet
+import org.bitcoinj.wallet.listeners.WalletChangeEventListener
+import org.bitcoinj.wallet.listeners.WalletCoinsReceivedEventListener
+import org.bitcoinj.wallet.listeners.WalletCoinsSentEventListener
+import org.bitcoinj.wallet.listeners.WalletResetEventListener
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+@OptIn(ExperimentalCoroutinesApi::class)
+class WalletEventHubTest {
+    private val params = TestNet3Params.get()
+    private val coinsReceived = slot<WalletCoinsReceivedEventListener>()
+    private val coinsSent = slot<WalletCoinsSentEventListener>()
+    private val changed = slot<WalletChangeEventListener>()
+    private val reset = slot<WalletResetEventListener>()
+    private lateinit var wallet: Wallet
+    private lateinit var hub: WalletEventHub
+
+    @Before
+    fun setUp() {
+        Context.propagate(Context(params))
+        wallet = mockk(relaxed = true) {
+            every { addCoinsReceivedEventListener(any(), capture(coinsReceived)) } returns Unit
+            every { addCoinsSentEventListener(any(), capture(coinsSent)) } returns Unit
+            every { addChangeEventListener(any(), capture(changed)) } returns Unit
+            every { addResetEventListener(any(), capture(reset)) } returns Unit
+        }
+        hub = WalletEventHub(wallet)
+    }
+
+    private fun transaction(): Transaction {
+        val tx = Transaction(params)
+        tx.addOutput(Coin.COIN, Address.fromKey(params, ECKey()))
+        return tx
+    }
+
+    @Test
+    fun transactionThatSendsAndReceivesIsEmittedOnce() = runTest {
+        val transactions = arrayListOf<Transaction>()
+        val job = launch(UnconfinedTestDispatcher(testScheduler)) {
+            hub.observeTransactions("test").toList(transactions)
+        }
+        val tx = transaction()
+        val other = transaction()
+
+        coinsReceived.captured.onCoinsReceived(wallet, tx, Coin.ZERO, Coin.COIN)
+        coinsSent.captured.onCoinsSent(wallet, tx, Coin.ZERO, Coin.COIN)
+        coinsReceived.captured.onCoinsReceived(wallet, other, Coin.COIN, Coin.COIN.multiply(2))
+
+        assertEquals(listOf(tx.txId, other.txId), transactions.map { it.txId })
+        assertEquals(1, hub.subscriberCount)
+        job.cancel()
+    }
+
+    @Test
+    fun noTransactionIsMissedWhenTheBufferOverflows() = runTest {
+        val transactions = arrayListOf<Transaction>()
+        val job = launch(start = CoroutineStart.UNDISPATCHED) {
+            hub.observeTransactions("test").toList(transactions)
+        }
+        val sent = List(WalletEventHub.EVENT_BUFFER_SIZE * 2) { transaction() }
+
+        sent.forEach { coinsSent.captured.onCoinsSent(wallet, it, Coin.COIN, Coin.ZERO) }
+        runCurrent()
+
+        assertEquals(sent.map { it.txId }, transactions.map { it.txId })
+        job.cancel()
+    }
+
+    @Test
+    fun coinsChangedOnlyFollowsCoinsEvents() = runTest {
+        val changes = arrayListOf<Unit>()
+        val coinsChanges = arrayListOf<Unit>()
+        val job = launch(UnconfinedTestDispatcher(testScheduler)) {
+            launch { hub.observeChanged("changes").toList(changes) }
+            launch { hub.observeCoinsChanged("coins").toList(coinsChanges) }
+        }
+
+        changed.captured.onWalletChanged(wallet)
+        coinsReceived.captured.onCoinsReceived(wallet, transaction(), Coin.ZERO, Coin.COIN)
+        changed.captured.onWalletChanged(wallet)
+        reset.captured.onWalletReset(wallet)
+
+        assertEquals(3, changes.size)
+        assertEquals(1, coinsChanges.size)
+        job.cancel()
+    }
+
+    @Test
+    fun slowSubscriberSeesLatestChangeOnce() = runTest {
+        val changes = arrayListOf<Unit>()
+        val job = launch(UnconfinedTestDispatcher(testScheduler)) {
+            hub.observeChanged("slow", throttleMs = 1000).toList(changes)
+        }
+
+        repeat(5) { changed.captured.onWalletChanged(wallet) }
+        assertEquals(1, changes.size)
+        assertEquals(4L, hub.subscriberLag["slow"])
+
+        testScheduler.advanceTimeBy(1001)
+        assertEquals(2, changes.size)
+        assertEquals(3L, hub.coalescedChangeCount)
+        assertEquals(0L, hub.subscriberLag["slow"])
+        job.cancel()
+    }
+
+    @Test
+    fun allEventsReachTheLosslessSubscriberWhenTheBufferOverflows() = runTest {
+        val all = arrayListOf<WalletEventHub.Event>()
+        val latest = arrayListOf<WalletEventHub.Event>()
+        // subscribed right away, but neither runs before the events are in
+        val job = launch(start = CoroutineStart.UNDISPATCHED) {
+            launch(start = CoroutineStart.UNDISPATCHED) { hub.observeAllEvents("all").toList(all) }
+            launch(start = CoroutineStart.UNDISPATCHED) { hub.observeEvents("latest").toList(latest) }
+        }
+        val count = WalletEventHub.EVENT_BUFFER_SIZE * 2
+
+        repeat(count) { i ->
+            coinsReceived.captured.onCoinsReceived(wallet, transaction(), Coin.valueOf(i.toLong()), Coin.COIN)
+        }
+        reset.captured.onWalletReset(wallet)
+        runCurrent()
+
+        assertEquals((1L..count + 1L).toList(), all.map { it.sequence })
+        assertTrue(all.last() is WalletEventHub.Event.Reset)
+        assertEquals(WalletEventHub.EVENT_BUFFER_SIZE, latest.size)
+        assertTrue(latest.last() is WalletEventHub.Event.Reset)
+        assertEquals(count + 1L - WalletEventHub.EVENT_BUFFER_SIZE, hub.droppedEventCount)
+        job.cancel()
+    }
+
+    @Test
+    fun closeRemovesListeners() {
+        hub.close()
+        verify { wallet.removeCoinsReceivedEventListener(coinsReceived.captured) }
+        verify { wallet.removeChangeEventListener(changed.captured) }
+    }
+}
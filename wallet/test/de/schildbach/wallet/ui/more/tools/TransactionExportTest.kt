@@ -33,6 +33,7 @@ import org.dash.wallet.common.services.TransactionMetadataProvider
 import org.dash.wallet.common.transactions.TransactionUtils.isEntirelySelf
 import org.junit.Assert.assertEquals
 import org.junit.Test
+import java.io.ByteArrayOutputStream
 
 class TransactionExportTest {
 
@@ -77,16 +78,19 @@ class TransactionExportTest {
             TaxCategory.TransferIn
         )
         val transactionMetadataProvider = mockk<TransactionMetadataProvider>()
-        coEvery { transactionMetadataProvider.getAllTransactionMetadata() } returns listOf(txMetadata)
+        coEvery { transactionMetadataProvider.getTransactionMetadata(listOf(tx.txId)) } returns
+            mapOf(tx.txId to txMetadata)
 
         val exporter = TaxBitExporter(transactionMetadataProvider, wallet)
 
         runBlocking {
-            // production callers (ToolsViewModel) initialize the metadata map
-            // before exporting; exportString() requires it
-            exporter.initMetadataMap()
-            val csvString = exporter.exportString()
-            val csvLines = csvString.split("\n")
+            val output = ByteArrayOutputStream()
+            val progress = arrayListOf<Pair<Int, Int>>()
+            exporter.export(output) { processed, total -> progress.add(processed to total) }
+            assertEquals(listOf(1 to 1), progress)
+            assertEquals(output.toString(Charsets.UTF_8.name()), exporter.exportString())
+
+            val csvLines = output.toString(Charsets.UTF_8.name()).split("\n")
 
             assertEquals(
                 "Date and Time,Transaction Type,Sent Quantity,Sent Currency,Sending Source,Received Quantity,Received Currency,Receiving Destination,Fee,Fee Currency,Exchange Transaction ID,Blockchain Transaction Hash",
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2024 Dash Core Group.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.util
+
+import ch.qos.logback.classic.Level
+import ch.qos.logback.classic.LoggerContext
+import ch.qos.logback.classic.spi.ILoggingEvent
+import ch.qos.logback.classic.spi.LoggingEvent
+import ch.qos.logback.core.AppenderBase
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class AsyncLogAppenderTest {
+    private class BlockingAppender : AppenderBase<ILoggingEvent>() {
+        val events: MutableList<ILoggingEvent> = Collections.synchronizedList(arrayListOf())
+        val entered = CountDownLatch(1)
+        val release = CountDownLatch(1)
+
+        override fun append(eventObject: ILoggingEvent) {
+            entered.countDown()
+            release.await(10, TimeUnit.SECONDS)
+            events.add(eventObject)
+        }
+    }
+
+    private val context = LoggerContext()
+    private val logger = context.getLogger("test")
+    private lateinit var target: BlockingAppender
+    private lateinit var appender: AsyncLogAppender
+
+    @Before
+    fun setUp() {
+        target = BlockingAppender().apply {
+            this.context = this@AsyncLogAppenderTest.context
+            start()
+        }
+        appender = AsyncLogAppender().apply {
+            this.context = this@AsyncLogAppenderTest.context
+            queueSize = 10
+            discardingThreshold = 5
+            maxFlushTime = 5000
+            addAppender(target)
+            start()
+        }
+    }
+
+    @After
+    fun tearDown() {
+        target.release.countDown()
+        appender.stop()
+    }
+
+    @Test
+    fun infoIsDroppedUnderPressureButWarnIsKept() {
+        appender.doAppend(event(Level.INFO, "first"))
+        assertTrue(target.entered.await(5, TimeUnit.SECONDS))
+
+        // the drain is stuck on the first event: 6 fit above the threshold
+        repeat(20) { appender.doAppend(event(Level.INFO, "info $it")) }
+        repeat(3) { appender.doAppend(event(Level.WARN, "warn $it")) }
+
+        assertEquals(14, appender.droppedCount)
+        target.release.countDown()
+        AsyncLogAppender.flushAndStop()
+
+        assertEquals(10, target.events.size)
+        assertEquals(3, target.events.count { it.level == Level.WARN })
+        assertEquals(10, appender.appendedCount)
+    }
+
+    @Test
+    fun flushAndStopWritesQueuedEvents() {
+        target.release.countDown()
+        assertSame(appender, AsyncLogAppender.getCurrent())
+        repeat(5) { appender.doAppend(event(Level.INFO, "info $it")) }
+
+        AsyncLogAppender.flushAndStop()
+
+        assertEquals(5, target.events.size)
+        assertNull(AsyncLogAppender.getCurrent())
+    }
+
+    @Test
+    fun latencyPercentilesAreRecorded() {
+        target.release.countDown()
+        repeat(100) { appender.doAppend(event(Level.INFO, "info $it")) }
+
+        val p50 = appender.latencyPercentileMicros(50.0)
+        val p99 = appender.latencyPercentileMicros(99.0)
+        assertTrue(p50 > 0)
+        assertTrue(p99 >= p50)
+    }
+
+    private fun event(level: Level, message: String): ILoggingEvent {
+        return LoggingEvent(AsyncLogAppenderTest::class.java.name, logger, level, message, null, null)
+    }
+}
@@ -18,20 +18,33 @@
 package de.schildbach.wallet.util.transactions
 
 import de.schildbach.wallet.transactions.TransactionWrapperHelper
+import de.schildbach.wallet.transactions.coinjoin.CoinJoinMixingTxSet
+import de.schildbach.wallet.transactions.coinjoin.CoinJoinTxWrapperFactory
 import io.mockk.every
 import io.mockk.mockk
 import junit.framework.TestCase.assertEquals
+import junit.framework.TestCase.assertTrue
+import org.bitcoinj.core.Coin
 import org.bitcoinj.core.Context
 import org.bitcoinj.core.Transaction
+import org.bitcoinj.core.Sha256Hash
 import org.bitcoinj.core.TransactionBag
 import org.bitcoinj.params.TestNet3Params
+import org.bitcoinj.script.Script
+import org.bitcoinj.wallet.KeyChainGroup
 import org.bitcoinj.wallet.Wallet
+import org.bitcoinj.wallet.WalletEx
 import org.bitcoinj.wallet.WalletTransaction
 import org.dash.wallet.integrations.crowdnode.transactions.FullCrowdNodeSignUpTxSet
 import org.bitcoinj.core.Utils
+import org.dash.wallet.common.transactions.ClassifyingWrapperFactory
+import org.dash.wallet.common.transactions.TransactionWrapper
 import org.dash.wallet.integrations.crowdnode.transactions.FullCrowdNodeSignUpTxSetFactory
 import org.junit.Before
 import org.junit.Test
+import java.time.LocalDate
+import java.util.Date
+import java.util.concurrent.TimeUnit
 
 class TransactionWrapperHelperTest {
     private val networkParams = TestNet3Params.get()
@@ -121,4 +134,155 @@ class TransactionWrapperHelperTest {
         assertEquals("Must have CrowdNode wrapper and 2 anon wrappers:", 3, wrappedTransactions.size)
         assertEquals("CrowdNode wrapper must have 5 transactions", 5, crowdNodeWrapper.transactions.size)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun wrapTransactionsParallel_sameResultAsSerial() {
+        Context.propagate(Context(networkParams))
+        val allTransactions = linkedSetOf(
+            signUpRequestTx,
+            acceptTermsResponseTx,
+            acceptTermsRequestTx,
+            welcomeResponseTx,
+            topUpTx,
+            receivedTx
+        )
+        val bagMock = crowdNodeBag(allTransactions)
+
+        val serial = TransactionWrapperHelper.wrapTransactions(
+            allTransactions,
+            FullCrowdNodeSignUpTxSetFactory(networkParams, bagMock),
+            LockTimeWrapperFactory()
+        )
+
+        for (parallelism in 1..4) {
+            val parallel = TransactionWrapperHelper.wrapTransactionsParallel(
+                allTransactions,
+                parallelism,
+                FullCrowdNodeSignUpTxSetFactory(networkParams, bagMock),
+                LockTimeWrapperFactory()
+            )
+
+            assertEquals("parallelism $parallelism", serial.map { it.id }, parallel.map { it.id })
+            assertEquals(
+                "parallelism $parallelism",
+                serial.map { it.transactions.keys },
+                parallel.map { it.transactions.keys }
+            )
+        }
+    }
+
+    @Test
+    fun wrapTransactionsParallel_coinJoinSameResultAsSerial() {
+        Context.propagate(Context(networkParams))
+        val wallet = WalletEx(
+            networkParams,
+            KeyChainGroup.builder(networkParams).fromRandom(Script.ScriptType.P2PKH).build()
+        )
+        val transactions = mixingTransactions(wallet, days = 6)
+
+        val serial = TransactionWrapperHelper.wrapTransactions(
+            transactions,
+            FullCrowdNodeSignUpTxSetFactory(networkParams, wallet),
+            CoinJoinTxWrapperFactory(networkParams, wallet)
+        )
+        assertTrue("no mixing groups", serial.count { it is CoinJoinMixingTxSet } >= 6)
+
+        for (parallelism in 1..4) {
+            val parallel = TransactionWrapperHelper.wrapTransactionsParallel(
+                transactions,
+                parallelism,
+                FullCrowdNodeSignUpTxSetFactory(networkParams, wallet),
+                CoinJoinTxWrapperFactory(networkParams, wallet)
+            )
+
+            assertEquals("parallelism $parallelism", serial.map { it.id }, parallel.map { it.id })
+            assertEquals(
+                "parallelism $parallelism",
+                serial.map { it.transactions.keys },
+                parallel.map { it.transactions.keys }
+            )
+        }
+    }
+
+    /**
+     * Per day: a receive, a tx splitting it into denominations and mixing rounds that each
+     * spend one denomination into a fresh one of the same value. The receives are not mixing.
+     */
+    private fun mixingTransactions(wallet: WalletEx, days: Int): Set<Transaction> {
+        val denomination = Coin.valueOf(100_001_000)
+        val transactions = linkedSetOf<Transaction>()
+        val now = System.currentTimeMillis()
+
+        for (day in 0 until days) {
+            val updateTime = Date(now - TimeUnit.DAYS.toMillis(day.toLong()))
+            val funding = Transaction(networkParams).apply {
+                addInput(Sha256Hash.of(byteArrayOf(day.toByte())), 0, Script(ByteArray(0)))
+                addOutput(Coin.COIN, wallet.freshReceiveAddress())
+                this.updateTime = updateTime
+            }
+            val denominate = Transaction(networkParams).apply {
+                addInput(funding.outputs[0])
+                repeat(4) { addOutput(denomination, wallet.freshReceiveAddress()) }
+                addOutput(Coin.valueOf(59_990_000), wallet.freshReceiveAddress())
+                this.updateTime = updateTime
+            }
+            transactions += funding
+            transactions += denominate
+            denominate.outputs.take(4).forEach { output ->
+                transactions += Transaction(networkParams).apply {
+                    addInput(output)
+                    addOutput(denomination, wallet.freshReceiveAddress())
+                    this.updateTime = updateTime
+                }
+            }
+        }
+
+        transactions.forEach { wallet.addWalletTransaction(WalletTransaction(WalletTransaction.Pool.UNSPENT, it)) }
+        return transactions
+    }
+
+    private fun crowdNodeBag(transactions: Set<Transaction>): TransactionBag {
+        val hash1 = Utils.HEX.decode("28fd6a3abc9633389c146b44f59243ac1ec3caac")
+        val hash2 = Utils.HEX.decode("8b6743bde3b5b5778220891e8572d2475c1c9e0d")
+        val hash3 = Utils.HEX.decode("4a37287587b5c58c704ccdee322ab43521d3ecd2")
+
+        val bagMock = mockk<TransactionBag>()
+        every { bagMock.isPubKeyHashMine(any(), any()) } returns false
+        every { bagMock.isPubKeyHashMine(eq(hash1), any()) } returns true
+        every { bagMock.isPubKeyHashMine(eq(hash2), any()) } returns true
+        every { bagMock.isPubKeyHashMine(eq(hash3), any()) } returns true
+        every { bagMock.isWatchedScript(any())} returns true
+        every { bagMock.getTransactionPool(WalletTransaction.Pool.UNSPENT)} returns mapOf()
+        every { bagMock.getTransactionPool(WalletTransaction.Pool.PENDING)} returns mapOf()
+        every { bagMock.getTransactionPool(WalletTransaction.Pool.SPENT)} returns transactions.associateBy({it.txId}, {it})
+        return bagMock
+    }
+
+    /** Groups transactions whose txId starts with an even byte by their lock time. */
+    private class LockTimeWrapperFactory : ClassifyingWrapperFactory {
+        private val wrapperMap = linkedMapOf<Long, TestWrapper>()
+        override val averageTransactions = Long.MAX_VALUE
+        override val wrappers: List<TransactionWrapper>
+            get() = wrapperMap.values.toList()
+
+        override fun tryInclude(tx: Transaction): Pair<Boolean, TransactionWrapper?> {
+            return classify(tx)?.let { true to include(tx, it) } ?: (false to null)
+        }
+
+        override fun classify(tx: Transaction): Any? =
+            if (tx.txId.bytes[0].toInt() % 2 == 0) tx.lockTime else null
+
+        override fun include(tx: Transaction, key: Any): TransactionWrapper {
+            val wrapper = wrapperMap.getOrPut(key as Long) { TestWrapper("locktime_$key") }
+            wrapper.transactions[tx.txId] = tx
+            return wrapper
+        }
+    }
+
+    private class TestWrapper(override val id: String) : TransactionWrapper {
+        override val transactions = hashMapOf<Sha256Hash, Transaction>()
+        override val groupDate: LocalDate = LocalDate.now()
+        override fun tryInclude(tx: Transaction) = false
+        override fun getValue(bag: TransactionBag) = Coin.ZERO
+    }
+}